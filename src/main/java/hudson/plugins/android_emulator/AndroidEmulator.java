@@ -12,6 +12,7 @@ import hudson.Util;
 import hudson.matrix.Combination;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Action;
 import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.Node;
@@ -27,12 +28,12 @@ import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
-import hudson.util.ArgumentListBuilder;
 import hudson.util.ForkOutputStream;
 import hudson.util.FormValidation;
 import hudson.util.NullStream;
 import jenkins.model.ArtifactManager;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import net.sf.json.JSONObject;
 
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -53,10 +54,15 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -71,7 +77,22 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
     private static final int BOOT_COMPLETE_TIMEOUT_MS = 360 * 1000;
 
     /** Interval during which killing a process should complete. */
-    private static final int KILL_PROCESS_TIMEOUT_MS = 10 * 1000;
+    private static final int KILL_PROCESS_TIMEOUT_MS = SystemProperties.getInteger(
+            AndroidEmulator.class.getName() + ".killProcessTimeoutMs", 10 * 1000);
+
+    /** Interval during which the emulator console should accept the "kill" command. */
+    private static final int CONSOLE_KILL_TIMEOUT_MS = SystemProperties.getInteger(
+            AndroidEmulator.class.getName() + ".consoleKillTimeoutMs", 10 * 1000);
+
+    /** Interval during which the emulator process should exit after the "kill" command. */
+    private static final int PROCESS_EXIT_TIMEOUT_MS = SystemProperties.getInteger(
+            AndroidEmulator.class.getName() + ".processExitTimeoutMs", 5 * 1000);
+
+    /** Interval during which the logcat process should exit once the emulator has stopped. */
+    private static final int LOGCAT_EXIT_TIMEOUT_MS = 3 * 1000;
+
+    /** Interval during which starting the adb server should complete. */
+    private static final int ADB_START_SERVER_TIMEOUT_MS = 5 * 1000;
 
     private DescriptorImpl descriptor;
 
@@ -101,6 +122,19 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
     @Exported public final String commandLineOptions;
     @Exported public final String executable;
     private int adbTimeout;
+    private boolean bootInBackground;
+    private int deviceCount;
+
+    // Device preparation properties
+    private boolean disableAnimations;
+    private boolean keepScreenOn;
+    private boolean disableImmersiveModeConfirmation;
+    private String deviceSettings;
+
+    // Health check properties
+    private int healthCheckInterval;
+    private EmulatorWatchdog.Action healthCheckAction;
+    private int resourceSampleInterval;
 
 
     @DataBoundConstructor
@@ -218,6 +252,7 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
 
         // Emulator properties
         String commandLineOptions = Utils.expandVariables(envVars, buildVars, this.commandLineOptions);
+        String deviceSettings = Utils.expandVariables(envVars, buildVars, this.deviceSettings);
 
         // Despite the nice inline checks and warnings when the user is editing the config,
         // these are not binding, so the user may have saved invalid configuration.
@@ -225,6 +260,12 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         // As config variables aren't yet expanded, this check can't catch all possible errors.
         String configError = isConfigValid(avdName, osVersion, screenDensity, screenResolution,
                 deviceLocale, sdCardSize);
+        if (configError == null) {
+            String invalidSetting = DevicePreparation.getInvalidSetting(deviceSettings);
+            if (invalidSetting != null) {
+                configError = Messages.INVALID_DEVICE_SETTING(invalidSetting);
+            }
+        }
         if (configError != null) {
             log(logger, Messages.ERROR_MISCONFIGURED(configError));
             build.setResult(Result.NOT_BUILT);
@@ -264,6 +305,7 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         }
 
         // SDK Tools not found, or does not match expected download version, if we should manage SDK
+        boolean dependenciesInstalled = false;
         if ((!sdkFound || !Constants.isLatestVersion(androidSdk)) && descriptor.shouldInstallSdk) {
             // Ok, let's download and install the SDK Tools
             if (!sdkFound) {
@@ -274,7 +316,9 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             }
 
             try {
-                androidSdk = SdkInstaller.install(launcher, listener, androidSdkHome);
+                // The SDK components and the emulator platform are installed with one run of the SDK tools
+                androidSdk = SdkInstaller.install(launcher, listener, androidSdkHome, emuConfig);
+                dependenciesInstalled = true;
             } catch (SdkInstallationException e) {
                 log(logger, Messages.SDK_INSTALLATION_FAILED(), e);
                 build.setResult(Result.NOT_BUILT);
@@ -287,7 +331,7 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         }
 
         // Install the required SDK components for the desired platform, if necessary
-        if (descriptor.shouldInstallSdk) {
+        if (descriptor.shouldInstallSdk && !dependenciesInstalled) {
             SdkInstaller.installDependencies(logger, launcher, androidSdk, emuConfig);
         }
 
@@ -295,14 +339,13 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         String displayHome = androidSdk.hasKnownRoot() ? androidSdk.getSdkRoot() : Messages.USING_PATH();
         log(logger, Messages.USING_SDK(displayHome));
 
-        return doSetUp(build, launcher, listener, androidSdk, emuConfig, expandedProperties);
+        return doSetUp(build, launcher, listener, androidSdk, emuConfig, expandedProperties, deviceSettings);
     }
 
-    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private Environment doSetUp(final AbstractBuild<?, ?> build, final Launcher launcher,
             final BuildListener listener, final AndroidSdk androidSdk,
-            final EmulatorConfig emuConfig, final HardwareProperty[] hardwareProperties)
-                throws IOException, InterruptedException {
+            final EmulatorConfig emuConfig, final HardwareProperty[] hardwareProperties,
+            final String deviceSettings) throws IOException, InterruptedException {
         final PrintStream logger = listener.getLogger();
 
         // First ensure that emulator exists
@@ -341,15 +384,104 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             Thread.sleep(delaySecs * 1000);
         }
 
-        final AndroidEmulatorContext emu = new AndroidEmulatorContext(build, launcher, listener, androidSdk);
+        // Reserve the ports of each emulator; they all register with the ADB server of the first one
+        final int count = Math.max(1, deviceCount);
+        final List<AndroidEmulatorContext> contexts = new ArrayList<AndroidEmulatorContext>(count);
+        contexts.add(new AndroidEmulatorContext(build, launcher, listener, androidSdk));
+        for (int i = 1; i < count; i++) {
+            contexts.add(new AndroidEmulatorContext(contexts.get(0)));
+        }
+        if (count == 1) {
+            final Environment environment = launchEmulator(build, launcher, listener, androidSdk, emuConfig,
+                    deviceSettings, emulatorAlreadyExists, contexts.get(0), false);
+            return environment == null ? null : new DevicesEnvironment(Collections.singletonList(environment), contexts,
+                    emuConfig, androidSdk);
+        }
+
+        // Boot the emulators concurrently; the AVD is shared, so each of them runs on a read-only copy
+        log(logger, Messages.STARTING_EMULATORS(count));
+        final List<Future<Environment>> launches = new ArrayList<Future<Environment>>(count);
+        for (final AndroidEmulatorContext emu : contexts) {
+            launches.add(Computer.threadPoolForRemoting.submit(() -> launchEmulator(build, launcher, listener,
+                    androidSdk, emuConfig, deviceSettings, emulatorAlreadyExists, emu, true)));
+        }
+        final List<Environment> environments = new ArrayList<Environment>(count);
+        boolean failed = false;
+        for (Future<Environment> launch : launches) {
+            Environment environment = null;
+            try {
+                environment = launch.get();
+            } catch (ExecutionException ex) {
+                log(logger, Messages.EMULATOR_BOOT_FAILED(), ex.getCause());
+            } catch (InterruptedException ex) {
+                abortLaunches(build, listener, launches, contexts, emuConfig, androidSdk);
+                throw ex;
+            }
+            environments.add(environment);
+            failed |= environment == null;
+        }
+        final DevicesEnvironment devices = new DevicesEnvironment(environments, contexts, emuConfig, androidSdk);
+        if (failed) {
+            // Don't leave the emulators that did boot running
+            devices.tearDown(build, listener);
+            build.setResult(Result.NOT_BUILT);
+            return null;
+        }
+        return devices;
+    }
+
+    /**
+     * Stops the concurrent launch of several emulators, once the build is aborted: the emulators that
+     * already started are torn down, along with the adb server they share.
+     *
+     * @param launches The launch of each emulator, in the order of their contexts.
+     */
+    private void abortLaunches(final AbstractBuild<?, ?> build, final BuildListener listener,
+            final List<Future<Environment>> launches, final List<AndroidEmulatorContext> contexts,
+            final EmulatorConfig emuConfig, final AndroidSdk androidSdk) throws IOException, InterruptedException {
+        final List<Environment> started = new ArrayList<Environment>(launches.size());
+        for (int i = 0; i < launches.size(); i++) {
+            final Future<Environment> launch = launches.get(i);
+            Environment environment = null;
+            if (!launch.cancel(true)) {
+                // Already over: torn down below if it succeeded, a failed launch has cleaned up after itself
+                try {
+                    environment = launch.get();
+                } catch (ExecutionException | CancellationException ignore) {
+                }
+            } else {
+                // Interrupted halfway, maybe once the emulator process was started
+                final AndroidEmulatorContext emu = contexts.get(i);
+                if (emu.process() != null) {
+                    cleanUp(emuConfig, emu, androidSdk);
+                } else {
+                    emu.cleanUp();
+                }
+            }
+            started.add(environment);
+        }
+        new DevicesEnvironment(started, contexts, emuConfig, androidSdk).tearDown(build, listener);
+    }
+
+    /**
+     * Starts an emulator of the given AVD, and waits for it to boot unless it should boot in background.
+     *
+     * @param emu The context of the emulator, holding the ports it should use.
+     * @param readOnly Whether other emulators are running the same AVD at the same time.
+     * @return The environment of the emulator, or {@code null} if it failed to start.
+     */
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private Environment launchEmulator(final AbstractBuild<?, ?> build, final Launcher launcher,
+            final BuildListener listener, final AndroidSdk androidSdk, final EmulatorConfig emuConfig,
+            final String deviceSettings, final boolean emulatorAlreadyExists, final AndroidEmulatorContext emu,
+            final boolean readOnly) throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
 
         // We manually start the adb-server so that later commands will not have to start it,
         // allowing them to complete faster.
         final SdkCliCommand adbStartCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk).getAdbStartServerCommand();
-        Proc adbStart = emu.getToolProcStarter(adbStartCmd).stdout(logger).stderr(logger).start();
-        adbStart.joinWithTimeout(5L, TimeUnit.SECONDS, listener);
-        Proc adbStart2 = emu.getToolProcStarter(adbStartCmd).stdout(logger).stderr(logger).start();
-        adbStart2.joinWithTimeout(5L, TimeUnit.SECONDS, listener);
+        emu.runAdbCommand(adbStartCmd, logger, ADB_START_SERVER_TIMEOUT_MS, true);
+        emu.runAdbCommand(adbStartCmd, logger, ADB_START_SERVER_TIMEOUT_MS, true);
 
         // Show warning about snapshots being enabled, but not supported
         if (useSnapshots && !androidSdk.supportsSnapshots()) {
@@ -363,6 +495,10 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             if (hasSnapshot) {
                 // Boot from the existing "jenkins" snapshot
                 snapshotState = SnapshotState.BOOT;
+            } else if (readOnly) {
+                // Snapshots can't be saved from a read-only emulator
+                log(logger, Messages.SNAPSHOT_NOT_CREATED_READ_ONLY());
+                snapshotState = SnapshotState.NONE;
             } else {
                 // Create an initial "jenkins" snapshot...
                 snapshotState = SnapshotState.INITIALISE;
@@ -375,8 +511,11 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         }
 
         // Compile complete command for starting emulator
-        final String emulatorArgs = emuConfig.getCommandArguments(snapshotState, androidSdk,
+        String emulatorArgs = emuConfig.getCommandArguments(snapshotState, androidSdk,
                 emu.userPort(), emu.adbPort(), emu.getEmulatorCallbackPort(), adbTimeout);
+        if (readOnly) {
+            emulatorArgs += " -read-only";
+        }
 
         final EnvVars additionalEnvVars = Utils.getEnvironmentVarsFromEmulatorArgs(emulatorArgs);
 
@@ -402,13 +541,118 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                 .stdout(emulatorLogger).stderr(logger).start();
         emu.setProcess(emulatorProcess);
 
+        // Create the file the logcat output will be dumped to, once the emulator has booted
+        final FilePath workspace = build.getWorkspace();
+        if (workspace == null) {
+            throw new BuildNodeUnavailableException();
+        }
+        final FilePath logcatFile = workspace.createTextTempFile("logcat_", ".log", "", false);
+        final BootState state = new BootState();
+
+        final EmulatorReadiness readiness;
+        if (bootInBackground) {
+            // Let the build steps run meanwhile; those that need the device wait for it
+            final FilePath readyFile = workspace.child(".android-emulator-" + emu.userPort() + ".ready");
+            readyFile.delete();
+            log(logger, Messages.BOOTING_IN_BACKGROUND());
+            readiness = EmulatorReadiness.start(build, emu.serial(), readyFile, listener,
+                    () -> waitForEmulator(build, launcher, listener, androidSdk, emuConfig, deviceSettings, emu,
+                            emulatorOutput, emulatorAlreadyExists, snapshotState, bootTime, logcatFile, state));
+        } else {
+            readiness = null;
+            final Result bootResult = waitForEmulator(build, launcher, listener, androidSdk, emuConfig,
+                    deviceSettings, emu, emulatorOutput, emulatorAlreadyExists, snapshotState, bootTime, logcatFile,
+                    state);
+            if (bootResult != Result.SUCCESS) {
+                build.setResult(bootResult);
+                logcatFile.delete();
+                return null;
+            }
+        }
+
+        // Return wrapped environment
+        return new Environment() {
+            @Override
+            public void buildEnvVars(Map<String, String> env) {
+                env.put(Constants.ENV_VAR_ANDROID_SERIAL, emu.serial());
+                env.put(Constants.ENV_VAR_ANDROID_AVD_DEVICE, emu.serial());
+                env.put(Constants.ENV_VAR_ANDROID_AVD_ADB_PORT, Integer.toString(emu.adbPort()));
+                env.put(Constants.ENV_VAR_ANDROID_AVD_USER_PORT, Integer.toString(emu.userPort()));
+                env.put(Constants.ENV_VAR_ANDROID_AVD_NAME, emuConfig.getAvdName());
+                env.put(Constants.ENV_VAR_ANDROID_ADB_SERVER_PORT, Integer.toString(emu.adbServerPort()));
+                env.put(Constants.ENV_VAR_ANDROID_TMP_LOGCAT_FILE, logcatFile.getRemote());
+                if (readiness != null) {
+                    env.put(Constants.ENV_VAR_ANDROID_AVD_READY_FILE, readiness.getReadyFile().getRemote());
+                }
+                if (!emuConfig.isNamedEmulator()) {
+                    env.put(Constants.ENV_VAR_ANDROID_AVD_OS, emuConfig.getOsVersion().toString());
+                    env.put(Constants.ENV_VAR_ANDROID_AVD_DENSITY, emuConfig.getScreenDensity().toString());
+                    env.put(Constants.ENV_VAR_ANDROID_AVD_RESOLUTION, emuConfig.getScreenResolution().toString());
+                    env.put(Constants.ENV_VAR_ANDROID_AVD_SKIN, emuConfig.getScreenResolution().getSkinName());
+                    env.put(Constants.ENV_VAR_ANDROID_AVD_LOCALE, emuConfig.getDeviceLocale());
+                }
+                if (androidSdk.hasKnownRoot()) {
+                    String sdkRoot = androidSdk.getSdkRoot();
+                    env.put(Constants.ENV_VAR_JENKINS_ANDROID_HOME, sdkRoot);
+                    env.put(Constants.ENV_VAR_ANDROID_HOME, sdkRoot);
+                    env.put(Constants.ENV_VAR_ANDROID_SDK_ROOT, sdkRoot);
+
+                    // Prepend the commonly-used Android tools to the start of the PATH for this build
+                    env.put(Constants.ENV_VAR_PATH_SDK_TOOLS, sdkRoot + "/tools/");
+                    env.put(Constants.ENV_VAR_PATH_SDK_PLATFORM_TOOLS, sdkRoot + "/platform-tools/");
+                    // TODO: Export the newest build-tools folder as well, so aapt and friends can be used
+                }
+            }
+
+            @Override
+            @SuppressWarnings("rawtypes")
+            public boolean tearDown(AbstractBuild build, BuildListener listener)
+                    throws IOException, InterruptedException {
+                final boolean booted = readiness == null || readiness.stop();
+                DeviceLease.end(build, emu.serial());
+                if (state.watchdog != null) {
+                    // The checks ran in background, their verdict is applied here
+                    build.setResult(state.watchdog.stop());
+                }
+                if (state.sampler != null) {
+                    state.sampler.stop();
+                }
+
+                // A boot that failed has already cleaned up after itself, unless it was aborted halfway
+                if (booted || emu.process().isAlive()) {
+                    cleanUp(emuConfig, emu, androidSdk, state.logWriter, logcatFile, state.logcatStream,
+                            build.getArtifactManager(), launcher, listener);
+                }
+                if (!booted) {
+                    logcatFile.delete();
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Waits for the freshly started emulator to boot, then prepares it for the build.<br>
+     * This may run in background, so it leaves the build result to the caller.
+     *
+     * @param state Receives the processes and threads started for the emulator, to be stopped at the end of the build.
+     * @return {@link Result#SUCCESS} if the emulator is ready for use; otherwise the result the build should end with.
+     */
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private Result waitForEmulator(final AbstractBuild<?, ?> build, final Launcher launcher,
+            final BuildListener listener, final AndroidSdk androidSdk, final EmulatorConfig emuConfig,
+            final String deviceSettings, final AndroidEmulatorContext emu, final ByteArrayOutputStream emulatorOutput,
+            final boolean emulatorAlreadyExists, final SnapshotState snapshotState, final long bootTime,
+            final FilePath logcatFile, final BootState state) throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
         // Give the emulator process a chance to initialise
         Thread.sleep(5 * 1000);
 
         // Check whether a failure was reported on stdout
         if (emulatorOutput.toString().contains("image is used by another emulator")) {
             log(logger, Messages.EMULATOR_ALREADY_IN_USE(emuConfig.getAvdName()));
-            return null;
+            return Result.FAILURE;
         }
 
         // Sitting on the socket appears to break adb. If you try and do this you always end up with device offline.
@@ -420,9 +664,8 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         int socket = waitForSocket(launcher, emu.getEmulatorCallbackPort(), adbTimeout * 1000);
         if (socket < 0) {
             log(logger, Messages.EMULATOR_DID_NOT_START());
-            build.setResult(Result.NOT_BUILT);
             cleanUp(emuConfig, emu, androidSdk);
-            return null;
+            return Result.NOT_BUILT;
         }
         log(logger, Messages.EMULATOR_CONSOLE_REPORT(socket));
 
@@ -450,25 +693,21 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             } else {
                 log(logger, Messages.BOOT_COMPLETION_TIMED_OUT(bootTimeout / 1000));
             }
-            build.setResult(Result.NOT_BUILT);
             cleanUp(emuConfig, emu, androidSdk);
-            return null;
+            return Result.NOT_BUILT;
         }
 
         final int emulatorAPILevel = (emuConfig.getOsVersion() != null) ? emuConfig.getOsVersion().getSdkLevel() : 0;
         final AdbShellCommands adbShellCmds = SdkCliCommandFactory.getAdbShellCommandForAPILevel(emulatorAPILevel);
 
         // Start dumping logcat to temporary file
-        final FilePath workspace = build.getWorkspace();
-        if (workspace == null) {
-            throw new BuildNodeUnavailableException();
-        }
-        final ArtifactManager artifactManager = build.getArtifactManager();
-        final FilePath logcatFile = workspace.createTextTempFile("logcat_", ".log", "", false);
-        final OutputStream logcatStream = logcatFile.write();
+        state.logcatStream = logcatFile.write();
         final SdkCliCommand adbSetLogCatFormatCmd = adbShellCmds.getSetLogCatFormatToTimeCommand(emu.serial());
-        final Proc logWriter = emu.getToolProcStarter(adbSetLogCatFormatCmd)
-                .stdout(logcatStream).stderr(new NullStream()).start();
+        state.logWriter = emu.getToolProcStarter(adbSetLogCatFormatCmd)
+                .stdout(state.logcatStream).stderr(new NullStream()).start();
+
+        // Prepare the device for testing; all the actions are run within a single adb shell session
+        final DevicePreparation preparation = new DevicePreparation(adbShellCmds);
 
         // Unlock emulator by pressing the Menu key once, if required.
         // Upon first boot (and when the data is wiped) the emulator is already unlocked
@@ -481,19 +720,25 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
 
             log(logger, Messages.UNLOCKING_SCREEN());
 
-            final SdkCliCommand adbUnlockCmd = adbShellCmds.getDismissKeyguardCommand(emu.serial());
-            ArgumentListBuilder unlockCmd = emu.getToolCommand(adbUnlockCmd);
-            Proc proc = emu.getProcStarter(unlockCmd).start();
-            proc.joinWithTimeout(adbTimeout, TimeUnit.MILLISECONDS, emu.launcher().getListener());
-
             // If a named emulator already existed, it may not have been booted yet, so the screen
             // wouldn't be locked.  Similarly, an non-named emulator may have already booted the
             // first time without us knowing.  In both cases, we press Back after attempting to
             // unlock the screen to compensate
-            final SdkCliCommand adbSendBackKeyCmd = adbShellCmds.getSendBackKeyEventCommand(emu.serial());
-            ArgumentListBuilder backCmd = emu.getToolCommand(adbSendBackKeyCmd);
-            proc = emu.getProcStarter(backCmd).start();
-            proc.joinWithTimeout(adbTimeout, TimeUnit.MILLISECONDS, emu.launcher().getListener());
+            preparation.unlock();
+        }
+        if (disableAnimations) {
+            preparation.disableAnimations();
+        }
+        if (keepScreenOn) {
+            preparation.keepScreenOn();
+        }
+        if (disableImmersiveModeConfirmation) {
+            preparation.disableImmersiveModeConfirmation();
+        }
+        preparation.putSettings(deviceSettings);
+        if (!preparation.isEmpty()) {
+            log(logger, Messages.PREPARING_DEVICE());
+            preparation.run(emu, adbTimeout * 1000);
         }
 
         // Initialise snapshot image, if required
@@ -502,16 +747,11 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             log(logger, Messages.WAITING_INITIAL_SNAPSHOT());
             Thread.sleep((long) (bootDuration * 0.8));
 
-            // Clear main log before creating snapshot
-            final SdkCliCommand adbClearLogCmd = adbShellCmds.getClearMainLogCommand(emu.serial());
-            ArgumentListBuilder adbCmd = emu.getToolCommand(adbClearLogCmd);
-            emu.getProcStarter(adbCmd).join();
-
-            // Log creation of snapshot
-            final String msg = Messages.LOG_CREATING_SNAPSHOT();
-            final SdkCliCommand adbLogCmd = adbShellCmds.getLogMessageCommand(emu.serial(), msg);
-            adbCmd = emu.getToolCommand(adbLogCmd);
-            emu.getProcStarter(adbCmd).join();
+            // Clear main log before creating snapshot, then log creation of snapshot
+            new DevicePreparation(adbShellCmds)
+                    .clearLog()
+                    .logMessage(Messages.LOG_CREATING_SNAPSHOT())
+                    .run(emu, AndroidEmulatorContext.ADB_COMMAND_TIMEOUT_MS);
 
             // Pause execution of the emulator
             boolean stopped = emu.sendCommand("avd stop");
@@ -528,56 +768,115 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                 boolean restarted = emu.sendCommand("avd start");
                 if (!restarted) {
                     log(logger, Messages.EMULATOR_RESUME_FAILED());
-                    cleanUp(emuConfig, emu, androidSdk, logWriter, logcatFile, logcatStream, artifactManager, launcher, listener);
+                    cleanUp(emuConfig, emu, androidSdk, state.logWriter, logcatFile, state.logcatStream,
+                            build.getArtifactManager(), launcher, listener);
                 }
             } else {
                 log(logger, Messages.SNAPSHOT_CREATION_FAILED());
             }
         }
 
+        // Remember the packages already installed, so that resetting the device removes only those the build installs
+        final ByteArrayOutputStream packages = new ByteArrayOutputStream();
+        emu.runAdbCommand(DeviceLease.getListPackagesCommand(adbShellCmds, emu.serial()), packages,
+                AndroidEmulatorContext.ADB_COMMAND_TIMEOUT_MS, true);
+        DeviceLease.begin(build, emu.serial(), DeviceLease.parseListedPackages(packages.toString()));
+
         // Done!
         final long bootCompleteTime = System.currentTimeMillis();
         log(logger, Messages.EMULATOR_IS_READY((bootCompleteTime - bootTime) / 1000));
+        log(logger, Messages.ADB_COMMAND_STATISTICS());
+        emu.logAdbMetrics();
 
-        // Return wrapped environment
-        return new Environment() {
-            @Override
-            public void buildEnvVars(Map<String, String> env) {
-                env.put(Constants.ENV_VAR_ANDROID_SERIAL, emu.serial());
-                env.put(Constants.ENV_VAR_ANDROID_AVD_DEVICE, emu.serial());
-                env.put(Constants.ENV_VAR_ANDROID_AVD_ADB_PORT, Integer.toString(emu.adbPort()));
-                env.put(Constants.ENV_VAR_ANDROID_AVD_USER_PORT, Integer.toString(emu.userPort()));
-                env.put(Constants.ENV_VAR_ANDROID_AVD_NAME, emuConfig.getAvdName());
-                env.put(Constants.ENV_VAR_ANDROID_ADB_SERVER_PORT, Integer.toString(emu.adbServerPort()));
-                env.put(Constants.ENV_VAR_ANDROID_TMP_LOGCAT_FILE, logcatFile.getRemote());
-                if (!emuConfig.isNamedEmulator()) {
-                    env.put(Constants.ENV_VAR_ANDROID_AVD_OS, emuConfig.getOsVersion().toString());
-                    env.put(Constants.ENV_VAR_ANDROID_AVD_DENSITY, emuConfig.getScreenDensity().toString());
-                    env.put(Constants.ENV_VAR_ANDROID_AVD_RESOLUTION, emuConfig.getScreenResolution().toString());
-                    env.put(Constants.ENV_VAR_ANDROID_AVD_SKIN, emuConfig.getScreenResolution().getSkinName());
-                    env.put(Constants.ENV_VAR_ANDROID_AVD_LOCALE, emuConfig.getDeviceLocale());
-                }
-                if (androidSdk.hasKnownRoot()) {
-                    String sdkRoot = androidSdk.getSdkRoot();
-                    env.put(Constants.ENV_VAR_JENKINS_ANDROID_HOME, sdkRoot);
-                    env.put(Constants.ENV_VAR_ANDROID_HOME, sdkRoot);
-                    env.put(Constants.ENV_VAR_ANDROID_SDK_ROOT, sdkRoot);
+        // Keep an eye on the emulator for the rest of the build
+        if (healthCheckInterval > 0) {
+            final boolean canRestoreSnapshot = snapshotState != SnapshotState.NONE;
+            state.watchdog = new EmulatorWatchdog(build, emu, SdkCliCommandFactory.getCommandsForSdk(androidSdk),
+                    healthCheckInterval, healthCheckAction, canRestoreSnapshot);
+            state.watchdog.start();
+        }
 
-                    // Prepend the commonly-used Android tools to the start of the PATH for this build
-                    env.put(Constants.ENV_VAR_PATH_SDK_TOOLS, sdkRoot + "/tools/");
-                    env.put(Constants.ENV_VAR_PATH_SDK_PLATFORM_TOOLS, sdkRoot + "/platform-tools/");
-                    // TODO: Export the newest build-tools folder as well, so aapt and friends can be used
-                }
+        // Record the resources used by the emulator
+        if (resourceSampleInterval > 0 && launcher.isUnix()) {
+            state.sampler = new EmulatorResourceSampler(build, emu, emuConfig.getAvdName(), resourceSampleInterval);
+            state.sampler.start();
+        }
+
+        return Result.SUCCESS;
+    }
+
+    /** Exports the emulators of a build to its environment, and stops them at the end of it. */
+    final class DevicesEnvironment extends Environment {
+        /** The environment of each emulator, {@code null} for those that failed to start. */
+        private final List<Environment> environments;
+        private final List<AndroidEmulatorContext> contexts;
+        private final EmulatorConfig emuConfig;
+        private final AndroidSdk androidSdk;
+
+        DevicesEnvironment(List<Environment> environments, List<AndroidEmulatorContext> contexts,
+                EmulatorConfig emuConfig, AndroidSdk androidSdk) {
+            this.environments = environments;
+            this.contexts = contexts;
+            this.emuConfig = emuConfig;
+            this.androidSdk = androidSdk;
+        }
+
+        @Override
+        public void buildEnvVars(Map<String, String> env) {
+            // The first emulator is the default device for the build steps
+            if (environments.get(0) != null) {
+                environments.get(0).buildEnvVars(env);
             }
 
-            @Override
-            @SuppressWarnings("rawtypes")
-            public boolean tearDown(AbstractBuild build, BuildListener listener)
-                    throws IOException, InterruptedException {
-                cleanUp(emuConfig, emu, androidSdk, logWriter, logcatFile, logcatStream, artifactManager, launcher, listener);
-                return true;
+            // Then each emulator is exported on its own, e.g. to run a test shard on each of them
+            final List<String> serials = new ArrayList<String>(contexts.size());
+            for (int i = 0; i < contexts.size(); i++) {
+                final AndroidEmulatorContext emu = contexts.get(i);
+                serials.add(emu.serial());
+                env.put(Constants.ENV_VAR_ANDROID_AVD_DEVICE + "_" + i, emu.serial());
+                env.put(Constants.ENV_VAR_ANDROID_AVD_ADB_PORT + "_" + i, Integer.toString(emu.adbPort()));
+                env.put(Constants.ENV_VAR_ANDROID_AVD_USER_PORT + "_" + i, Integer.toString(emu.userPort()));
             }
-        };
+            env.put(Constants.ENV_VAR_ANDROID_AVD_DEVICES, String.join(",", serials));
+            env.put(Constants.ENV_VAR_ANDROID_AVD_DEVICE_COUNT, Integer.toString(contexts.size()));
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean tearDown(final AbstractBuild build, final BuildListener listener)
+                throws IOException, InterruptedException {
+            // Stop the emulators that share the ADB server of the first one in parallel, then the first one,
+            // and only then the ADB server they all use; the build waits for all of them, so the results
+            // they set are applied before it goes on
+            final List<Future<Boolean>> tearDowns = new ArrayList<Future<Boolean>>();
+            for (final Environment environment : environments.subList(1, environments.size())) {
+                if (environment != null) {
+                    tearDowns.add(Computer.threadPoolForRemoting.submit(() -> environment.tearDown(build, listener)));
+                }
+            }
+            for (Future<Boolean> tearDown : tearDowns) {
+                try {
+                    tearDown.get();
+                } catch (ExecutionException ex) {
+                    log(listener.getLogger(), Messages.EMULATOR_SHUTDOWN_FAILED(), ex.getCause());
+                }
+            }
+            if (environments.get(0) != null) {
+                environments.get(0).tearDown(build, listener);
+            }
+            if (contexts.get(0).isAdbServerShared()) {
+                cleanUpSharedAdbServer(emuConfig, contexts.get(0), androidSdk);
+            }
+            return true;
+        }
+    }
+
+    /** What is started for an emulator once it has booted, and has to be stopped at the end of the build. */
+    private static final class BootState {
+        private volatile Proc logWriter;
+        private volatile OutputStream logcatStream;
+        private volatile EmulatorWatchdog watchdog;
+        private volatile EmulatorResourceSampler sampler;
     }
 
     /* Helper method for writing to the build log in a consistent manner. */
@@ -634,63 +933,110 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         //        Launcher.kill(EnvVars) does not appear to help either.
         //        This is (a) inconsistent; (b) very annoying.
 
-        // Stop emulator process
+        // Stop emulator process, escalating quickly if it doesn't respond
+        final long shutdownStart = System.currentTimeMillis();
         log(emu.logger(), Messages.STOPPING_EMULATOR());
-        boolean killed = emu.sendCommand("kill");
+        boolean killed = emu.sendCommand("kill", CONSOLE_KILL_TIMEOUT_MS);
 
-        // Ensure the process is dead
-        if (!killed && emu.process().isAlive()) {
+        // Ensure the process is dead; killing it terminates the whole process tree, including
+        // any qemu child processes, forcibly if they don't exit within a few seconds
+        if (emu.process().isAlive() && !Utils.waitForProcessExit(emu.process(), killed ? PROCESS_EXIT_TIMEOUT_MS : 0)) {
             // Give up trying to kill it after a few seconds, in case it's deadlocked
             killed = Utils.killProcess(emu.process(), KILL_PROCESS_TIMEOUT_MS);
             if (!killed) {
                 log(emu.logger(), Messages.EMULATOR_SHUTDOWN_FAILED());
             }
         }
+        final long emulatorShutdownTime = System.currentTimeMillis() - shutdownStart;
 
         // Clean up logging process
+        final long logcatStart = System.currentTimeMillis();
         if (logcatProcess != null) {
-            if (logcatProcess.isAlive()) {
-                // This should have stopped when the emulator was,
-                // but if not attempt to kill the process manually.
-                // First, give it a final chance to finish cleanly.
-                Thread.sleep(3 * 1000);
-                if (logcatProcess.isAlive()) {
-                    Utils.killProcess(logcatProcess, KILL_PROCESS_TIMEOUT_MS);
-                }
+            // This should have stopped when the emulator was, but if not, give it a final
+            // chance to finish cleanly, then attempt to kill the process manually
+            if (!Utils.waitForProcessExit(logcatProcess, LOGCAT_EXIT_TIMEOUT_MS)) {
+                Utils.killProcess(logcatProcess, KILL_PROCESS_TIMEOUT_MS);
             }
             try {
                 logcatStream.close();
             } catch (Exception ignore) {}
+        }
+
+        // Once logcat has been drained, stop the adb server while the logs are archived,
+        // unless other emulators use it too; it is then stopped once all of them are
+        final SdkCliCommand killCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk).getAdbKillServerCommand();
+        final Future<Long> adbShutdown = emu.isAdbServerShared() ? null : Computer.threadPoolForRemoting.submit(() -> {
+            final long start = System.currentTimeMillis();
+            emu.runAdbCommand(killCmd, null, KILL_PROCESS_TIMEOUT_MS, false);
+            return System.currentTimeMillis() - start;
+        });
 
+        if (logcatProcess != null) {
             // Archive the logs
             if (logcatFile.length() != 0 && artifactManager != null && launcher != null && listener != null) {
                 log(emu.logger(), Messages.ARCHIVING_LOG());
                 final FilePath workspace = logcatFile.getParent();
-                final Map<String, String> artifacts = Collections.singletonMap("logcat.txt", logcatFile.getName());
+                final String artifact = emu.sharesAdbServer() ? "logcat-" + emu.serial() + ".txt" : "logcat.txt";
+                final Map<String, String> artifacts = Collections.singletonMap(artifact, logcatFile.getName());
                 artifactManager.archive(workspace, launcher, listener, artifacts);
             }
             logcatFile.delete();
         }
+        final long logcatShutdownTime = System.currentTimeMillis() - logcatStart;
 
-        final SdkCliCommand killCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk).getAdbKillServerCommand();
-        ArgumentListBuilder adbKillCmd = emu.getToolCommand(killCmd);
-        emu.getProcStarter(adbKillCmd).join();
+        long adbShutdownTime = 0;
+        try {
+            if (adbShutdown != null) {
+                adbShutdownTime = adbShutdown.get(KILL_PROCESS_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            adbShutdown.cancel(true);
+            adbShutdownTime = System.currentTimeMillis() - logcatStart;
+        }
+        log(emu.logger(), Messages.ADB_COMMAND_STATISTICS());
+        emu.logAdbMetrics();
+        log(emu.logger(), Messages.EMULATOR_SHUTDOWN_TIMINGS(System.currentTimeMillis() - shutdownStart,
+                emulatorShutdownTime, logcatShutdownTime, adbShutdownTime));
 
         emu.cleanUp();
 
-        // Delete the emulator, if required
-        if (deleteAfterBuild) {
-            try {
-                Callable<Boolean, Exception> deletionTask = emulatorConfig.getEmulatorDeletionTask(
-                        emu.launcher().getListener());
-                VirtualChannel channel = emu.launcher().getChannel();
-                if (channel == null) {
-                    throw new IllegalStateException("Channel is not configured");
-                }
-                channel.call(deletionTask);
-            } catch (Exception ex) {
-                log(emu.logger(), Messages.FAILED_TO_DELETE_AVD(ex.getLocalizedMessage()));
+        // Delete the emulator, if required, unless other emulators may still be running it
+        if (!emu.isAdbServerShared()) {
+            deleteAvd(emulatorConfig, emu);
+        }
+    }
+
+    /**
+     * Stops the adb server shared by several emulators of a build, and deletes their AVD if required.<br>
+     * Called once, after all of the emulators were stopped.
+     *
+     * @param emulatorConfig The emulator being run.
+     * @param emu The context of the first emulator, which owns the adb server.
+     * @param androidSdk The current android SDK
+     */
+    private void cleanUpSharedAdbServer(EmulatorConfig emulatorConfig, AndroidEmulatorContext emu,
+            AndroidSdk androidSdk) throws IOException, InterruptedException {
+        final SdkCliCommand killCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk).getAdbKillServerCommand();
+        emu.runAdbCommand(killCmd, null, KILL_PROCESS_TIMEOUT_MS, false);
+        emu.cleanUpSharedAdbServer();
+        deleteAvd(emulatorConfig, emu);
+    }
+
+    /** Deletes the AVD at the end of the build, if required. */
+    private void deleteAvd(EmulatorConfig emulatorConfig, AndroidEmulatorContext emu) {
+        if (!deleteAfterBuild) {
+            return;
+        }
+        try {
+            Callable<Boolean, Exception> deletionTask = emulatorConfig.getEmulatorDeletionTask(
+                    emu.launcher().getListener());
+            VirtualChannel channel = emu.launcher().getChannel();
+            if (channel == null) {
+                throw new IllegalStateException("Channel is not configured");
             }
+            channel.call(deletionTask);
+        } catch (Exception ex) {
+            log(emu.logger(), Messages.FAILED_TO_DELETE_AVD(ex.getLocalizedMessage()));
         }
     }
 
@@ -774,16 +1120,14 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         final AdbShellCommands adbShellCmds = SdkCliCommandFactory.getAdbShellCommandForAPILevel(apiLevel);
         final SdkCliCommand adbDevicesStartCmd = adbShellCmds.getWaitForDeviceStartupCommand(emu.serial());
         final String expectedAnswer = adbShellCmds.getWaitForDeviceStartupExpectedAnswer();
-        ArgumentListBuilder bootCheckCmd = emu.getToolCommand(adbDevicesStartCmd);
 
         try {
-            final long adbTimeout = timeout / 8;
+            final int adbTimeout = timeout / 8;
             while (System.currentTimeMillis() < start + timeout && (ignoreProcess || emu.process().isAlive())) {
                 ByteArrayOutputStream stream = new ByteArrayOutputStream(16);
 
                 // Run "getprop", timing-out in case adb hangs
-                Proc proc = emu.getProcStarter(bootCheckCmd).stdout(stream).start();
-                int retVal = proc.joinWithTimeout(adbTimeout, TimeUnit.MILLISECONDS, emu.launcher().getListener());
+                int retVal = emu.runAdbCommand(adbDevicesStartCmd, stream, adbTimeout, false);
                 if (retVal == 0) {
                     // If boot is complete, our work here is done
                     String result = stream.toString().trim();
@@ -814,6 +1158,96 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
         this.adbTimeout = adbTimeout;
     }
 
+    public boolean isBootInBackground() {
+        return bootInBackground;
+    }
+
+    @DataBoundSetter
+    public void setBootInBackground(boolean bootInBackground) {
+        this.bootInBackground = bootInBackground;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    @DataBoundSetter
+    public void setDeviceCount(int deviceCount) {
+        this.deviceCount = Math.max(0, deviceCount);
+    }
+
+    public boolean isDisableAnimations() {
+        return disableAnimations;
+    }
+
+    @DataBoundSetter
+    public void setDisableAnimations(boolean disableAnimations) {
+        this.disableAnimations = disableAnimations;
+    }
+
+    public boolean isKeepScreenOn() {
+        return keepScreenOn;
+    }
+
+    @DataBoundSetter
+    public void setKeepScreenOn(boolean keepScreenOn) {
+        this.keepScreenOn = keepScreenOn;
+    }
+
+    public boolean isDisableImmersiveModeConfirmation() {
+        return disableImmersiveModeConfirmation;
+    }
+
+    @DataBoundSetter
+    public void setDisableImmersiveModeConfirmation(boolean disableImmersiveModeConfirmation) {
+        this.disableImmersiveModeConfirmation = disableImmersiveModeConfirmation;
+    }
+
+    public String getDeviceSettings() {
+        return deviceSettings;
+    }
+
+    @DataBoundSetter
+    public void setDeviceSettings(String deviceSettings) {
+        this.deviceSettings = Util.fixEmptyAndTrim(deviceSettings);
+    }
+
+    public int getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    @DataBoundSetter
+    public void setHealthCheckInterval(int healthCheckInterval) {
+        this.healthCheckInterval = Math.max(0, healthCheckInterval);
+    }
+
+    public EmulatorWatchdog.Action getHealthCheckAction() {
+        return healthCheckAction;
+    }
+
+    @DataBoundSetter
+    public void setHealthCheckAction(EmulatorWatchdog.Action healthCheckAction) {
+        this.healthCheckAction = healthCheckAction;
+    }
+
+    public int getResourceSampleInterval() {
+        return resourceSampleInterval;
+    }
+
+    @DataBoundSetter
+    public void setResourceSampleInterval(int resourceSampleInterval) {
+        this.resourceSampleInterval = Math.max(0, resourceSampleInterval);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Collection<? extends Action> getProjectActions(AbstractProject job) {
+        if (resourceSampleInterval > 0) {
+            return Collections.singletonList(new EmulatorResourceProjectAction(job));
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * Migrate old data.
      *
@@ -926,6 +1360,29 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
                     showWindow, useSnapshots, deleteAfterBuild, startupDelay, startupTimeout, commandLineOptions,
                     targetAbi, deviceDefinition, executable, avdNameSuffix);
             androidEmulator.setAdbTimeout(adbTimeout);
+            androidEmulator.setBootInBackground(formData.optBoolean("bootInBackground"));
+            String deviceCount = Util.fixEmptyAndTrim(formData.optString("deviceCount"));
+            if (deviceCount != null) {
+                ValidationResult result = checkDeviceCount(deviceCount);
+                if (result.isFatal()) {
+                    throw new FormException(result.getMessage(), "deviceCount");
+                }
+                androidEmulator.setDeviceCount(Integer.parseInt(deviceCount));
+            }
+            androidEmulator.setDisableAnimations(formData.optBoolean("disableAnimations"));
+            androidEmulator.setKeepScreenOn(formData.optBoolean("keepScreenOn"));
+            androidEmulator.setDisableImmersiveModeConfirmation(formData.optBoolean("disableImmersiveModeConfirmation"));
+            androidEmulator.setDeviceSettings(formData.optString("deviceSettings"));
+            try {
+                androidEmulator.setHealthCheckInterval(Integer.parseInt(formData.optString("healthCheckInterval")));
+            } catch (NumberFormatException e) {}
+            try {
+                androidEmulator.setResourceSampleInterval(Integer.parseInt(formData.optString("resourceSampleInterval")));
+            } catch (NumberFormatException e) {}
+            String healthCheckAction = Util.fixEmptyAndTrim(formData.optString("healthCheckAction"));
+            if (healthCheckAction != null) {
+                androidEmulator.setHealthCheckAction(EmulatorWatchdog.Action.valueOf(healthCheckAction));
+            }
             return androidEmulator;
         }
 
@@ -1111,6 +1568,33 @@ public class AndroidEmulator extends BuildWrapper implements Serializable {
             return ValidationResult.ok();
         }
 
+        public FormValidation doCheckDeviceSettings(@QueryParameter String value) {
+            String invalidSetting = DevicePreparation.getInvalidSetting(value);
+            if (invalidSetting != null && !invalidSetting.contains("$")) {
+                return ValidationResult.error(Messages.INVALID_DEVICE_SETTING(invalidSetting)).getFormValidation();
+            }
+            return ValidationResult.ok().getFormValidation();
+        }
+
+        public FormValidation doCheckDeviceCount(@QueryParameter String value) {
+            return checkDeviceCount(value).getFormValidation();
+        }
+
+        static ValidationResult checkDeviceCount(String value) {
+            if (value == null || "".equals(value.trim())) {
+                // No value, a single emulator is started
+                return ValidationResult.ok();
+            }
+            try {
+                if (Integer.parseInt(value.trim()) > 0) {
+                    return ValidationResult.ok();
+                }
+            } catch (NumberFormatException e) {
+                // Reported below, like any other invalid count
+            }
+            return ValidationResult.error(Messages.INVALID_DEVICE_COUNT());
+        }
+
         public FormValidation doCheckExecutable(@QueryParameter String value) {
             if (value == null || "".equals(value.trim())) {
                 return ValidationResult.ok().getFormValidation();
@@ -1,7 +1,11 @@
 package hudson.plugins.android_emulator;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
 import org.jvnet.hudson.plugins.port_allocator.PortAllocationManager;
 
@@ -16,19 +20,54 @@ import hudson.model.Computer;
 import hudson.model.TaskListener;
 import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.util.AdbCommandMetrics;
+import hudson.plugins.android_emulator.util.AdbCommandMetrics.Outcome;
 import hudson.plugins.android_emulator.util.Utils;
 import hudson.util.ArgumentListBuilder;
+import hudson.util.ForkOutputStream;
 import hudson.util.NullStream;
 
 public class AndroidEmulatorContext {
     /** Interval during which an emulator command should complete. */
     public static final int EMULATOR_COMMAND_TIMEOUT_MS = 60 * 1000;
 
+    /** Interval during which a single adb command should complete. */
+    public static final int ADB_COMMAND_TIMEOUT_MS = 30 * 1000;
+
+    /** How many times an idempotent adb command is retried while the device is offline. */
+    private static final int ADB_OFFLINE_RETRIES = 3;
+
+    /** Delay between retries of an adb command while the device is offline. */
+    private static final int ADB_OFFLINE_RETRY_DELAY_MS = 2 * 1000;
+
+    // ADB allows up to 64 local devices, each of which uses two consecutive ports: one for the
+    // user telnet interface, and one to communicate with ADB.  These pairs start at port 5554.
+    // http://android.googlesource.com/platform/system/core/+/d387acc/adb/adb.h#206
+    // http://android.googlesource.com/platform/system/core/+/d387acc/adb/transport_local.cpp#44
+    //
+    // So long as the ADB server automatically registers itself with any emulators in the
+    // standard port range of 5555–5861, then we should avoid using that port range.
+    // Otherwise, when we run multiple ADB servers and emulators at the same time, each of the
+    // ADB servers will race to register with each emulator, meaning that each build will most
+    // likely end up with an emulator that always ends up appearing to be "offline".
+    // See http://b.android.com/205197
+    private static final int PORT_RANGE_START = 5554 + (2 * 64);
+    private static final int PORT_RANGE_END = PORT_RANGE_START + (2 * 64);
+
+    // The ADB server and the callback socket use a separate port range, so as not to tie up emulator ports unnecessarily
+    private static final int SERVER_PORT_RANGE_START = PORT_RANGE_END;
+    private static final int SERVER_PORT_RANGE_END = SERVER_PORT_RANGE_START + 64;
+
 	private int adbPort, userPort, adbServerPort, emulatorCallbackPort;
 	private String serial;
+	/** Whether the ADB server belongs to another emulator of the same build. */
+	private boolean sharesAdbServer;
+	/** Whether several emulators of the build use the ADB server, which then has to outlive each of them. */
+	private boolean adbServerShared;
 
 	private PortAllocationManager portAllocator;
-	private Proc emulatorProcess;
+	private volatile Proc emulatorProcess;
+	private final AdbCommandMetrics adbMetrics = new AdbCommandMetrics();
 
 	private AndroidSdk sdk;
 
@@ -48,20 +87,46 @@ public class AndroidEmulatorContext {
         final Computer computer = Computer.currentComputer();
         portAllocator = PortAllocationManager.getManager(computer);
 
-        // ADB allows up to 64 local devices, each of which uses two consecutive ports: one for the
-        // user telnet interface, and one to communicate with ADB.  These pairs start at port 5554.
-        // http://android.googlesource.com/platform/system/core/+/d387acc/adb/adb.h#206
-        // http://android.googlesource.com/platform/system/core/+/d387acc/adb/transport_local.cpp#44
-        //
-        // So long as the ADB server automatically registers itself with any emulators in the
-        // standard port range of 5555–5861, then we should avoid using that port range.
-        // Otherwise, when we run multiple ADB servers and emulators at the same time, each of the
-        // ADB servers will race to register with each emulator, meaning that each build will most
-        // likely end up with an emulator that always ends up appearing to be "offline".
-        // See http://b.android.com/205197
-        final int PORT_RANGE_START = 5554 + (2 * 64);
-        final int PORT_RANGE_END = PORT_RANGE_START + (2 * 64);
+        allocateEmulatorPorts();
+
+        // Reserve two further ports for the ADB server and the callback socket
+        int[] ports = portAllocator.allocatePortRange(build, SERVER_PORT_RANGE_START,
+                SERVER_PORT_RANGE_END, 2, false);
+        adbServerPort = ports[0];
+        emulatorCallbackPort = ports[1];
+
+        // Set the emulator qualifier based on the telnet port
+        serial = String.format("emulator-%d", userPort);
+    }
+
+    /**
+     * Creates the context of a further emulator for the same build, which registers with the
+     * ADB server of the given context rather than with one of its own.
+     *
+     * @param adbServer The context of the emulator whose ADB server should be shared.
+     */
+    public AndroidEmulatorContext(AndroidEmulatorContext adbServer) throws InterruptedException, IOException {
+        build = adbServer.build;
+        listener = adbServer.listener;
+        launcher = adbServer.launcher;
+        sdk = adbServer.sdk;
+        portAllocator = adbServer.portAllocator;
 
+        allocateEmulatorPorts();
+
+        // Only the callback socket needs a port of its own
+        emulatorCallbackPort = portAllocator.allocatePortRange(build, SERVER_PORT_RANGE_START,
+                SERVER_PORT_RANGE_END, 1, false)[0];
+        adbServerPort = adbServer.adbServerPort;
+        sharesAdbServer = true;
+        adbServerShared = true;
+        adbServer.adbServerShared = true;
+
+        serial = String.format("emulator-%d", userPort);
+    }
+
+    /** Reserves the user and ADB ports of the emulator. */
+    private void allocateEmulatorPorts() throws InterruptedException, IOException {
         // When using the emulator `-port` option, the first port must be even, so here we reserve
         // three consecutive ports, ensuring that we will get an even port followed by an odd
         int[] ports = portAllocator.allocatePortRange(build, PORT_RANGE_START, PORT_RANGE_END, 3, true);
@@ -76,28 +141,23 @@ public class AndroidEmulatorContext {
 
         // Release the port that was reserved but not used
         portAllocator.free(i == 2 ? ports[2] : ports[0]);
-
-        // Reserve two further ports for the ADB server and the callback socket.
-        // Use a separate port range so as not to tie up emulator ports unnecessarily
-        final int SERVER_PORT_RANGE_START = PORT_RANGE_END;
-        final int SERVER_PORT_RANGE_END = SERVER_PORT_RANGE_START + 64;
-        ports = portAllocator.allocatePortRange(build, SERVER_PORT_RANGE_START,
-                SERVER_PORT_RANGE_END, 2, false);
-        adbServerPort = ports[0];
-        emulatorCallbackPort = ports[1];
-
-        // Set the emulator qualifier based on the telnet port
-        serial = String.format("emulator-%d", userPort);
     }
 
     public void cleanUp() {
         // Free up the TCP ports that we reserved
         portAllocator.free(adbPort);
         portAllocator.free(userPort);
-        portAllocator.free(adbServerPort);
+        if (!adbServerShared) {
+            portAllocator.free(adbServerPort);
+        }
         portAllocator.free(emulatorCallbackPort);
     }
 
+    /** Frees the port of an ADB server shared by several emulators, once all of them are stopped. */
+    public void cleanUpSharedAdbServer() {
+        portAllocator.free(adbServerPort);
+    }
+
 	public int adbPort() {
 		return adbPort;
 	}
@@ -108,6 +168,8 @@ public class AndroidEmulatorContext {
 		return adbServerPort;
 	}
     public int getEmulatorCallbackPort() { return emulatorCallbackPort; }
+    public boolean sharesAdbServer() { return sharesAdbServer; }
+    public boolean isAdbServerShared() { return adbServerShared; }
 
 	public String serial() {
 		return serial;
@@ -128,6 +190,10 @@ public class AndroidEmulatorContext {
 		return listener.getLogger();
 	}
 
+	public AdbCommandMetrics adbMetrics() {
+		return adbMetrics;
+	}
+
 	public Proc process() {
 		return emulatorProcess;
 	}
@@ -250,4 +316,87 @@ public class AndroidEmulatorContext {
 	public boolean sendCommand(final String command, int timeout) {
 		return Utils.sendEmulatorCommand(launcher, logger(), userPort, command, timeout);
 	}
+
+	/**
+	 * Runs an adb command for the current context, killing it if it takes longer than
+	 * {@code timeoutMs}.<br>
+	 * If {@code idempotent} is set and adb reports that the device is offline, the command
+	 * is retried a few times before giving up. Latency and outcome of every command are
+	 * recorded in {@link #adbMetrics()}.
+	 *
+	 * @param sdkCmd The adb command to run.
+	 * @param stdout Where to write the command output, or {@code null} to discard it.
+	 * @param timeoutMs The command's timeout, in ms, for each attempt.
+	 * @param idempotent Whether the command can safely be run more than once.
+	 * @return The exit code of the last attempt; non-zero if the command failed or timed out.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int runAdbCommand(final SdkCliCommand sdkCmd, final OutputStream stdout,
+			final int timeoutMs, final boolean idempotent) throws IOException, InterruptedException {
+		final String type = AdbCommandMetrics.getCommandType(sdkCmd.getArgs());
+		final long start = System.currentTimeMillis();
+		int retries = 0;
+		while (true) {
+			final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+			final long attemptStart = System.currentTimeMillis();
+			int result;
+			try {
+				final Proc proc = getToolProcStarter(sdkCmd)
+						.stdout(stdout == null ? new NullStream() : stdout)
+						.stderr(new ForkOutputStream(logger(), errors))
+						.start();
+				result = proc.joinWithTimeout(timeoutMs, TimeUnit.MILLISECONDS, listener);
+			} catch (IOException e) {
+				adbMetrics.record(type, System.currentTimeMillis() - start, Outcome.FAILURE, retries);
+				throw e;
+			}
+
+			if (result == 0) {
+				adbMetrics.record(type, System.currentTimeMillis() - start, Outcome.SUCCESS, retries);
+				return result;
+			}
+			if (System.currentTimeMillis() - attemptStart >= timeoutMs) {
+				AndroidEmulator.log(logger(), Messages.ADB_COMMAND_TIMED_OUT(type, timeoutMs / 1000));
+				adbMetrics.record(type, System.currentTimeMillis() - start, Outcome.TIMEOUT, retries);
+				return result;
+			}
+
+			final String errorOutput = new String(errors.toByteArray(), Charset.defaultCharset());
+			if (!idempotent || retries >= ADB_OFFLINE_RETRIES || !errorOutput.contains("offline")) {
+				adbMetrics.record(type, System.currentTimeMillis() - start, Outcome.FAILURE, retries);
+				return result;
+			}
+
+			retries++;
+			AndroidEmulator.log(logger(), Messages.ADB_DEVICE_OFFLINE_RETRYING(type, retries, ADB_OFFLINE_RETRIES));
+			Thread.sleep(ADB_OFFLINE_RETRY_DELAY_MS);
+		}
+	}
+
+	/**
+	 * Runs an adb command for the current context with the default
+	 * {@link #ADB_COMMAND_TIMEOUT_MS} timeout, discarding its output.
+	 *
+	 * @param sdkCmd The adb command to run.
+	 * @param idempotent Whether the command can safely be run more than once.
+	 * @return Whether the command completed successfully.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public boolean runAdbCommand(final SdkCliCommand sdkCmd, final boolean idempotent)
+			throws IOException, InterruptedException {
+		return runAdbCommand(sdkCmd, null, ADB_COMMAND_TIMEOUT_MS, idempotent) == 0;
+	}
+
+	/**
+	 * Writes the adb command statistics collected so far to the build log.
+	 */
+	public void logAdbMetrics() {
+		for (String line : adbMetrics.getSummary()) {
+			AndroidEmulator.log(logger(), line, true);
+		}
+	}
 }
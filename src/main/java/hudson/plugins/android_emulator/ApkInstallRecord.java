@@ -0,0 +1,226 @@
+package hudson.plugins.android_emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * The APK last installed by this plugin for a package, recorded on the device itself, so that
+ * installing the very same APK again on a reused device can be skipped.<br>
+ * Along with the digest of the APK, the record holds the version, update time and signatures
+ * the package manager reported right after the install: if any of them changed since, the
+ * package was replaced by someone else, and the record no longer applies.
+ */
+public final class ApkInstallRecord {
+
+    /** Directory of the device where the records are kept; writable by the adb shell user. */
+    private static final String RECORD_DIR = "/data/local/tmp";
+
+    /** Lines of {@code dumpsys package} describing the version and signatures of the installed package. */
+    private static final String PACKAGE_INFO_PATTERN = "'versionCode=|lastUpdateTime=|signatures'";
+
+    private static final String API_LEVEL_MARKER = "JENKINS_API_LEVEL";
+    private static final String RECORD_MARKER = "JENKINS_INSTALL_RECORD";
+    private static final String PACKAGE_INFO_MARKER = "JENKINS_PACKAGE_INFO";
+
+    /** Signature hashes in the description of the package signatures, as opposed to object identities. */
+    private static final Pattern SIGNATURE_HASHES = Pattern.compile("\\[[0-9a-fA-F, ]*\\]");
+
+    /** What adb or the package manager reports when the device or adb doesn't know an install option. */
+    private static final Pattern UNSUPPORTED_INSTALL_OPTION = Pattern.compile(
+            "unknown option|unrecognized option|not supported|unsupported", Pattern.CASE_INSENSITIVE);
+
+    /** Prefix of the codes with which the package manager rejects the APK itself, whatever the install mode. */
+    private static final String INSTALL_FAILURE_PREFIX = "INSTALL_";
+
+    /** API level from which {@code adb install} can stream the APK directly to the package manager. */
+    private static final int STREAMING_API_LEVEL = 24;
+
+    /** API level from which {@code adb install} can install incrementally, given a v4 signature file. */
+    private static final int INCREMENTAL_API_LEVEL = 30;
+
+    private final int apiLevel;
+    private final String digest;
+    private final List<String> recordedPackageInfo;
+    private final List<String> packageInfo;
+
+    private ApkInstallRecord(int apiLevel, String digest, List<String> recordedPackageInfo,
+            List<String> packageInfo) {
+        this.apiLevel = apiLevel;
+        this.digest = digest;
+        this.recordedPackageInfo = recordedPackageInfo;
+        this.packageInfo = packageInfo;
+    }
+
+    /**
+     * Gets the shell commands reading the record for a package, along with what the package manager
+     * currently reports about it.
+     *
+     * @param packageId The package installed, or {@code null} to only read the API level of the device.
+     * @return The commands, to run in a single adb shell session; see {@link #parse(String)}.
+     */
+    public static List<String> getReadShellCommands(String packageId) {
+        final String apiLevelCommand = "echo " + API_LEVEL_MARKER + " $(getprop ro.build.version.sdk)";
+        if (packageId == null) {
+            return Collections.singletonList(apiLevelCommand);
+        }
+        return Arrays.asList(
+                apiLevelCommand,
+                "echo " + RECORD_MARKER,
+                "cat " + getRecordPath(packageId) + " 2>/dev/null",
+                "echo " + PACKAGE_INFO_MARKER,
+                getPackageInfoShellCommand(packageId));
+    }
+
+    /**
+     * Gets the shell commands recording that the given APK was just installed for a package.
+     *
+     * @param packageId The package installed.
+     * @param digest The digest of the APK installed.
+     * @return The commands, to run in a single adb shell session.
+     */
+    public static List<String> getWriteShellCommands(String packageId, String digest) {
+        final String path = getRecordPath(packageId);
+        return Arrays.asList(
+                "echo " + digest + " > " + path,
+                getPackageInfoShellCommand(packageId) + " >> " + path);
+    }
+
+    /**
+     * Parses the output of the commands from {@link #getReadShellCommands(String)}.
+     *
+     * @param output The output of the shell session.
+     * @return The record, which is empty if the package was never installed by this plugin.
+     */
+    public static ApkInstallRecord parse(String output) {
+        int apiLevel = 0;
+        String digest = null;
+        final List<String> recorded = new ArrayList<String>();
+        final List<String> current = new ArrayList<String>();
+        List<String> section = null;
+        for (String line : output.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.startsWith(API_LEVEL_MARKER)) {
+                try {
+                    apiLevel = Integer.parseInt(line.substring(API_LEVEL_MARKER.length()).trim());
+                } catch (NumberFormatException ignore) {
+                    // The property couldn't be read: the API level stays unknown, and a classic install is used
+                }
+            } else if (line.equals(RECORD_MARKER)) {
+                section = recorded;
+            } else if (line.equals(PACKAGE_INFO_MARKER)) {
+                section = current;
+            } else if (section == recorded && digest == null) {
+                digest = Util.fixEmpty(line);
+            } else if (section != null && !line.isEmpty()) {
+                section.add(normalize(line));
+            }
+        }
+        return new ApkInstallRecord(apiLevel, digest, recorded, current);
+    }
+
+    /**
+     * @param apkDigest The digest of the APK to install.
+     * @return Whether the package is installed from this very APK, and hasn't been replaced since.
+     */
+    public boolean matches(String apkDigest) {
+        return apkDigest.equals(digest) && !packageInfo.isEmpty() && packageInfo.equals(recordedPackageInfo);
+    }
+
+    /** @return The API level of the device, or {@code 0} if unknown. */
+    public int getApiLevel() {
+        return apiLevel;
+    }
+
+    /**
+     * Chooses the fastest install mode the device supports.
+     *
+     * @param hasSignatureFile Whether the APK has a v4 signature file next to it, needed to install incrementally.
+     * @return The {@code adb install} options, or {@code null} for a classic install.
+     */
+    public String getInstallOptions(boolean hasSignatureFile) {
+        if (apiLevel >= INCREMENTAL_API_LEVEL && hasSignatureFile) {
+            return "--incremental";
+        }
+        if (apiLevel >= STREAMING_API_LEVEL) {
+            return "--streaming";
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether an install with options failed only because of the options, in which case a classic
+     * install may still succeed, as opposed to the package manager rejecting the APK.
+     *
+     * @param output The output of {@code adb install}.
+     * @return Whether the install options are not supported by adb or by the device.
+     */
+    public static boolean isInstallOptionUnsupported(String output) {
+        return !output.contains(INSTALL_FAILURE_PREFIX) && UNSUPPORTED_INSTALL_OPTION.matcher(output).find();
+    }
+
+    /**
+     * Computes the digest of an APK on the node where it is.
+     *
+     * @param apkPath The path to the APK file.
+     * @return The SHA-256 digest of the file, in hexadecimal.
+     */
+    public static String digest(FilePath apkPath) throws IOException, InterruptedException {
+        return apkPath.act(new MasterToSlaveFileCallable<String>() {
+            private static final long serialVersionUID = 1L;
+
+            public String invoke(File f, VirtualChannel channel) throws IOException {
+                final MessageDigest sha256;
+                try {
+                    sha256 = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IOException(e);
+                }
+                try (InputStream is = Files.newInputStream(f.toPath())) {
+                    final byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        sha256.update(buffer, 0, read);
+                    }
+                }
+                return Util.toHexString(sha256.digest());
+            }
+        });
+    }
+
+    private static String getRecordPath(String packageId) {
+        return RECORD_DIR + "/.jenkins-apk-" + packageId;
+    }
+
+    private static String getPackageInfoShellCommand(String packageId) {
+        return "dumpsys package " + packageId + " | grep -E " + PACKAGE_INFO_PATTERN;
+    }
+
+    /** Keeps only the signature hashes of a signatures line, which also holds object identities that change on reboot. */
+    private static String normalize(String line) {
+        if (!line.startsWith("signatures")) {
+            return line;
+        }
+        final StringBuilder hashes = new StringBuilder("signatures=");
+        final Matcher matcher = SIGNATURE_HASHES.matcher(line);
+        while (matcher.find()) {
+            hashes.append(matcher.group());
+        }
+        return hashes.toString();
+    }
+
+}
@@ -63,6 +63,14 @@ public interface Constants {
      */
     static final String SDK_TOOLS_DEFAULT_BUILD_ID = "6609375";
 
+    /**
+     * SHA-256 checksums of the command line tools archives of {@link #SDK_TOOLS_DEFAULT_BUILD_ID},
+     * as published by Google; to be updated along with the build id.
+     */
+    static final String SDK_TOOLS_DEFAULT_SHA256_LINUX = "89f308315e041c93a37a79e0627c47f21d5c5edbe5e80ea8dc0aac8a649e0e92";
+    static final String SDK_TOOLS_DEFAULT_SHA256_MAC = "2c3822db1c916655223e5ee8ce0fbf6b73d0b99012045c9dc8eaa6a5736c0c55";
+    static final String SDK_TOOLS_DEFAULT_SHA256_WINDOWS = "40bba20275180194bebf89bb58c74d712bb93cc401f36bd2f8f32383acf9826c";
+
     static boolean isLatestVersion(AndroidSdk sdk) {
         return sdk != null && sdk.hasCommandLineTools() && Constants.SDK_TOOLS_DEFAULT_VERSION.equals(sdk.getSdkToolsVersion());
     }
@@ -84,9 +92,14 @@ public interface Constants {
     static final String ENV_VAR_ANDROID_AVD_DENSITY = "ANDROID_AVD_DENSITY";
     // Environment variable set by the plugin to specify the serial of the started AVD.
     static final String ENV_VAR_ANDROID_AVD_DEVICE = "ANDROID_AVD_DEVICE";
+    // Environment variables set by the plugin to the comma-separated serials, and number, of the started AVDs.
+    static final String ENV_VAR_ANDROID_AVD_DEVICES = "ANDROID_AVD_DEVICES";
+    static final String ENV_VAR_ANDROID_AVD_DEVICE_COUNT = "ANDROID_AVD_DEVICE_COUNT";
     static final String ENV_VAR_ANDROID_AVD_LOCALE = "ANDROID_AVD_LOCALE";
     static final String ENV_VAR_ANDROID_AVD_NAME = "ANDROID_AVD_NAME";
     static final String ENV_VAR_ANDROID_AVD_OS = "ANDROID_AVD_OS";
+    // Environment variable set by the plugin to the file written once an emulator booting in background is ready.
+    static final String ENV_VAR_ANDROID_AVD_READY_FILE = "ANDROID_AVD_READY_FILE";
     static final String ENV_VAR_ANDROID_AVD_RESOLUTION = "ANDROID_AVD_RESOLUTION";
     static final String ENV_VAR_ANDROID_AVD_SKIN = "ANDROID_AVD_SKIN";
     // Environment variable set by the plugin to specify the telnet interface port.
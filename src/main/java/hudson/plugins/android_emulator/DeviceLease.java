@@ -0,0 +1,168 @@
+package hudson.plugins.android_emulator;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hudson.model.Run;
+import hudson.plugins.android_emulator.sdk.cli.AdbShellCommands;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+
+/**
+ * Tracks the packages installed on a device while a build uses it, so that the device can be
+ * reset by removing just those packages, rather than by restoring a snapshot or rebooting.<br>
+ * The packages found when the lease begins, i.e. once the emulator has booted, are known to
+ * predate the build; any other package, or any package installed by the build steps of this
+ * plugin, was installed during the lease.
+ */
+public final class DeviceLease {
+
+    /** Devices leased by builds, by build and serial. */
+    private static final Map<String, DeviceLease> leases = new ConcurrentHashMap<String, DeviceLease>();
+
+    /** Prefix of each line listed by {@code pm list packages}. */
+    private static final String PACKAGE_PREFIX = "package:";
+
+    /** Printed once the packages have been listed successfully. */
+    private static final String PACKAGES_LISTED = "JENKINS_PACKAGES_LISTED";
+
+    /** Third-party packages present when the lease began, or {@code null} if unknown. */
+    private volatile Set<String> baseline;
+
+    /** Packages installed by the build steps of this plugin. */
+    private final Set<String> installed = ConcurrentHashMap.newKeySet();
+
+    private DeviceLease(Set<String> baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * Begins the lease of a device that has just booted.
+     *
+     * @param build The build using the device.
+     * @param serial The serial of the device.
+     * @param packages The third-party packages installed on the device, or {@code null} if unknown.
+     */
+    static void begin(Run<?, ?> build, String serial, Set<String> packages) {
+        leases.put(getKey(build, serial), new DeviceLease(packages));
+    }
+
+    /**
+     * Ends the lease of a device, once the build no longer uses it.
+     *
+     * @param build The build using the device.
+     * @param serial The serial of the device.
+     */
+    static void end(Run<?, ?> build, String serial) {
+        leases.remove(getKey(build, serial));
+    }
+
+    /**
+     * Records that a build step installed a package on a device, if the device was started by
+     * this plugin.
+     *
+     * @param build The build using the device.
+     * @param serial The serial of the device.
+     * @param packageId The package installed.
+     */
+    public static void recordInstall(Run<?, ?> build, String serial, String packageId) {
+        final DeviceLease lease = leases.get(getKey(build, serial));
+        if (lease != null) {
+            lease.installed.add(packageId);
+        }
+    }
+
+    /**
+     * @param build The build using the device.
+     * @param serial The serial of the device.
+     * @return The lease of the device, or {@code null} if it's unknown what was installed on it.
+     */
+    public static DeviceLease get(Run<?, ?> build, String serial) {
+        return leases.get(getKey(build, serial));
+    }
+
+    /**
+     * Determines which packages were installed since the lease began.
+     *
+     * @param current The third-party packages currently installed, or {@code null} if unknown.
+     * @return The packages installed during the lease, in alphabetical order.
+     */
+    public Set<String> getInstalledPackages(Collection<String> current) {
+        final Set<String> packages = new TreeSet<String>(installed);
+        final Set<String> before = baseline;
+        if (before != null && current != null) {
+            for (String packageId : current) {
+                if (!before.contains(packageId)) {
+                    packages.add(packageId);
+                }
+            }
+        }
+        if (current != null) {
+            // Ignore the packages the build installed, but since removed by itself
+            packages.retainAll(current);
+        }
+        return packages;
+    }
+
+    /**
+     * Starts tracking again from the given state, e.g. after the device was reset.
+     *
+     * @param packages The third-party packages installed on the device, or {@code null} if unknown.
+     */
+    public void restart(Set<String> packages) {
+        installed.clear();
+        baseline = packages;
+    }
+
+    /**
+     * Gets the command listing the third-party packages installed on a device.
+     *
+     * @param adbShellCmds The adb shell commands to use.
+     * @param serial The serial of the device.
+     * @return The command, whose output is to be parsed with {@link #parseListedPackages(String)}.
+     */
+    public static SdkCliCommand getListPackagesCommand(AdbShellCommands adbShellCmds, String serial) {
+        // Tell an empty list apart from a failure, as the exit code of adb shell isn't reliable
+        return adbShellCmds.getBatchShellCommand(serial, Collections.singletonList(
+                adbShellCmds.getListThirdPartyPackagesShellCommand() + " && echo " + PACKAGES_LISTED));
+    }
+
+    /**
+     * Extracts the package IDs from the output of {@link #getListPackagesCommand(AdbShellCommands, String)}.
+     *
+     * @param output The output of the command.
+     * @return The package IDs, or {@code null} if they could not be listed.
+     */
+    public static Set<String> parseListedPackages(String output) {
+        return output != null && output.contains(PACKAGES_LISTED) ? parsePackages(output) : null;
+    }
+
+    /**
+     * Extracts the package IDs from the output of {@code pm list packages}.
+     *
+     * @param output The output of the command.
+     * @return The package IDs.
+     */
+    public static Set<String> parsePackages(String output) {
+        if (output == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> packages = new LinkedHashSet<String>();
+        for (String line : output.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.startsWith(PACKAGE_PREFIX) && line.length() > PACKAGE_PREFIX.length()) {
+                packages.add(line.substring(PACKAGE_PREFIX.length()));
+            }
+        }
+        return packages;
+    }
+
+    private static String getKey(Run<?, ?> build, String serial) {
+        return build.getExternalizableId() + '#' + serial;
+    }
+
+}
@@ -0,0 +1,329 @@
+package hudson.plugins.android_emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.plugins.android_emulator.constants.AndroidKeyEvent;
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.plugins.android_emulator.sdk.cli.AdbShellCommands;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.util.Utils;
+
+/**
+ * An ordered list of actions used to prepare a booted emulator for testing.<br>
+ * All actions are run one after the other within a single 'adb shell' session, rather than
+ * forking one adb process per action, while still reporting the result of each action.
+ */
+public class DevicePreparation {
+
+    /** Marker echoed after each action, followed by the action index and its exit code. */
+    static final String STEP_MARKER = "JENKINS_PREPARATION_STEP";
+
+    private static final Pattern STEP_RESULT_PATTERN = Pattern.compile(
+            "^" + STEP_MARKER + " (\\d+) (\\d+)\\s*$", Pattern.MULTILINE);
+
+    /** Format of a custom setting: {@code <namespace> <key> <value>}. */
+    private static final Pattern SETTING_PATTERN = Pattern.compile(
+            "^(system|secure|global)\\s+([\\w.]+)\\s+([^\\s;&|<>'\"`$\\\\]+)$");
+
+    private static final String[] ANIMATION_SCALE_SETTINGS = {
+        "window_animation_scale", "transition_animation_scale", "animator_duration_scale"
+    };
+
+    /** A single preparation action. */
+    public static final class Step {
+        private final String name;
+        private final String shellCommand;
+
+        Step(final String name, final String shellCommand) {
+            this.name = name;
+            this.shellCommand = shellCommand;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getShellCommand() {
+            return shellCommand;
+        }
+    }
+
+    private final AdbShellCommands adbShellCmds;
+    private final List<Step> steps = new ArrayList<Step>();
+
+    public DevicePreparation(final AdbShellCommands adbShellCmds) {
+        this.adbShellCmds = adbShellCmds;
+    }
+
+    /**
+     * Dismisses the lock screen, then presses Back in case the screen wasn't locked.
+     *
+     * @return this instance
+     */
+    public DevicePreparation unlock() {
+        steps.add(new Step("unlock", adbShellCmds.getDismissKeyguardShellCommand()));
+        steps.add(new Step("back", adbShellCmds.getSendKeyEventShellCommand(AndroidKeyEvent.KEYCODE_BACK)));
+        return this;
+    }
+
+    /**
+     * Clears the main log buffer.
+     *
+     * @return this instance
+     */
+    public DevicePreparation clearLog() {
+        steps.add(new Step("logcat -c", adbShellCmds.getClearMainLogShellCommand()));
+        return this;
+    }
+
+    /**
+     * Writes a message to the device log.
+     *
+     * @param message the message to log
+     * @return this instance
+     */
+    public DevicePreparation logMessage(final String message) {
+        steps.add(new Step("log", adbShellCmds.getLogMessageShellCommand(message)));
+        return this;
+    }
+
+    /**
+     * Disables window, transition and animator animations, which make UI tests slow and flaky.
+     *
+     * @return this instance
+     */
+    public DevicePreparation disableAnimations() {
+        for (String setting : ANIMATION_SCALE_SETTINGS) {
+            putSetting("global", setting, "0");
+        }
+        return this;
+    }
+
+    /**
+     * Keeps the screen on while the device is plugged in to AC, USB or wireless power.
+     *
+     * @return this instance
+     */
+    public DevicePreparation keepScreenOn() {
+        return putSetting("global", "stay_on_while_plugged_in", "7");
+    }
+
+    /**
+     * Prevents the immersive mode confirmation dialog from covering the app under test.
+     *
+     * @return this instance
+     */
+    public DevicePreparation disableImmersiveModeConfirmation() {
+        return putSetting("secure", "immersive_mode_confirmations", "confirmed");
+    }
+
+    /**
+     * Changes a device setting via {@code settings put}.
+     *
+     * @param namespace one of {@code system}, {@code secure} or {@code global}
+     * @param key the setting name
+     * @param value the setting value
+     * @return this instance
+     */
+    public DevicePreparation putSetting(final String namespace, final String key, final String value) {
+        final String setting = String.format("%s %s %s", namespace, key, value);
+        steps.add(new Step("settings put " + setting, "settings put " + setting));
+        return this;
+    }
+
+    /**
+     * Deletes all data of an installed package, leaving the package installed.
+     *
+     * @param packageId the package to clear
+     * @return this instance
+     */
+    public DevicePreparation clearPackageData(final String packageId) {
+        steps.add(new Step("pm clear " + packageId, "pm clear " + packageId));
+        return this;
+    }
+
+    /**
+     * Uninstalls a package, along with its data.
+     *
+     * @param packageId the package to uninstall
+     * @return this instance
+     */
+    public DevicePreparation uninstallPackage(final String packageId) {
+        steps.add(new Step("pm uninstall " + packageId, "pm uninstall " + packageId));
+        return this;
+    }
+
+    /**
+     * Deletes the files left in shared storage and in the temporary directory used by adb,
+     * keeping the app-specific directories of shared storage, which belong to the installed apps.
+     *
+     * @return this instance
+     */
+    public DevicePreparation clearSharedStorage() {
+        steps.add(new Step("clear shared storage", "rm -rf /data/local/tmp/*; for f in /sdcard/*; "
+                + "do [ \"$f\" = /sdcard/Android ] || rm -rf \"$f\"; done"));
+        return this;
+    }
+
+    /**
+     * Adds a custom setting for each non-empty line of the given text, in the format
+     * {@code <namespace> <key> <value>}.
+     *
+     * @param settings the settings, one per line
+     * @return this instance
+     * @throws IllegalArgumentException if a line does not match the expected format
+     */
+    public DevicePreparation putSettings(final String settings) {
+        if (settings == null) {
+            return this;
+        }
+        for (String line : settings.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            final Matcher matcher = SETTING_PATTERN.matcher(line);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException(Messages.INVALID_DEVICE_SETTING(line));
+            }
+            putSetting(matcher.group(1), matcher.group(2), matcher.group(3));
+        }
+        return this;
+    }
+
+    /**
+     * Checks the format of the given custom settings.
+     *
+     * @param settings the settings, one per line
+     * @return the first invalid line, or {@code null} if all settings are valid
+     */
+    public static String getInvalidSetting(final String settings) {
+        if (settings == null) {
+            return null;
+        }
+        for (String line : settings.split("\\r?\\n")) {
+            line = line.trim();
+            if (!line.isEmpty() && !SETTING_PATTERN.matcher(line).matches()) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * @param deviceSerial device to run the actions on
+     * @return a single adb command running every action, each followed by a marker with its exit code
+     */
+    public SdkCliCommand getCommand(final String deviceSerial) {
+        final List<String> shellCommands = new ArrayList<String>(steps.size() * 2);
+        for (int i = 0; i < steps.size(); i++) {
+            shellCommands.add(steps.get(i).getShellCommand());
+            shellCommands.add(String.format("echo %s %d $?", STEP_MARKER, i));
+        }
+        return adbShellCmds.getBatchShellCommand(deviceSerial, shellCommands);
+    }
+
+    /**
+     * Extracts the exit code of each action from the output of {@link #getCommand(String)}.
+     *
+     * @param output the output of the shell session
+     * @return the exit code of each action, in order, or {@code null} for actions that did not run
+     */
+    Integer[] parseResults(final String output) {
+        final Integer[] results = new Integer[steps.size()];
+        final Matcher matcher = STEP_RESULT_PATTERN.matcher(output);
+        while (matcher.find()) {
+            final int index = Integer.parseInt(matcher.group(1));
+            if (index < results.length) {
+                results[index] = Integer.valueOf(matcher.group(2));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs all actions on the emulator and logs the result of each of them.
+     *
+     * @param emu the emulator context
+     * @param timeoutMs how long the whole shell session may take
+     * @return whether every action succeeded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean run(final AndroidEmulatorContext emu, final int timeoutMs)
+            throws IOException, InterruptedException {
+        if (steps.isEmpty()) {
+            return true;
+        }
+
+        final long start = System.currentTimeMillis();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        emu.runAdbCommand(getCommand(emu.serial()), output, timeoutMs, false);
+        return logResults(emu.logger(), output, start);
+    }
+
+    /**
+     * Runs all actions on a device outside of an emulator context, e.g. from a build step,
+     * and logs the result of each of them.
+     *
+     * @param launcher the launcher for the node the device is attached to
+     * @param env the environment to run adb with
+     * @param androidSdk the Android SDK to use
+     * @param deviceSerial the device to run the actions on
+     * @param logger where to log the results
+     * @param timeoutMs how long the whole shell session may take
+     * @return whether every action succeeded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean run(final Launcher launcher, final EnvVars env, final AndroidSdk androidSdk,
+            final String deviceSerial, final PrintStream logger, final int timeoutMs)
+            throws IOException, InterruptedException {
+        if (steps.isEmpty()) {
+            return true;
+        }
+
+        final long start = System.currentTimeMillis();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Utils.runAndroidTool(launcher, env, output, logger, androidSdk, getCommand(deviceSerial), null, timeoutMs);
+        return logResults(logger, output, start);
+    }
+
+    private boolean logResults(final PrintStream logger, final ByteArrayOutputStream output, final long start) {
+        final Integer[] results = parseResults(new String(output.toByteArray(), Charset.defaultCharset()));
+
+        AndroidEmulator.log(logger, Messages.DEVICE_PREPARATION_COMPLETED(steps.size(), System.currentTimeMillis() - start));
+        boolean success = true;
+        for (int i = 0; i < steps.size(); i++) {
+            final String name = steps.get(i).getName();
+            if (results[i] == null) {
+                AndroidEmulator.log(logger, Messages.DEVICE_PREPARATION_STEP_NOT_RUN(name), true);
+                success = false;
+            } else if (results[i] != 0) {
+                AndroidEmulator.log(logger, Messages.DEVICE_PREPARATION_STEP_FAILED(name, results[i]), true);
+                success = false;
+            } else {
+                AndroidEmulator.log(logger, Messages.DEVICE_PREPARATION_STEP_SUCCEEDED(name), true);
+            }
+        }
+        return success;
+    }
+}
@@ -0,0 +1,297 @@
+package hudson.plugins.android_emulator;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.plugins.android_emulator.sdk.cli.AdbShellCommands;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
+import hudson.plugins.android_emulator.sdk.cli.SdkToolsCommands;
+import hudson.plugins.android_emulator.util.Utils;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Resets a device between test runs, using the cheapest strategy that provides the requested
+ * isolation: clearing or removing the packages installed by the build is much faster than
+ * loading a snapshot, which is itself much faster than restarting the device.<br>
+ * If a strategy can't be used, e.g. because it's unknown what the build installed, or fails,
+ * the next more expensive one is tried.
+ */
+public final class DeviceReset {
+
+    /** What should be left of the previous test run once the device is reset. */
+    public enum Isolation {
+        /** The data of the packages installed by the build is deleted. */
+        APP_DATA,
+        /** The packages installed by the build are uninstalled. */
+        APPS,
+        /** The packages installed by the build are uninstalled and shared storage is emptied. */
+        USER_DATA,
+        /** The whole device state is reset, including running processes and system settings. */
+        DEVICE
+    }
+
+    /** The ways to reset a device, from the cheapest to the most expensive. */
+    public enum Strategy {
+        CLEAR_APP_DATA(Isolation.APP_DATA),
+        UNINSTALL_APPS(Isolation.APPS),
+        CLEAR_USER_DATA(Isolation.USER_DATA),
+        LOAD_SNAPSHOT(Isolation.DEVICE),
+        COLD_RESTART(Isolation.DEVICE);
+
+        private final Isolation isolation;
+
+        Strategy(Isolation isolation) {
+            this.isolation = isolation;
+        }
+
+        /** @return Whether this strategy resets at least as much as the given isolation requires. */
+        public boolean provides(Isolation requested) {
+            return isolation.compareTo(requested) >= 0;
+        }
+    }
+
+    /** Snapshots to try loading, in order: the one created by this plugin, then the Quick Boot one. */
+    private static final String[] SNAPSHOT_NAMES = { Constants.SNAPSHOT_NAME, "default_boot" };
+
+    /** Prints the ID of the current boot of the device, which changes on every boot. */
+    private static final String BOOT_ID_COMMAND = "cat /proc/sys/kernel/random/boot_id";
+
+    /** What {@link #BOOT_ID_COMMAND} prints, as opposed to an error. */
+    private static final Pattern BOOT_ID = Pattern.compile("^[0-9a-fA-F-]{36}$");
+
+    /** Serial of an emulator, which includes its console port. */
+    private static final Pattern EMULATOR_SERIAL = Pattern.compile("^emulator-(\\d+)$");
+
+    /** Maximum time to wait, in milliseconds, for adb commands clearing the device. */
+    private static final int ADB_TIMEOUT_MS = 2 * 60 * 1000;
+
+    /** Maximum time to wait, in milliseconds, for a snapshot to load. */
+    private static final int SNAPSHOT_TIMEOUT_MS = 2 * 60 * 1000;
+
+    /** Maximum time to wait, in milliseconds, for the device to boot again after a restart. */
+    private static final int RESTART_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private final Run<?, ?> build;
+    private final Launcher launcher;
+    private final EnvVars env;
+    private final AndroidSdk androidSdk;
+    private final String serial;
+    private final PrintStream logger;
+    private final SdkToolsCommands sdkToolsCmds;
+    /** The shell commands for the API level of the device, read once a strategy needs them. */
+    private AdbShellCommands adbShellCmds;
+
+    public DeviceReset(Run<?, ?> build, Launcher launcher, EnvVars env, AndroidSdk androidSdk,
+            String serial, PrintStream logger) {
+        this.build = build;
+        this.launcher = launcher;
+        this.env = env;
+        this.androidSdk = androidSdk;
+        this.serial = serial;
+        this.logger = logger;
+        this.sdkToolsCmds = SdkCliCommandFactory.getCommandsForSdk(androidSdk);
+    }
+
+    /**
+     * Lists the strategies that provide the given isolation, from the cheapest to the most expensive.
+     *
+     * @param isolation The isolation requested.
+     * @return The strategies to try, in order.
+     */
+    static List<Strategy> getStrategies(Isolation isolation) {
+        final List<Strategy> strategies = new ArrayList<Strategy>();
+        for (Strategy strategy : Strategy.values()) {
+            if (strategy.provides(isolation)) {
+                strategies.add(strategy);
+            }
+        }
+        return strategies;
+    }
+
+    /**
+     * Resets the device, trying each strategy providing the requested isolation until one succeeds.
+     *
+     * @param isolation The isolation requested.
+     * @return The strategy used, or {@code null} if the device could not be reset.
+     */
+    public Strategy reset(Isolation isolation) throws IOException, InterruptedException {
+        final DeviceLease lease = DeviceLease.get(build, serial);
+        for (Strategy strategy : getStrategies(isolation)) {
+            final long start = System.currentTimeMillis();
+            final boolean success;
+            switch (strategy) {
+                case CLEAR_APP_DATA:
+                case UNINSTALL_APPS:
+                case CLEAR_USER_DATA:
+                    // Without knowing what the build installed, the device can only be reset as a whole
+                    final Set<String> current = lease == null ? null : listPackages();
+                    if (current == null) {
+                        log(logger, Messages.RESET_STRATEGY_UNAVAILABLE(strategy));
+                        continue;
+                    }
+                    success = resetPackages(lease, strategy, current);
+                    break;
+                case LOAD_SNAPSHOT:
+                    final Matcher matcher = EMULATOR_SERIAL.matcher(serial);
+                    if (!matcher.matches()) {
+                        log(logger, Messages.RESET_STRATEGY_UNAVAILABLE(strategy));
+                        continue;
+                    }
+                    success = loadSnapshot(lease, Integer.parseInt(matcher.group(1)));
+                    break;
+                default:
+                    success = restart(lease);
+                    break;
+            }
+
+            final long duration = System.currentTimeMillis() - start;
+            DeviceResetAction.get(build).add(serial, isolation, strategy, duration, success);
+            if (success) {
+                log(logger, Messages.DEVICE_RESET_COMPLETED(serial, strategy, duration));
+                return strategy;
+            }
+            log(logger, Messages.RESET_STRATEGY_FAILED(strategy, duration));
+        }
+        return null;
+    }
+
+    /**
+     * Clears or uninstalls the packages installed during the lease, and possibly shared storage.
+     *
+     * @param current The third-party packages installed on the device, or {@code null} if unknown.
+     */
+    private boolean resetPackages(DeviceLease lease, Strategy strategy, Set<String> current)
+            throws IOException, InterruptedException {
+        final Set<String> packages = lease.getInstalledPackages(current);
+        log(logger, Messages.RESETTING_PACKAGES(strategy, packages.size()));
+
+        final DevicePreparation actions = new DevicePreparation(getAdbShellCommands());
+        for (String packageId : packages) {
+            if (strategy == Strategy.CLEAR_APP_DATA) {
+                actions.clearPackageData(packageId);
+            } else {
+                actions.uninstallPackage(packageId);
+            }
+        }
+        if (strategy == Strategy.CLEAR_USER_DATA) {
+            actions.clearSharedStorage();
+        }
+        if (!actions.run(launcher, env, androidSdk, serial, logger, ADB_TIMEOUT_MS)) {
+            return false;
+        }
+
+        // The packages that are left now predate the next test run
+        if (strategy != Strategy.CLEAR_APP_DATA && current != null) {
+            current.removeAll(packages);
+            lease.restart(current);
+        }
+        return true;
+    }
+
+    /** Restores the device from a snapshot, if the emulator has one. */
+    private boolean loadSnapshot(DeviceLease lease, int port) throws IOException, InterruptedException {
+        for (String name : SNAPSHOT_NAMES) {
+            log(logger, Messages.LOADING_SNAPSHOT(name, port));
+            if (Utils.sendEmulatorCommand(launcher, logger, port, "avd snapshot load " + name, SNAPSHOT_TIMEOUT_MS)) {
+                if (lease != null) {
+                    lease.restart(listPackages());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reboots the device, after uninstalling the packages installed during the lease, if known,
+     * as a reboot doesn't remove anything by itself.
+     */
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private boolean restart(DeviceLease lease) throws IOException, InterruptedException {
+        if (lease != null && !resetPackages(lease, Strategy.CLEAR_USER_DATA, listPackages())) {
+            return false;
+        }
+
+        // The device still answers for a while after the reboot command returns, as if it had booted already:
+        // only a device with another boot ID has actually restarted
+        final String bootId = readBootId();
+        if (bootId == null) {
+            return false;
+        }
+        log(logger, Messages.RESTARTING_DEVICE(serial));
+        Utils.runAndroidTool(launcher, env, logger, logger, androidSdk, sdkToolsCmds.getAdbRebootCommand(serial),
+                null, ADB_TIMEOUT_MS);
+
+        // Wait for the device to come back and finish booting
+        final AdbShellCommands shellCmds = getAdbShellCommands();
+        final SdkCliCommand bootCheckCmd = shellCmds.getWaitForDeviceStartupCommand(serial);
+        final String expectedAnswer = shellCmds.getWaitForDeviceStartupExpectedAnswer();
+        final long start = System.currentTimeMillis();
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        while (System.currentTimeMillis() < start + RESTART_TIMEOUT_MS) {
+            stdout.reset();
+            Utils.runAndroidTool(launcher, env, stdout, null, androidSdk, bootCheckCmd, null, ADB_TIMEOUT_MS);
+            if (stdout.toString().trim().equals(expectedAnswer)) {
+                final String newBootId = readBootId();
+                if (newBootId != null && !newBootId.equals(bootId)) {
+                    return true;
+                }
+            }
+            Thread.sleep(1000);
+        }
+        return false;
+    }
+
+    /** @return The ID of the current boot of the device, or {@code null} if it could not be read. */
+    private String readBootId() throws IOException, InterruptedException {
+        final SdkCliCommand bootIdCmd = getAdbShellCommands().getBatchShellCommand(serial,
+                Collections.singletonList(BOOT_ID_COMMAND));
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Utils.runAndroidTool(launcher, env, stdout, null, androidSdk, bootIdCmd, null, ADB_TIMEOUT_MS);
+        final String bootId = new String(stdout.toByteArray(), Charset.defaultCharset()).trim();
+        return BOOT_ID.matcher(bootId).matches() ? bootId : null;
+    }
+
+    /** @return The third-party packages installed on the device, or {@code null} if they could not be listed. */
+    private Set<String> listPackages() throws IOException, InterruptedException {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Utils.runAndroidTool(launcher, env, stdout, logger, androidSdk,
+                DeviceLease.getListPackagesCommand(getAdbShellCommands(), serial), null, ADB_TIMEOUT_MS);
+        return DeviceLease.parseListedPackages(new String(stdout.toByteArray(), Charset.defaultCharset()));
+    }
+
+    /**
+     * @return The shell commands for the API level of the device; the latest ones if the device
+     *         doesn't report its API level.
+     */
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private AdbShellCommands getAdbShellCommands() throws IOException, InterruptedException {
+        if (adbShellCmds == null) {
+            final AdbShellCommands latest = SdkCliCommandFactory.getAdbShellCommandForAPILevel(Integer.MAX_VALUE);
+            final SdkCliCommand apiLevelCmd = latest.getBatchShellCommand(serial,
+                    ApkInstallRecord.getReadShellCommands(null));
+            final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            Utils.runAndroidTool(launcher, env, stdout, null, androidSdk, apiLevelCmd, null, ADB_TIMEOUT_MS);
+            final int apiLevel = ApkInstallRecord.parse(stdout.toString()).getApiLevel();
+            adbShellCmds = apiLevel > 0 ? SdkCliCommandFactory.getAdbShellCommandForAPILevel(apiLevel) : latest;
+        }
+        return adbShellCmds;
+    }
+
+}
@@ -0,0 +1,125 @@
+package hudson.plugins.android_emulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The device resets done during a build, with the strategy used and how long each attempt took,
+ * to tell how much time isolating test runs costs.
+ */
+@ExportedBean
+public class DeviceResetAction implements Action {
+
+    /** A single attempt to reset a device. */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Entry {
+        private final String serial;
+        private final DeviceReset.Isolation isolation;
+        private final DeviceReset.Strategy strategy;
+        private final long durationMs;
+        private final boolean success;
+
+        Entry(String serial, DeviceReset.Isolation isolation, DeviceReset.Strategy strategy,
+                long durationMs, boolean success) {
+            this.serial = serial;
+            this.isolation = isolation;
+            this.strategy = strategy;
+            this.durationMs = durationMs;
+            this.success = success;
+        }
+
+        @Exported
+        public String getSerial() {
+            return serial;
+        }
+
+        @Exported
+        public DeviceReset.Isolation getIsolation() {
+            return isolation;
+        }
+
+        @Exported
+        public DeviceReset.Strategy getStrategy() {
+            return strategy;
+        }
+
+        @Exported
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        @Exported
+        public boolean isSuccess() {
+            return success;
+        }
+    }
+
+    /** Guards the creation of the action, as several devices may be reset at once. */
+    private static final Object LOCK = new Object();
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * @param build The build whose resets should be recorded.
+     * @return The action of the build, added to it if it didn't have one yet.
+     */
+    static DeviceResetAction get(Run<?, ?> build) {
+        synchronized (LOCK) {
+            DeviceResetAction action = build.getAction(DeviceResetAction.class);
+            if (action == null) {
+                action = new DeviceResetAction();
+                build.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    synchronized void add(String serial, DeviceReset.Isolation isolation, DeviceReset.Strategy strategy,
+            long durationMs, boolean success) {
+        entries.add(new Entry(serial, isolation, strategy, durationMs, success));
+    }
+
+    @Exported
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries));
+    }
+
+    @Exported
+    public synchronized int getResetCount() {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.success) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Exported
+    public synchronized long getTotalDurationMs() {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.durationMs;
+        }
+        return total;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
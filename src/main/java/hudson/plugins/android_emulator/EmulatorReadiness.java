@@ -0,0 +1,151 @@
+package hudson.plugins.android_emulator;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Result;
+
+/**
+ * Tracks an emulator that boots in background while the build steps already run.<br>
+ * The steps that need the device wait for the boot via {@link #await(AbstractBuild, PrintStream)};
+ * shell steps can instead wait for the file exported as {@code $ANDROID_AVD_READY_FILE}, which
+ * is written with either "ready" or "failed" once the boot is over.<br>
+ * The boot never touches the build result itself, as it runs on a thread of its own: a failure
+ * is recorded, and applied by the build step that waits for it.
+ */
+public final class EmulatorReadiness {
+
+    /** Emulators booting in background, by build and serial. */
+    private static final Map<String, EmulatorReadiness> emulators = new ConcurrentHashMap<String, EmulatorReadiness>();
+
+    private final String buildId;
+    private final String serial;
+    private final FilePath readyFile;
+    private final CompletableFuture<Result> result = new CompletableFuture<Result>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile Future<?> task;
+
+    private EmulatorReadiness(String buildId, String serial, FilePath readyFile) {
+        this.buildId = buildId;
+        this.serial = serial;
+        this.readyFile = readyFile;
+    }
+
+    /**
+     * Starts booting an emulator in background.
+     *
+     * @param build The build the emulator belongs to.
+     * @param serial The serial of the emulator.
+     * @param readyFile File written once the boot is over.
+     * @param listener Used to log unexpected boot failures.
+     * @param boot Waits for the emulator to boot and prepares it, returning {@link Result#SUCCESS} if it
+     *            succeeded, or else the result the build should end with.
+     * @return The readiness of the emulator.
+     */
+    static EmulatorReadiness start(AbstractBuild<?, ?> build, String serial, FilePath readyFile,
+            final BuildListener listener, final Callable<Result> boot) {
+        final EmulatorReadiness readiness = new EmulatorReadiness(build.getExternalizableId(), serial, readyFile);
+        emulators.put(readiness.getKey(), readiness);
+        readiness.task = Computer.threadPoolForRemoting.submit(() -> {
+            if (!readiness.started.compareAndSet(false, true)) {
+                // Stopped before it could even start
+                return;
+            }
+            Result ready = Result.FAILURE;
+            try {
+                ready = boot.call();
+            } catch (InterruptedException ex) {
+                // The build is over
+                ready = Result.ABORTED;
+            } catch (Exception ex) {
+                log(listener.getLogger(), Messages.EMULATOR_BOOT_FAILED(), ex);
+            }
+            try {
+                readiness.readyFile.write(ready == Result.SUCCESS ? "ready" : "failed", "UTF-8");
+            } catch (IOException | InterruptedException ignore) {}
+            readiness.result.complete(ready);
+        });
+        return readiness;
+    }
+
+    /**
+     * Waits for the emulators of the given build that are booting in background, if any.
+     *
+     * @param build The build whose emulators should be waited for.
+     * @param logger Used to log the wait.
+     * @return {@link Result#SUCCESS} if all of the emulators are ready; otherwise the result the build
+     *         should end with, which the caller is expected to set.
+     */
+    public static Result await(AbstractBuild<?, ?> build, PrintStream logger) throws InterruptedException {
+        final String buildId = build.getExternalizableId();
+        final List<EmulatorReadiness> booting = new ArrayList<EmulatorReadiness>();
+        for (EmulatorReadiness readiness : emulators.values()) {
+            if (readiness.buildId.equals(buildId)) {
+                booting.add(readiness);
+            }
+        }
+
+        Result ready = Result.SUCCESS;
+        for (EmulatorReadiness readiness : booting) {
+            if (!readiness.result.isDone()) {
+                log(logger, Messages.WAITING_FOR_BACKGROUND_BOOT(readiness.serial));
+            }
+            ready = ready.combine(readiness.get());
+        }
+        return ready;
+    }
+
+    /** @return The file written once the boot is over. */
+    FilePath getReadyFile() {
+        return readyFile;
+    }
+
+    /**
+     * Aborts the boot, if still in progress, and waits for it to be over.
+     *
+     * @return {@code true} if the emulator had finished booting successfully.
+     */
+    boolean stop() throws InterruptedException {
+        emulators.remove(getKey(), this);
+        if (started.compareAndSet(false, true)) {
+            result.complete(Result.ABORTED);
+        } else if (!result.isDone()) {
+            task.cancel(true);
+        }
+        try {
+            return get() == Result.SUCCESS;
+        } finally {
+            try {
+                readyFile.delete();
+            } catch (IOException ignore) {}
+        }
+    }
+
+    private Result get() throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException ex) {
+            return Result.FAILURE;
+        }
+    }
+
+    private String getKey() {
+        return buildId + '#' + serial;
+    }
+
+}
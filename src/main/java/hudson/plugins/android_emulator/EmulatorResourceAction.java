@@ -0,0 +1,165 @@
+package hudson.plugins.android_emulator;
+
+import java.util.Arrays;
+
+import hudson.model.Action;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Resources used by the emulator during a build, sampled at a regular interval.<br>
+ * To keep the build record small, the number of samples is bounded: once full, adjacent
+ * samples are merged and the sampling interval doubles.
+ */
+@ExportedBean
+public class EmulatorResourceAction implements Action {
+
+    /** Maximum number of samples kept per series. */
+    static final int MAX_SAMPLES = 512;
+
+    private final String avdName;
+    private int intervalSecs;
+    private int count;
+    private int[] cpuPercent = new int[16];
+    private int[] rssMb = new int[16];
+    private long ioBytes;
+
+    /** Whether sampling has finished; a sample arriving late is then ignored. */
+    private transient boolean completed;
+
+    public EmulatorResourceAction(String avdName, int intervalSecs) {
+        this.avdName = avdName;
+        this.intervalSecs = intervalSecs;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param cpu CPU usage since the previous sample, in percent of a single core.
+     * @param rss Resident memory, in MB.
+     * @param totalIoBytes Bytes read and written since the emulator started.
+     */
+    synchronized void add(int cpu, int rss, long totalIoBytes) {
+        if (completed) {
+            return;
+        }
+        if (count == MAX_SAMPLES) {
+            // Merge adjacent samples, averaging CPU usage but keeping the memory peak
+            for (int i = 0; i < count / 2; i++) {
+                cpuPercent[i] = (cpuPercent[2 * i] + cpuPercent[2 * i + 1]) / 2;
+                rssMb[i] = Math.max(rssMb[2 * i], rssMb[2 * i + 1]);
+            }
+            count /= 2;
+            intervalSecs *= 2;
+        } else if (count == cpuPercent.length) {
+            cpuPercent = Arrays.copyOf(cpuPercent, Math.max(1, Math.min(count * 2, MAX_SAMPLES)));
+            rssMb = Arrays.copyOf(rssMb, cpuPercent.length);
+        }
+        cpuPercent[count] = cpu;
+        rssMb[count] = rss;
+        count++;
+        ioBytes = Math.max(ioBytes, totalIoBytes);
+    }
+
+    /** Trims the series once sampling has finished. */
+    synchronized void complete() {
+        completed = true;
+        cpuPercent = Arrays.copyOf(cpuPercent, count);
+        rssMb = Arrays.copyOf(rssMb, count);
+    }
+
+    @Exported
+    public String getAvdName() {
+        return avdName;
+    }
+
+    @Exported
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    @Exported
+    public synchronized int getIntervalSecs() {
+        return intervalSecs;
+    }
+
+    @Exported
+    public synchronized int getDurationSecs() {
+        return count * intervalSecs;
+    }
+
+    @Exported
+    public synchronized int getPeakCpuPercent() {
+        int peak = 0;
+        for (int i = 0; i < count; i++) {
+            peak = Math.max(peak, cpuPercent[i]);
+        }
+        return peak;
+    }
+
+    @Exported
+    public synchronized int getAverageCpuPercent() {
+        if (count == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += cpuPercent[i];
+        }
+        return (int) (total / count);
+    }
+
+    @Exported
+    public synchronized int getPeakRssMb() {
+        int peak = 0;
+        for (int i = 0; i < count; i++) {
+            peak = Math.max(peak, rssMb[i]);
+        }
+        return peak;
+    }
+
+    @Exported
+    public synchronized long getIoMb() {
+        return ioBytes / (1024 * 1024);
+    }
+
+    /* Used in summary.jelly: SVG polyline points for the CPU usage chart. */
+    public String getCpuChartPoints() {
+        return getChartPoints(cpuPercent, Math.max(100, getPeakCpuPercent()));
+    }
+
+    /* Used in summary.jelly: SVG polyline points for the memory usage chart. */
+    public String getRssChartPoints() {
+        return getChartPoints(rssMb, Math.max(1, getPeakRssMb()));
+    }
+
+    /**
+     * Scales a series to a 100x100 chart.
+     *
+     * @param series The values to plot.
+     * @param max The value plotted at the top of the chart.
+     * @return The points, formatted for the {@code points} attribute of an SVG polyline.
+     */
+    synchronized String getChartPoints(int[] series, int max) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            final int x = count == 1 ? 0 : i * 100 / (count - 1);
+            final int y = 100 - (series[i] * 100 / max);
+            sb.append(x).append(',').append(y).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
@@ -0,0 +1,107 @@
+package hudson.plugins.android_emulator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+
+/**
+ * Shows, on the job page, the resources used by each emulator configuration over recent builds.
+ */
+public class EmulatorResourceProjectAction implements Action {
+
+    /** Number of recent builds to aggregate. */
+    private static final int BUILD_COUNT = 20;
+
+    /** Resource usage aggregated over the builds that ran a single emulator configuration. */
+    public static final class Aggregate {
+        private final String avdName;
+        private int builds;
+        private long totalCpuPercent;
+        private int peakCpuPercent;
+        private long totalPeakRssMb;
+        private int peakRssMb;
+        private long totalIoMb;
+
+        Aggregate(String avdName) {
+            this.avdName = avdName;
+        }
+
+        void add(EmulatorResourceAction usage) {
+            builds++;
+            totalCpuPercent += usage.getAverageCpuPercent();
+            peakCpuPercent = Math.max(peakCpuPercent, usage.getPeakCpuPercent());
+            totalPeakRssMb += usage.getPeakRssMb();
+            peakRssMb = Math.max(peakRssMb, usage.getPeakRssMb());
+            totalIoMb += usage.getIoMb();
+        }
+
+        public String getAvdName() {
+            return avdName;
+        }
+
+        public int getBuilds() {
+            return builds;
+        }
+
+        public long getAverageCpuPercent() {
+            return totalCpuPercent / builds;
+        }
+
+        public int getPeakCpuPercent() {
+            return peakCpuPercent;
+        }
+
+        public long getAveragePeakRssMb() {
+            return totalPeakRssMb / builds;
+        }
+
+        public int getPeakRssMb() {
+            return peakRssMb;
+        }
+
+        public long getAverageIoMb() {
+            return totalIoMb / builds;
+        }
+    }
+
+    private final AbstractProject<?, ?> project;
+
+    public EmulatorResourceProjectAction(AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    /* Used in floatingBox.jelly: one entry per emulator configuration seen in recent builds. */
+    public List<Aggregate> getAggregates() {
+        final Map<String, Aggregate> aggregates = new LinkedHashMap<String, Aggregate>();
+        int remaining = BUILD_COUNT;
+        for (AbstractBuild<?, ?> build = project.getLastCompletedBuild();
+                build != null && remaining > 0; build = build.getPreviousCompletedBuild(), remaining--) {
+            for (EmulatorResourceAction usage : build.getActions(EmulatorResourceAction.class)) {
+                Aggregate aggregate = aggregates.get(usage.getAvdName());
+                if (aggregate == null) {
+                    aggregate = new Aggregate(usage.getAvdName());
+                    aggregates.put(usage.getAvdName(), aggregate);
+                }
+                aggregate.add(usage);
+            }
+        }
+        return new ArrayList<Aggregate>(aggregates.values());
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
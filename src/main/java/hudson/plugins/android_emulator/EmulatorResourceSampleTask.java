@@ -0,0 +1,179 @@
+package hudson.plugins.android_emulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Task that measures the resources used so far by the emulator process tree on the build node,
+ * i.e. the process started with the given {@code -ports} argument and all of its children.<br>
+ * Resource usage is read from {@code /proc}, so it's only available on Linux.
+ */
+public final class EmulatorResourceSampleTask extends MasterToSlaveCallable<long[], IOException> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Length of a kernel clock tick, in milliseconds; USER_HZ is 100 on all common Linux builds. */
+    private static final int CLOCK_TICK_MS = 10;
+
+    /** Index of the result elements: CPU time in ms, resident memory in kB, bytes read and written. */
+    public static final int CPU_MS = 0, RSS_KB = 1, IO_BYTES = 2;
+
+    private final String commandLineMarker;
+
+    /**
+     * @param userPort The emulator's telnet port.
+     * @param adbPort The emulator's adb port.
+     */
+    public EmulatorResourceSampleTask(int userPort, int adbPort) {
+        this.commandLineMarker = String.format("-ports %d,%d", userPort, adbPort);
+    }
+
+    /**
+     * @return The resources used by the emulator process tree, indexed by {@link #CPU_MS},
+     *         {@link #RSS_KB} and {@link #IO_BYTES}, or {@code null} if they can't be determined.
+     */
+    public long[] call() throws IOException {
+        final File[] processes = new File("/proc").listFiles();
+        if (processes == null) {
+            return null;
+        }
+
+        // Find the emulator processes and the parent of every process
+        final Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+        final Deque<Integer> pending = new ArrayDeque<Integer>();
+        for (File dir : processes) {
+            final int pid = parsePid(dir.getName());
+            if (pid <= 0) {
+                continue;
+            }
+            final String stat = read(new File(dir, "stat"));
+            final String cmdline = read(new File(dir, "cmdline"));
+            if (stat == null || cmdline == null) {
+                // The process has exited meanwhile
+                continue;
+            }
+            final long[] values = parseStat(stat);
+            if (values == null) {
+                continue;
+            }
+            final int ppid = (int) values[0];
+            List<Integer> siblings = children.get(ppid);
+            if (siblings == null) {
+                siblings = new ArrayList<Integer>();
+                children.put(ppid, siblings);
+            }
+            siblings.add(pid);
+            if (cmdline.replace('\0', ' ').contains(commandLineMarker)) {
+                pending.add(pid);
+            }
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+
+        // Sum up the usage of the whole process tree
+        final long[] usage = new long[3];
+        final Set<Integer> visited = new HashSet<Integer>();
+        while (!pending.isEmpty()) {
+            final int pid = pending.poll();
+            if (!visited.add(pid)) {
+                continue;
+            }
+            final File dir = new File("/proc", Integer.toString(pid));
+            final long[] stat = parseStat(read(new File(dir, "stat")));
+            if (stat != null) {
+                usage[CPU_MS] += (stat[1] + stat[2]) * CLOCK_TICK_MS;
+            }
+            usage[RSS_KB] += parseField(read(new File(dir, "status")), "VmRSS:");
+            final String io = read(new File(dir, "io"));
+            usage[IO_BYTES] += parseField(io, "read_bytes:") + parseField(io, "write_bytes:");
+
+            final List<Integer> childPids = children.get(pid);
+            if (childPids != null) {
+                pending.addAll(childPids);
+            }
+        }
+        return usage;
+    }
+
+    private static int parsePid(String name) {
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String read(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // The process has exited, or we're not allowed to read this
+            return null;
+        }
+    }
+
+    /**
+     * Parses the contents of {@code /proc/<pid>/stat}.
+     *
+     * @param stat The file contents.
+     * @return The parent pid, user time and system time (in clock ticks), or {@code null} if invalid.
+     */
+    static long[] parseStat(String stat) {
+        if (stat == null) {
+            return null;
+        }
+        // The command name may contain spaces and parentheses, so skip everything up to the last ')'
+        final int end = stat.lastIndexOf(')');
+        if (end < 0) {
+            return null;
+        }
+        final String[] fields = stat.substring(end + 1).trim().split("\\s+");
+        if (fields.length < 13) {
+            return null;
+        }
+        try {
+            // Fields following the name: state, ppid, pgrp, session, tty_nr, tpgid, flags,
+            // minflt, cminflt, majflt, cmajflt, utime, stime
+            return new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[11]), Long.parseLong(fields[12]) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the numeric value of a "key: value" line, as in {@code /proc/<pid>/status} or {@code io}.
+     *
+     * @param content The file contents.
+     * @param key The key, including the trailing colon.
+     * @return The value, or {@code 0} if it could not be found.
+     */
+    static long parseField(String content, String key) {
+        if (content == null) {
+            return 0;
+        }
+        for (String line : content.split("\n")) {
+            if (line.startsWith(key)) {
+                final String[] parts = line.substring(key.length()).trim().split("\\s+");
+                try {
+                    return Long.parseLong(parts[0]);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
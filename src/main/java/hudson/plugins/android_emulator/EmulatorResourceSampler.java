@@ -0,0 +1,100 @@
+package hudson.plugins.android_emulator;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.remoting.VirtualChannel;
+import jenkins.util.Timer;
+
+/**
+ * Periodically samples the CPU, memory and disk I/O used by the emulator process tree, and
+ * attaches the result to the build as an {@link EmulatorResourceAction}.
+ */
+public class EmulatorResourceSampler implements Runnable {
+
+    private final AbstractBuild<?, ?> build;
+    private final AndroidEmulatorContext emu;
+    private final EmulatorResourceSampleTask task;
+    private final EmulatorResourceAction usage;
+    private final long intervalMs;
+
+    private volatile boolean stopped;
+    private ScheduledFuture<?> nextSample;
+    private volatile Future<?> sampling;
+    private long lastCpuMs = -1;
+    private long lastSampleTime;
+
+    public EmulatorResourceSampler(final AbstractBuild<?, ?> build, final AndroidEmulatorContext emu,
+            final String avdName, final int intervalSecs) {
+        this.build = build;
+        this.emu = emu;
+        this.task = new EmulatorResourceSampleTask(emu.userPort(), emu.adbPort());
+        this.usage = new EmulatorResourceAction(avdName, intervalSecs);
+        this.intervalMs = TimeUnit.SECONDS.toMillis(intervalSecs);
+    }
+
+    /** Starts sampling in the background. */
+    public synchronized void start() {
+        // Sampling is a remote call, so the shared timer only triggers it, skipping a tick if the
+        // previous sample is still being taken
+        nextSample = Timer.get().scheduleWithFixedDelay(() -> {
+            final Future<?> previous = sampling;
+            if (!stopped && (previous == null || previous.isDone())) {
+                sampling = Computer.threadPoolForRemoting.submit(this);
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops sampling, then attaches the collected samples to the build and logs a summary. */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        if (nextSample != null) {
+            nextSample.cancel(false);
+        }
+        usage.complete();
+        if (usage.getSampleCount() == 0) {
+            AndroidEmulator.log(emu.logger(), Messages.RESOURCE_USAGE_UNAVAILABLE());
+            return;
+        }
+        build.addAction(usage);
+        AndroidEmulator.log(emu.logger(), Messages.RESOURCE_USAGE_SUMMARY(usage.getAverageCpuPercent(),
+                usage.getPeakCpuPercent(), usage.getPeakRssMb(), usage.getIoMb()));
+    }
+
+    @Override
+    public void run() {
+        if (stopped) {
+            return;
+        }
+        final VirtualChannel channel = emu.launcher().getChannel();
+        if (channel == null) {
+            return;
+        }
+        try {
+            final long[] sample = channel.call(task);
+            final long now = System.currentTimeMillis();
+            if (sample == null || stopped) {
+                return;
+            }
+            final long cpuMs = sample[EmulatorResourceSampleTask.CPU_MS];
+            if (lastCpuMs >= 0 && now > lastSampleTime) {
+                final int cpuPercent = (int) ((cpuMs - lastCpuMs) * 100 / (now - lastSampleTime));
+                final int rssMb = (int) (sample[EmulatorResourceSampleTask.RSS_KB] / 1024);
+                usage.add(Math.max(0, cpuPercent), rssMb, sample[EmulatorResourceSampleTask.IO_BYTES]);
+            }
+            lastCpuMs = cpuMs;
+            lastSampleTime = now;
+        } catch (IOException e) {
+            // The node may be going away; the next sample will tell
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package hudson.plugins.android_emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.sdk.cli.SdkToolsCommands;
+import jenkins.util.Timer;
+
+/**
+ * Periodically checks that a running emulator is still healthy, i.e. that its console
+ * responds and that adb still sees the device online.<br>
+ * While checks fail, the interval between them backs off; once several consecutive checks
+ * have failed the configured {@link Action} is taken, once per failure streak.<br>
+ * Checks run in background, so the build result they call for is only recorded, and applied by
+ * the build once the watchdog is stopped.
+ */
+public class EmulatorWatchdog implements Runnable {
+
+    /** What to do when the emulator is considered unhealthy. */
+    public enum Action {
+        /** Only log the failure. */
+        LOG,
+        /** Mark the build as unstable. */
+        UNSTABLE,
+        /** Write a bug report to the workspace and mark the build as unstable. */
+        DIAGNOSTICS,
+        /** Restore the emulator from the "jenkins" snapshot, if any, otherwise mark the build as unstable. */
+        RESTART
+    }
+
+    /** How long a single check may take. */
+    private static final int CHECK_TIMEOUT_MS = 10 * 1000;
+
+    /** How long writing a bug report may take. */
+    private static final int BUG_REPORT_TIMEOUT_MS = 5 * 60 * 1000;
+
+    /** Number of consecutive failed checks after which the emulator is considered unhealthy. */
+    private static final int FAILURE_THRESHOLD = 3;
+
+    /** Upper bound of the interval between checks while backing off. */
+    private static final long MAX_INTERVAL_MS = 5 * 60 * 1000;
+
+    /** Directory within the workspace where diagnostics are written. */
+    static final String DIAGNOSTICS_DIR = "android-emulator-diagnostics";
+
+    private final AbstractBuild<?, ?> build;
+    private final AndroidEmulatorContext emu;
+    private final SdkToolsCommands sdkToolsCmds;
+    private final Action action;
+    private final boolean canRestoreSnapshot;
+    private final long intervalMs;
+
+    /** Held while a check runs, so that stopping waits for it. */
+    private final Object checkLock = new Object();
+
+    private volatile boolean stopped;
+    private volatile Result verdict = Result.SUCCESS;
+    private ScheduledFuture<?> nextCheck;
+    private Future<?> check;
+    private long currentIntervalMs;
+    private int failures;
+    private int reports;
+
+    public EmulatorWatchdog(final AbstractBuild<?, ?> build, final AndroidEmulatorContext emu,
+            final SdkToolsCommands sdkToolsCmds, final int intervalSecs, final Action action,
+            final boolean canRestoreSnapshot) {
+        this.build = build;
+        this.emu = emu;
+        this.sdkToolsCmds = sdkToolsCmds;
+        this.action = action == null ? Action.LOG : action;
+        this.canRestoreSnapshot = canRestoreSnapshot;
+        this.intervalMs = TimeUnit.SECONDS.toMillis(intervalSecs);
+        this.currentIntervalMs = intervalMs;
+    }
+
+    /** Starts checking the emulator in the background. */
+    public synchronized void start() {
+        AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_STARTED(intervalMs / 1000, action));
+        schedule();
+    }
+
+    /**
+     * Stops checking the emulator; any check in progress is interrupted, and waited for, so that
+     * it does not act on the emulator while it is shut down.
+     *
+     * @return The result the build should end with, given the checks done so far.
+     */
+    public Result stop() {
+        final Future<?> running;
+        synchronized (this) {
+            stopped = true;
+            if (nextCheck != null) {
+                nextCheck.cancel(false);
+            }
+            running = check;
+        }
+        if (running != null) {
+            running.cancel(true);
+        }
+        synchronized (checkLock) {
+            return verdict;
+        }
+    }
+
+    private synchronized void schedule() {
+        if (!stopped) {
+            // Checks block on adb for a while, so the shared timer only triggers them
+            nextCheck = Timer.get().schedule(this::submit, currentIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void submit() {
+        if (!stopped) {
+            check = Computer.threadPoolForRemoting.submit(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        synchronized (checkLock) {
+            if (stopped || !check()) {
+                return;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * @return {@code true} if the next check should be scheduled.
+     */
+    private boolean check() {
+        try {
+            final boolean healthy = isHealthy();
+            if (stopped) {
+                return false;
+            }
+            if (healthy) {
+                if (failures >= FAILURE_THRESHOLD) {
+                    AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_RECOVERED());
+                }
+                failures = 0;
+                currentIntervalMs = intervalMs;
+            } else {
+                failures++;
+                currentIntervalMs = Math.min(currentIntervalMs * 2, Math.max(intervalMs, MAX_INTERVAL_MS));
+                if (failures == FAILURE_THRESHOLD) {
+                    AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_FAILED(failures));
+                    handleFailure();
+                }
+            }
+        } catch (InterruptedException e) {
+            // The build is being torn down
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_ERROR(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the emulator console responds and adb reports the device as online.
+     */
+    private boolean isHealthy() throws IOException, InterruptedException {
+        if (!emu.sendCommand("ping", CHECK_TIMEOUT_MS)) {
+            return false;
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final SdkCliCommand getStateCmd = sdkToolsCmds.getAdbGetStateCommand(emu.serial());
+        final int result = emu.runAdbCommand(getStateCmd, output, CHECK_TIMEOUT_MS, false);
+        final String state = new String(output.toByteArray(), Charset.defaultCharset()).trim();
+        if (result != 0 || !"device".equals(state)) {
+            AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_DEVICE_STATE(state.isEmpty() ? "unknown" : state));
+            return false;
+        }
+        return true;
+    }
+
+    private void handleFailure() throws IOException, InterruptedException {
+        switch (action) {
+            case DIAGNOSTICS:
+                writeBugReport();
+                markUnstable();
+                break;
+            case RESTART:
+                if (canRestoreSnapshot) {
+                    AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_RESTORING_SNAPSHOT());
+                    final int timeout = AndroidEmulatorContext.EMULATOR_COMMAND_TIMEOUT_MS * 2;
+                    if (emu.sendCommand("avd snapshot load " + Constants.SNAPSHOT_NAME, timeout)) {
+                        break;
+                    }
+                }
+                markUnstable();
+                break;
+            case UNSTABLE:
+                markUnstable();
+                break;
+            case LOG:
+            default:
+                break;
+        }
+    }
+
+    private void markUnstable() {
+        AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_MARKING_UNSTABLE());
+        verdict = Result.UNSTABLE;
+    }
+
+    private void writeBugReport() throws IOException, InterruptedException {
+        final FilePath workspace = build.getWorkspace();
+        if (workspace == null) {
+            return;
+        }
+        final FilePath diagnosticsDir = workspace.child(DIAGNOSTICS_DIR);
+        diagnosticsDir.mkdirs();
+        final FilePath bugReport = diagnosticsDir.child(String.format("bugreport-%s-%d.zip", emu.serial(), ++reports));
+
+        // The bug report also includes the ANR traces and the state of system_server
+        AndroidEmulator.log(emu.logger(), Messages.HEALTH_CHECK_WRITING_BUG_REPORT(bugReport.getRemote()));
+        final SdkCliCommand bugReportCmd = sdkToolsCmds.getAdbBugReportCommand(emu.serial(), bugReport.getRemote());
+        emu.runAdbCommand(bugReportCmd, null, BUG_REPORT_TIMEOUT_MS, false);
+    }
+}
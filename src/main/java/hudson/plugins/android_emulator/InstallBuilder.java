@@ -26,6 +26,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.regex.Pattern;
 
 public class InstallBuilder extends AbstractBuilder {
@@ -33,6 +34,9 @@ public class InstallBuilder extends AbstractBuilder {
     /** Maximum time to wait, in milliseconds, for an APK to install. */
     private static final int INSTALL_TIMEOUT = 2 * 60 * 1000;
 
+    /** Maximum time to wait, in milliseconds, to read or write the install record of a device. */
+    private static final int RECORD_TIMEOUT = 30 * 1000;
+
     /** Path to the APK to be installed, relative to the workspace. */
     private final String apkFile;
 
@@ -69,7 +73,7 @@ public class InstallBuilder extends AbstractBuilder {
         final PrintStream logger = listener.getLogger();
 
         // Discover Android SDK
-        AndroidSdk androidSdk = getAndroidSdk(build, launcher, listener);
+        final AndroidSdk androidSdk = getAndroidSdk(build, launcher, listener);
         if (androidSdk == null) {
             return false;
         }
@@ -96,36 +100,127 @@ public class InstallBuilder extends AbstractBuilder {
             return false;
         }
 
-        // Determine which device to use
-        final String deviceIdentifier = getDeviceIdentifier(build, listener);
-
-        // Wait for package manager to become ready
-        AndroidEmulator.log(logger, Messages.WAITING_FOR_CORE_PROCESS());
-        boolean ready = waitForCoreProcess(build, launcher, androidSdk, deviceIdentifier);
-        if (!ready) {
-            AndroidEmulator.log(logger, Messages.CORE_PROCESS_DID_NOT_START());
+        // Identify the APK, so that installing it again on a device where it's unchanged can be skipped
+        String packageId;
+        try {
+            packageId = getPackageIdForApk(apkPath);
+        } catch (IOException e) {
+            // The package manager may still accept it, but it can't be told whether it's already installed
+            packageId = null;
         }
+        final String apkPackageId = packageId;
+        final String apkDigest = apkPackageId == null ? null : ApkInstallRecord.digest(apkPath);
+        final boolean hasSignatureFile = apkPath.sibling(apkPath.getName() + ".idsig").exists();
 
-        // Uninstall APK first, if requested
-        if (shouldUninstallFirst()) {
-            uninstallApk(build, launcher, logger, androidSdk, deviceIdentifier, apkPath);
+        // Wait for the emulator, if it's still booting in background
+        if (!waitForEmulator(build, listener)) {
+            return false;
         }
 
-        // Execute installation
-        AndroidEmulator.log(logger, Messages.INSTALLING_APK(apkPath.getName()));
-        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
-        ForkOutputStream forkStream = new ForkOutputStream(logger, stdout);
+        // Install on each of the devices, in parallel if there are several
+        return performOnDevices(getDeviceIdentifiers(build, listener), logger, (deviceIdentifier, deviceLogger) -> {
+            // Skip the installation if this very APK is still installed, e.g. on a reused device
+            final ApkInstallRecord record = readInstallRecord(build, launcher, deviceLogger, androidSdk,
+                    deviceIdentifier, apkPackageId);
+            if (apkDigest != null && !shouldUninstallFirst() && record.matches(apkDigest)) {
+                AndroidEmulator.log(deviceLogger, Messages.APK_ALREADY_INSTALLED(apkPath.getName()));
+                DeviceLease.recordInstall(build, deviceIdentifier, apkPackageId);
+                return true;
+            }
+
+            // Wait for package manager to become ready
+            AndroidEmulator.log(deviceLogger, Messages.WAITING_FOR_CORE_PROCESS());
+            boolean ready = waitForCoreProcess(build, launcher, androidSdk, deviceIdentifier);
+            if (!ready) {
+                AndroidEmulator.log(deviceLogger, Messages.CORE_PROCESS_DID_NOT_START());
+            }
+
+            // Uninstall APK first, if requested
+            if (shouldUninstallFirst()) {
+                uninstallApk(build, launcher, deviceLogger, androidSdk, deviceIdentifier, apkPath);
+            }
+
+            // Execute installation, in the fastest mode the device supports, if adb supports it too
+            final String installOptions = record.getInstallOptions(hasSignatureFile);
+            String output = installApk(build, launcher, deviceLogger, androidSdk, deviceIdentifier, apkPath,
+                    installOptions);
+            if (!isInstallSuccessful(output) && installOptions != null
+                    && ApkInstallRecord.isInstallOptionUnsupported(output)) {
+                AndroidEmulator.log(deviceLogger, Messages.INSTALL_MODE_FALLBACK(installOptions));
+                output = installApk(build, launcher, deviceLogger, androidSdk, deviceIdentifier, apkPath, null);
+            }
+            final boolean success = isInstallSuccessful(output);
+
+            if (success && apkPackageId != null) {
+                writeInstallRecord(build, launcher, deviceLogger, androidSdk, deviceIdentifier, apkPackageId,
+                        apkDigest);
+
+                // Let a device reset know that this package wasn't there before the build
+                DeviceLease.recordInstall(build, deviceIdentifier, apkPackageId);
+            }
+            return success || !failOnInstallFailure;
+        });
+    }
+
+    /**
+     * Installs an APK file onto the given device.
+     *
+     * @param installOptions Options to pass to {@code adb install}, or {@code null} for a classic install.
+     * @return The output of adb, both standard and error; see {@link #isInstallSuccessful(String)}.
+     */
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private static String installApk(AbstractBuild<?, ?> build, Launcher launcher, PrintStream logger,
+            AndroidSdk androidSdk, String deviceIdentifier, FilePath apkPath, String installOptions)
+                throws IOException, InterruptedException {
+        if (installOptions == null) {
+            AndroidEmulator.log(logger, Messages.INSTALLING_APK(apkPath.getName()));
+        } else {
+            AndroidEmulator.log(logger, Messages.INSTALLING_APK_WITH_OPTIONS(apkPath.getName(), installOptions));
+        }
+        // adb reports unsupported options on its error output
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ForkOutputStream forkStream = new ForkOutputStream(logger, output);
         final SdkCliCommand sdkInstallApkCmd = SdkCliCommandFactory.getCommandsForSdk(androidSdk)
-                .getAdbInstallPackageCommand(deviceIdentifier, apkPath.getName());
-        Utils.runAndroidTool(launcher, build.getEnvironment(TaskListener.NULL), forkStream, logger,
+                .getAdbInstallPackageCommand(deviceIdentifier, apkPath.getName(), installOptions);
+        Utils.runAndroidTool(launcher, build.getEnvironment(TaskListener.NULL), forkStream, forkStream,
                 androidSdk, sdkInstallApkCmd, apkPath.getParent(), INSTALL_TIMEOUT);
+        return output.toString();
+    }
 
+    /**
+     * @param output The output of {@code adb install}.
+     * @return {@code true} iff the package manager reported a successful installation.
+     */
+    private static boolean isInstallSuccessful(String output) {
         Pattern p = Pattern.compile("^Success$", Pattern.MULTILINE);
-        boolean success = p.matcher(stdout.toString()).find();
-        if (!success && failOnInstallFailure) {
-            return false;
-        }
-        return true;
+        return p.matcher(output).find();
+    }
+
+    /**
+     * Reads what the given device knows about the package, in a single adb shell session.
+     *
+     * @param packageId The package of the APK, or {@code null} if unknown.
+     * @return The install record, which is empty if the package ID is unknown or the device couldn't be queried.
+     */
+    private static ApkInstallRecord readInstallRecord(AbstractBuild<?, ?> build, Launcher launcher,
+            PrintStream logger, AndroidSdk androidSdk, String deviceIdentifier, String packageId)
+                throws IOException, InterruptedException {
+        final SdkCliCommand adbCmd = SdkCliCommandFactory.getAdbShellCommandForAPILevel(androidSdk.getSdkToolsMajorVersion())
+                .getBatchShellCommand(deviceIdentifier, ApkInstallRecord.getReadShellCommands(packageId));
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Utils.runAndroidTool(launcher, build.getEnvironment(TaskListener.NULL), stdout, logger, androidSdk,
+                adbCmd, null, RECORD_TIMEOUT);
+        return ApkInstallRecord.parse(new String(stdout.toByteArray(), Charset.defaultCharset()));
+    }
+
+    /** Records on the given device that the APK with the given digest was just installed. */
+    private static void writeInstallRecord(AbstractBuild<?, ?> build, Launcher launcher, PrintStream logger,
+            AndroidSdk androidSdk, String deviceIdentifier, String packageId, String digest)
+                throws IOException, InterruptedException {
+        final SdkCliCommand adbCmd = SdkCliCommandFactory.getAdbShellCommandForAPILevel(androidSdk.getSdkToolsMajorVersion())
+                .getBatchShellCommand(deviceIdentifier, ApkInstallRecord.getWriteShellCommands(packageId, digest));
+        Utils.runAndroidTool(launcher, build.getEnvironment(TaskListener.NULL), logger, logger, androidSdk,
+                adbCmd, null, RECORD_TIMEOUT);
     }
 
     @Extension
@@ -0,0 +1,85 @@
+package hudson.plugins.android_emulator;
+
+import hudson.Extension;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.TaskListener;
+import hudson.plugins.android_emulator.DeviceReset.Isolation;
+import hudson.plugins.android_emulator.builder.AbstractBuilder;
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.tasks.Builder;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Resets the Android devices of the build between test runs, using the cheapest way that
+ * provides the requested isolation.
+ */
+public class ResetDeviceBuilder extends AbstractBuilder {
+
+    /** What should be left of the previous test run once the devices are reset. */
+    private final Isolation isolation;
+
+    @DataBoundConstructor
+    public ResetDeviceBuilder(Isolation isolation) {
+        this.isolation = isolation == null ? Isolation.APPS : isolation;
+    }
+
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+            throws InterruptedException, IOException {
+        // Discover Android SDK
+        final AndroidSdk androidSdk = getAndroidSdk(build, launcher, listener);
+        if (androidSdk == null) {
+            return false;
+        }
+
+        // Wait for the emulator, if it's still booting in background
+        if (!waitForEmulator(build, listener)) {
+            return false;
+        }
+
+        // Reset each of the devices, in parallel if there are several
+        return performOnDevices(getDeviceIdentifiers(build, listener), listener.getLogger(),
+                (deviceIdentifier, deviceLogger) -> {
+                    final DeviceReset reset = new DeviceReset(build, launcher, build.getEnvironment(TaskListener.NULL),
+                            androidSdk, deviceIdentifier, deviceLogger);
+                    if (reset.reset(isolation) == null) {
+                        AndroidEmulator.log(deviceLogger, Messages.DEVICE_RESET_FAILED(deviceIdentifier));
+                        return false;
+                    }
+                    return true;
+                });
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<Builder> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public DescriptorImpl() {
+            super(ResetDeviceBuilder.class);
+        }
+
+        @Override
+        public String getHelpFile() {
+            return Functions.getResourcePath() + "/plugin/android-emulator/help-resetDevice.html";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.RESET_ANDROID_DEVICE();
+        }
+
+    }
+
+}
@@ -0,0 +1,298 @@
+package hudson.plugins.android_emulator;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Exclusive lock on one or more components of an SDK installation.
+ * <p>
+ * Locks are keyed by node, SDK root and component, so that unrelated components can be installed
+ * in parallel, while concurrent requests for the same component wait for the first one to finish.
+ * Each component is also locked with a lock file in the SDK root, so that separate Jenkins
+ * instances, or agent processes, sharing the same SDK installation coordinate as well.
+ * <p>
+ * Installing components also holds a shared lock on the {@link #BASE_SDK base SDK}, which its
+ * installation holds exclusively, as it replaces the SDK tools the components are installed with.
+ */
+public final class SdkInstallLock implements Closeable {
+
+    /** Name of the component lock used for the installation of the base SDK itself. */
+    static final String BASE_SDK = "base-sdk";
+
+    /** Directory within the SDK root that holds the lock files. */
+    private static final String LOCK_DIR = ".jenkins-install-locks";
+
+    /** Interval at which an agent polls for a lock file held by another process. */
+    private static final long FILE_LOCK_POLL_INTERVAL_MS = 500;
+
+    /** Locks in use in this Jenkins instance, by key; removed once nobody holds or waits for them. */
+    private static final Map<String, Entry> locks = new ConcurrentHashMap<String, Entry>();
+
+    private static final class Entry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int users;
+        volatile long installedAt;
+    }
+
+    private final VirtualChannel channel;
+    private final String sdkRoot;
+    private final long requestedAt;
+    private final List<String> keys = new ArrayList<String>();
+    private final List<String> components = new ArrayList<String>();
+    private final List<Boolean> shared = new ArrayList<Boolean>();
+
+    private SdkInstallLock(VirtualChannel channel, String sdkRoot) {
+        this.channel = channel;
+        this.sdkRoot = sdkRoot;
+        this.requestedAt = System.nanoTime();
+    }
+
+    /**
+     * Acquires the locks for the given components of an SDK installation, blocking until they
+     * are all available.<br>
+     * Components are always locked in the same order, so concurrent callers can't deadlock.
+     *
+     * @param logger Logs things.
+     * @param channel Channel to the node that holds the SDK installation.
+     * @param nodeName Name of that node.
+     * @param sdkRoot Root directory of the SDK installation.
+     * @param components Components to lock.
+     * @return The lock, which must be closed once finished with.
+     */
+    public static SdkInstallLock acquire(PrintStream logger, VirtualChannel channel, String nodeName,
+            String sdkRoot, Collection<String> components) throws IOException, InterruptedException {
+        final SdkInstallLock installLock = new SdkInstallLock(channel, sdkRoot);
+        final String keyPrefix = nodeName + '|' + sdkRoot + '|';
+        try {
+            // The base SDK is always locked first, so concurrent callers can't deadlock; it's already
+            // held if the components are being installed as part of the base SDK installation
+            if (!components.contains(BASE_SDK) && !isHeldExclusively(keyPrefix + BASE_SDK)) {
+                installLock.lock(logger, keyPrefix + BASE_SDK, BASE_SDK, true);
+            }
+            for (String component : new TreeSet<String>(components)) {
+                installLock.lock(logger, keyPrefix + component, component, false);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            installLock.close();
+            throw e;
+        }
+        return installLock;
+    }
+
+    private void lock(PrintStream logger, String key, String component, boolean sharedLock)
+            throws IOException, InterruptedException {
+        final Entry entry = locks.compute(key, (k, existing) -> {
+            final Entry e = existing == null ? new Entry() : existing;
+            e.users++;
+            return e;
+        });
+        final Lock lock = sharedLock ? entry.lock.readLock() : entry.lock.writeLock();
+        try {
+            if (!lock.tryLock()) {
+                log(logger, Messages.WAITING_FOR_SDK_INSTALL_LOCK(component));
+                lock.lockInterruptibly();
+            }
+        } catch (InterruptedException e) {
+            release(key, sharedLock);
+            throw e;
+        }
+
+        // Then coordinate with any other process using this SDK installation; the lock is only recorded once
+        // the lock file is held too, as releasing a lock file this lock doesn't hold would release another holder's
+        try {
+            channel.call(new FileLockTask(getLockFile(component), true, sharedLock));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            release(key, sharedLock);
+            throw e;
+        }
+        keys.add(key);
+        components.add(component);
+        shared.add(sharedLock);
+    }
+
+    private static boolean isHeldExclusively(String key) {
+        final Entry entry = locks.get(key);
+        return entry != null && entry.lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Determines whether the given component was installed by another build while this one was
+     * waiting for its lock, in which case installing it again is not necessary.
+     *
+     * @param component A component locked by this lock.
+     * @return {@code true} if the component was installed since this lock was requested.
+     */
+    boolean wasInstalledMeanwhile(String component) {
+        final int i = components.indexOf(component);
+        if (i < 0 || shared.get(i)) {
+            return false;
+        }
+        final Entry entry = locks.get(keys.get(i));
+        return entry != null && entry.installedAt - requestedAt > 0;
+    }
+
+    /** Records that all of the locked components have now been installed successfully. */
+    public void markInstalled() {
+        final long now = System.nanoTime();
+        for (int i = 0; i < keys.size(); i++) {
+            final Entry entry = shared.get(i) ? null : locks.get(keys.get(i));
+            if (entry != null) {
+                entry.installedAt = now;
+            }
+        }
+    }
+
+    /** Releases all locks, in the reverse order of acquisition. */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            try {
+                channel.call(new FileLockTask(getLockFile(components.get(i)), false, shared.get(i)));
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                release(keys.get(i), shared.get(i));
+            }
+        }
+        keys.clear();
+        components.clear();
+        shared.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void release(String key, boolean sharedLock) {
+        locks.computeIfPresent(key, (k, entry) -> {
+            if (sharedLock ? entry.lock.getReadHoldCount() > 0 : entry.lock.isWriteLockedByCurrentThread()) {
+                (sharedLock ? entry.lock.readLock() : entry.lock.writeLock()).unlock();
+            }
+            return --entry.users == 0 ? null : entry;
+        });
+    }
+
+    private String getLockFile(String component) {
+        return new File(new File(sdkRoot, LOCK_DIR), getLockFileName(component)).getPath();
+    }
+
+    /**
+     * @param component SDK component name or path, e.g. {@code system-images;android-24;default;x86}.
+     * @return A file name that is safe to use on every platform.
+     */
+    static String getLockFileName(String component) {
+        return component.replaceAll("[^\\w.-]", "_") + ".lock";
+    }
+
+    /** Acquires or releases a lock file on the node that holds the SDK installation. */
+    private static final class FileLockTask extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Lock files held by this agent process, by path; guarded by itself.<br>
+         * A process can't hold overlapping file locks, so a shared lock is held once, for all its holders.
+         */
+        private static final Map<String, HeldLock> heldLocks = new HashMap<String, HeldLock>();
+
+        private static final class HeldLock {
+            final FileLock lock;
+            int holders = 1;
+
+            HeldLock(FileLock lock) {
+                this.lock = lock;
+            }
+        }
+
+        private final String path;
+        private final boolean acquire;
+        private final boolean shared;
+
+        private FileLockTask(String path, boolean acquire, boolean shared) {
+            this.path = path;
+            this.acquire = acquire;
+            this.shared = shared;
+        }
+
+        public Void call() throws IOException {
+            if (!acquire) {
+                synchronized (heldLocks) {
+                    final HeldLock held = heldLocks.get(path);
+                    if (held != null && --held.holders == 0) {
+                        heldLocks.remove(path);
+                        held.lock.channel().close();
+                    }
+                }
+                return null;
+            }
+
+            final File file = new File(path);
+            final File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException(Messages.FAILED_TO_CREATE_FILE(dir.getAbsolutePath()));
+            }
+            try {
+                while (!tryAcquire(file)) {
+                    // Another process is installing this component; poll so that we remain interruptible
+                    Thread.sleep(FILE_LOCK_POLL_INTERVAL_MS);
+                }
+                return null;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private boolean tryAcquire(File file) throws IOException {
+            synchronized (heldLocks) {
+                final HeldLock held = heldLocks.get(path);
+                if (held != null) {
+                    // Held by another build, or by another controller connected to this same agent process
+                    if (shared && held.lock.isShared()) {
+                        held.holders++;
+                        return true;
+                    }
+                    return false;
+                }
+
+                final FileChannel fileChannel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    final FileLock lock = fileChannel.tryLock(0, Long.MAX_VALUE, shared);
+                    if (lock == null) {
+                        fileChannel.close();
+                        return false;
+                    }
+                    heldLocks.put(path, new HeldLock(lock));
+                    return true;
+                } catch (OverlappingFileLockException e) {
+                    fileChannel.close();
+                    return false;
+                } catch (IOException | RuntimeException e) {
+                    fileChannel.close();
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package hudson.plugins.android_emulator;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import hudson.Launcher;
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+
+/**
+ * The SDK components a build needs, gathered up front so that they can all be installed with a
+ * single run of the SDK tools, rather than with one run per platform.<br>
+ * There is one plan per step that installs components: the emulator wrapper installs the SDK
+ * components along with the platform of its emulator, while the project prerequisites build step,
+ * which is configured on its own and may run without any emulator, installs the platforms of the
+ * projects it finds with a plan of its own.
+ */
+public class SdkInstallPlan {
+
+    private final AndroidSdk sdk;
+    private final Set<String> components = new LinkedHashSet<String>();
+
+    public SdkInstallPlan(AndroidSdk sdk) {
+        this.sdk = sdk;
+    }
+
+    /**
+     * Adds the components required by the given platform that aren't installed yet.
+     *
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param platform Specifies the platform to be installed.
+     * @param abi Specifies the ABI to be installed; may be {@code null}.
+     * @param skipSystemImageInstall Specifies that the system image does not need to be installed.
+     * @return This plan.
+     */
+    public SdkInstallPlan addPlatform(PrintStream logger, Launcher launcher, String platform, String abi,
+            boolean skipSystemImageInstall) throws IOException, InterruptedException {
+        components.addAll(SdkInstaller.getMissingComponentsForPlatform(logger, launcher, sdk, platform, abi,
+                skipSystemImageInstall));
+        return this;
+    }
+
+    /**
+     * Adds the given components, which are installed or updated regardless of what is installed.
+     *
+     * @param components Name of the component(s) to install.
+     * @return This plan.
+     */
+    public SdkInstallPlan addComponents(Collection<String> components) {
+        this.components.addAll(components);
+        return this;
+    }
+
+    /** @return The components that will be installed, without duplicates. */
+    public List<String> getComponents() {
+        return Collections.unmodifiableList(new ArrayList<String>(components));
+    }
+
+    public boolean isEmpty() {
+        return components.isEmpty();
+    }
+
+    /**
+     * Installs all of the planned components at once, if any.
+     *
+     * @param logger Logs things, including the installation progress.
+     * @param launcher Used to launch tasks on the remote node.
+     */
+    public void install(PrintStream logger, Launcher launcher) throws IOException, InterruptedException {
+        if (components.isEmpty()) {
+            return;
+        }
+        log(logger, Messages.SDK_INSTALL_PLAN(components.size(), String.join(",", components)));
+        SdkInstaller.installComponents(logger, launcher, sdk, getComponents());
+        components.clear();
+    }
+}
@@ -5,7 +5,6 @@ import static hudson.plugins.android_emulator.AndroidEmulator.log;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,17 +12,14 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.WeakHashMap;
-import java.util.concurrent.Semaphore;
-
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.EnvVars;
@@ -39,13 +35,18 @@ import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
 import hudson.plugins.android_emulator.sdk.cli.SdkToolsCommands;
+import hudson.plugins.android_emulator.util.AndroidSdkCache;
 import hudson.plugins.android_emulator.util.ConfigFileUtils;
 import hudson.plugins.android_emulator.util.Utils;
 import hudson.plugins.android_emulator.util.ValidationResult;
 import hudson.remoting.Callable;
 import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
-import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugin.android.emulator.sdk.cli.InstalledPackagesIndex;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages;
+import jenkins.plugin.android.emulator.tools.ParallelUnzip;
+import jenkins.plugin.android.emulator.tools.SDKArchiveCache;
+import jenkins.plugin.android.emulator.tools.SDKLicenses;
 import jenkins.security.MasterToSlaveCallable;
 
 public class SdkInstaller {
@@ -53,9 +54,6 @@ public class SdkInstaller {
     /** Filename to write some metadata to about our automated installation. */
     private static final String SDK_INFO_FILENAME = ".jenkins-install-info";
 
-    /** Map of nodes to locks, to ensure only one executor attempts SDK installation at once. */
-    private static final Map<Node, Semaphore> mutexByNode = new WeakHashMap<Node, Semaphore>();
-
     /**
      * Downloads and installs the Android SDK on the machine we're executing on.
      *
@@ -66,22 +64,36 @@ public class SdkInstaller {
      */
     public static AndroidSdk install(Launcher launcher, BuildListener listener, String androidSdkHome)
             throws SdkInstallationException, IOException, InterruptedException {
-        Semaphore semaphore = acquireLock();
-        try {
-            return doInstall(launcher, listener, androidSdkHome);
-        } finally {
-            semaphore.release();
-        }
+        return install(launcher, listener, androidSdkHome, null);
     }
 
-    private static AndroidSdk doInstall(Launcher launcher, BuildListener listener, String androidSdkHome)
-            throws SdkInstallationException, IOException, InterruptedException {
+    /**
+     * Downloads and installs the Android SDK on the machine we're executing on, along with the
+     * platform the given emulator needs: the SDK components and the platform are installed with
+     * a single run of the SDK tools.
+     *
+     * @param launcher
+     * @param listener
+     * @param androidSdkHome
+     * @param emuConfig The emulator whose platform should be installed too; may be {@code null}.
+     * @return An {@code AndroidSdk} object for the newly-installed SDK.
+     */
+    public static AndroidSdk install(Launcher launcher, BuildListener listener, String androidSdkHome,
+            EmulatorConfig emuConfig) throws SdkInstallationException, IOException, InterruptedException {
         // We should install the SDK on the current build machine
-        final Node node = Computer.currentComputer().getNode();
-        if (node == null) {
-            throw new BuildNodeUnavailableException();
+        final Node node = getCurrentNode();
+
+        // Only one executor may install the base SDK at once, and none may meanwhile install
+        // SDK components, as the tools used to install them are being replaced
+        final String sdkRoot = Utils.getSdkInstallDirectory(node).getRemote();
+        try (SdkInstallLock lock = acquireLock(listener.getLogger(), node, sdkRoot,
+                Collections.singletonList(SdkInstallLock.BASE_SDK))) {
+            return doInstall(launcher, listener, node, androidSdkHome, emuConfig);
         }
+    }
 
+    private static AndroidSdk doInstall(Launcher launcher, BuildListener listener, Node node, String androidSdkHome,
+            EmulatorConfig emuConfig) throws SdkInstallationException, IOException, InterruptedException {
         // Install the SDK if required
         String androidHome;
         try {
@@ -93,10 +105,12 @@ public class SdkInstaller {
         }
 
         // Check whether we need to install the SDK components
-        if (!isSdkInstallComplete(node, androidHome)) {
-            PrintStream logger = listener.getLogger();
+        final PrintStream logger = listener.getLogger();
+        final AndroidSdk sdk = getAndroidSdkForNode(node, androidHome, androidSdkHome);
+        final SdkInstallPlan plan = new SdkInstallPlan(sdk);
+        final boolean installComplete = isSdkInstallComplete(node, androidHome);
+        if (!installComplete) {
             log(logger, Messages.INSTALLING_REQUIRED_COMPONENTS());
-            AndroidSdk sdk = getAndroidSdkForNode(node, androidHome, androidSdkHome);
 
             // Upgrade the tools if necessary and add the latest build-tools component
             List<String> components = new ArrayList<>(5);
@@ -115,11 +129,16 @@ public class SdkInstaller {
             components.add("extra-android-m2repository");
             components.add("extra-google-m2repository");
             components.add("emulator");
+            plan.addComponents(components);
+        }
 
-            // Install the lot
-            installComponent(logger, launcher, sdk, components);
-
+        // Install the lot, along with the emulator platform
+        if (emuConfig != null) {
+            addDependencies(plan, logger, launcher, emuConfig);
+        }
+        plan.install(logger, launcher);
 
+        if (!installComplete) {
             // As this SDK will not be used manually, opt out of the stats gathering;
             // this also prevents the opt-in dialog from popping up during execution
             optOutOfSdkStatistics(launcher, listener, androidSdkHome);
@@ -128,7 +147,8 @@ public class SdkInstaller {
         // If we made it this far, confirm completion by writing our our metadata file
         getInstallationInfoFilename(node).write(Constants.SDK_TOOLS_DEFAULT_BUILD_ID, "UTF-8");
 
-        // Create an SDK object now that all the components exist
+        // Create an SDK object now that all the components exist, forgetting any discovered before
+        AndroidSdkCache.invalidate(launcher.getChannel());
         return Utils.getAndroidSdk(launcher, androidHome, androidSdkHome);
     }
 
@@ -167,27 +187,28 @@ public class SdkInstaller {
         // Get the OS-specific download URL for the SDK
         AndroidInstaller installer = AndroidInstaller.fromNode(node);
         final URL downloadUrl = installer.getUrl(Constants.SDK_TOOLS_DEFAULT_BUILD_ID);
+        final String sha256 = installer.getSha256();
 
         final FilePath toolsSubdir = installDir.child("tools");
 
-        // Download the SDK, if required
-        boolean wasNowInstalled = installDir.act(new DownloadSDKCallable(toolsSubdir, listener, downloadUrl));
-
-        if (wasNowInstalled) {
-            // If the SDK was required, pull files up from the intermediate directory
-            toolsSubdir.listDirectories().get(0).moveAllChildrenTo(toolsSubdir);
-
-            // Java's ZipEntry doesn't preserve the executable bit...
-            if (installer == AndroidInstaller.MAC_OS_X) {
-                setPermissions(toolsSubdir);
-            }
-
-            // Success!
-            log(listener.getLogger(), Messages.BASE_SDK_INSTALLED());
-        } else {
-            throw new IOException("Failed to donwload SDK archive");
+        // Download the SDK once on the controller, then stream it to this node
+        log(listener.getLogger(), Messages.DOWNLOADING_SDK_FROM(downloadUrl));
+        final FilePath archive = SDKArchiveCache.get(downloadUrl, sha256, listener);
+        toolsSubdir.deleteRecursive();
+        toolsSubdir.mkdirs();
+        final FilePath localArchive = installDir.child(archive.getName() + ".zip");
+        try {
+            archive.copyTo(localArchive);
+            toolsSubdir.act(new ParallelUnzip(localArchive.getRemote()));
+        } finally {
+            localArchive.delete();
         }
 
+        // Pull files up from the intermediate directory
+        toolsSubdir.listDirectories().get(0).moveAllChildrenTo(toolsSubdir);
+
+        // Success!
+        log(listener.getLogger(), Messages.BASE_SDK_INSTALLED());
         return installDir;
     }
 
@@ -209,16 +230,27 @@ public class SdkInstaller {
         final SdkCliCommand sdkInstallAndUpdateCmd = SdkCliCommandFactory.getCommandsForSdk(sdk)
                 .getSdkInstallAndUpdateCommand(proxySettings, components);
         ArgumentListBuilder cmd = Utils.getToolCommand(sdk, launcher.isUnix(), sdkInstallAndUpdateCmd);
-        ProcStarter procStarter = launcher.launch().stderr(logger).readStdout().writeStdin().cmds(cmd);
 
         final EnvVars env = new EnvVars();
         env.put(Constants.ENV_VAR_ANDROID_USE_SDK_WRAPPER, "y");
         if (sdk.hasKnownHome()) {
             env.put(Constants.ENV_VAR_ANDROID_SDK_HOME, sdk.getSdkHome());
         }
-        procStarter = procStarter.envs(env);
 
-        // Run the command and accept any licence requests during installation
+        // sdkmanager doesn't prompt for licences already accepted in the SDK, so provide them up front
+        // and run without any input: an unknown licence then fails the installation immediately
+        final VirtualChannel channel = launcher.getChannel();
+        if (sdk.isAndroidCmdDeprecated() && sdk.hasKnownRoot() && channel != null) {
+            SDKLicenses.install(new FilePath(channel, sdk.getSdkRoot()));
+            final int result = launcher.launch().stdout(logger).stderr(logger).envs(env).cmds(cmd).join();
+            if (result != 0) {
+                throw new IOException(Messages.SDK_COMPONENTS_INSTALLATION_FAILED(String.join(",", components), result));
+            }
+            return;
+        }
+
+        // The legacy 'android' tool always prompts, so accept any licence requests during installation
+        ProcStarter procStarter = launcher.launch().stderr(logger).readStdout().writeStdin().cmds(cmd).envs(env);
         Proc proc = procStarter.start();
         try (InputStream stdout = proc.getStdout(); OutputStream stdin = proc.getStdin()) {
             if (stdout == null) {
@@ -255,13 +287,27 @@ public class SdkInstaller {
      */
     static void installDependencies(PrintStream logger, Launcher launcher,
             AndroidSdk sdk, EmulatorConfig emuConfig) throws IOException, InterruptedException {
+        addDependencies(new SdkInstallPlan(sdk), logger, launcher, emuConfig).install(logger, launcher);
+    }
+
+    /**
+     * Adds the platform for an emulator config to the given plan, if it isn't installed yet.
+     *
+     * @param plan Receives the components to install.
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param emuConfig Specifies the platform to be installed.
+     * @return The given plan.
+     */
+    private static SdkInstallPlan addDependencies(SdkInstallPlan plan, PrintStream logger, Launcher launcher,
+            EmulatorConfig emuConfig) throws IOException, InterruptedException {
         // Get AVD platform from emulator config
         String platform = getPlatformForEmulator(launcher, emuConfig);
 
-        // Install platform and any dependencies it may have
+        // Add platform and any dependencies it may have
         final boolean skipSystemImageInstall = emuConfig.isNamedEmulator()
                 || !emuConfig.getOsVersion().requiresAbi();
-        installPlatform(logger, launcher, sdk, platform, emuConfig.getTargetAbi(), skipSystemImageInstall);
+        return plan.addPlatform(logger, launcher, platform, emuConfig.getTargetAbi(), skipSystemImageInstall);
     }
 
     /**
@@ -278,30 +324,45 @@ public class SdkInstaller {
      */
     public static void installPlatform(PrintStream logger, Launcher launcher, AndroidSdk sdk,
             String platform, String abi, final boolean skipSystemImageInstall) throws IOException, InterruptedException {
+        new SdkInstallPlan(sdk)
+                .addPlatform(logger, launcher, platform, abi, skipSystemImageInstall)
+                .install(logger, launcher);
+    }
+
+    /**
+     * Determines which SDK components are missing for the given platform and its dependencies.
+     *
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param sdk SDK installation to install components for.
+     * @param platform Specifies the platform to be installed.
+     * @param abi Specifies the ABI to be installed; may be {@code null}.
+     * @param skipSystemImageInstall Specifies that the system image does not need to be installed.
+     * @return The components to install; empty if there's nothing to, or nothing that can be, installed.
+     */
+    static List<String> getMissingComponentsForPlatform(PrintStream logger, Launcher launcher, AndroidSdk sdk,
+            String platform, String abi, final boolean skipSystemImageInstall) throws IOException, InterruptedException {
 
         final AndroidPlatform androidPlatform = AndroidPlatform.valueOf(platform);
         if (androidPlatform == null) {
             log(logger, Messages.SDK_PLATFORM_STRING_UNRECOGNISED(platform));
-            return;
+            return Collections.emptyList();
         }
 
         // Check whether this platform is already installed
         if (isPlatformInstalled(logger, launcher, sdk, androidPlatform.getName(), abi, skipSystemImageInstall)) {
-            return;
+            return Collections.emptyList();
         }
 
         // Check whether we are capable of installing individual components
         log(logger, Messages.PLATFORM_INSTALL_REQUIRED(androidPlatform.getName()));
         if (!sdk.supportsComponentInstallation()) {
             log(logger, Messages.SDK_COMPONENT_INSTALLATION_UNSUPPORTED());
-            return;
+            return Collections.emptyList();
         }
 
         // Determine which individual component(s) need to be installed for this platform
         List<String> components = getSdkComponentsForPlatform(logger, sdk, androidPlatform, abi, skipSystemImageInstall);
-        if (components.isEmpty()) {
-            return;
-        }
 
         // If a platform expanded to multiple dependencies (e.g. "GoogleMaps:7" -> android-7 + Maps)
         // then check whether we really need to install android-7, as it may already be installed
@@ -313,13 +374,32 @@ public class SdkInstaller {
                 }
             }
         }
+        return components;
+    }
 
-        // Grab the lock and attempt installation
-        Semaphore semaphore = acquireLock();
-        try {
-            installComponent(logger, launcher, sdk, components);
-        } finally {
-            semaphore.release();
+    /**
+     * Installs the given SDK components with a single run of the SDK tools, while holding the
+     * locks for those components.
+     *
+     * @param logger Logs things.
+     * @param launcher Used to launch tasks on the remote node.
+     * @param sdk SDK installation to install components for.
+     * @param components Name of the component(s) to install.
+     */
+    static void installComponents(PrintStream logger, Launcher launcher, AndroidSdk sdk,
+            List<String> components) throws IOException, InterruptedException {
+        // Grab the locks for these components and attempt installation, unless another build
+        // installed exactly these components while we were waiting
+        final Node node = getCurrentNode();
+        try (SdkInstallLock lock = acquireLock(logger, node, sdk.getSdkRoot(), components)) {
+            List<String> missing = new ArrayList<>(components);
+            missing.removeIf(lock::wasInstalledMeanwhile);
+            if (missing.isEmpty()) {
+                log(logger, Messages.SDK_COMPONENTS_INSTALLED_CONCURRENTLY(String.join(",", components)));
+                return;
+            }
+            installComponent(logger, launcher, sdk, missing);
+            lock.markInstalled();
         }
     }
 
@@ -327,6 +407,23 @@ public class SdkInstaller {
     private static boolean isPlatformInstalled(PrintStream logger, Launcher launcher,
             AndroidSdk sdk, String platform, String abi,
             final boolean skipSystemInstall) throws IOException, InterruptedException {
+        // With sdkmanager based SDKs, read the installed packages directly rather than running the tools
+        final String platformPackage = getPlatformPackagePath(platform);
+        final VirtualChannel channel = launcher.getChannel();
+        if (platformPackage != null && sdk.isAndroidCmdDeprecated() && sdk.hasKnownRoot() && channel != null) {
+            final SDKPackages installed = InstalledPackagesIndex.read(new FilePath(channel, sdk.getSdkRoot()));
+            if (!InstalledPackagesIndex.isInstalled(installed, platformPackage, null)) {
+                return false;
+            }
+            if (skipSystemInstall || abi == null) {
+                return true;
+            }
+            final String[] abiSplit = abi.split("/");
+            final String tag = abiSplit.length > 1 ? abiSplit[0] : "default";
+            final String systemImage = "system-images;" + platform + ";" + tag + ";" + abiSplit[abiSplit.length - 1];
+            return InstalledPackagesIndex.isInstalled(installed, systemImage, null);
+        }
+
         ByteArrayOutputStream targetList = new ByteArrayOutputStream();
         final SdkCliCommand sdkListTargets = SdkCliCommandFactory.getCommandsForSdk(sdk)
                 .getListExistingTargetsCommand();
@@ -353,6 +450,22 @@ public class SdkInstaller {
         return true;
     }
 
+    /**
+     * Determines the sdkmanager package path of a platform or platform component.
+     *
+     * @param platform Platform name, e.g. "android-24", or component name, e.g. "platform-tools".
+     * @return The package path, or {@code null} if it can't be determined, e.g. for add-ons.
+     */
+    private static String getPlatformPackagePath(String platform) {
+        if (platform.matches("android-\\d+")) {
+            return "platforms;" + platform;
+        }
+        if ("platform-tools".equals(platform)) {
+            return platform;
+        }
+        return null;
+    }
+
     private static List<String> getSdkComponentsForPlatform(final PrintStream logger,
             final AndroidSdk sdk, final AndroidPlatform androidPlatform, final String abi,
             final boolean skipSystemImageInstall) {
@@ -439,31 +552,34 @@ public class SdkInstaller {
     }
 
     /**
-     * Acquires an exclusive lock for the machine we're executing on.
+     * Acquires exclusive locks on the given components of an SDK installation on a node.
      * <p>
-     * The lock only has one permit, meaning that other executors on the same node which want to
-     * install SDK components will block here until the lock is released by another executor.
+     * Other executors which want to install any of the same components into the same SDK
+     * installation will block until the lock is closed, while installation of other components
+     * can proceed in parallel.
      *
-     * @return The semaphore for the current machine, which must be released once finished with.
+     * @param logger Logs things.
+     * @param node The node holding the SDK installation.
+     * @param sdkRoot Root directory of the SDK installation.
+     * @param components Components that are going to be installed.
+     * @return The lock, which must be closed once finished with.
      */
-    private static Semaphore acquireLock() throws InterruptedException, IOException {
-        // Retrieve the lock for this node
-        Semaphore semaphore;
-        final Node node = Computer.currentComputer().getNode();
-        if (node == null) {
+    private static SdkInstallLock acquireLock(PrintStream logger, Node node, String sdkRoot,
+            List<String> components) throws InterruptedException, IOException {
+        final VirtualChannel channel = node.getChannel();
+        if (channel == null) {
             throw new BuildNodeUnavailableException();
         }
-        synchronized (node) {
-            semaphore = mutexByNode.get(node);
-            if (semaphore == null) {
-                semaphore = new Semaphore(1);
-                mutexByNode.put(node, semaphore);
-            }
-        }
+        return SdkInstallLock.acquire(logger, channel, node.getNodeName(), sdkRoot, components);
+    }
 
-        // Block until the lock is available
-        semaphore.acquire();
-        return semaphore;
+    private static Node getCurrentNode() throws BuildNodeUnavailableException {
+        final Computer computer = Computer.currentComputer();
+        final Node node = computer == null ? null : computer.getNode();
+        if (node == null) {
+            throw new BuildNodeUnavailableException();
+        }
+        return node;
     }
 
     private static String getProxySettings() {
@@ -502,39 +618,6 @@ public class SdkInstaller {
         return Utils.getSdkInstallDirectory(node).child(SDK_INFO_FILENAME);
     }
 
-    /**
-     * Recursively flags anything that looks like an Android tools executable, as executable.
-     *
-     * @param toolsDir The top level Android SDK tools directory.
-     */
-    private static final void setPermissions(FilePath toolsDir) throws IOException, InterruptedException {
-        for (FilePath dir : toolsDir.listDirectories()) {
-            setPermissions(dir);
-        }
-        for (FilePath f : toolsDir.list(new ToolFileFilter())) {
-            f.chmod(0755);
-        }
-    }
-
-    private static final class DownloadSDKCallable extends MasterToSlaveFileCallable<Boolean> {
-        private final FilePath toolsSubdir;
-        private final BuildListener listener;
-        private final URL downloadUrl;
-        private static final long serialVersionUID = 1L;
-
-        private DownloadSDKCallable(FilePath toolsSubdir, BuildListener listener, URL downloadUrl) {
-            this.toolsSubdir = toolsSubdir;
-            this.listener = listener;
-            this.downloadUrl = downloadUrl;
-        }
-
-        public Boolean invoke(File f, VirtualChannel channel)
-                throws InterruptedException, IOException {
-            String msg = Messages.DOWNLOADING_SDK_FROM(downloadUrl);
-            return toolsSubdir.installIfNecessaryFrom(downloadUrl, listener, msg);
-        }
-    }
-
     private static final class AndroidHomeCallable extends MasterToSlaveCallable<ValidationResult, InterruptedException> {
         private static final long serialVersionUID = 1L;
         private final String sdkRoot;
@@ -577,15 +660,6 @@ public class SdkInstaller {
         }
     }
 
-    /** Serializable FileFilter that searches for Android SDK tool executables. */
-    private static final class ToolFileFilter implements FileFilter, Serializable {
-        public boolean accept(File f) {
-            // Executables are files, which have no file extension, except for shell scripts
-            return f.isFile() && (!f.getName().contains(".") || f.getName().endsWith(".sh"));
-        }
-        private static final long serialVersionUID = 1L;
-    }
-
     /** Helper to run SDK statistics opt-out task on a remote node. */
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private static final class StatsOptOutTask extends MasterToSlaveCallable<Void, Exception> {
@@ -631,17 +705,24 @@ public class SdkInstaller {
     /** Helper for getting platform-specific SDK installation information. */
     enum AndroidInstaller {
 
-        LINUX("linux", "zip"),
-        MAC_OS_X("mac", "zip"),
-        WINDOWS("win", "zip");
+        LINUX("linux", "zip", Constants.SDK_TOOLS_DEFAULT_SHA256_LINUX),
+        MAC_OS_X("mac", "zip", Constants.SDK_TOOLS_DEFAULT_SHA256_MAC),
+        WINDOWS("win", "zip", Constants.SDK_TOOLS_DEFAULT_SHA256_WINDOWS);
 
         private static final String PATTERN = "https://dl.google.com/android/repository/commandlinetools-%s-%s_latest.%s";
         private final String platform;
         private final String extension;
+        private final String sha256;
 
-        private AndroidInstaller(String platform, String extension) {
+        private AndroidInstaller(String platform, String extension, String sha256) {
             this.platform = platform;
             this.extension = extension;
+            this.sha256 = sha256;
+        }
+
+        /** @return The SHA-256 checksum of the archive of the default SDK tools build. */
+        String getSha256() {
+            return sha256;
         }
 
         URL getUrl(String version) {
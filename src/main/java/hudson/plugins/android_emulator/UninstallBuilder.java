@@ -51,7 +51,7 @@ public class UninstallBuilder extends AbstractBuilder {
         final PrintStream logger = listener.getLogger();
 
         // Discover Android SDK
-        AndroidSdk androidSdk = getAndroidSdk(build, launcher, listener);
+        final AndroidSdk androidSdk = getAndroidSdk(build, launcher, listener);
         if (androidSdk == null) {
             return false;
         }
@@ -63,23 +63,27 @@ public class UninstallBuilder extends AbstractBuilder {
             return false;
         }
 
-        // Expand package ID value
-        String expandedPackageId = Utils.expandVariables(build, listener, packageId);
-        String deviceIdentifier = getDeviceIdentifier(build, listener);
-
-        // Wait for package manager to become ready
-        AndroidEmulator.log(logger, Messages.WAITING_FOR_CORE_PROCESS());
-        boolean ready = waitForCoreProcess(build, launcher, androidSdk, deviceIdentifier);
-        if (!ready) {
-            AndroidEmulator.log(logger, Messages.CORE_PROCESS_DID_NOT_START());
-        }
-
-        // Execute uninstallation
-        boolean success = uninstallApk(build, launcher, logger, androidSdk, deviceIdentifier, expandedPackageId);
-        if (!success && failOnUninstallFailure) {
+        // Wait for the emulator, if it's still booting in background
+        if (!waitForEmulator(build, listener)) {
             return false;
         }
-        return true;
+
+        // Expand package ID value
+        final String expandedPackageId = Utils.expandVariables(build, listener, packageId);
+
+        // Uninstall from each of the devices, in parallel if there are several
+        return performOnDevices(getDeviceIdentifiers(build, listener), logger, (deviceIdentifier, deviceLogger) -> {
+            // Wait for package manager to become ready
+            AndroidEmulator.log(deviceLogger, Messages.WAITING_FOR_CORE_PROCESS());
+            boolean ready = waitForCoreProcess(build, launcher, androidSdk, deviceIdentifier);
+            if (!ready) {
+                AndroidEmulator.log(deviceLogger, Messages.CORE_PROCESS_DID_NOT_START());
+            }
+
+            // Execute uninstallation
+            boolean success = uninstallApk(build, launcher, deviceLogger, androidSdk, deviceIdentifier, expandedPackageId);
+            return success || !failOnUninstallFailure;
+        });
     }
 
     @Extension
@@ -0,0 +1,53 @@
+package hudson.plugins.android_emulator;
+
+import hudson.Extension;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.plugins.android_emulator.builder.AbstractBuilder;
+import hudson.tasks.Builder;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Waits for the emulator booting in background to be ready, so that the build steps following
+ * this one, e.g. shell scripts, can use the device.
+ */
+public class WaitForEmulatorBuilder extends AbstractBuilder {
+
+    @DataBoundConstructor
+    public WaitForEmulatorBuilder() {
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+            throws InterruptedException, IOException {
+        return waitForEmulator(build, listener);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<Builder> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public DescriptorImpl() {
+            super(WaitForEmulatorBuilder.class);
+        }
+
+        @Override
+        public String getHelpFile() {
+            return Functions.getResourcePath() + "/plugin/android-emulator/help-waitForEmulator.html";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.WAIT_FOR_ANDROID_EMULATOR();
+        }
+
+    }
+
+}
@@ -8,10 +8,12 @@ import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.EnvironmentContributingAction;
 import hudson.model.Node;
+import hudson.model.Result;
 import hudson.model.TaskListener;
 import hudson.plugins.android_emulator.AndroidEmulator;
 import hudson.plugins.android_emulator.AndroidEmulator.DescriptorImpl;
 import hudson.plugins.android_emulator.Constants;
+import hudson.plugins.android_emulator.EmulatorReadiness;
 import hudson.plugins.android_emulator.Messages;
 import hudson.plugins.android_emulator.SdkInstallationException;
 import hudson.plugins.android_emulator.SdkInstaller;
@@ -31,6 +33,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -126,6 +134,26 @@ public abstract class AbstractBuilder extends Builder {
         return androidSdk;
     }
 
+    /**
+     * Waits for the emulators started by this plugin in background, if any, to finish booting.
+     *
+     * @param build The build whose emulators should be waited for.
+     * @param listener The listener used to log the wait.
+     * @return {@code true} if the emulators are ready for use; {@code false} if any failed to boot, in which
+     *         case the build result is set as the failed boot requires.
+     * @throws InterruptedException
+     */
+    protected static boolean waitForEmulator(AbstractBuild<?, ?> build, BuildListener listener)
+            throws InterruptedException {
+        final Result result = EmulatorReadiness.await(build, listener.getLogger());
+        if (result == Result.SUCCESS) {
+            return true;
+        }
+        log(listener.getLogger(), Messages.EMULATOR_NOT_READY());
+        build.setResult(result);
+        return false;
+    }
+
     /**
      * Gets the Android device identifier for this job, defaulting to the AVD started by this plugin.
      *
@@ -144,6 +172,83 @@ public abstract class AbstractBuilder extends Builder {
         return deviceSerial;
     }
 
+    /**
+     * Gets the identifiers of all the Android devices for this job, i.e. each of the AVDs started
+     * by this plugin, if any.
+     *
+     * @param build The build for which we should retrieve the devices.
+     * @param listener The listener used to get the environment variables.
+     * @return The device identifiers (defaulting to the values of "{@code $ANDROID_AVD_DEVICES}").
+     */
+    protected static List<String> getDeviceIdentifiers(AbstractBuild<?, ?> build, BuildListener listener) {
+        String deviceSerials = expandVariable(build, listener, Constants.ENV_VAR_ANDROID_AVD_DEVICES);
+        if (deviceSerials == null) {
+            return Collections.singletonList(getDeviceIdentifier(build, listener));
+        }
+        return Arrays.asList(deviceSerials.split(","));
+    }
+
+    /** Something to be done on one of the Android devices for this job. */
+    protected interface DeviceAction {
+        /**
+         * @param deviceIdentifier The device to act upon.
+         * @param logger Where log output for this device should be written to.
+         * @return {@code true} iff the action succeeded.
+         */
+        boolean perform(String deviceIdentifier, PrintStream logger) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Performs the given action on each of the given devices, in parallel if there is more than one.
+     * The output for each device is logged as a whole once its action is complete, so that the
+     * output for different devices isn't interleaved.
+     *
+     * @param devices The identifiers of the devices to act upon.
+     * @param logger Where log output should be redirected to.
+     * @param action The action to perform on each device.
+     * @return {@code true} iff the action succeeded on every device.
+     * @throws IOException If the action failed on any device.
+     * @throws InterruptedException If interrupted while waiting for the devices.
+     */
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    protected static boolean performOnDevices(List<String> devices, PrintStream logger, final DeviceAction action)
+            throws IOException, InterruptedException {
+        if (devices.size() == 1) {
+            return action.perform(devices.get(0), logger);
+        }
+
+        final List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>(devices.size());
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(devices.size());
+        for (final String device : devices) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final PrintStream deviceLogger = new PrintStream(output, true);
+            outputs.add(output);
+            futures.add(Computer.threadPoolForRemoting.submit(() -> action.perform(device, deviceLogger)));
+        }
+
+        boolean success = true;
+        try {
+            for (int i = 0; i < devices.size(); i++) {
+                try {
+                    success &= futures.get(i).get();
+                } finally {
+                    log(logger, Messages.RUNNING_ON_DEVICE(devices.get(i)));
+                    logger.print(outputs.get(i).toString());
+                }
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return success;
+    }
+
     /**
      * Gets the Android device identifier for this job, defaulting to the AVD started by this plugin.
      *
@@ -294,7 +399,7 @@ public abstract class AbstractBuilder extends Builder {
      * @throws IOException If execution failed.
      * @throws InterruptedException If execution failed.
      */
-    private static String getPackageIdForApk(FilePath apkPath) throws IOException, InterruptedException {
+    protected static String getPackageIdForApk(FilePath apkPath) throws IOException, InterruptedException {
         return apkPath.act(new MasterToSlaveFileCallable<String>() {
             private static final long serialVersionUID = 1L;
 
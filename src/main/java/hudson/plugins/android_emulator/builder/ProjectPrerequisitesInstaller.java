@@ -10,7 +10,7 @@ import hudson.model.Descriptor;
 import hudson.model.AbstractBuild;
 import hudson.plugins.android_emulator.BuildNodeUnavailableException;
 import hudson.plugins.android_emulator.Messages;
-import hudson.plugins.android_emulator.SdkInstaller;
+import hudson.plugins.android_emulator.SdkInstallPlan;
 import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.util.ConfigFileUtils;
 import hudson.remoting.VirtualChannel;
@@ -58,11 +58,13 @@ public class ProjectPrerequisitesInstaller extends AbstractBuilder {
             return false;
         }
 
-        // Install platform(s)
+        // Install platform(s), all at once
         log(logger, Messages.ENSURING_PLATFORMS_INSTALLED(platforms));
+        SdkInstallPlan plan = new SdkInstallPlan(androidSdk);
         for (String platform : platforms) {
-            SdkInstaller.installPlatform(logger, launcher, androidSdk, platform, null, true);
+            plan.addPlatform(logger, launcher, platform, null, true);
         }
+        plan.install(logger, launcher);
 
         // Done!
         return true;
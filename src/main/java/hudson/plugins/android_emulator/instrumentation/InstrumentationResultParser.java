@@ -0,0 +1,169 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Parses the output of {@code am instrument -r} line by line, while the tests are still running,
+ * reporting each test as soon as its result is known.
+ * <p>
+ * The output is a sequence of status bundles, each made of {@code INSTRUMENTATION_STATUS: key=value}
+ * lines, whose values may span several lines, and terminated by an {@code INSTRUMENTATION_STATUS_CODE}
+ * line; the run ends with a result bundle and an {@code INSTRUMENTATION_CODE} line.
+ */
+public class InstrumentationResultParser {
+
+    /** Receives the results, in the order they are reported. */
+    public interface Listener {
+        /** Called when a test has finished. */
+        void testEnded(TestResult result);
+
+        /**
+         * Called when the test run failed as a whole, e.g. because the process under test crashed.
+         *
+         * @param message Why the run failed.
+         */
+        void runFailed(String message);
+    }
+
+    private static final String STATUS = "INSTRUMENTATION_STATUS: ";
+    private static final String STATUS_CODE = "INSTRUMENTATION_STATUS_CODE: ";
+    private static final String RESULT = "INSTRUMENTATION_RESULT: ";
+    private static final String CODE = "INSTRUMENTATION_CODE: ";
+    private static final String FAILED = "INSTRUMENTATION_FAILED: ";
+
+    /** Status code of a test that has started. */
+    private static final int CODE_START = 1;
+
+    private final Listener listener;
+    private final LongSupplier clock;
+
+    private final Map<String, String> bundle = new HashMap<String, String>();
+    private String key;
+    private StringBuilder value;
+
+    private String currentTest;
+    private long currentTestStart;
+    private String runFailure;
+    private boolean complete;
+    private int testCount;
+
+    public InstrumentationResultParser(Listener listener) {
+        this(listener, System::currentTimeMillis);
+    }
+
+    InstrumentationResultParser(Listener listener, LongSupplier clock) {
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * Parses the next line of output.
+     *
+     * @param line The line, without its line terminator.
+     */
+    public void addLine(String line) {
+        if (line.startsWith(STATUS)) {
+            startValue(line.substring(STATUS.length()));
+        } else if (line.startsWith(STATUS_CODE)) {
+            endValue();
+            onStatus(parseCode(line.substring(STATUS_CODE.length())));
+            bundle.clear();
+        } else if (line.startsWith(RESULT)) {
+            startValue(line.substring(RESULT.length()));
+        } else if (line.startsWith(CODE)) {
+            endValue();
+            if (bundle.containsKey("shortMsg")) {
+                runFailure = bundle.get("shortMsg");
+            }
+            bundle.clear();
+            complete = true;
+        } else if (line.startsWith(FAILED)) {
+            endValue();
+            runFailure = line.substring(FAILED.length());
+        } else if (value != null) {
+            value.append('\n').append(line);
+        }
+    }
+
+    /**
+     * Signals the end of the output, reporting the test that was running, if any, as an error
+     * and the whole run as failed if it didn't complete.
+     */
+    public void done() {
+        endValue();
+        if (currentTest != null) {
+            int separator = currentTest.indexOf('#');
+            String message = runFailure != null ? runFailure : "Test run did not complete";
+            listener.testEnded(new TestResult(currentTest.substring(0, separator), currentTest.substring(separator + 1),
+                    TestResult.Status.ERROR, message, clock.getAsLong() - currentTestStart));
+            currentTest = null;
+        }
+        if (runFailure != null) {
+            listener.runFailed(runFailure);
+        } else if (!complete) {
+            listener.runFailed("Test run did not complete");
+        }
+    }
+
+    /** @return Whether the run completed, without failing as a whole. */
+    public boolean isComplete() {
+        return complete && runFailure == null;
+    }
+
+    /** @return The number of tests reported so far. */
+    public int getTestCount() {
+        return testCount;
+    }
+
+    private void onStatus(int code) {
+        final String className = bundle.get("class");
+        final String testName = bundle.get("test");
+        if (className == null || testName == null) {
+            return;
+        }
+
+        if (code == CODE_START) {
+            currentTest = className + "#" + testName;
+            currentTestStart = clock.getAsLong();
+            return;
+        }
+
+        final TestResult.Status status = TestResult.Status.fromCode(code);
+        if (status == null) {
+            return;
+        }
+        final long duration = currentTest != null ? clock.getAsLong() - currentTestStart : 0;
+        currentTest = null;
+        testCount++;
+        listener.testEnded(new TestResult(className, testName, status, bundle.get("stack"), duration));
+    }
+
+    private void startValue(String line) {
+        endValue();
+        final int separator = line.indexOf('=');
+        if (separator < 0) {
+            return;
+        }
+        key = line.substring(0, separator);
+        value = new StringBuilder(line.substring(separator + 1));
+    }
+
+    private void endValue() {
+        if (key != null) {
+            bundle.put(key, value.toString());
+        }
+        key = null;
+        value = null;
+    }
+
+    private static int parseCode(String code) {
+        try {
+            return Integer.parseInt(code.trim());
+        } catch (NumberFormatException e) {
+            return Integer.MIN_VALUE;
+        }
+    }
+
+}
@@ -0,0 +1,461 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.plugins.android_emulator.Constants;
+import hudson.plugins.android_emulator.EmulatorReadiness;
+import hudson.plugins.android_emulator.Messages;
+import hudson.plugins.android_emulator.builder.AbstractBuilder;
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
+import hudson.plugins.android_emulator.util.Utils;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.plugins.android_emulator.AndroidEmulator.log;
+
+/**
+ * Runs the instrumentation tests of a test APK, already installed, split into shards that run in
+ * parallel on each of the emulators of the build.
+ * <p>
+ * The tests are listed by running the runner in log-only mode, then split by class into shards
+ * that should take about the same time, according to the durations recorded by the previous build.
+ * The output of each shard is parsed while it runs, and its JUnit XML report is written test by
+ * test, so that a crash only loses the test that was running. Failed tests, and the tests that
+ * didn't run because the process crashed, are run again on another device.
+ */
+public class InstrumentationTestBuilder extends AbstractBuilder implements SimpleBuildStep {
+
+    /** Directory to write the JUnit XML reports to if none specified. */
+    private static final String DEFAULT_REPORT_DIR = "instrumentation-results";
+
+    /** How many times failed tests are run again if not specified. */
+    private static final int DEFAULT_RETRIES = 1;
+
+    /** How long, in minutes, a shard may run if not specified. */
+    private static final int DEFAULT_SHARD_TIMEOUT = 60;
+
+    /** API level to get the adb shell commands for: {@code am instrument} is run the same way on every device. */
+    private static final int INSTRUMENT_COMMAND_API_LEVEL = Integer.MAX_VALUE;
+
+    /** File, within the build directory, recording the duration of each test. */
+    private static final String DURATIONS_FILE = "android-test-durations.properties";
+
+    /** Test runner, as {@code <test package>/<runner class>}. */
+    private final String testRunner;
+
+    /** Extra arguments for the test runner, e.g. {@code -e annotation ...}. */
+    private String arguments;
+
+    /** Directory, relative to the workspace, to write the JUnit XML reports to. */
+    private String reportDir = DEFAULT_REPORT_DIR;
+
+    /** How many times failed tests are run again. */
+    private int retries = DEFAULT_RETRIES;
+
+    /** How long, in minutes, a shard may run before it is stopped; {@code 0} for no limit. */
+    private int shardTimeout = DEFAULT_SHARD_TIMEOUT;
+
+    @DataBoundConstructor
+    public InstrumentationTestBuilder(String testRunner) {
+        this.testRunner = Util.fixEmptyAndTrim(testRunner);
+    }
+
+    public String getTestRunner() {
+        return testRunner;
+    }
+
+    public String getArguments() {
+        return arguments;
+    }
+
+    @DataBoundSetter
+    public void setArguments(String arguments) {
+        this.arguments = Util.fixEmptyAndTrim(arguments);
+    }
+
+    public String getReportDir() {
+        return reportDir;
+    }
+
+    @DataBoundSetter
+    public void setReportDir(String reportDir) {
+        this.reportDir = Util.fixEmptyAndTrim(reportDir) == null ? DEFAULT_REPORT_DIR : reportDir.trim();
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    @DataBoundSetter
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    public int getShardTimeout() {
+        return shardTimeout;
+    }
+
+    @DataBoundSetter
+    public void setShardTimeout(int shardTimeout) {
+        this.shardTimeout = Math.max(0, shardTimeout);
+    }
+
+    @Override
+    public void perform(Run<?, ?> run, FilePath workspace, EnvVars env, Launcher launcher, TaskListener listener)
+            throws InterruptedException, IOException {
+        final PrintStream logger = listener.getLogger();
+
+        final String runner = Utils.expandVariables(env, null, testRunner);
+        if (runner == null) {
+            throw new AbortException(Messages.TEST_RUNNER_NOT_SPECIFIED());
+        }
+        final String extraArgs = Util.fixNull(Utils.expandVariables(env, null, arguments));
+        final long timeoutMs = TimeUnit.MINUTES.toMillis(shardTimeout);
+
+        // Discover Android SDK
+        final Computer computer = workspace.toComputer();
+        final Node node = computer == null ? null : computer.getNode();
+        final String androidSdkRoot = Utils.expandVariables(env, null, Utils.getConfiguredAndroidHome());
+        final AndroidSdk androidSdk = Utils.getAndroidSdk(launcher, node, env, androidSdkRoot, null);
+        if (androidSdk == null) {
+            throw new AbortException(Messages.SDK_TOOLS_NOT_FOUND());
+        }
+
+        // Wait for the emulators, if they are still booting in background
+        if (run instanceof AbstractBuild) {
+            final Result ready = EmulatorReadiness.await((AbstractBuild<?, ?>) run, logger);
+            if (ready != Result.SUCCESS) {
+                run.setResult(ready);
+                throw new AbortException(Messages.EMULATOR_NOT_READY());
+            }
+        }
+        final List<String> devices = getDevices(env);
+
+        // List the tests, by class, without running them
+        log(logger, Messages.DISCOVERING_INSTRUMENTATION_TESTS(runner));
+        final Map<String, List<String>> tests = new LinkedHashMap<String, List<String>>();
+        final boolean listed = runInstrumentation(launcher, env, androidSdk, devices.get(0),
+                "-e log true " + extraArgs, runner, timeoutMs, logger, new InstrumentationResultParser.Listener() {
+                    @Override
+                    public void testEnded(TestResult result) {
+                        tests.computeIfAbsent(result.getClassName(), c -> new ArrayList<String>()).add(result.getId());
+                    }
+
+                    @Override
+                    public void runFailed(String message) {
+                        log(logger, Messages.INSTRUMENTATION_RUN_FAILED(message));
+                    }
+                });
+        if (!listed) {
+            throw new AbortException(Messages.INSTRUMENTATION_DISCOVERY_FAILED());
+        }
+        if (tests.isEmpty()) {
+            log(logger, Messages.NO_INSTRUMENTATION_TESTS());
+            return;
+        }
+
+        // Balance the shards according to the durations recorded by the previous build
+        final Run<?, ?> previousRun = run.getPreviousCompletedBuild();
+        final Map<String, Long> previousDurations = previousRun == null ? Collections.<String, Long>emptyMap()
+                : TestShards.load(new File(previousRun.getRootDir(), DURATIONS_FILE));
+        final List<Shard> shards = new ArrayList<Shard>();
+        int testCount = 0;
+        for (List<String> classes : TestShards.split(tests, previousDurations, devices.size())) {
+            if (classes.isEmpty()) {
+                continue;
+            }
+            final Map<String, List<String>> shardTests = new LinkedHashMap<String, List<String>>();
+            for (String className : classes) {
+                shardTests.put(className, tests.get(className));
+                testCount += tests.get(className).size();
+            }
+            shards.add(new Shard(shards.size(), shardTests));
+        }
+        log(logger, Messages.SHARDING_INSTRUMENTATION_TESTS(testCount, tests.size(), shards.size()));
+
+        final String reportDirExpanded = Utils.expandVariables(env, null, reportDir);
+        final FilePath reportPath = workspace.child(reportDirExpanded == null ? DEFAULT_REPORT_DIR : reportDirExpanded);
+        reportPath.mkdirs();
+        final Map<String, Long> durations = new ConcurrentHashMap<String, Long>();
+        try {
+            for (Shard shard : shards) {
+                final String suiteName = "shard-" + shard.index;
+                shard.report = new JUnitReportWriter(reportPath.child("TEST-" + suiteName + ".xml").write(),
+                        suiteName, devices.get(shard.index));
+            }
+
+            // Run all the shards at once, then whatever didn't pass on another device each time
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                final Map<String, Shard> shardsByDevice = new LinkedHashMap<String, Shard>();
+                for (Shard shard : shards) {
+                    if (!shard.getTestsToRun().isEmpty()) {
+                        shardsByDevice.put(devices.get((shard.index + attempt) % devices.size()), shard);
+                    }
+                }
+                if (shardsByDevice.isEmpty()) {
+                    break;
+                }
+
+                final int currentAttempt = attempt;
+                performOnDevices(new ArrayList<String>(shardsByDevice.keySet()), logger, (device, deviceLogger) -> {
+                    final Shard shard = shardsByDevice.get(device);
+                    final List<String> testsToRun = shard.getTestsToRun();
+                    if (currentAttempt == 0) {
+                        log(deviceLogger, Messages.RUNNING_INSTRUMENTATION_SHARD(shard.index, device));
+                    } else {
+                        log(deviceLogger, Messages.RETRYING_INSTRUMENTATION_SHARD(shard.pendingCount(),
+                                shard.index, device, currentAttempt));
+                    }
+                    shard.runFailure = null;
+                    runInstrumentation(launcher, env, androidSdk, device,
+                            "-e class " + String.join(",", testsToRun) + " " + extraArgs, runner, timeoutMs,
+                            deviceLogger, new InstrumentationResultParser.Listener() {
+                                @Override
+                                public void testEnded(TestResult result) {
+                                    durations.put(result.getId(), result.getDurationMs());
+                                    shard.testEnded(result);
+                                }
+
+                                @Override
+                                public void runFailed(String message) {
+                                    log(deviceLogger, Messages.INSTRUMENTATION_RUN_FAILED(message));
+                                    shard.runFailure = message;
+                                }
+                            });
+                    return true;
+                });
+            }
+
+            // Only now report the tests that failed on every attempt
+            for (Shard shard : shards) {
+                shard.reportFailures();
+            }
+        } finally {
+            for (Shard shard : shards) {
+                if (shard.report != null) {
+                    shard.report.close();
+                }
+            }
+            TestShards.save(new File(run.getRootDir(), DURATIONS_FILE), durations);
+        }
+
+        int failed = 0;
+        for (Shard shard : shards) {
+            failed += shard.failed;
+        }
+        log(logger, Messages.INSTRUMENTATION_TESTS_SUMMARY(testCount, failed));
+        if (failed > 0) {
+            run.setResult(Result.UNSTABLE);
+        }
+    }
+
+    /**
+     * Runs the tests once, feeding the output to a parser as it arrives.<br>
+     * A run that takes longer than the timeout is stopped, and handled like a crash: the test that was
+     * running fails, and those that didn't run yet are left to the retries.
+     *
+     * @param timeoutMs How long the run may take, {@code 0} for no limit.
+     * @return {@code true} if the run completed, whether the tests passed or not.
+     */
+    private static boolean runInstrumentation(Launcher launcher, EnvVars env, AndroidSdk androidSdk,
+            String device, String args, String runner, long timeoutMs, PrintStream logger,
+            InstrumentationResultParser.Listener listener) throws IOException, InterruptedException {
+        final InstrumentationResultParser parser = new InstrumentationResultParser(listener);
+        final SdkCliCommand instrumentCmd = SdkCliCommandFactory
+                .getAdbShellCommandForAPILevel(INSTRUMENT_COMMAND_API_LEVEL)
+                .getInstrumentCommand(device, args.trim() + " " + runner);
+        final long start = System.currentTimeMillis();
+        try (LineTransformationOutputStream stdout = new LineTransformationOutputStream() {
+            @Override
+            protected void eol(byte[] b, int len) {
+                parser.addLine(trimEOL(new String(b, 0, len, StandardCharsets.UTF_8)));
+            }
+        }) {
+            Utils.runAndroidTool(launcher, env, stdout, logger, androidSdk, instrumentCmd, null, timeoutMs);
+        }
+        if (timeoutMs > 0 && System.currentTimeMillis() - start >= timeoutMs) {
+            log(logger, Messages.INSTRUMENTATION_RUN_TIMED_OUT(device, TimeUnit.MILLISECONDS.toMinutes(timeoutMs)));
+        }
+        parser.done();
+        return parser.isComplete();
+    }
+
+    /**
+     * Gets the devices to run the tests on: each of the emulators started by this plugin, or the
+     * one selected for adb, defaulting to the only device attached.
+     */
+    private static List<String> getDevices(EnvVars env) {
+        final String devices = env.get(Constants.ENV_VAR_ANDROID_AVD_DEVICES);
+        if (devices != null) {
+            return Arrays.asList(devices.split(","));
+        }
+        String device = env.get(Constants.ENV_VAR_ANDROID_AVD_DEVICE);
+        if (device == null) {
+            device = env.get(Constants.ENV_VAR_ANDROID_SERIAL);
+        }
+        return Collections.singletonList(device == null ? "" : device);
+    }
+
+    /** The test classes run together on one device, and their results so far. */
+    private static final class Shard {
+
+        private final int index;
+        private final Map<String, List<String>> tests;
+
+        /** Tests that passed or were skipped, already reported. */
+        private final Set<String> done = new HashSet<String>();
+
+        /** Latest result of the tests that failed, reported once they won't be run again. */
+        private final Map<String, TestResult> failures = new LinkedHashMap<String, TestResult>();
+
+        private JUnitReportWriter report;
+        private String runFailure;
+        private int failed;
+
+        Shard(int index, Map<String, List<String>> tests) {
+            this.index = index;
+            this.tests = tests;
+        }
+
+        void testEnded(TestResult result) {
+            if (result.getStatus().isFailure()) {
+                failures.put(result.getId(), result);
+                return;
+            }
+            failures.remove(result.getId());
+            if (done.add(result.getId())) {
+                try {
+                    report.write(result, null);
+                } catch (IOException ignore) {
+                    // Not reported yet: run again, or reported along with the failures
+                    done.remove(result.getId());
+                }
+            }
+        }
+
+        /** @return Number of tests that didn't pass yet. */
+        int pendingCount() {
+            int count = 0;
+            for (List<String> classTests : tests.values()) {
+                for (String test : classTests) {
+                    if (!done.contains(test)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return What to pass to the {@code class} argument of the runner to run the tests that didn't pass yet:
+         *         a whole class if none of its tests passed.
+         */
+        List<String> getTestsToRun() {
+            final List<String> testsToRun = new ArrayList<String>();
+            for (Map.Entry<String, List<String>> entry : tests.entrySet()) {
+                final List<String> pending = new ArrayList<String>();
+                for (String test : entry.getValue()) {
+                    if (!done.contains(test)) {
+                        pending.add(test);
+                    }
+                }
+                if (pending.size() == entry.getValue().size()) {
+                    testsToRun.add(entry.getKey());
+                } else {
+                    testsToRun.addAll(pending);
+                }
+            }
+            return testsToRun;
+        }
+
+        /** Reports the tests that never passed: the failures, and the tests which never ran as an error. */
+        void reportFailures() throws IOException {
+            final Map<String, String> classNames = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, List<String>> entry : tests.entrySet()) {
+                for (String test : entry.getValue()) {
+                    classNames.put(test, entry.getKey());
+                }
+            }
+            for (Map.Entry<String, String> entry : classNames.entrySet()) {
+                final String test = entry.getKey();
+                if (done.contains(test)) {
+                    continue;
+                }
+                TestResult result = failures.get(test);
+                if (result == null) {
+                    final String className = entry.getValue();
+                    result = new TestResult(className, test.substring(className.length() + 1), TestResult.Status.ERROR,
+                            runFailure != null ? runFailure : "Test did not run", 0);
+                }
+                report.write(result, null);
+                failed++;
+            }
+        }
+
+    }
+
+    @Extension
+    @Symbol("androidInstrumentationTest")
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        public boolean isApplicable(@SuppressWarnings("rawtypes") Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getHelpFile() {
+            return Functions.getResourcePath() + "/plugin/android-emulator/help-instrumentationTests.html";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.RUN_INSTRUMENTATION_TESTS();
+        }
+
+        public FormValidation doCheckTestRunner(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.error(Messages.TEST_RUNNER_NOT_SPECIFIED());
+            }
+            return FormValidation.ok();
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a JUnit XML report one test at a time, flushing each test case as soon as it's written,
+ * so that the report of a shard grows while its tests are running.
+ * <p>
+ * The suite element has no counters, as they are only known at the end; the JUnit report
+ * readers compute them from the test cases anyway.
+ */
+public class JUnitReportWriter implements AutoCloseable {
+
+    private final OutputStream out;
+    private final XMLStreamWriter xml;
+
+    /**
+     * @param out Where the report is written to; closed along with this writer.
+     * @param suiteName The name of the test suite, e.g. the shard.
+     * @param hostname The device the tests run on.
+     */
+    public JUnitReportWriter(OutputStream out, String suiteName, String hostname) throws IOException {
+        this.out = out;
+        try {
+            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("testsuite");
+            xml.writeAttribute("name", suiteName);
+            xml.writeAttribute("hostname", hostname);
+            xml.writeCharacters("\n");
+            flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the test case of the given result.
+     *
+     * @param result The result to write.
+     * @param output Text to attach to the test case as its standard output, if any.
+     */
+    public synchronized void write(TestResult result, String output) throws IOException {
+        try {
+            xml.writeCharacters("  ");
+            xml.writeStartElement("testcase");
+            xml.writeAttribute("classname", result.getClassName());
+            xml.writeAttribute("name", result.getTestName());
+            xml.writeAttribute("time", String.format(Locale.ROOT, "%.3f", result.getDurationMs() / 1000.0));
+            switch (result.getStatus()) {
+                case FAILED:
+                    writeFailure("failure", result.getStack());
+                    break;
+                case ERROR:
+                    writeFailure("error", result.getStack());
+                    break;
+                case IGNORED:
+                case ASSUMPTION_FAILURE:
+                    xml.writeEmptyElement("skipped");
+                    break;
+                default:
+                    break;
+            }
+            if (output != null) {
+                xml.writeStartElement("system-out");
+                xml.writeCharacters(clean(output));
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeFailure(String element, String stack) throws XMLStreamException {
+        final String text = stack == null ? "" : clean(stack);
+        final int endOfLine = text.indexOf('\n');
+        xml.writeStartElement(element);
+        xml.writeAttribute("message", endOfLine < 0 ? text : text.substring(0, endOfLine));
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    private void flush() throws XMLStreamException, IOException {
+        xml.flush();
+        out.flush();
+    }
+
+    /** Removes the characters that aren't allowed in XML 1.0, which stack traces may contain. */
+    private static String clean(String text) {
+        return text.replaceAll("[^\\x09\\x0A\\x0D\\x20-\\uD7FF\\uE000-\\uFFFD]", "");
+    }
+
+}
@@ -0,0 +1,83 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+/**
+ * The outcome of a single instrumentation test.
+ */
+public final class TestResult {
+
+    /** Outcome of a test, matching the status codes reported by {@code am instrument -r}. */
+    public enum Status {
+        PASSED(0),
+        FAILED(-2),
+        ERROR(-1),
+        IGNORED(-3),
+        ASSUMPTION_FAILURE(-4);
+
+        private final int code;
+
+        Status(int code) {
+            this.code = code;
+        }
+
+        /** @return The status for the given instrumentation status code, or {@code null} if unknown. */
+        static Status fromCode(int code) {
+            for (Status status : values()) {
+                if (status.code == code) {
+                    return status;
+                }
+            }
+            return null;
+        }
+
+        /** @return Whether the test should be run again when retrying its shard. */
+        public boolean isFailure() {
+            return this == FAILED || this == ERROR;
+        }
+    }
+
+    private final String className;
+    private final String testName;
+    private final Status status;
+    private final String stack;
+    private final long durationMs;
+
+    public TestResult(String className, String testName, Status status, String stack, long durationMs) {
+        this.className = className;
+        this.testName = testName;
+        this.status = status;
+        this.stack = stack;
+        this.durationMs = durationMs;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getTestName() {
+        return testName;
+    }
+
+    /** @return The test in the form accepted by the {@code class} argument of the runner. */
+    public String getId() {
+        return className + "#" + testName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** @return The stack trace of the failure, or {@code null} if the test didn't fail. */
+    public String getStack() {
+        return stack;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    @Override
+    public String toString() {
+        return getId() + ": " + status;
+    }
+
+}
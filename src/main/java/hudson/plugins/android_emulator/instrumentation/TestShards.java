@@ -0,0 +1,120 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Splits test classes into shards of about the same duration, based on how long each test took
+ * in a previous build.
+ */
+public final class TestShards {
+
+    /** Assumed duration of a test that never ran before, if no test has any history. */
+    private static final long DEFAULT_TEST_DURATION_MS = 1000;
+
+    private TestShards() {
+    }
+
+    /**
+     * Splits the given test classes into shards, giving each class to the shard that has the
+     * lowest expected duration so far, longest classes first.
+     *
+     * @param tests The tests to run, by class name.
+     * @param durations The duration of each test in a previous build, by test ID.
+     * @param count The number of shards.
+     * @return The test classes of each shard; shards may be empty if there are few classes.
+     */
+    public static List<List<String>> split(Map<String, ? extends Collection<String>> tests,
+            Map<String, Long> durations, int count) {
+        // Tests without history are assumed to take as long as the average test with history
+        long known = 0;
+        for (long duration : durations.values()) {
+            known += duration;
+        }
+        final long unknown = durations.isEmpty() ? DEFAULT_TEST_DURATION_MS : known / durations.size();
+
+        final Map<String, Long> classDurations = new HashMap<String, Long>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : tests.entrySet()) {
+            long duration = 0;
+            for (String test : entry.getValue()) {
+                final Long testDuration = durations.get(test);
+                duration += testDuration != null ? testDuration : unknown;
+            }
+            classDurations.put(entry.getKey(), duration);
+        }
+
+        final List<String> classes = new ArrayList<String>(tests.keySet());
+        classes.sort((a, b) -> {
+            int result = Long.compare(classDurations.get(b), classDurations.get(a));
+            return result != 0 ? result : a.compareTo(b);
+        });
+
+        final List<List<String>> shards = new ArrayList<List<String>>(count);
+        final long[] shardDurations = new long[count];
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<String>());
+        }
+        for (String className : classes) {
+            int shortest = 0;
+            for (int i = 1; i < count; i++) {
+                if (shardDurations[i] < shardDurations[shortest]) {
+                    shortest = i;
+                }
+            }
+            shards.get(shortest).add(className);
+            shardDurations[shortest] += classDurations.get(className);
+        }
+        return shards;
+    }
+
+    /**
+     * Reads the test durations recorded by {@link #save(File, Map)}.
+     *
+     * @param file The file to read.
+     * @return The duration of each test, by test ID; empty if the file doesn't exist or is invalid.
+     */
+    public static Map<String, Long> load(File file) {
+        final Map<String, Long> durations = new HashMap<String, Long>();
+        if (!file.isFile()) {
+            return durations;
+        }
+        final Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            properties.load(is);
+        } catch (IOException e) {
+            return durations;
+        }
+        for (String test : properties.stringPropertyNames()) {
+            try {
+                durations.put(test, Long.parseLong(properties.getProperty(test)));
+            } catch (NumberFormatException ignore) {}
+        }
+        return durations;
+    }
+
+    /**
+     * Records the test durations of a build, for the next build to balance its shards.
+     *
+     * @param file The file to write.
+     * @param durations The duration of each test, by test ID.
+     */
+    public static void save(File file, Map<String, Long> durations) throws IOException {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            properties.setProperty(entry.getKey(), Long.toString(entry.getValue()));
+        }
+        try (OutputStream os = Files.newOutputStream(file.toPath())) {
+            properties.store(os, "Android instrumentation test durations, in milliseconds");
+        }
+    }
+
+}
@@ -95,6 +95,11 @@ public class MonkeyBuilder extends AbstractBuilder {
             return false;
         }
 
+        // Wait for the emulator, if it's still booting in background
+        if (!waitForEmulator(build, listener)) {
+            return false;
+        }
+
         // Build list of arguments for monkey
         StringBuilder cmdArgs = new StringBuilder();
         List<String> packageNamesLog = new ArrayList<String>();
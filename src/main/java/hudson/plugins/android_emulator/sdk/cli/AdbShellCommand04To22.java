@@ -9,7 +9,7 @@ import hudson.plugins.android_emulator.constants.AndroidKeyEvent;
 public class AdbShellCommand04To22 extends AdbShellCommandsCurrentBase implements AdbShellCommands {
 
     @Override
-    public SdkCliCommand getDismissKeyguardCommand(String deviceSerial) {
-        return getSendKeyEventCommand(deviceSerial, AndroidKeyEvent.KEYCODE_MENU);
+    public String getDismissKeyguardShellCommand() {
+        return getSendKeyEventShellCommand(AndroidKeyEvent.KEYCODE_MENU);
     }
 }
@@ -1,5 +1,7 @@
 package hudson.plugins.android_emulator.sdk.cli;
 
+import java.util.List;
+
 import hudson.plugins.android_emulator.constants.AndroidKeyEvent;
 
 /**
@@ -8,20 +10,51 @@ import hudson.plugins.android_emulator.constants.AndroidKeyEvent;
 public interface AdbShellCommands {
     SdkCliCommand getListProcessesCommand(final String deviceSerial);
 
+    /**
+     * Lists the packages installed by the user, i.e. excluding those of the system image.
+     *
+     * @param deviceSerial device to list the packages of
+     * @return {@code SdkCliCommand} object which holds the ADB-Tool and the generated command
+     */
+    SdkCliCommand getListThirdPartyPackagesCommand(final String deviceSerial);
+    String getListThirdPartyPackagesShellCommand();
+
     SdkCliCommand getWaitForDeviceStartupCommand(final String deviceSerial);
     String getWaitForDeviceStartupExpectedAnswer();
 
     SdkCliCommand getClearMainLogCommand(final String deviceSerial);
+    String getClearMainLogShellCommand();
 
     SdkCliCommand getSetLogCatFormatToTimeCommand(final String deviceSerial);
     SdkCliCommand getLogMessageCommand(final String deviceSerial, final String logMessage);
+    String getLogMessageShellCommand(final String logMessage);
 
     SdkCliCommand getSendKeyEventCommand(final String deviceSerial, final AndroidKeyEvent keyEvent);
+    String getSendKeyEventShellCommand(final AndroidKeyEvent keyEvent);
     SdkCliCommand getSendBackKeyEventCommand(final String deviceSerial);
 
     SdkCliCommand getDismissKeyguardCommand(final String deviceSerial);
+    String getDismissKeyguardShellCommand();
+
+    /**
+     * Runs several commands one after the other within a single 'adb shell' session.
+     *
+     * @param deviceSerial device to run the commands on
+     * @param shellCommands the commands to run on the device, in order
+     * @return {@code SdkCliCommand} object which holds the ADB-Tool and the generated command
+     */
+    SdkCliCommand getBatchShellCommand(final String deviceSerial, final List<String> shellCommands);
 
     SdkCliCommand getMonkeyInputCommand(final String deviceSerial,
             final long seedValue, final int throttleMs,
             final String extraArgs, final int eventCount);
+
+    /**
+     * Runs instrumentation tests, reporting their status in raw form while they run.
+     *
+     * @param deviceSerial device to run the tests on
+     * @param arguments the arguments to pass to the runner, ending with its component name
+     * @return {@code SdkCliCommand} object which holds the ADB-Tool and the generated command
+     */
+    SdkCliCommand getInstrumentCommand(final String deviceSerial, final String arguments);
 }
@@ -1,5 +1,7 @@
 package hudson.plugins.android_emulator.sdk.cli;
 
+import java.util.List;
+
 import hudson.plugins.android_emulator.constants.AndroidKeyEvent;
 import hudson.plugins.android_emulator.sdk.Tool;
 
@@ -15,6 +17,16 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
         return getAdbShellCommand(deviceSerial, "ps");
     }
 
+    @Override
+    public SdkCliCommand getListThirdPartyPackagesCommand(final String deviceSerial) {
+        return getAdbShellCommand(deviceSerial, getListThirdPartyPackagesShellCommand());
+    }
+
+    @Override
+    public String getListThirdPartyPackagesShellCommand() {
+        return "pm list packages -3";
+    }
+
     // Other tools use the "bootanim" variant, which supposedly signifies the system has booted a bit further;
     // though this doesn't appear to be available on Android 1.5, while it should work fine on Android 1.6+
     @Override
@@ -29,7 +41,12 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
 
     @Override
     public SdkCliCommand getClearMainLogCommand(final String deviceSerial) {
-        return getAdbShellCommand(deviceSerial, "logcat -c");
+        return getAdbShellCommand(deviceSerial, getClearMainLogShellCommand());
+    }
+
+    @Override
+    public String getClearMainLogShellCommand() {
+        return "logcat -c";
     }
 
     @Override
@@ -39,14 +56,22 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
 
     @Override
     public SdkCliCommand getLogMessageCommand(final String deviceSerial, final String logMessage) {
-        final String logCommand = String.format("log -p v -t Jenkins '%s'", logMessage);
-        return getAdbShellCommand(deviceSerial, logCommand);
+        return getAdbShellCommand(deviceSerial, getLogMessageShellCommand(logMessage));
+    }
+
+    @Override
+    public String getLogMessageShellCommand(final String logMessage) {
+        return String.format("log -p v -t Jenkins '%s'", logMessage);
     }
 
     @Override
     public SdkCliCommand getSendKeyEventCommand(final String deviceSerial, final AndroidKeyEvent keyEvent) {
-        final String inputKeyEventCommand = String.format("input keyevent %d", keyEvent.getKeyCode());
-        return getAdbShellCommand(deviceSerial, inputKeyEventCommand);
+        return getAdbShellCommand(deviceSerial, getSendKeyEventShellCommand(keyEvent));
+    }
+
+    @Override
+    public String getSendKeyEventShellCommand(final AndroidKeyEvent keyEvent) {
+        return String.format("input keyevent %d", keyEvent.getKeyCode());
     }
 
     @Override
@@ -56,8 +81,20 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
 
     @Override
     public SdkCliCommand getDismissKeyguardCommand(final String deviceSerial) {
+        return getAdbShellCommand(deviceSerial, getDismissKeyguardShellCommand());
+    }
+
+    @Override
+    public String getDismissKeyguardShellCommand() {
         // Android 6.0 introduced a command to dismiss the keyguard on unsecured devices
-        return getAdbShellCommand(deviceSerial, "wm dismiss-keyguard");
+        return "wm dismiss-keyguard";
+    }
+
+    @Override
+    public SdkCliCommand getBatchShellCommand(final String deviceSerial, final List<String> shellCommands) {
+        // Quote the whole script so that it reaches the device shell as a single argument
+        final String script = String.join("; ", shellCommands).replace("\"", "\\\"");
+        return getAdbShellCommand(deviceSerial, '"' + script + '"');
     }
 
     @Override
@@ -69,6 +106,11 @@ public class AdbShellCommandsCurrentBase implements AdbShellCommands {
         return getAdbShellCommand(deviceSerial, command);
     }
 
+    @Override
+    public SdkCliCommand getInstrumentCommand(final String deviceSerial, final String arguments) {
+        return getAdbShellCommand(deviceSerial, "am instrument -r -w " + arguments);
+    }
+
     /**
      * Generic method to generate and 'adb shell' command to run on the given device.
      *
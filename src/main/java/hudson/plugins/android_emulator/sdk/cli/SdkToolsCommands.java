@@ -20,6 +20,17 @@ public interface SdkToolsCommands {
             final String androidTarget, final String systemImagePackagePath, final String tag);
 
     SdkCliCommand getAdbInstallPackageCommand(final String deviceIdentifier, final String packageFileName);
+
+    /**
+     * Installs a package, replacing any existing version, in the given install mode.
+     *
+     * @param deviceIdentifier the device to install the package on
+     * @param packageFileName the APK to install
+     * @param installOptions extra options of {@code adb install}, e.g. {@code --streaming}, or {@code null}
+     * @return a {@code SdkCommand} which holds the command to use and the arguments
+     */
+    SdkCliCommand getAdbInstallPackageCommand(final String deviceIdentifier, final String packageFileName,
+            final String installOptions);
     SdkCliCommand getAdbUninstallPackageCommand(final String deviceIdentifier, final String packageId);
 
     /**
@@ -35,6 +46,9 @@ public interface SdkToolsCommands {
 
     SdkCliCommand getAdbStartServerCommand();
     SdkCliCommand getAdbKillServerCommand();
+    SdkCliCommand getAdbGetStateCommand(final String deviceIdentifier);
+    SdkCliCommand getAdbBugReportCommand(final String deviceIdentifier, final String outputPath);
+    SdkCliCommand getAdbRebootCommand(final String deviceIdentifier);
 
     @Deprecated
     SdkCliCommand getUpdateProjectCommand(final String projectPath);
@@ -111,7 +111,15 @@ public class SdkToolsCommandsCurrentBase implements SdkToolsCommands {
 
     @Override
     public SdkCliCommand getAdbInstallPackageCommand(final String deviceIdentifier, final String packageFileName) {
-        final String adbInstallArgs = String.format("%sinstall -r \"%s\"", getAdbDeviceSerialArg(deviceIdentifier), packageFileName);
+        return getAdbInstallPackageCommand(deviceIdentifier, packageFileName, null);
+    }
+
+    @Override
+    public SdkCliCommand getAdbInstallPackageCommand(final String deviceIdentifier, final String packageFileName,
+            final String installOptions) {
+        final String options = (installOptions != null && !installOptions.isEmpty()) ? installOptions + " " : "";
+        final String adbInstallArgs = String.format("%sinstall -r %s\"%s\"", getAdbDeviceSerialArg(deviceIdentifier),
+                options, packageFileName);
         return new SdkCliCommand(Tool.ADB, adbInstallArgs);
     }
 
@@ -154,6 +162,22 @@ public class SdkToolsCommandsCurrentBase implements SdkToolsCommands {
         return new SdkCliCommand(Tool.ADB, "kill-server");
     }
 
+    @Override
+    public SdkCliCommand getAdbGetStateCommand(final String deviceIdentifier) {
+        return new SdkCliCommand(Tool.ADB, getAdbDeviceSerialArg(deviceIdentifier) + "get-state");
+    }
+
+    @Override
+    public SdkCliCommand getAdbBugReportCommand(final String deviceIdentifier, final String outputPath) {
+        final String adbArgs = String.format("%sbugreport \"%s\"", getAdbDeviceSerialArg(deviceIdentifier), outputPath);
+        return new SdkCliCommand(Tool.ADB, adbArgs);
+    }
+
+    @Override
+    public SdkCliCommand getAdbRebootCommand(final String deviceIdentifier) {
+        return new SdkCliCommand(Tool.ADB, getAdbDeviceSerialArg(deviceIdentifier) + "reboot");
+    }
+
     @Override
     public SdkCliCommand getUpdateProjectCommand(final String projectPath) {
         return SdkCliCommand.createNoopCommand();
@@ -32,6 +32,11 @@ public abstract class AbstractSnapshotBuilder extends AbstractBuilder {
         // Expand snapshot name
         final String snapshotName = Utils.expandVariables(build, listener, name);
 
+        // Wait for the emulator, if it's still booting in background
+        if (!waitForEmulator(build, listener)) {
+            return false;
+        }
+
         // Get AVD port
         final int port = getDeviceTelnetPort(build, listener);
 
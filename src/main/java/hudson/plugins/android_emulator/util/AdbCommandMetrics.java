@@ -0,0 +1,131 @@
+package hudson.plugins.android_emulator.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.plugins.android_emulator.Messages;
+
+/**
+ * Keeps track of latency and outcome of the adb commands executed for a
+ * single emulator, grouped by command type (e.g. {@code start-server} or
+ * {@code shell logcat}).
+ */
+public final class AdbCommandMetrics {
+
+    /** Final outcome of an adb command invocation. */
+    public enum Outcome {
+        SUCCESS, FAILURE, TIMEOUT
+    }
+
+    /** Counters collected for a single type of adb command. */
+    public static final class Entry {
+        private int count;
+        private int failures;
+        private int timeouts;
+        private int retries;
+        private long totalMs;
+        private long maxMs;
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public int getTimeouts() {
+            return timeouts;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        public long getTotalMs() {
+            return totalMs;
+        }
+
+        public long getMaxMs() {
+            return maxMs;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Records the execution of an adb command.
+     *
+     * @param type The command type, as returned by {@link #getCommandType(String)}.
+     * @param durationMs How long the command took, including any retries.
+     * @param outcome The final outcome of the command.
+     * @param retries How many times the command was retried.
+     */
+    public synchronized void record(final String type, final long durationMs, final Outcome outcome, final int retries) {
+        Entry entry = entries.get(type);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(type, entry);
+        }
+        entry.count++;
+        entry.retries += retries;
+        entry.totalMs += durationMs;
+        entry.maxMs = Math.max(entry.maxMs, durationMs);
+        if (outcome == Outcome.FAILURE) {
+            entry.failures++;
+        } else if (outcome == Outcome.TIMEOUT) {
+            entry.timeouts++;
+        }
+    }
+
+    /**
+     * @param type The command type.
+     * @return The counters recorded for the given command type, or {@code null} if none.
+     */
+    public synchronized Entry get(final String type) {
+        return entries.get(type);
+    }
+
+    /**
+     * @return One human-readable line per command type, in order of first execution.
+     */
+    public synchronized List<String> getSummary() {
+        final List<String> lines = new ArrayList<String>(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            final Entry entry = e.getValue();
+            lines.add(Messages.ADB_COMMAND_SUMMARY(e.getKey(), entry.count, entry.failures,
+                    entry.timeouts, entry.retries, entry.totalMs, entry.maxMs));
+        }
+        return lines;
+    }
+
+    /**
+     * Determines the type of an adb command from its arguments, ignoring device selection
+     * options, so that e.g. {@code -s emulator-5554 shell logcat -c} is reported as
+     * {@code shell logcat}.
+     *
+     * @param args The adb command line arguments.
+     * @return The command type.
+     */
+    public static String getCommandType(final String args) {
+        if (args == null) {
+            return "";
+        }
+        final String[] tokens = args.trim().split("\\s+");
+        for (int i = 0; i < tokens.length; i++) {
+            final String token = tokens[i];
+            if ("-s".equals(token) || "-P".equals(token) || "-H".equals(token)) {
+                i++;
+            } else if ("-d".equals(token) || "-e".equals(token) || "wait-for-device".equals(token)) {
+                continue;
+            } else if ("shell".equals(token) && i + 1 < tokens.length) {
+                return token + " " + tokens[i + 1];
+            } else {
+                return token;
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,160 @@
+package hudson.plugins.android_emulator.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers, for each node, the Android SDK discovered for a given list of candidate directories,
+ * so that the builders and wrappers of a build don't search and validate the SDK over and over.
+ * <p>
+ * A cached SDK is trusted for a short while without contacting the node; after that, it's only
+ * discovered again if its {@code source.properties} or root directory have changed meanwhile.
+ */
+public final class AndroidSdkCache {
+
+    /** How long a cached SDK is trusted before checking whether it changed on the node. */
+    private static final long CHECK_INTERVAL_MS = SystemProperties.getLong(AndroidSdkCache.class.getName() + ".checkIntervalMs",
+            TimeUnit.MINUTES.toMillis(1));
+
+    private static final Map<VirtualChannel, Map<List<String>, Entry>> cache = new WeakHashMap<VirtualChannel, Map<List<String>, Entry>>();
+
+    private static final class Entry {
+        private final AndroidSdk sdk;
+        private final long[] stamp;
+        private long checkedAt;
+
+        private Entry(AndroidSdk sdk, long[] stamp) {
+            this.sdk = sdk;
+            this.stamp = stamp;
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    private AndroidSdkCache() {
+    }
+
+    /**
+     * Returns the SDK discovered on the given node for the given candidates, discovering it only
+     * if not cached yet or changed since. Failed discoveries are not cached, as the SDK may be
+     * installed later on.
+     *
+     * @param channel The channel of the node.
+     * @param key Identifies the candidate directories, and any other input of the discovery.
+     * @param discovery Task that discovers the SDK on the node.
+     * @return The discovered SDK, or {@code null} if none was found.
+     */
+    static AndroidSdk get(final VirtualChannel channel, final List<String> key,
+            final Callable<AndroidSdk, IOException> discovery) throws IOException, InterruptedException {
+        return get(channel, key, discovery, CHECK_INTERVAL_MS);
+    }
+
+    static AndroidSdk get(final VirtualChannel channel, final List<String> key,
+            final Callable<AndroidSdk, IOException> discovery, final long checkIntervalMs)
+            throws IOException, InterruptedException {
+        final Entry cached;
+        synchronized (cache) {
+            Map<List<String>, Entry> entries = cache.get(channel);
+            cached = entries == null ? null : entries.get(key);
+        }
+
+        if (cached != null) {
+            if (System.currentTimeMillis() - cached.checkedAt < checkIntervalMs) {
+                return cached.sdk;
+            }
+            if (Arrays.equals(cached.stamp, channel.call(new StampTask(cached.sdk.getSdkRoot())))) {
+                cached.checkedAt = System.currentTimeMillis();
+                return cached.sdk;
+            }
+        }
+
+        final Discovery result = channel.call(new DiscoveryTask(discovery));
+        synchronized (cache) {
+            Map<List<String>, Entry> entries = cache.get(channel);
+            if (entries == null) {
+                entries = new HashMap<List<String>, Entry>();
+                cache.put(channel, entries);
+            }
+            if (result.sdk == null) {
+                entries.remove(key);
+            } else {
+                entries.put(key, new Entry(result.sdk, result.stamp));
+            }
+        }
+        return result.sdk;
+    }
+
+    /**
+     * Forgets the SDKs discovered on the given node, e.g. because an SDK was just installed there.
+     *
+     * @param channel The channel of the node.
+     */
+    public static void invalidate(final VirtualChannel channel) {
+        synchronized (cache) {
+            cache.remove(channel);
+        }
+    }
+
+    /** @return The modification times that reveal whether the SDK at the given root changed. */
+    private static long[] getStamp(final String sdkRoot) {
+        if (sdkRoot == null) {
+            return new long[0];
+        }
+        final File root = new File(sdkRoot);
+        return new long[] { root.lastModified(), new File(root, "tools/source.properties").lastModified() };
+    }
+
+    private static final class Discovery implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final AndroidSdk sdk;
+        private final long[] stamp;
+
+        private Discovery(AndroidSdk sdk, long[] stamp) {
+            this.sdk = sdk;
+            this.stamp = stamp;
+        }
+    }
+
+    /** Runs the discovery on the node, stamping the SDK found in the same remote call. */
+    private static final class DiscoveryTask extends MasterToSlaveCallable<Discovery, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final Callable<AndroidSdk, IOException> discovery;
+
+        private DiscoveryTask(Callable<AndroidSdk, IOException> discovery) {
+            this.discovery = discovery;
+        }
+
+        public Discovery call() throws IOException {
+            final AndroidSdk sdk = discovery.call();
+            return new Discovery(sdk, sdk == null ? null : getStamp(sdk.getSdkRoot()));
+        }
+    }
+
+    private static final class StampTask extends MasterToSlaveCallable<long[], IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sdkRoot;
+
+        private StampTask(String sdkRoot) {
+            this.sdkRoot = sdkRoot;
+        }
+
+        public long[] call() {
+            return getStamp(sdkRoot);
+        }
+    }
+}
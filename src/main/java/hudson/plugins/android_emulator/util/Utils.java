@@ -16,11 +16,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -48,8 +49,6 @@ import hudson.plugins.android_emulator.sdk.AndroidSdk;
 import hudson.plugins.android_emulator.sdk.Tool;
 import hudson.plugins.android_emulator.sdk.ToolLocator;
 import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
-import hudson.remoting.Callable;
-import hudson.remoting.Future;
 import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.VersionNumber;
@@ -60,6 +59,9 @@ public class Utils {
 
     private static final Logger LOGGER = Logger.getLogger(Utils.class.getName());
 
+    /** Interval at which to check whether a process has exited. */
+    private static final int PROCESS_EXIT_POLL_INTERVAL_MS = 250;
+
     /**
      * Retrieves the configured Android SDK root directory.
      *
@@ -156,7 +158,7 @@ public class Utils {
         final TaskListener listener = launcher.getListener();
         final String autoInstallDir = (!checkPreferredOnly) ? getSdkInstallDirectory(node).getRemote() : "";
 
-        Callable<AndroidSdk, IOException> task = new AndroidSDKCallable(envVars, checkPreferredOnly, androidSdkRootPreferred,
+        AndroidSDKCallable task = new AndroidSDKCallable(envVars, checkPreferredOnly, androidSdkRootPreferred,
                 androidSdkHome, autoInstallDir, listener);
 
         final PrintStream logger = listener.getLogger();
@@ -165,7 +167,8 @@ public class Utils {
             if (channel == null) {
                 throw new IllegalStateException("Channel is not configured");
             }
-            return channel.call(task);
+            // Reuse the SDK already discovered on this node for the same candidates
+            return AndroidSdkCache.get(channel, task.getCacheKey(), task);
         } catch (IOException e) {
             // Ignore, log only
             log(logger, ExceptionUtils.getStackTrace(e));
@@ -563,7 +566,9 @@ public class Utils {
     }
 
     /**
-     * Attempts to kill the given process, timing-out after {@code timeoutMs}.
+     * Attempts to kill the given process, timing-out after {@code timeoutMs}.<br>
+     * Killing a process also kills all of its children: each is first asked to terminate,
+     * and then forcibly killed if it doesn't do so within a few seconds.
      *
      * @param process The process to kill.
      * @param timeoutMs How long to wait for before cancelling the attempt to kill the process.
@@ -571,23 +576,22 @@ public class Utils {
      */
     public static boolean killProcess(final Proc process, final int timeoutMs) {
         Boolean result = null;
-        FutureTask<Boolean> task = null;
+        Future<Boolean> task = null;
         try {
-            // Attempt to kill the process; remoting will be handled by the process object
-            task = new FutureTask<Boolean>(new java.util.concurrent.Callable<Boolean>() {
+            // Attempt to kill the process on the shared pool; remoting will be handled by the process object
+            task = Computer.threadPoolForRemoting.submit(new Callable<Boolean>() {
                 public Boolean call() throws Exception {
                     process.kill();
                     return true;
                 }
             });
 
-            // Execute the task asynchronously and wait for a result or timeout
-            Executors.newSingleThreadExecutor().execute(task);
+            // Wait for a result or timeout
             result = task.get(timeoutMs, TimeUnit.MILLISECONDS);
         } catch (TimeoutException ex) {
         } catch (InterruptedException ex) {
         } catch (ExecutionException ex) {
-            // Ignore
+            LOGGER.log(Level.WARNING, "Failed to kill process", ex.getCause());
         } finally {
             if (task != null && !task.isDone()) {
                 task.cancel(true);
@@ -597,6 +601,25 @@ public class Utils {
         return Boolean.TRUE.equals(result);
     }
 
+    /**
+     * Waits for the given process to exit by itself, polling its state.
+     *
+     * @param process The process to wait for.
+     * @param timeoutMs How long to wait for the process to exit.
+     * @return {@code true} if the process is no longer running.
+     */
+    public static boolean waitForProcessExit(final Proc process, final int timeoutMs)
+            throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (process.isAlive()) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(PROCESS_EXIT_POLL_INTERVAL_MS);
+        }
+        return true;
+    }
+
     /**
      * Sends a user command to the running emulator via its telnet interface.<br>
      * Execution will be cancelled if it takes longer than {@code timeoutMs}.
@@ -606,7 +629,7 @@ public class Utils {
      * @param port The emulator's telnet port.
      * @param command The command to execute on the emulator's telnet interface.
      * @param timeoutMs How long to wait (in ms) for the command to complete before cancelling it.
-     * @return Whether sending the command succeeded.
+     * @return Whether the emulator replied that the command succeeded.
      */
     public static boolean sendEmulatorCommand(final Launcher launcher, final PrintStream logger,
             final int port, final String command, int timeoutMs) {
@@ -918,6 +941,21 @@ public class Utils {
             return null;
         }
 
+        /** @return Everything the discovered SDK depends on, except the state of the node file system. */
+        private List<String> getCacheKey() {
+            final List<String> key = new ArrayList<>();
+            key.add(androidSdkRootPreferred);
+            key.add(androidSdkHome);
+            if (!checkPreferredOnly) {
+                key.add(autoInstallDir);
+                for (String name : new String[] { Constants.ENV_VAR_ANDROID_SDK_ROOT, Constants.ENV_VAR_ANDROID_SDK_HOME,
+                        Constants.ENV_VAR_ANDROID_HOME, Constants.ENV_VAR_ANDROID_SDK, Constants.ENV_VAR_SYSTEM_PATH }) {
+                    key.add(name + "=" + envVars.get(name));
+                }
+            }
+            return key;
+        }
+
         private List<String> getPotentialSdkDirs() {
             final List<String> potentialSdkDirs = new ArrayList<>();
 
@@ -958,7 +996,7 @@ public class Utils {
     };
 
     /** Task that will execute a command on the given emulator's console port, then quit. */
-    private static final class EmulatorCommandTask extends MasterToSlaveCallable<Boolean, IOException> {
+    static final class EmulatorCommandTask extends MasterToSlaveCallable<Boolean, IOException> {
 
         private final int port;
         private final String command;
@@ -981,10 +1019,14 @@ public class Utils {
                 out = new PrintWriter(socket.getOutputStream());
                 in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
-                // If we didn't get a banner response, give up
-                if (in.readLine() == null) {
-                    return false;
-                }
+                // If we didn't get a banner response, give up; the banner ends with "OK"
+                String line;
+                do {
+                    line = in.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                } while (!line.trim().equals("OK"));
 
                 // Send command, then exit the console
                 out.write(command);
@@ -993,10 +1035,24 @@ public class Utils {
                 out.write("quit\r\n");
                 out.flush();
 
-                // Wait for the commands to return a response
-                while (in.readLine() != null) {
-                    // Ignore
+                // The output of the command, if any, is followed by "OK", or by "KO: <reason>" if it failed
+                Boolean succeeded = null;
+                while ((line = in.readLine()) != null) {
+                    if (succeeded != null) {
+                        continue;
+                    }
+                    line = line.trim();
+                    if (line.startsWith("OK")) {
+                        succeeded = true;
+                    } else if (line.startsWith("KO")) {
+                        succeeded = false;
+                    }
+                }
+                if (succeeded == null) {
+                    // The emulator may exit before replying to "kill"
+                    return command.equals("kill");
                 }
+                return succeeded;
             } finally {
                 try {
                     out.close();
@@ -1008,8 +1064,6 @@ public class Utils {
                     socket.close();
                 } catch (Exception ignore) {}
             }
-
-            return true;
         }
 
         private static final long serialVersionUID = 1L;
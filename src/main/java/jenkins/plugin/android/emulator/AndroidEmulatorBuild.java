@@ -78,6 +78,7 @@ public class AndroidEmulatorBuild extends SimpleBuildWrapper {
         @Override
         public String put(String key, String value) {
             context.env(key, value);
+            super.put(key, value);
             return null; // old value does not exist, just one binding for key
         }
 
@@ -113,6 +114,27 @@ public class AndroidEmulatorBuild extends SimpleBuildWrapper {
 
     @Override
     public void setUp(Context context, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, EnvVars initialEnvironment) throws IOException, InterruptedException {
+        EnvVarsAdapter contextEnv = new EnvVarsAdapter(context);
+        EmulatorRunner emulatorRunner = prepare(workspace, listener, initialEnvironment, contextEnv);
+        emulatorRunner.run(workspace, listener, initialEnvironment.overrideAll(context.getEnv()));
+    }
+
+    /**
+     * Gets the SDK ready on the node where the emulator will run and validates
+     * the emulator configuration.
+     *
+     * @param workspace the build workspace
+     * @param listener the build log
+     * @param initialEnvironment the environment of the build
+     * @param contextEnv receives the SDK and home variables to export to the
+     *        build
+     * @return the runner that creates and starts the emulator.
+     * @throws IOException if the SDK is not available or the configuration is
+     *         invalid
+     * @throws InterruptedException if interrupted while installing the SDK
+     */
+    @NonNull
+    EmulatorRunner prepare(FilePath workspace, TaskListener listener, EnvVars initialEnvironment, EnvVars contextEnv) throws IOException, InterruptedException {
         // get specific installation for the node
         AndroidSDKInstallation sdk = AndroidSDKUtil.getAndroidSDK(emulatorTool);
         if (sdk == null) {
@@ -130,7 +152,6 @@ public class AndroidEmulatorBuild extends SimpleBuildWrapper {
         sdk = sdk.forNode(node, listener);
         sdk = sdk.forEnvironment(initialEnvironment);
 
-        EnvVarsAdapter contextEnv = new EnvVarsAdapter(context);
         sdk.buildEnvVars(contextEnv);
 
         // configure home location
@@ -138,7 +159,8 @@ public class AndroidEmulatorBuild extends SimpleBuildWrapper {
         HomeLocator.buildEnvVars(homeLocation, contextEnv);
 
         // replace variable in user input
-        final EnvVars env = initialEnvironment.overrideAll(context.getEnv());
+        final EnvVars env = new EnvVars(initialEnvironment);
+        env.overrideAll(contextEnv);
         EmulatorConfig config = new EmulatorConfig();
         config.setOSVersion(Util.replaceMacro(osVersion, env));
         config.setScreenDensity(Util.replaceMacro(screenDensity, env));
@@ -160,8 +182,7 @@ public class AndroidEmulatorBuild extends SimpleBuildWrapper {
             throw new AbortException(StringUtils.join(errors, "\n"));
         }
 
-        EmulatorRunner emulatorRunner = new EmulatorRunner(config, sdk.getToolLocator());
-        emulatorRunner.run(workspace, listener, env);
+        return new EmulatorRunner(config, sdk.getToolLocator());
     }
 
     /**
@@ -49,6 +49,16 @@ public final class AndroidSDKConstants {
      * The default location is $ANDROID_SDK_HOME/.android/.
      */
     public static final String ENV_ANDROID_EMULATOR_HOME = "ANDROID_EMULATOR_HOME";
+    /**
+     * Serial number of the device ADB commands are sent to when no
+     * {@code -s} option is given.
+     */
+    public static final String ENV_ANDROID_SERIAL = "ANDROID_SERIAL";
+    /**
+     * Port of the ADB server ADB commands connect to when no {@code -P}
+     * option is given.
+     */
+    public static final String ENV_ANDROID_ADB_SERVER_PORT = "ANDROID_ADB_SERVER_PORT";
 
     /**
      * The Android Debug Bridge (adb) server default TCP port. 
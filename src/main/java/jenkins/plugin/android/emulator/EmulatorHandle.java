@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+import jenkins.plugin.android.emulator.sdk.cli.ADBCLIBuilder;
+
+/**
+ * Reference to an emulator that boots in background, started by the
+ * {@code startAndroidEmulator} step and available to the steps of its block.
+ *
+ * @author Nikolas Falco
+ */
+public class EmulatorHandle implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** How long {@code adb emu kill} may take, in seconds, before the process is killed. */
+    private static final long KILL_TIMEOUT = 30;
+
+    /** Boots started since the controller is running, by handle identifier. */
+    private static final Map<String, Boot> boots = new ConcurrentHashMap<>();
+
+    private static final class Boot {
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private volatile EmulatorRunner runner;
+        private volatile Future<?> task;
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String node;
+    private final String adb;
+    private final int adbServerPort;
+    private final String serial;
+
+    EmulatorHandle(@NonNull String node, @NonNull String adb, int adbServerPort, @NonNull String serial) {
+        this.node = node;
+        this.adb = adb;
+        this.adbServerPort = adbServerPort;
+        this.serial = serial;
+    }
+
+    /**
+     * Returns the ADB serial number of the emulator.
+     *
+     * @return the serial of the device, like {@code emulator-5554}.
+     */
+    public String getSerial() {
+        return serial;
+    }
+
+    /**
+     * Returns the port of the ADB server the emulator connects to.
+     *
+     * @return the ADB server port.
+     */
+    public int getADBServerPort() {
+        return adbServerPort;
+    }
+
+    /**
+     * Returns the name of the node where the emulator runs.
+     *
+     * @return the node name, empty for the controller.
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Creates and boots the emulator in background.
+     *
+     * @param runner configured to create and start the emulator
+     * @param workspace the build workspace
+     * @param listener the build log
+     * @param env the environment of the emulator tools
+     */
+    void boot(@NonNull EmulatorRunner runner, @NonNull FilePath workspace, @NonNull TaskListener listener, @NonNull EnvVars env) {
+        Boot boot = new Boot();
+        boot.runner = runner;
+        boots.put(id, boot);
+        boot.task = Computer.threadPoolForRemoting.submit(() -> {
+            try {
+                runner.run(workspace, listener, env);
+                listener.getLogger().println(Messages.EmulatorHandle_booted(serial));
+                boot.result.complete(null);
+            } catch (InterruptedException e) {
+                boot.result.completeExceptionally(new AbortException(Messages.EmulatorHandle_bootCancelled(serial)));
+            } catch (Exception e) {
+                listener.error(Messages.EmulatorHandle_bootFailed(serial, e.getMessage()));
+                boot.result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Returns the result of the boot.
+     *
+     * @return a future completed once the emulator is online, or failed if
+     *         the boot did. Each caller gets its own copy, so that completing
+     *         it, for example on a timeout, does not affect the other ones.
+     */
+    @NonNull
+    public CompletableFuture<Void> whenBooted() {
+        Boot boot = boots.get(id);
+        if (boot == null) {
+            // the controller restarted meanwhile, the boot state is lost
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(new AbortException(Messages.EmulatorHandle_lost(serial)));
+            return result;
+        }
+        return boot.result.copy();
+    }
+
+    /**
+     * Interrupts the boot, if still running, and shuts down the emulator.
+     * This may block on the agent, so it must not run on the CPS VM thread.
+     *
+     * @param listener the build log
+     * @param env the environment of the emulator tools
+     * @throws InterruptedException if interrupted while shutting down the
+     *         emulator
+     */
+    public void kill(@NonNull TaskListener listener, @NonNull EnvVars env) throws InterruptedException {
+        Boot boot = boots.remove(id);
+        if (boot != null && boot.task != null) {
+            boot.task.cancel(true);
+        }
+
+        Jenkins jenkins = Jenkins.get();
+        Node n = node.isEmpty() ? jenkins : jenkins.getNode(node);
+        VirtualChannel channel = n == null ? null : n.getChannel();
+        if (channel != null) {
+            try {
+                ADBCLIBuilder.with(new FilePath(channel, adb)) //
+                        .port(adbServerPort) //
+                        .serial(serial) //
+                        .arguments(new String[] { "emu", "kill" }) //
+                        .withEnv(env) //
+                        .withTimeout(KILL_TIMEOUT, TimeUnit.SECONDS) //
+                        .execute();
+            } catch (IOException e) {
+                // the emulator did not connect to ADB yet or has already exited
+                listener.getLogger().println(Messages.EmulatorHandle_notConnected(serial));
+            }
+        }
+
+        // the process is known only if started since the controller is running
+        Proc process = boot != null && boot.runner != null ? boot.runner.getEmulatorProcess() : null;
+        if (process != null) {
+            try {
+                process.kill();
+            } catch (IOException e) {
+                listener.error(Messages.EmulatorHandle_killFailed(serial, e.getMessage()));
+            }
+        }
+        listener.getLogger().println(Messages.EmulatorHandle_stopped(serial));
+    }
+}
@@ -29,6 +29,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 
 import org.apache.commons.lang3.StringUtils;
@@ -39,6 +40,8 @@ import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
 import hudson.ProxyConfiguration;
 import hudson.model.TaskListener;
 import hudson.plugins.android_emulator.Constants;
@@ -50,15 +53,21 @@ import jenkins.plugin.android.emulator.sdk.cli.AVDManagerCLIBuilder;
 import jenkins.plugin.android.emulator.sdk.cli.AVDevice;
 import jenkins.plugin.android.emulator.sdk.cli.EmulatorCLIBuilder;
 import jenkins.plugin.android.emulator.sdk.cli.EmulatorCLIBuilder.SNAPSHOT;
+import jenkins.plugin.android.emulator.sdk.cli.InstalledPackagesIndex;
 import jenkins.plugin.android.emulator.sdk.cli.SDKManagerCLIBuilder;
 import jenkins.plugin.android.emulator.sdk.cli.SDKPackages;
 import jenkins.plugin.android.emulator.tools.AndroidSDKInstaller.Channel;
+import jenkins.plugin.android.emulator.tools.SDKLicenses;
 import jenkins.plugin.android.emulator.tools.ToolLocator;
 
 public class EmulatorRunner {
 
+    /** Console port of the emulator, its ADB serial is {@code emulator-<port>}. */
+    private static final int CONSOLE_PORT = 5554;
+
     private final EmulatorConfig config;
     private final ToolLocator locator;
+    private volatile Proc emulatorProcess;
 
     public EmulatorRunner(@NonNull EmulatorConfig config, @NonNull ToolLocator locator) {
         this.config = config;
@@ -93,22 +102,34 @@ public class EmulatorRunner {
         }
 
         String avdHome = env.get(AndroidSDKConstants.ENV_ANDROID_AVD_HOME);
-        String sdkRoot = env.get(Constants.ENV_VAR_ANDROID_SDK_ROOT); // FIXME required!
-
-        // read installed components
-        SDKPackages packages = SDKManagerCLIBuilder.with(sdkManager) //
-            .channel(Channel.STABLE) // FIXME get that one configured in the installation tool
-            .sdkRoot(sdkRoot) //
-            .proxy(proxy) //
-            .list() //
-            .withEnv(env) //
-            .execute();
-        listener.getLogger().println("SDK Manager is reading installed components");
+        String sdkRoot = Util.fixEmptyAndTrim(env.get(Constants.ENV_VAR_ANDROID_SDK_ROOT));
+        if (sdkRoot == null) {
+            sdkRoot = locator.getHome();
+        }
+
+        // read installed components directly from the SDK, sdkmanager is only needed to install
+        SDKPackages packages;
+        if (sdkRoot != null) {
+            packages = InstalledPackagesIndex.read(new FilePath(workspace.getChannel(), sdkRoot));
+        } else {
+            listener.getLogger().println("SDK Manager is reading installed components");
+            packages = SDKManagerCLIBuilder.with(sdkManager) //
+                    .channel(Channel.STABLE) // FIXME get that one configured in the installation tool
+                    .proxy(proxy) //
+                    .list() //
+                    .withEnv(env) //
+                    .execute();
+        }
 
         // gather required components
         Set<String> components = getComponents();
-        packages.getInstalled().forEach(p -> components.remove(p.getId()));
+        components.removeIf(packages.getInstalled()::hasPackage);
         if (!components.isEmpty()) {
+            // accept licences in advance, sdkmanager runs without input
+            if (sdkRoot == null) {
+                throw new AbortException(jenkins.plugin.android.emulator.Messages.EmulatorRunner_noSDKRoot(StringUtils.join(components, ' ')));
+            }
+            SDKLicenses.install(new FilePath(workspace.getChannel(), sdkRoot));
             SDKManagerCLIBuilder.with(sdkManager) //
                     .channel(Channel.STABLE) // FIXME get that one configured in the installation tool
                     .sdkRoot(sdkRoot) //
@@ -159,7 +180,7 @@ public class EmulatorRunner {
                 .execute();
 
         // start emulator
-        EmulatorCLIBuilder.with(emulator) //
+        emulatorProcess = EmulatorCLIBuilder.with(emulator) //
                 .avdName(config.getAVDName()) //
                 .dataDir(avdHome) //
                 .locale(config.getLocale()) //
@@ -167,7 +188,7 @@ public class EmulatorRunner {
                 .reportConsolePort(config.getReportPort()) // FIXME
                 .proxy(proxy) //
                 .quickBoot(SNAPSHOT.NOT_PERSIST)
-                .build(5554) // FIXME calculate the free using the executor number, in case of multiple emulator for this executor than store into a map <Node, port> pay attention on Node that could not be saved into an aware map.
+                .build(CONSOLE_PORT) // FIXME calculate the free using the executor number, in case of multiple emulator for this executor than store into a map <Node, port> pay attention on Node that could not be saved into an aware map.
                 .withEnv(env) //
                 .executeAsync(listener);
 
@@ -177,6 +198,51 @@ public class EmulatorRunner {
         }
     }
 
+    /**
+     * Returns the emulator process started by {@link #run(FilePath, TaskListener, EnvVars)}.
+     *
+     * @return the emulator process, {@code null} if not started yet.
+     */
+    @CheckForNull
+    public Proc getEmulatorProcess() {
+        return emulatorProcess;
+    }
+
+    /**
+     * Returns the ADB serial number of the emulator started by this runner.
+     *
+     * @return the serial of the device, like {@code emulator-5554}.
+     */
+    public String getSerial() {
+        return "emulator-" + CONSOLE_PORT;
+    }
+
+    /**
+     * Returns the port of the ADB server the emulator connects to.
+     *
+     * @return the ADB server port.
+     */
+    public int getADBServerPort() {
+        return config.getADBServerPort();
+    }
+
+    /**
+     * Returns the ADB executable of the SDK used by this runner.
+     *
+     * @param launcher the launcher of the node where the emulator runs
+     * @return the ADB executable.
+     * @throws IOException if ADB is not installed
+     * @throws InterruptedException if the remote call is interrupted
+     */
+    @NonNull
+    public FilePath getADB(@NonNull Launcher launcher) throws IOException, InterruptedException {
+        FilePath adb = locator.getADB(launcher);
+        if (adb == null) {
+            throw new AbortException(jenkins.plugin.android.emulator.Messages.noExecutableFound("adb"));
+        }
+        return adb;
+    }
+
     @SuppressFBWarnings(value = "NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
     private void writeConfigFile(FilePath avdHome) throws IOException, InterruptedException {
         FilePath advPath = avdHome.child(config.getAVDName() + ".avd");
@@ -0,0 +1,435 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.util.ComboBoxModel;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import jenkins.plugin.android.emulator.sdk.home.DefaultHomeLocator;
+import jenkins.plugin.android.emulator.sdk.home.HomeLocator;
+
+/**
+ * Starts an Android emulator in background and runs its block right away, so
+ * that the build, for example the compilation, overlaps the emulator boot.
+ * <p>
+ * The SDK is installed before the block starts, since the build needs it
+ * too, while the creation of the AVD and the boot happen in background. Steps
+ * that need the device wait for it with {@code waitForAndroidEmulator}. The
+ * emulator is shut down at the end of the block.
+ *
+ * @author Nikolas Falco
+ */
+public class StartEmulatorStep extends Step implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String emulatorTool;
+    private final String osVersion;
+    private final String screenDensity;
+    private final String screenResolution;
+    private String deviceLocale;
+    private String deviceDefinition;
+    private String sdCardSize;
+    private String targetABI;
+    private HomeLocator homeLocationStrategy = new DefaultHomeLocator();
+    private String avdName;
+    private List<HardwareProperty> hardwareProperties = new ArrayList<>();
+    private int adbTimeout;
+
+    @DataBoundConstructor
+    public StartEmulatorStep(@CheckForNull String emulatorTool, String osVersion, String screenDensity, String screenResolution) {
+        this.emulatorTool = Util.fixEmptyAndTrim(emulatorTool);
+        this.osVersion = Util.fixEmptyAndTrim(osVersion);
+        this.screenDensity = Util.fixEmptyAndTrim(screenDensity);
+        this.screenResolution = Util.fixEmptyAndTrim(screenResolution);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    /**
+     * Returns the equivalent build wrapper, that prepares the emulator.
+     */
+    private AndroidEmulatorBuild toWrapper() {
+        AndroidEmulatorBuild wrapper = new AndroidEmulatorBuild(emulatorTool, osVersion, screenDensity, screenResolution);
+        wrapper.setDeviceLocale(deviceLocale);
+        wrapper.setDeviceDefinition(deviceDefinition);
+        wrapper.setSdCardSize(sdCardSize);
+        wrapper.setTargetABI(targetABI);
+        wrapper.setHomeLocationStrategy(homeLocationStrategy);
+        wrapper.setAvdName(avdName);
+        wrapper.setHardwareProperties(hardwareProperties);
+        wrapper.setAdbTimeout(adbTimeout);
+        return wrapper;
+    }
+
+    public String getEmulatorTool() {
+        return emulatorTool;
+    }
+
+    public String getOsVersion() {
+        return osVersion;
+    }
+
+    public String getScreenDensity() {
+        return screenDensity;
+    }
+
+    public String getScreenResolution() {
+        return screenResolution;
+    }
+
+    public HomeLocator getHomeLocationStrategy() {
+        return homeLocationStrategy;
+    }
+
+    @DataBoundSetter
+    public void setHomeLocationStrategy(HomeLocator homeLocationStrategy) {
+        this.homeLocationStrategy = homeLocationStrategy == null ? new DefaultHomeLocator() : homeLocationStrategy;
+    }
+
+    public String getAvdName() {
+        return avdName;
+    }
+
+    @DataBoundSetter
+    public void setAvdName(String avdName) {
+        this.avdName = avdName;
+    }
+
+    public String getDeviceLocale() {
+        return deviceLocale;
+    }
+
+    @DataBoundSetter
+    public void setDeviceLocale(String deviceLocale) {
+        this.deviceLocale = deviceLocale;
+    }
+
+    public String getDeviceDefinition() {
+        return deviceDefinition;
+    }
+
+    @DataBoundSetter
+    public void setDeviceDefinition(String deviceDefinition) {
+        this.deviceDefinition = deviceDefinition;
+    }
+
+    public String getSdCardSize() {
+        return sdCardSize;
+    }
+
+    @DataBoundSetter
+    public void setSdCardSize(String sdCardSize) {
+        this.sdCardSize = sdCardSize;
+    }
+
+    public String getTargetABI() {
+        return targetABI;
+    }
+
+    @DataBoundSetter
+    public void setTargetABI(String targetABI) {
+        this.targetABI = targetABI;
+    }
+
+    public List<HardwareProperty> getHardwareProperties() {
+        return hardwareProperties;
+    }
+
+    @DataBoundSetter
+    public void setHardwareProperties(List<HardwareProperty> hardwareProperties) {
+        this.hardwareProperties = hardwareProperties;
+    }
+
+    public int getAdbTimeout() {
+        return adbTimeout == 0 ? AndroidSDKConstants.ADB_CONNECT_TIMEOUT : adbTimeout;
+    }
+
+    @DataBoundSetter
+    public void setAdbTimeout(int adbTimeout) {
+        this.adbTimeout = adbTimeout;
+    }
+
+    static class Execution extends StepExecution {
+        private static final long serialVersionUID = 1L;
+
+        private final StartEmulatorStep step;
+        private transient volatile Future<?> task;
+        private transient volatile BodyExecution body;
+        /** Set once the step is completed, either by a launch failure or by {@link #stop(Throwable)}. */
+        private transient boolean done;
+
+        Execution(StartEmulatorStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            // the SDK installation may take minutes, do not block the pipeline
+            task = Computer.threadPoolForRemoting.submit(this::launch);
+            return false;
+        }
+
+        void launch() {
+            EmulatorHandle handle = null;
+            TaskListener listener = null;
+            EnvVars env = null;
+            try {
+                StepContext context = getContext();
+                FilePath workspace = context.get(FilePath.class);
+                listener = context.get(TaskListener.class);
+                EnvVars initialEnvironment = context.get(EnvVars.class);
+                workspace.mkdirs();
+
+                EnvVars contextEnv = new EnvVars();
+                EmulatorRunner runner = step.toWrapper().prepare(workspace, listener, initialEnvironment, contextEnv);
+
+                Computer computer = workspace.toComputer();
+                if (computer == null) {
+                    throw new AbortException(Messages.nodeNotAvailable());
+                }
+                FilePath adb = runner.getADB(workspace.createLauncher(listener));
+
+                // ADB commands of the block target this emulator by default
+                contextEnv.put(AndroidSDKConstants.ENV_ANDROID_SERIAL, runner.getSerial());
+                contextEnv.put(AndroidSDKConstants.ENV_ANDROID_ADB_SERVER_PORT, String.valueOf(runner.getADBServerPort()));
+
+                env = new EnvVars(initialEnvironment);
+                env.overrideAll(contextEnv);
+                synchronized (this) {
+                    if (done) {
+                        // stopped while the SDK was prepared
+                        return;
+                    }
+                    handle = new EmulatorHandle(computer.getName(), adb.getRemote(), runner.getADBServerPort(), runner.getSerial());
+                }
+                handle.boot(runner, workspace, listener, env);
+
+                synchronized (this) {
+                    if (done) {
+                        // stopped while the boot was started, nobody else shuts down the emulator
+                        kill(handle, listener, env);
+                        return;
+                    }
+                    body = context.newBodyInvoker() //
+                            .withContexts(handle, EnvironmentExpander.merge(context.get(EnvironmentExpander.class), EnvironmentExpander.constant(contextEnv))) //
+                            .withCallback(new Shutdown(handle, env)) //
+                            .start();
+                }
+            } catch (Exception e) {
+                if (handle != null) {
+                    kill(handle, listener, env);
+                }
+                if (markDone()) {
+                    getContext().onFailure(e);
+                }
+            }
+        }
+
+        private synchronized boolean markDone() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+        /*
+         * The launch thread may be interrupted by stop, so the emulator is
+         * shut down in background.
+         */
+        private void kill(EmulatorHandle handle, TaskListener listener, EnvVars env) {
+            Computer.threadPoolForRemoting.submit(() -> {
+                handle.kill(listener, env);
+                return null;
+            });
+        }
+
+        @Override
+        public void stop(@NonNull Throwable cause) throws Exception {
+            BodyExecution running;
+            synchronized (this) {
+                running = body;
+                if (running == null && !markDone()) {
+                    // the launch already failed
+                    return;
+                }
+            }
+            if (running != null) {
+                // the callback shuts down the emulator
+                running.cancel(cause);
+            } else {
+                Future<?> launching = task;
+                if (launching != null) {
+                    launching.cancel(true);
+                }
+                getContext().onFailure(cause);
+            }
+        }
+    }
+
+    /**
+     * Shuts down the emulator when the block completes, then completes the
+     * step with the result of the block.
+     * <p>
+     * Callbacks run on the CPS VM thread, while the shutdown runs ADB on the
+     * agent, so it is done in background.
+     */
+    static class Shutdown extends BodyExecutionCallback {
+        private static final long serialVersionUID = 1L;
+
+        private final EmulatorHandle handle;
+        private final EnvVars env;
+
+        Shutdown(EmulatorHandle handle, EnvVars env) {
+            this.handle = handle;
+            this.env = env;
+        }
+
+        @Override
+        public void onSuccess(StepContext context, Object result) {
+            shutdown(context, result, null);
+        }
+
+        @Override
+        public void onFailure(StepContext context, Throwable t) {
+            shutdown(context, null, t);
+        }
+
+        private void shutdown(StepContext context, Object result, Throwable failure) {
+            Computer.threadPoolForRemoting.submit(() -> {
+                Throwable error = failure;
+                try {
+                    handle.kill(context.get(TaskListener.class), env);
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+                if (error == null) {
+                    context.onSuccess(result);
+                } else {
+                    context.onFailure(error);
+                }
+            });
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "startAndroidEmulator";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.StartEmulatorStep_displayName();
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(FilePath.class, TaskListener.class, Launcher.class, EnvVars.class);
+        }
+
+        @Override
+        public Set<? extends Class<?>> getProvidedContext() {
+            return Set.of(EmulatorHandle.class);
+        }
+
+        private AndroidEmulatorBuild.DescriptorImpl getWrapperDescriptor() {
+            return Jenkins.get().getDescriptorByType(AndroidEmulatorBuild.DescriptorImpl.class);
+        }
+
+        public FormValidation doCheckOsVersion(@QueryParameter @CheckForNull String osVersion) {
+            return getWrapperDescriptor().doCheckOsVersion(osVersion);
+        }
+
+        public ComboBoxModel doFillScreenDensityItems() {
+            return getWrapperDescriptor().doFillScreenDensityItems();
+        }
+
+        public FormValidation doCheckScreenDensity(@QueryParameter @CheckForNull String screenDensity) {
+            return getWrapperDescriptor().doCheckScreenDensity(screenDensity);
+        }
+
+        public ComboBoxModel doFillScreenResolutionItems() {
+            return getWrapperDescriptor().doFillScreenResolutionItems();
+        }
+
+        public FormValidation doCheckScreenResolution(@QueryParameter @CheckForNull String screenResolution) {
+            return getWrapperDescriptor().doCheckScreenResolution(screenResolution);
+        }
+
+        public FormValidation doCheckDeviceLocale(@QueryParameter @CheckForNull String deviceLocale) {
+            return getWrapperDescriptor().doCheckDeviceLocale(deviceLocale);
+        }
+
+        public ComboBoxModel doFillDeviceLocaleItems() {
+            return getWrapperDescriptor().doFillDeviceLocaleItems();
+        }
+
+        public FormValidation doCheckSdCardSize(@QueryParameter @CheckForNull String sdCardSize) {
+            return getWrapperDescriptor().doCheckSdCardSize(sdCardSize);
+        }
+    }
+}
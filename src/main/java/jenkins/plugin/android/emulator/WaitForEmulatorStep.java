@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.TaskListener;
+
+/**
+ * Waits for the emulator started by the enclosing
+ * {@code startAndroidEmulator} block to be online, without holding a thread
+ * while it boots.
+ *
+ * @author Nikolas Falco
+ */
+public class WaitForEmulatorStep extends Step implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int timeout;
+
+    @DataBoundConstructor
+    public WaitForEmulatorStep() {
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets how long to wait for the emulator.
+     *
+     * @param timeout the maximum time to wait in seconds, {@code 0} to wait
+     *        until the boot completes or fails
+     */
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(0, timeout);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(timeout, context);
+    }
+
+    private static class Execution extends StepExecution {
+        private static final long serialVersionUID = 1L;
+
+        private final int timeout;
+
+        Execution(int timeout, StepContext context) {
+            super(context);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            EmulatorHandle handle = getContext().get(EmulatorHandle.class);
+            if (handle == null) {
+                throw new AbortException(Messages.WaitForEmulatorStep_noEmulator());
+            }
+
+            // the step completes when the boot does, no thread waits meanwhile;
+            // the future is a copy, a timeout does not fail the other waits
+            (timeout > 0 ? handle.whenBooted().orTimeout(timeout, TimeUnit.SECONDS) : handle.whenBooted()) //
+                    .whenComplete((result, error) -> {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        if (cause == null) {
+                            getContext().onSuccess(null);
+                        } else if (cause instanceof TimeoutException) {
+                            getContext().onFailure(new AbortException(Messages.WaitForEmulatorStep_timedOut(handle.getSerial(), timeout)));
+                        } else {
+                            getContext().onFailure(cause);
+                        }
+                    });
+            return false;
+        }
+
+        @Override
+        public void stop(@NonNull Throwable cause) throws Exception {
+            // the boot goes on, the emulator is shut down at the end of its block
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            try {
+                start();
+            } catch (Exception e) {
+                getContext().onFailure(e);
+            }
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "waitForAndroidEmulator";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.WaitForEmulatorStep_displayName();
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(TaskListener.class);
+        }
+    }
+}
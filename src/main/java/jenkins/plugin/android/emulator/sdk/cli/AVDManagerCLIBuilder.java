@@ -23,15 +23,12 @@
  */
 package jenkins.plugin.android.emulator.sdk.cli;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -50,61 +47,64 @@ import jenkins.plugin.android.emulator.sdk.cli.Targets.TargetType;
 public class AVDManagerCLIBuilder {
 
     static class ListTargetParser implements OutputParser<List<Targets>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Targets> targets = new ArrayList<>();
+        private boolean context = false; // indicates when the useful text starting
+                                         // for parsing
+        private Targets target = null;
 
         @Override
-        public List<Targets> parse(InputStream input) throws IOException {
-            List<Targets> targets = new ArrayList<>();
-
-            boolean context = false; // indicates when the useful text starting
-                                     // for parsing
-            Targets target = null;
-            for (String line : IOUtils.readLines(input, "UTF-8")) { // NOSONAR
-                line = Util.fixEmptyAndTrim(line);
-                if (StringUtils.isBlank(line)) {
-                    continue;
-                }
+        public void parseLine(String line) {
+            line = Util.fixEmptyAndTrim(line);
+            if (StringUtils.isBlank(line)) {
+                return;
+            }
 
-                String lcLine = line.toLowerCase();
-                if (!context || isHeader(lcLine)) {
-                    context |= lcLine.startsWith("available android targets");
-                    continue;
-                }
+            String lcLine = line.toLowerCase();
+            if (!context || isHeader(lcLine)) {
+                context |= lcLine.startsWith("available android targets");
+                return;
+            }
 
-                String key = lcLine.split(":")[0];
-                String value = Util.fixEmptyAndTrim(line.split(":")[1]);
-                if (value != null) {
-                    switch (key) {
-                    case "id":
-                        target = new Targets();
-                        targets.add(target);
-                        int idx = value.indexOf('"');
-                        target.setId(value.substring(idx + 1, value.lastIndexOf('"')));
-                        break;
-                    case "name":
-                        if (target != null) {
-                            target.setName(value);
-                        }
-                        break;
-                    case "type":
-                        if (target != null) {
-                            target.setType(TargetType.valueOf(value.toLowerCase()));
-                        }
-                        break;
-                    case "api level":
-                        if (target != null) {
-                            target.setAPILevel(Integer.parseInt(value));
-                        }
-                        break;
-                    case "revision":
-                        if (target != null) {
-                            target.setRevision(Integer.parseInt(value));
-                        }
-                        break;
-                    default:
-                        break;
+            String key = lcLine.split(":")[0];
+            String value = Util.fixEmptyAndTrim(line.split(":")[1]);
+            if (value != null) {
+                switch (key) {
+                case "id":
+                    target = new Targets();
+                    targets.add(target);
+                    int idx = value.indexOf('"');
+                    target.setId(value.substring(idx + 1, value.lastIndexOf('"')));
+                    break;
+                case "name":
+                    if (target != null) {
+                        target.setName(value);
+                    }
+                    break;
+                case "type":
+                    if (target != null) {
+                        target.setType(TargetType.valueOf(value.toLowerCase()));
                     }
+                    break;
+                case "api level":
+                    if (target != null) {
+                        target.setAPILevel(Integer.parseInt(value));
+                    }
+                    break;
+                case "revision":
+                    if (target != null) {
+                        target.setRevision(Integer.parseInt(value));
+                    }
+                    break;
+                default:
+                    break;
                 }
             }
+        }
+
+        @Override
+        public List<Targets> getResult() {
             return targets;
         }
 
@@ -115,70 +115,73 @@ public class AVDManagerCLIBuilder {
     }
 
     static class ListAVDParser implements OutputParser<List<AVDevice>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<AVDevice> devices = new ArrayList<>();
+        private boolean context = false; // indicates when the useful text starting
+                                         // for parsing
+        private AVDevice device = null;
 
         @Override
-        public List<AVDevice> parse(InputStream input) throws IOException {
-            List<AVDevice> devices = new ArrayList<>();
-
-            boolean context = false; // indicates when the useful text starting
-            // for parsing
-            AVDevice device = null;
-            for (String line : IOUtils.readLines(input, "UTF-8")) { // NOSONAR
-                line = Util.fixEmptyAndTrim(line);
-                if (StringUtils.isBlank(line)) {
-                    continue;
-                }
+        public void parseLine(String line) {
+            line = Util.fixEmptyAndTrim(line);
+            if (StringUtils.isBlank(line)) {
+                return;
+            }
 
-                String lcLine = line.toLowerCase();
-                if (!context || isHeader(lcLine) || lcLine.contains("android virtual devices could not be loaded")) {
-                    context |= lcLine.startsWith("available android virtual devices");
-                    continue;
-                }
+            String lcLine = line.toLowerCase();
+            if (!context || isHeader(lcLine) || lcLine.contains("android virtual devices could not be loaded")) {
+                context |= lcLine.startsWith("available android virtual devices");
+                return;
+            }
 
-                String key = getKey(lcLine);
-                String value = getValue(line);
-                if (value != null) {
-                    switch (key) {
-                    case "name":
-                        device = new AVDevice();
-                        device.setName(value);
-                        devices.add(device);
-                        break;
-                    case "path":
-                        if (device != null) {
-                            device.setPath(value);
-                        }
-                        break;
-                    case "target":
-                        if (device != null) {
-                            device.setTarget(value);
-                        }
-                        break;
-                    case "based on":
-                        if (device != null) {
-                            device.setAndroidOS(value);
-                        }
-                        break;
-                    case "tag/abi":
-                        if (device != null) {
-                            device.setAndroidOS(value);
-                        }
-                        break;
-                    case "sdcard":
-                        if (device != null) {
-                            device.setSDCard(value);
-                        }
-                        break;
-                    case "error":
-                        if (device != null) {
-                            device.setError(value);
-                        }
-                        break;
-                    default:
-                        break;
+            String key = getKey(lcLine);
+            String value = getValue(line);
+            if (value != null) {
+                switch (key) {
+                case "name":
+                    device = new AVDevice();
+                    device.setName(value);
+                    devices.add(device);
+                    break;
+                case "path":
+                    if (device != null) {
+                        device.setPath(value);
+                    }
+                    break;
+                case "target":
+                    if (device != null) {
+                        device.setTarget(value);
+                    }
+                    break;
+                case "based on":
+                    if (device != null) {
+                        device.setAndroidOS(value);
                     }
+                    break;
+                case "tag/abi":
+                    if (device != null) {
+                        device.setAndroidOS(value);
+                    }
+                    break;
+                case "sdcard":
+                    if (device != null) {
+                        device.setSDCard(value);
+                    }
+                    break;
+                case "error":
+                    if (device != null) {
+                        device.setError(value);
+                    }
+                    break;
+                default:
+                    break;
                 }
             }
+        }
+
+        @Override
+        public List<AVDevice> getResult() {
             return devices;
         }
 
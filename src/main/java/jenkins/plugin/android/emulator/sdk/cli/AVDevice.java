@@ -1,8 +1,10 @@
 package jenkins.plugin.android.emulator.sdk.cli;
 
+import java.io.Serializable;
 import java.util.Objects;
 
-public class AVDevice {
+public class AVDevice implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     private String name;
     private String path;
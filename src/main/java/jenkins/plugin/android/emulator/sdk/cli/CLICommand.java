@@ -23,41 +23,75 @@
  */
 package jenkins.plugin.android.emulator.sdk.cli;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
 
 import org.apache.commons.io.input.NullInputStream;
 import org.apache.tools.ant.filters.StringInputStream;
+import org.jenkinsci.plugins.durabletask.BourneShellScript;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.durabletask.WindowsBatchScript;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
 import hudson.Proc;
+import hudson.console.LineTransformationOutputStream;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
-import hudson.util.ForkOutputStream;
-import hudson.util.StreamTaskListener;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
 
 public class CLICommand<R> {
 
-    public interface OutputParser<R> {
-        R parse(InputStream input) throws IOException;
+    /**
+     * Parses the output of a command incrementally, one line at time as soon
+     * as it is printed. Parsers are sent to the node where the command runs,
+     * so only the parsed result comes back to the controller. An instance is
+     * used for a single execution.
+     */
+    public interface OutputParser<R> extends Serializable {
+        void parseLine(String line);
+
+        R getResult();
+
+        default R parse(InputStream input) throws IOException {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parseLine(line);
+                }
+            }
+            return getResult();
+        }
     }
 
+    /** Prefix of the environment variables that pass the masked arguments to a durable task. */
+    static final String MASKED_ARGUMENT_ENV_PREFIX = "ANDROID_CLI_MASKED_ARG_";
+
+    /** Default deadline for a command, in minutes, {@code 0} to wait forever. */
+    private static final long DEFAULT_TIMEOUT = SystemProperties.getLong(CLICommand.class.getName() + ".timeoutMinutes", 60L);
+
     private final FilePath command;
     private final ArgumentListBuilder arguments;
     private final EnvVars env;
-    private InputStream stdin = new NullInputStream(0);
+    private long timeoutMs = TimeUnit.MINUTES.toMillis(DEFAULT_TIMEOUT);
+    private String input;
     private FilePath root;
     private OutputParser<R> parser;
 
@@ -81,38 +115,212 @@ public class CLICommand<R> {
         return this;
     }
 
+    /**
+     * Sets how long the command can run before it is killed.
+     *
+     * @param timeout the maximum time to wait, {@code 0} to wait forever
+     * @param unit the unit of the timeout
+     * @return this command.
+     */
+    public CLICommand<R> withTimeout(long timeout, @NonNull TimeUnit unit) {
+        this.timeoutMs = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Executes the command without logging its output.
+     *
+     * @return the parsed output, if this command has a parser.
+     * @throws IOException if the command fails
+     * @throws InterruptedException if the execution is interrupted
+     */
     public R execute() throws IOException, InterruptedException {
-        return execute(new StreamTaskListener(OutputStream.nullOutputStream(), StandardCharsets.UTF_8));
+        return execute(TaskListener.NULL, true);
     }
 
+    /**
+     * Executes the command logging its output.
+     *
+     * @param output where to log the command line and its output
+     * @return the parsed output, if this command has a parser.
+     * @throws IOException if the command fails
+     * @throws InterruptedException if the execution is interrupted
+     */
     public R execute(@NonNull TaskListener output) throws IOException, InterruptedException {
+        return execute(output, false);
+    }
+
+    private R execute(@NonNull TaskListener output, boolean quiet) throws IOException, InterruptedException {
         List<String> args = getArguments();
+        boolean[] masks = getMasks(args.size());
+        String pwd = (root == null ? command.getParent() : root).getRemote();
 
-        // command.createLauncher(output)
-        ProcStarter starter = command.createLauncher(output).launch() //
-                .envs(env) //
-                .stdin(stdin) //
-                .pwd(root == null ? command.getParent() : root) //
-                .cmds(args) //
-                .masks(getMasks(args.size()));
+        long start = System.currentTimeMillis();
+        Integer exitCode = 0;
+        try {
+            if (parser != null) {
+                // parse the output on the node, while it is printed
+                return command.act(new ParseOutputTask<>(getDescription(), args, masks, env, input, pwd, timeoutMs, parser, quiet ? null : output));
+            }
+
+            Proc proc = command.createLauncher(output).launch() //
+                    .envs(env) //
+                    .stdin(getStdin(input)) //
+                    .pwd(pwd) //
+                    .cmds(args) //
+                    .masks(masks) //
+                    .stdout(output) //
+                    .start();
+            join(proc, timeoutMs, getDescription(), output);
+            return null;
+        } catch (IOException e) {
+            exitCode = e instanceof CLICommandException ? ((CLICommandException) e).getExitCode() : Integer.valueOf(-1);
+            throw e;
+        } catch (InterruptedException e) {
+            // killed
+            exitCode = -1;
+            throw e;
+        } finally {
+            CLIMetrics.get().record(command.getBaseName(), CLIMetrics.getSubcommand(command.getBaseName(), arguments.toList()), //
+                    System.currentTimeMillis() - start, exitCode);
+        }
+    }
+
+    /**
+     * Returns the command line for logs and error messages.
+     *
+     * @return the command line, with secrets masked.
+     */
+    public String getDescription() {
+        return command.getBaseName() + " " + arguments.toString();
+    }
+
+    /**
+     * Returns the name of the executable, like {@code adb}.
+     *
+     * @return the tool name.
+     */
+    public String getTool() {
+        return command.getBaseName();
+    }
+
+    /**
+     * Returns the subcommand run by this command, as reported in the
+     * {@link CLIMetrics}.
+     *
+     * @return the subcommand.
+     */
+    public String getSubcommand() {
+        return CLIMetrics.getSubcommand(command.getBaseName(), arguments.toList());
+    }
+
+    /**
+     * Returns how long the command can run before it is killed.
+     *
+     * @return the timeout in milliseconds, {@code 0} to wait forever.
+     */
+    public long getTimeout() {
+        return timeoutMs;
+    }
+
+    /**
+     * Returns the environment of the command.
+     *
+     * @return the environment variables.
+     */
+    public EnvVars getEnv() {
+        return env;
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        if (parser != null) {
-            // clone output to make content available to the parser
-            starter.stdout(new ForkOutputStream(output.getLogger(), baos));
+    /**
+     * Returns this command as a durable task. The task runs on the node
+     * detached from the agent, so it survives a restart of the controller and
+     * its status can be polled instead of holding a thread while waiting.
+     *
+     * The task has no standard input, any input of this command is replaced
+     * by an end of file, that also dismisses the prompts of the tools.
+     * <p>
+     * The script is written in the workspace, so masked arguments, like proxy
+     * credentials, are not part of it: they are added to the
+     * {@link #getEnv() environment} of this command and the script references
+     * them.
+     *
+     * @param unix if the node where the command runs is a Unix one
+     * @return the task that runs this command.
+     */
+    public DurableTask toDurableTask(boolean unix) {
+        String pwd = (root == null ? command.getParent() : root).getRemote();
+        List<String> args = getArguments();
+        boolean[] masks = getMasks(args.size());
+        StringBuilder script = new StringBuilder();
+        if (unix) {
+            // without -x so that masked arguments are not traced in the log
+            script.append("#!/bin/sh\n");
+            script.append("cd ").append(quote(pwd, true)).append(" || exit 1\n");
+            script.append("exec");
+            for (int i = 0; i < args.size(); i++) {
+                script.append(' ').append(masks[i] ? "\"$" + maskedArgument(i, args.get(i)) + '"' : quote(args.get(i), true));
+            }
+            script.append(" < /dev/null\n");
+            return new BourneShellScript(script.toString());
         } else {
-            starter.stdout(output);
+            script.append("@echo off\r\n");
+            script.append("cd /d ").append(quote(pwd, false)).append(" || exit /b 1\r\n");
+            script.append("call");
+            for (int i = 0; i < args.size(); i++) {
+                script.append(' ').append(masks[i] ? "\"%" + maskedArgument(i, args.get(i)) + "%\"" : quote(args.get(i), false));
+            }
+            script.append(" < NUL\r\nexit /b %ERRORLEVEL%\r\n");
+            return new WindowsBatchScript(script.toString());
         }
+    }
 
-        int exitCode = starter.join();
-        if (exitCode != 0) {
-            throw new IOException(command.getBaseName() + " " + arguments.toString() + " failed. exit code: " + exitCode + ".");
+    /**
+     * Passes a masked argument to the durable task through the environment.
+     *
+     * @return the name of the environment variable.
+     */
+    private String maskedArgument(int index, String value) {
+        String name = MASKED_ARGUMENT_ENV_PREFIX + index;
+        env.put(name, value);
+        return name;
+    }
+
+    private static String quote(String arg, boolean unix) {
+        if (unix) {
+            return '\'' + arg.replace("'", "'\\''") + '\'';
+        }
+        return '"' + arg.replace("%", "%%").replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Waits for the process to complete, killing it with all its children
+     * if it takes too long or the wait is interrupted.
+     */
+    private static void join(Proc proc, long timeoutMs, String description, TaskListener listener) throws IOException, InterruptedException {
+        int exitCode;
+        try {
+            if (timeoutMs > 0) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+                exitCode = proc.joinWithTimeout(timeoutMs, TimeUnit.MILLISECONDS, listener);
+                if (exitCode != 0 && System.nanoTime() - deadline >= 0) {
+                    throw CLICommandException.timedOut(description, timeoutMs);
+                }
+            } else {
+                exitCode = proc.join();
+            }
+        } catch (InterruptedException e) {
+            proc.kill();
+            throw e;
         }
 
-        if (parser != null) {
-            return parser.parse(new ByteArrayInputStream(baos.toByteArray()));
+        if (exitCode != 0) {
+            throw CLICommandException.failed(description, exitCode);
         }
-        return null;
+    }
+
+    private static InputStream getStdin(String input) {
+        return input == null ? new NullInputStream(0) : new StringInputStream(input);
     }
 
     public Proc executeAsync(@Nullable TaskListener output) throws IOException, InterruptedException {
@@ -121,7 +329,7 @@ public class CLICommand<R> {
         // command.createLauncher(output)
         ProcStarter starter = command.createLauncher(output).launch() //
                 .envs(env) //
-                .stdin(stdin) //
+                .stdin(getStdin(input)) //
                 .pwd(root == null ? command.getParent() : root) //
                 .cmds(args) //
                 .masks(getMasks(args.size()));
@@ -157,8 +365,84 @@ public class CLICommand<R> {
     }
 
     CLICommand<R> withInput(String input) {
-        this.stdin = new StringInputStream(input);
+        this.input = input;
         return this;
     }
 
+    /**
+     * Runs the command on the node where the executable is, feeding the parser
+     * with each line of output and optionally copying it to the log.
+     */
+    private static final class ParseOutputTask<R> extends MasterToSlaveFileCallable<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final String description;
+        private final List<String> args;
+        private final boolean[] masks;
+        private final EnvVars env;
+        private final String input;
+        private final String pwd;
+        private final long timeoutMs;
+        private final OutputParser<R> parser;
+        private final TaskListener log;
+
+        ParseOutputTask(String description, List<String> args, boolean[] masks, EnvVars env, String input, String pwd, long timeoutMs, OutputParser<R> parser, @Nullable TaskListener log) {
+            this.description = description;
+            this.args = args;
+            this.masks = masks;
+            this.env = env;
+            this.input = input;
+            this.pwd = pwd;
+            this.timeoutMs = timeoutMs;
+            this.parser = parser;
+            this.log = log;
+        }
+
+        @Override
+        public R invoke(File executable, VirtualChannel channel) throws IOException, InterruptedException {
+            TaskListener listener = log != null ? log : TaskListener.NULL;
+            try (ParserOutputStream<R> stdout = new ParserOutputStream<>(parser, log != null ? log.getLogger() : null)) {
+                Proc proc = new Launcher.LocalLauncher(listener).launch() //
+                        .envs(env) //
+                        .stdin(getStdin(input)) //
+                        .pwd(pwd) //
+                        .cmds(args) //
+                        .masks(masks) //
+                        .stdout(stdout) //
+                        .start();
+                join(proc, timeoutMs, description, listener);
+            }
+            return parser.getResult();
+        }
+    }
+
+    /**
+     * Splits the output in lines for the parser.
+     */
+    private static final class ParserOutputStream<R> extends LineTransformationOutputStream {
+        private final OutputParser<R> parser;
+        private final OutputStream log;
+
+        ParserOutputStream(OutputParser<R> parser, @Nullable OutputStream log) {
+            this.parser = parser;
+            this.log = log;
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            if (log != null) {
+                log.write(b, 0, len);
+            }
+            parser.parseLine(trimEOL(new String(b, 0, len, StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (log != null) {
+                log.flush();
+            }
+        }
+    }
+
 }
\ No newline at end of file
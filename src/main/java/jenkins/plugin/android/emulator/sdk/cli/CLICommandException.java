@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+/**
+ * Signals that a command exited with an error or did not complete within its
+ * timeout.
+ *
+ * @author Nikolas Falco
+ */
+public class CLICommandException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Integer exitCode;
+
+    CLICommandException(String message, @CheckForNull Integer exitCode) {
+        super(message);
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Creates the exception for a command that exited with an error.
+     *
+     * @param description the command line, with secrets masked
+     * @param exitCode the exit code of the command
+     * @return the exception to throw.
+     */
+    public static CLICommandException failed(String description, int exitCode) {
+        return new CLICommandException(description + " failed. exit code: " + exitCode + ".", exitCode);
+    }
+
+    /**
+     * Creates the exception for a command killed because it did not complete
+     * in time.
+     *
+     * @param description the command line, with secrets masked
+     * @param timeoutMs the timeout of the command
+     * @return the exception to throw.
+     */
+    public static CLICommandException timedOut(String description, long timeoutMs) {
+        return new CLICommandException(description + " timed out after " + TimeUnit.MILLISECONDS.toSeconds(timeoutMs) + " seconds.", null);
+    }
+
+    /**
+     * Returns the exit code of the command.
+     *
+     * @return the exit code, {@code null} if the command has been killed
+     *         because it timed out.
+     */
+    @CheckForNull
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isTimeout() {
+        return exitCode == null;
+    }
+}
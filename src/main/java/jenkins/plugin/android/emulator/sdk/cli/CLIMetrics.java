@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Collects, for the whole controller, how many times each SDK tool and
+ * subcommand has been executed, how long it took and how it exited.
+ *
+ * @author Nikolas Falco
+ */
+public final class CLIMetrics {
+
+    /** Upper bounds, in milliseconds, of the latency histogram buckets. */
+    private static final long[] BUCKETS_MS = { 1000, 5000, 30000, 120000, 600000 };
+
+    /** Subcommands of sdkmanager given as options. */
+    private static final Set<String> ACTIONS = Set.of("--list", "--install", "--update", "--uninstall", "--licenses", "--version");
+
+    /** Options followed by a value. */
+    private static final Set<String> VALUE_OPTIONS = Set.of("-s", "-P", "-H", "-avd", "--name", "--package", "--abi", "--sdcard", "--device", "--path");
+
+    /** Subcommands made of two words. */
+    private static final Set<String> COMPOUND = Set.of("list", "create", "delete", "move", "shell");
+
+    private static final CLIMetrics INSTANCE = new CLIMetrics();
+
+    /** Counters of a single tool and subcommand. */
+    public static final class Entry {
+        private final String tool;
+        private final String subcommand;
+        private int count;
+        private int timeouts;
+        private long totalMs;
+        private long maxMs;
+        private final long[] histogram = new long[BUCKETS_MS.length + 1];
+        private final Map<Integer, Integer> exitCodes = new TreeMap<>();
+
+        private Entry(String tool, String subcommand) {
+            this.tool = tool;
+            this.subcommand = subcommand;
+        }
+
+        public String getTool() {
+            return tool;
+        }
+
+        public String getSubcommand() {
+            return subcommand;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getTimeouts() {
+            return timeouts;
+        }
+
+        public long getTotalMs() {
+            return totalMs;
+        }
+
+        public long getMaxMs() {
+            return maxMs;
+        }
+
+        public long getAverageMs() {
+            return count == 0 ? 0 : totalMs / count;
+        }
+
+        /**
+         * Returns how many executions fall in each latency bucket.
+         *
+         * @return one counter for each bucket of {@link CLIMetrics#getBuckets()}
+         *         plus one for longer executions.
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * @return how many times each exit code has been returned.
+         */
+        public Map<Integer, Integer> getExitCodes() {
+            return new TreeMap<>(exitCodes);
+        }
+    }
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    CLIMetrics() {
+    }
+
+    @NonNull
+    public static CLIMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the execution of a command.
+     *
+     * @param tool the executable name, without extension
+     * @param subcommand as returned by {@link #getSubcommand(String, List)}
+     * @param durationMs how long the command run
+     * @param exitCode the exit code, {@code -1} if the command was killed or
+     *        could not be run, {@code null} if it timed out
+     */
+    public synchronized void record(@NonNull String tool, @NonNull String subcommand, long durationMs, @CheckForNull Integer exitCode) {
+        Entry entry = entries.computeIfAbsent(tool + ' ' + subcommand, k -> new Entry(tool, subcommand));
+        entry.count++;
+        entry.totalMs += durationMs;
+        entry.maxMs = Math.max(entry.maxMs, durationMs);
+        int bucket = 0;
+        while (bucket < BUCKETS_MS.length && durationMs >= BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        entry.histogram[bucket]++;
+        if (exitCode == null) {
+            entry.timeouts++;
+        } else {
+            entry.exitCodes.merge(exitCode, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return a copy of the counters, sorted by tool and subcommand.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            Entry copy = new Entry(entry.tool, entry.subcommand);
+            copy.count = entry.count;
+            copy.timeouts = entry.timeouts;
+            copy.totalMs = entry.totalMs;
+            copy.maxMs = entry.maxMs;
+            System.arraycopy(entry.histogram, 0, copy.histogram, 0, entry.histogram.length);
+            copy.exitCodes.putAll(entry.exitCodes);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * @return the upper bounds, in milliseconds, of the latency buckets.
+     */
+    public long[] getBuckets() {
+        return BUCKETS_MS.clone();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Determines the subcommand from the arguments of a tool, ignoring the
+     * options, so that for example {@code --sdk_root=/opt --install platforms;android-29}
+     * is reported as {@code install} and {@code --silent list avd} as {@code list avd}.
+     *
+     * @param tool the executable name, without extension
+     * @param args the command line arguments
+     * @return the subcommand, empty if none.
+     */
+    @NonNull
+    public static String getSubcommand(@NonNull String tool, @NonNull List<String> args) {
+        if ("emulator".equals(tool)) {
+            // all arguments are options
+            return "";
+        }
+
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (ACTIONS.contains(arg)) {
+                return arg.substring(2);
+            } else if (VALUE_OPTIONS.contains(arg)) {
+                i++;
+            } else if (arg.startsWith("-")) {
+                continue;
+            } else if ("sdkmanager".equals(tool)) {
+                // packages without option are installed
+                return "install";
+            } else if (COMPOUND.contains(arg) && i + 1 < args.size()) {
+                return arg + ' ' + args.get(i + 1);
+            } else {
+                return arg;
+            }
+        }
+        return "";
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            sb.append(entry.tool).append(' ').append(entry.subcommand) //
+                    .append(": count=").append(entry.count) //
+                    .append(", timeouts=").append(entry.timeouts) //
+                    .append(", avg=").append(entry.getAverageMs()).append("ms") //
+                    .append(", max=").append(entry.maxMs).append("ms") //
+                    .append(", histogram=").append(Arrays.toString(entry.histogram)) //
+                    .append(", exit codes=").append(entry.exitCodes) //
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.SDKPackage;
+
+/**
+ * Index of the packages installed in an Android SDK, read directly from the
+ * {@code package.xml} (or the legacy {@code source.properties}) file of each
+ * package rather than by running {@code sdkmanager --list}.
+ * <p>
+ * The index is cached in the agent JVM and only rebuilt when the modification
+ * time of one of the scanned directories changes, as happens when a package is
+ * installed, updated or removed.
+ *
+ * @author Nikolas Falco
+ */
+public final class InstalledPackagesIndex {
+
+    private static final String PACKAGE_XML = "package.xml";
+    private static final String SOURCE_PROPERTIES = "source.properties";
+
+    /** Packages are never nested deeper than system-images;android-XX;tag;abi. */
+    private static final int MAX_DEPTH = 4;
+
+    /** Directories which contain temporary or non package data. */
+    private static final Set<String> EXCLUDES = new HashSet<>(Arrays.asList(".temp", ".downloadIntermediates", ".android", ".jenkins-install-locks", "licenses"));
+
+    private static final Pattern LOCAL_PACKAGE = Pattern.compile("<localPackage\\s[^>]*path=\"([^\"]+)\"");
+    private static final Pattern REVISION = Pattern.compile("<revision>(.*?)</revision>", Pattern.DOTALL);
+    private static final Pattern DISPLAY_NAME = Pattern.compile("<display-name>(.*?)</display-name>", Pattern.DOTALL);
+
+    private static final Map<String, InstalledPackagesIndex> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, SDKPackage> packages = new LinkedHashMap<>();
+    private final Map<File, Long> watched = new LinkedHashMap<>();
+
+    private InstalledPackagesIndex() {
+    }
+
+    /**
+     * Reads the packages installed in the given SDK on the node where it
+     * resides.
+     *
+     * @param sdkRoot the root directory of the Android SDK
+     * @return the installed packages, the available and update lists are
+     *         always empty.
+     * @throws IOException in case of failure reading the SDK
+     * @throws InterruptedException if the remote call is interrupted
+     */
+    @NonNull
+    public static SDKPackages read(@NonNull FilePath sdkRoot) throws IOException, InterruptedException {
+        return sdkRoot.act(new ReadInstalledPackages());
+    }
+
+    /**
+     * Returns the packages installed in the given local SDK, rebuilding the
+     * cached index only if the SDK has changed since it was built.
+     *
+     * @param sdkRoot the root directory of the Android SDK
+     * @return the installed packages.
+     */
+    @NonNull
+    public static SDKPackages of(@NonNull File sdkRoot) {
+        String key = sdkRoot.getAbsolutePath();
+        InstalledPackagesIndex index = cache.get(key);
+        if (index == null || index.isStale()) {
+            index = scan(sdkRoot);
+            cache.put(key, index);
+        }
+
+        SDKPackages result = new SDKPackages();
+        result.getInstalled().addAll(index.packages.values());
+        return result;
+    }
+
+    private boolean isStale() {
+        for (Map.Entry<File, Long> entry : watched.entrySet()) {
+            if (entry.getKey().lastModified() != entry.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static InstalledPackagesIndex scan(File sdkRoot) {
+        InstalledPackagesIndex index = new InstalledPackagesIndex();
+        index.scan(sdkRoot, null, 0);
+        return index;
+    }
+
+    private void scan(File dir, String path, int depth) {
+        // the modification time of a directory changes when an entry is added, renamed or removed
+        watched.put(dir, dir.lastModified());
+
+        if (path != null) {
+            SDKPackage sdkPackage = readPackage(dir, path);
+            if (sdkPackage != null) {
+                packages.put(sdkPackage.getId(), sdkPackage);
+                // a package.xml file is rewritten when the package is updated in place
+                watched.put(new File(dir, PACKAGE_XML), new File(dir, PACKAGE_XML).lastModified());
+                return;
+            }
+        }
+
+        File[] children = dir.listFiles(File::isDirectory);
+        if (children == null || depth >= MAX_DEPTH) {
+            return;
+        }
+        for (File child : children) {
+            if (EXCLUDES.contains(child.getName())) {
+                continue;
+            }
+            scan(child, path == null ? child.getName() : path + ';' + child.getName(), depth + 1);
+        }
+    }
+
+    @CheckForNull
+    private static SDKPackage readPackage(File dir, String path) {
+        try {
+            File packageXML = new File(dir, PACKAGE_XML);
+            if (packageXML.isFile()) {
+                return parsePackageXML(new String(Files.readAllBytes(packageXML.toPath()), StandardCharsets.UTF_8), dir);
+            }
+            File sourceProperties = new File(dir, SOURCE_PROPERTIES);
+            if (sourceProperties.isFile()) {
+                try (InputStream is = Files.newInputStream(sourceProperties.toPath())) {
+                    return parseSourceProperties(is, path, dir);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // unreadable or malformed, sdkmanager would not consider it installed either
+        }
+        return null;
+    }
+
+    @CheckForNull
+    static SDKPackage parsePackageXML(@NonNull String content, @NonNull File location) {
+        Matcher matcher = LOCAL_PACKAGE.matcher(content);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        SDKPackage sdkPackage = new SDKPackage();
+        sdkPackage.setId(matcher.group(1));
+        sdkPackage.setLocation(location.getAbsolutePath());
+        sdkPackage.setVersion(Version.emptyVersion);
+
+        String localPackage = content.substring(matcher.end());
+        matcher = REVISION.matcher(localPackage);
+        if (matcher.find()) {
+            String revision = matcher.group(1);
+            String preview = getElement(revision, "preview");
+            sdkPackage.setVersion(new Version(NumberUtils.toInt(getElement(revision, "major")), //
+                    NumberUtils.toInt(getElement(revision, "minor")), //
+                    NumberUtils.toInt(getElement(revision, "micro")), //
+                    preview == null ? null : "rc" + preview));
+        }
+        matcher = DISPLAY_NAME.matcher(localPackage);
+        if (matcher.find()) {
+            sdkPackage.setDescription(StringUtils.trim(matcher.group(1)));
+        }
+        return sdkPackage;
+    }
+
+    @CheckForNull
+    static SDKPackage parseSourceProperties(@NonNull InputStream content, @NonNull String path, @NonNull File location) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(content, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        String revision = StringUtils.trimToNull(properties.getProperty("Pkg.Revision"));
+        if (revision == null) {
+            return null;
+        }
+
+        SDKPackage sdkPackage = new SDKPackage();
+        sdkPackage.setId(StringUtils.defaultIfBlank(properties.getProperty("Pkg.Path"), path));
+        sdkPackage.setVersion(Version.valueOf(revision));
+        sdkPackage.setDescription(properties.getProperty("Pkg.Desc"));
+        sdkPackage.setLocation(location.getAbsolutePath());
+        return sdkPackage;
+    }
+
+    @CheckForNull
+    private static String getElement(String content, String name) {
+        return StringUtils.trimToNull(StringUtils.substringBetween(content, "<" + name + ">", "</" + name + ">"));
+    }
+
+    /**
+     * Returns the installed package with the given identifier, for example
+     * {@code platforms;android-30}, if its version is at least the given one.
+     *
+     * @param packages the installed packages
+     * @param id the package identifier
+     * @param minimum the minimum version required, {@code null} for any
+     * @return {@code true} if such a package is installed.
+     */
+    public static boolean isInstalled(@NonNull SDKPackages packages, @NonNull String id, @CheckForNull Version minimum) {
+        return packages.getInstalled().get(id).stream() //
+                .anyMatch(p -> minimum == null || p.getVersion().compareTo(minimum) >= 0);
+    }
+
+    /**
+     * Removes from the given identifiers those of the packages already
+     * installed. Identifiers ending with {@code *} match any package with that
+     * prefix, like {@code build-tools;*}.
+     *
+     * @param packages the installed packages
+     * @param ids the package identifiers
+     * @return the identifiers that are not installed yet.
+     */
+    @NonNull
+    public static List<String> getMissing(@NonNull SDKPackages packages, @NonNull Iterable<String> ids) {
+        List<String> missing = new LinkedList<>();
+        for (String id : ids) {
+            if (packages.getInstalled().match(id).isEmpty()) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    private static final class ReadInstalledPackages extends MasterToSlaveFileCallable<SDKPackages> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public SDKPackages invoke(File sdkRoot, VirtualChannel channel) throws IOException, InterruptedException {
+            return InstalledPackagesIndex.of(sdkRoot);
+        }
+    }
+}
@@ -24,8 +24,6 @@
 package jenkins.plugin.android.emulator.sdk.cli;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -37,7 +35,6 @@ import java.util.regex.Pattern;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -49,8 +46,10 @@ import hudson.Util;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.Secret;
 import jenkins.plugin.android.emulator.sdk.cli.CLICommand.OutputParser;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.PackageIndex;
 import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.SDKPackage;
 import jenkins.plugin.android.emulator.tools.AndroidSDKInstaller.Channel;
+import jenkins.plugin.android.emulator.tools.SDKArchiveCache;
 
 /**
  * Build a command line argument for sdkmanager command.
@@ -63,74 +62,76 @@ public class SDKManagerCLIBuilder {
     }
 
     static class ListPackagesParser implements OutputParser<SDKPackages> {
+        private static final long serialVersionUID = 1L;
+
+        private final SDKPackages result = new SDKPackages();
+        private List<Column> columns;
+        private PackageIndex bucket;
+
         @Override
-        public SDKPackages parse(InputStream input) throws IOException {
-            SDKPackages result = new SDKPackages();
-
-            List<Column> columns = null;
-            List<SDKPackage> bucket = null;
-            for (String line : IOUtils.readLines(input, "UTF-8")) { // NOSONAR
-                line = Util.fixEmptyAndTrim(line);
-                if (StringUtils.isBlank(line)) {
+        public void parseLine(String line) {
+            line = Util.fixEmptyAndTrim(line);
+            if (StringUtils.isBlank(line)) {
+                return;
+            }
+
+            String lcLine = line.toLowerCase();
+            if (lcLine.startsWith("available packages")) {
+                bucket = result.getAvailable();
+                return;
+            } else if (lcLine.startsWith("installed packages")) {
+                bucket = result.getInstalled();
+                return;
+            } else if (lcLine.startsWith("available updates")) {
+                bucket = result.getUpdates();
+                return;
+            } else if (bucket == null || lcLine.startsWith("--")) {
+                return;
+            } else if (isHeader(lcLine)) {
+                columns = createMapping(lcLine);
+                return;
+            }
+
+            // finally it's a table row
+            SDKPackage sdkPackage = new SDKPackage();
+
+            StringTokenizer st = new StringTokenizer(line, "|");
+            for (Column column : columns) { // NOSONAR
+                if (!st.hasMoreTokens()) {
+                    // guard in case cells are empty
                     continue;
                 }
 
-                String lcLine = line.toLowerCase();
-                if (StringUtils.isBlank(line)) {
-                    continue;
-                } else if (lcLine.startsWith("available packages")) {
-                    bucket = result.getAvailable();
-                    continue;
-                } else if (lcLine.startsWith("installed packages")) {
-                    bucket = result.getInstalled();
-                    continue;
-                } else if (lcLine.startsWith("available updates")) {
-                    bucket = result.getUpdates();
-                    continue;
-                } else if (bucket == null || lcLine.startsWith("--")) {
-                    continue;
-                } else if (isHeader(lcLine)) {
-                    columns = createMapping(lcLine);
+                String value = Util.fixEmptyAndTrim(st.nextToken());
+                if (value == null) {
                     continue;
                 }
 
-                // finally it's a table row
-                SDKPackage sdkPackage = new SDKPackage();
-
-                StringTokenizer st = new StringTokenizer(line, "|");
-                for (Column column : columns) { // NOSONAR
-                    if (!st.hasMoreTokens()) {
-                        // guard in case cells are empty
-                        continue;
-                    }
-
-                    String value = Util.fixEmptyAndTrim(st.nextToken());
-                    if (value == null) {
-                        continue;
-                    }
-
-                    switch (column) {
-                    case NAME:
-                        sdkPackage.setId(value);
-                        break;
-                    case DESCRIPTION:
-                        sdkPackage.setDescription(value);
-                        break;
-                    case VERSION:
-                    case AVAILABLE:
-                        sdkPackage.setVersion(new Version(value));
-                        break;
-                    case LOCATION:
-                        sdkPackage.setDescription(value);
-                        break;
-                    case UNSUPPORTED:
-                        // skip
-                        break;
-                    }
+                switch (column) {
+                case NAME:
+                    sdkPackage.setId(value);
+                    break;
+                case DESCRIPTION:
+                    sdkPackage.setDescription(value);
+                    break;
+                case VERSION:
+                case AVAILABLE:
+                    sdkPackage.setVersion(Version.valueOf(value));
+                    break;
+                case LOCATION:
+                    sdkPackage.setDescription(value);
+                    break;
+                case UNSUPPORTED:
+                    // skip
+                    break;
                 }
-
-                bucket.add(sdkPackage);
             }
+
+            bucket.add(sdkPackage);
+        }
+
+        @Override
+        public SDKPackages getResult() {
             return result;
         }
 
@@ -248,6 +249,7 @@ public class SDKManagerCLIBuilder {
         }
 
         EnvVars env = new EnvVars();
+        SDKArchiveCache.buildEnvVars(env);
         try {
             buildProxyEnvVars(env);
         } catch (URISyntaxException e) {
@@ -255,8 +257,8 @@ public class SDKManagerCLIBuilder {
             buildProxyArguments(arguments);
         }
 
-        return new CLICommand<Void>(executable, arguments, env) //
-                .withInput(StringUtils.repeat("y", "\r\n", packages.size()));
+        // licences must be accepted in advance, see SDKLicenses
+        return new CLICommand<Void>(executable, arguments, env);
     }
 
     public CLICommand<SDKPackages> list() {
@@ -265,6 +267,7 @@ public class SDKManagerCLIBuilder {
         arguments.add(ARG_LIST);
 
         EnvVars env = new EnvVars();
+        SDKArchiveCache.buildEnvVars(env);
         try {
             buildProxyEnvVars(env);
         } catch (URISyntaxException e) {
@@ -376,6 +379,7 @@ public class SDKManagerCLIBuilder {
         }
 
         EnvVars env = new EnvVars();
+        SDKArchiveCache.buildEnvVars(env);
         try {
             buildProxyEnvVars(env);
         } catch (URISyntaxException e) {
@@ -383,8 +387,8 @@ public class SDKManagerCLIBuilder {
             buildProxyArguments(arguments);
         }
 
-        return new CLICommand<Void>(executable, arguments, env) //
-                .withInput(StringUtils.repeat("y", "\r\n", packages.size()));
+        // licences must be accepted in advance, see SDKLicenses
+        return new CLICommand<Void>(executable, arguments, env);
     }
 
     public CLICommand<Void> arguments(String[] args) {
@@ -392,6 +396,7 @@ public class SDKManagerCLIBuilder {
         arguments.add(args);
 
         EnvVars env = new EnvVars();
+        SDKArchiveCache.buildEnvVars(env);
         try {
             buildProxyEnvVars(env);
         } catch (URISyntaxException e) {
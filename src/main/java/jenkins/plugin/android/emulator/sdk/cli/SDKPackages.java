@@ -1,13 +1,28 @@
 package jenkins.plugin.android.emulator.sdk.cli;
 
-import java.util.LinkedList;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.TreeMap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
-public class SDKPackages {
-    public static class SDKPackage implements Comparable<SDKPackage> {
+public class SDKPackages implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static class SDKPackage implements Comparable<SDKPackage>, Serializable {
+        private static final long serialVersionUID = 1L;
+
         private String id;
         private Version version;
         private Version available;
@@ -91,31 +106,237 @@ public class SDKPackages {
         }
     }
 
-    private List<SDKPackage> available = new LinkedList<>();
-    private List<SDKPackage> updates = new LinkedList<>();
-    private List<SDKPackage> installed = new LinkedList<>();
+    /**
+     * Packages indexed by their path, like {@code build-tools;30.0.3}, so that
+     * lookups by path or by path prefix don't scan the whole repository
+     * catalogue.
+     * <p>
+     * Iteration is sorted by path and, for the same path, by insertion order.
+     */
+    public static class PackageIndex extends AbstractCollection<SDKPackage> implements Serializable {
+        private static final long serialVersionUID = 1L;
 
-    public List<SDKPackage> getAvailable() {
+        private final NavigableMap<String, List<SDKPackage>> packages = new TreeMap<>();
+        private int size;
+
+        @Override
+        public boolean add(SDKPackage sdkPackage) {
+            packages.computeIfAbsent(getKey(sdkPackage.getId()), k -> new ArrayList<>(1)).add(sdkPackage);
+            size++;
+            return true;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof SDKPackage)) {
+                return false;
+            }
+            String key = getKey(((SDKPackage) o).getId());
+            List<SDKPackage> entries = packages.get(key);
+            if (entries == null || !entries.remove(o)) {
+                return false;
+            }
+            if (entries.isEmpty()) {
+                packages.remove(key);
+            }
+            size--;
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            packages.clear();
+            size = 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<SDKPackage> iterator() {
+            return new PackageIterator(packages.values().iterator());
+        }
+
+        /**
+         * Returns whether a package with the given path is present.
+         *
+         * @param id the package path
+         * @return {@code true} if at least a version of the package is present.
+         */
+        public boolean hasPackage(@CheckForNull String id) {
+            return id != null && packages.containsKey(id);
+        }
+
+        /**
+         * Returns all versions of the package with the given path.
+         *
+         * @param id the package path
+         * @return the packages with exactly that path.
+         */
+        @NonNull
+        public List<SDKPackage> get(@NonNull String id) {
+            List<SDKPackage> entries = packages.get(id);
+            return entries == null ? Collections.emptyList() : Collections.unmodifiableList(entries);
+        }
+
+        /**
+         * Returns the packages whose path starts with the given prefix.
+         *
+         * @param prefix the path prefix, for example {@code build-tools;}
+         * @return a view of the matching packages.
+         */
+        @NonNull
+        public Collection<SDKPackage> withPrefix(@NonNull String prefix) {
+            NavigableMap<String, List<SDKPackage>> range = subMap(prefix);
+            return new AbstractCollection<SDKPackage>() {
+                @Override
+                public Iterator<SDKPackage> iterator() {
+                    return new PackageIterator(range.values().iterator());
+                }
+
+                @Override
+                public int size() {
+                    return range.values().stream().mapToInt(List::size).sum();
+                }
+            };
+        }
+
+        /**
+         * Returns the packages matching the given pattern, that is the exact
+         * path or, if it ends with {@code *}, any path with that prefix like
+         * {@code build-tools;*}.
+         *
+         * @param pattern the package path or prefix pattern
+         * @return the matching packages.
+         */
+        @NonNull
+        public Collection<SDKPackage> match(@NonNull String pattern) {
+            if (pattern.endsWith("*")) {
+                return withPrefix(pattern.substring(0, pattern.length() - 1));
+            }
+            return get(pattern);
+        }
+
+        /**
+         * Returns the latest package matching the given pattern. Packages are
+         * ordered by path and then by version, as for wildcard patterns the
+         * path contains the version.
+         *
+         * @param pattern the package path or prefix pattern, see
+         *        {@link #match(String)}
+         * @param stable if release candidates must be ignored
+         * @return the latest matching package, {@code null} if none matches.
+         */
+        @CheckForNull
+        public SDKPackage getLatest(@NonNull String pattern, boolean stable) {
+            NavigableMap<String, List<SDKPackage>> range;
+            if (pattern.endsWith("*")) {
+                range = subMap(pattern.substring(0, pattern.length() - 1));
+            } else {
+                range = packages.subMap(pattern, true, pattern, true);
+            }
+
+            for (List<SDKPackage> entries : range.descendingMap().values()) {
+                SDKPackage latest = null;
+                for (SDKPackage p : entries) {
+                    if (stable && p.getVersion() != null && p.getVersion().getQualifier() != null) {
+                        continue;
+                    }
+                    if (latest == null || compareVersion(p, latest) > 0) {
+                        latest = p;
+                    }
+                }
+                if (latest != null) {
+                    return latest;
+                }
+            }
+            return null;
+        }
+
+        private NavigableMap<String, List<SDKPackage>> subMap(String prefix) {
+            if (prefix.isEmpty()) {
+                return packages;
+            }
+            // the successor of the prefix bounds all strings that start with it
+            String end = prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1);
+            return packages.subMap(prefix, true, end, false);
+        }
+
+        private static int compareVersion(SDKPackage p1, SDKPackage p2) {
+            if (p1.getVersion() == null || p2.getVersion() == null) {
+                return p1.getVersion() == null ? (p2.getVersion() == null ? 0 : -1) : 1;
+            }
+            return p1.getVersion().compareTo(p2.getVersion());
+        }
+
+        private static String getKey(String id) {
+            return id == null ? "" : id;
+        }
+    }
+
+    private static final class PackageIterator implements Iterator<SDKPackage> {
+        private final Iterator<List<SDKPackage>> lists;
+        private Iterator<SDKPackage> current = Collections.emptyIterator();
+
+        private PackageIterator(Iterator<List<SDKPackage>> lists) {
+            this.lists = lists;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && lists.hasNext()) {
+                current = lists.next().iterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public SDKPackage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    private PackageIndex available = new PackageIndex();
+    private PackageIndex updates = new PackageIndex();
+    private PackageIndex installed = new PackageIndex();
+
+    public PackageIndex getAvailable() {
         return available;
     }
 
-    public void setAvailable(List<SDKPackage> available) {
-        this.available = available;
+    public void setAvailable(Collection<SDKPackage> available) {
+        this.available = toIndex(available);
     }
 
-    public List<SDKPackage> getUpdates() {
+    public PackageIndex getUpdates() {
         return updates;
     }
 
-    public void setUpdates(List<SDKPackage> updates) {
-        this.updates = updates;
+    public void setUpdates(Collection<SDKPackage> updates) {
+        this.updates = toIndex(updates);
     }
 
-    public List<SDKPackage> getInstalled() {
+    public PackageIndex getInstalled() {
         return installed;
     }
 
-    public void setInstalled(List<SDKPackage> installed) {
-        this.installed = installed;
+    public void setInstalled(Collection<SDKPackage> installed) {
+        this.installed = toIndex(installed);
+    }
+
+    private static PackageIndex toIndex(Collection<SDKPackage> packages) {
+        if (packages instanceof PackageIndex) {
+            return (PackageIndex) packages;
+        }
+        PackageIndex index = new PackageIndex();
+        if (packages != null) {
+            index.addAll(packages);
+        }
+        return index;
     }
 }
@@ -23,9 +23,11 @@
  */
 package jenkins.plugin.android.emulator.sdk.cli;
 
+import java.io.Serializable;
 import java.util.Objects;
 
-public class Targets {
+public class Targets implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     public enum TargetType {
         platform;
@@ -23,8 +23,11 @@
  */
 package jenkins.plugin.android.emulator.sdk.cli;
 
+import java.io.Serializable;
 import java.text.MessageFormat;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -42,7 +45,9 @@ import org.apache.commons.lang3.StringUtils;
  * <p>
  * {@code Version} objects are immutable.
  */
-public class Version implements Comparable<Version> {
+public class Version implements Comparable<Version>, Serializable {
+    private static final long serialVersionUID = 1L;
+
     private static final String MSG_INVALID_FORMAT = "invalid version \"{0}\": invalid format";
     private static final String MSG_NEGATIVE_NUMBER = "invalid version \"{0}\": negative number \"{1}\"";
     private static final String SEPARATOR = ".";
@@ -59,6 +64,14 @@ public class Version implements Comparable<Version> {
      */
     public static final Version emptyVersion = new Version(0, 0, 0, null);
 
+    /**
+     * Upper bound of the interned versions, the SDK repository uses far less
+     * distinct versions than this.
+     */
+    private static final int MAX_INTERNED = 4096;
+
+    private static final ConcurrentMap<String, Version> interned = new ConcurrentHashMap<>();
+
     /**
      * Creates a version identifier from the specified numerical components.
      *
@@ -186,6 +199,41 @@ public class Version implements Comparable<Version> {
         return new Version(v);
     }
 
+    /**
+     * Returns the version identifier for the specified string, sharing the
+     * same instance for equal strings.
+     *
+     * <p>
+     * The SDK repository lists thousands of packages with a few distinct
+     * versions, interning avoids to parse and keep in memory the same version
+     * over and over.
+     *
+     * @param version
+     *            String representation of the version identifier, see
+     *            {@link #parseVersion(String)}.
+     * @return A {@code Version} object representing the version identifier.
+     * @throws IllegalArgumentException
+     *             If {@code version} is improperly formatted.
+     */
+    public static Version valueOf(final String version) {
+        String v = StringUtils.trimToNull(version);
+        if (v == null) {
+            return emptyVersion;
+        }
+
+        Version result = interned.get(v);
+        if (result == null) {
+            result = new Version(v);
+            if (interned.size() < MAX_INTERNED) {
+                Version previous = interned.putIfAbsent(v, result);
+                if (previous != null) {
+                    result = previous;
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the major component of this version identifier.
      *
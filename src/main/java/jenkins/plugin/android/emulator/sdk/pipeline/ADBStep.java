@@ -26,18 +26,17 @@ public class ADBStep extends AbstractCLIStep {
         private static final long serialVersionUID = 1L;
 
         protected ADBStepExecution(StepContext context) {
-            super(emulatorTool, homeLocationStrategy, context);
+            super(emulatorTool, homeLocationStrategy, quiet, context);
         }
 
         @Override
-        protected Void doRun(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
+        protected CLICommand<Void> getCommand(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
             FilePath adb = sdk.getToolLocator().getADB(getContext().get(Launcher.class));
 
             String[] argumentsExp = env.expand(arguments.replaceAll("[\t\r\n]+", " ")).split("\\s+");
-            CLICommand<Void> cli = ADBCLIBuilder.with(adb) //
+            return ADBCLIBuilder.with(adb) //
                     .arguments(argumentsExp) //
                     .withEnv(env);
-            return quiet ? cli.execute() : cli.execute(listener);
         }
 
     }
@@ -26,18 +26,17 @@ public class AVDManagerStep extends AbstractCLIStep {
         private static final long serialVersionUID = 1L;
 
         protected AVDManagerStepExecution(StepContext context) {
-            super(emulatorTool, homeLocationStrategy, context);
+            super(emulatorTool, homeLocationStrategy, quiet, context);
         }
 
         @Override
-        protected Void doRun(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
+        protected CLICommand<Void> getCommand(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
             FilePath avdManager = sdk.getToolLocator().getAVDManager(getContext().get(Launcher.class));
 
             String[] argumentsExp = env.expand(arguments.replaceAll("[\t\r\n]+", " ")).split("\\s+");
-            CLICommand<Void> cli = AVDManagerCLIBuilder.with(avdManager) //
+            return AVDManagerCLIBuilder.with(avdManager) //
                     .arguments(argumentsExp) //
                     .withEnv(env);
-            return quiet ? cli.execute() : cli.execute(listener);
         }
 
     }
@@ -1,62 +1,297 @@
 package jenkins.plugin.android.emulator.sdk.pipeline;
 
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.durabletask.Controller;
+import org.jenkinsci.plugins.durabletask.DurableTask;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
-import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Launcher;
 import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
 import jenkins.plugin.android.emulator.AndroidSDKUtil;
+import jenkins.plugin.android.emulator.sdk.cli.CLICommand;
+import jenkins.plugin.android.emulator.sdk.cli.CLICommandException;
+import jenkins.plugin.android.emulator.sdk.cli.CLIMetrics;
 import jenkins.plugin.android.emulator.sdk.home.HomeLocator;
 import jenkins.plugin.android.emulator.tools.AndroidSDKInstallation;
+import jenkins.util.Timer;
+
+/**
+ * Runs a command as a durable task on the node and polls its status from a
+ * timer, so that no controller thread is held while the command runs. The
+ * launch and each poll, that block on the agent, run on the remoting thread
+ * pool, the timer only triggers them.
+ * <p>
+ * The task is detached from the agent process, its state is saved with the
+ * build and the execution reattaches to it when the controller restarts.
+ */
+abstract class AbstractCLIStepExecution extends StepExecution {
+    private static final long serialVersionUID = 2L;
+
+    private static final Logger LOGGER = Logger.getLogger(AbstractCLIStepExecution.class.getName());
 
-abstract class AbstractCLIStepExecution extends SynchronousNonBlockingStepExecution<Void> {
-    private static final long serialVersionUID = 1L;
+    /** Polling period right after the launch or after some output. */
+    private static final long MIN_RECURRENCE_PERIOD = 250;
+
+    /** Polling period for commands that run for a long time without output. */
+    private static final long MAX_RECURRENCE_PERIOD = 15000;
+
+    private static final float RECURRENCE_PERIOD_BACKOFF = 1.2f;
 
     private final String emulatorTool;
     private final HomeLocator homeLocationStrategy;
+    private final boolean quiet;
+
+    // the launched task, saved with the build to reattach to it after a restart
+    private Controller controller;
+    private String node;
+    private String remote;
+    private String description;
+    private String tool;
+    private String subcommand;
+    private long startTime;
+    private long timeoutMs;
 
-    protected AbstractCLIStepExecution(String emulatorTool, HomeLocator homeLocationStrategy, StepContext context) {
+    private transient volatile Future<?> task;
+    private transient volatile boolean done;
+    private transient long recurrencePeriod = MIN_RECURRENCE_PERIOD;
+
+    protected AbstractCLIStepExecution(String emulatorTool, HomeLocator homeLocationStrategy, boolean quiet, StepContext context) {
         super(context);
         this.emulatorTool = emulatorTool;
         this.homeLocationStrategy = homeLocationStrategy;
+        this.quiet = quiet;
     }
 
     @Override
-    protected Void run() throws Exception {
-        FilePath workspace = getContext().get(FilePath.class);
-        workspace.mkdirs();
+    public boolean start() throws Exception {
+        // the tool installation may take minutes, do not block the pipeline
+        task = Computer.threadPoolForRemoting.submit(this::launch);
+        return false;
+    }
+
+    private void launch() {
+        try {
+            FilePath workspace = getContext().get(FilePath.class);
+            workspace.mkdirs();
+
+            AndroidSDKInstallation sdk = AndroidSDKUtil.getAndroidSDK(emulatorTool);
+            if (sdk == null) {
+                throw new AbortException(jenkins.plugin.android.emulator.Messages.noInstallationFound(emulatorTool));
+            }
+
+            Computer computer = workspace.toComputer();
+            if (computer == null) {
+                throw new AbortException(jenkins.plugin.android.emulator.Messages.nodeNotAvailable());
+            }
+            Node node = computer.getNode();
+            if (node == null) {
+                throw new AbortException(jenkins.plugin.android.emulator.Messages.nodeNotAvailable());
+            }
+
+            TaskListener listener = getContext().get(TaskListener.class);
+            EnvVars env = getContext().get(EnvVars.class);
+            sdk = sdk.forNode(node, listener);
+            sdk = sdk.forEnvironment(env);
+
+            sdk.buildEnvVars(env);
+
+            // configure home location
+            FilePath homeLocation = homeLocationStrategy.locate(workspace);
+            HomeLocator.buildEnvVars(homeLocation, env);
+
+            CLICommand<Void> cli = getCommand(sdk, listener, env);
+            Launcher launcher = getContext().get(Launcher.class);
+            DurableTask durableTask = cli.toDurableTask(launcher.isUnix());
+
+            this.node = node.getNodeName();
+            this.remote = workspace.getRemote();
+            this.description = cli.getDescription();
+            this.tool = cli.getTool();
+            this.subcommand = cli.getSubcommand();
+            this.timeoutMs = cli.getTimeout();
+            this.startTime = System.currentTimeMillis();
+            Controller launched = durableTask.launch(cli.getEnv(), workspace, launcher, listener);
+            synchronized (this) {
+                this.controller = launched;
+                if (!done) {
+                    schedule();
+                    return;
+                }
+            }
+            // stopped while launching, the command must not outlive the step
+            launched.stop(workspace, launcher);
+            launched.cleanup(workspace);
+            CLIMetrics.get().record(tool, subcommand, System.currentTimeMillis() - startTime, -1);
+        } catch (Exception e) {
+            if (markDone()) {
+                getContext().onFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Creates the command to run.
+     *
+     * @param sdk the SDK installation on the node
+     * @param listener the build log
+     * @param env the environment, with the SDK and home variables
+     * @return the command to run.
+     * @throws Exception if the command could not be prepared
+     */
+    protected abstract CLICommand<Void> getCommand(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception;
+
+    private synchronized void schedule() {
+        if (!done) {
+            task = Timer.get().schedule(() -> {
+                task = Computer.threadPoolForRemoting.submit(this::check);
+            }, recurrencePeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Marks this execution as completed.
+     *
+     * @return {@code false} if it already was, in which case the context must
+     *         not be notified again.
+     */
+    private synchronized boolean markDone() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        return true;
+    }
 
-        AndroidSDKInstallation sdk = AndroidSDKUtil.getAndroidSDK(emulatorTool);
-        if (sdk == null) {
-            throw new AbortException(jenkins.plugin.android.emulator.Messages.noInstallationFound(emulatorTool));
+    private void check() {
+        if (done) {
+            return;
         }
 
-        Computer computer = workspace.toComputer();
-        if (computer == null) {
-            throw new AbortException(jenkins.plugin.android.emulator.Messages.nodeNotAvailable());
+        FilePath workspace = getWorkspace();
+        if (workspace == null) {
+            // the agent is offline, wait for it to reconnect
+            recurrencePeriod = MAX_RECURRENCE_PERIOD;
+            schedule();
+            return;
         }
-        Node node = computer.getNode();
-        if (node == null) {
-            throw new AbortException(jenkins.plugin.android.emulator.Messages.nodeNotAvailable());
+
+        try {
+            TaskListener listener = getContext().get(TaskListener.class);
+            Launcher launcher = workspace.createLauncher(listener);
+            boolean output = !quiet && controller.writeLog(workspace, listener.getLogger());
+
+            Integer exitCode = controller.exitStatus(workspace, launcher, listener);
+            if (exitCode != null) {
+                if (!quiet) {
+                    // output printed after the last check
+                    controller.writeLog(workspace, listener.getLogger());
+                }
+                complete(workspace, exitCode, exitCode == 0 ? null : CLICommandException.failed(description, exitCode));
+            } else if (timeoutMs > 0 && System.currentTimeMillis() - startTime > timeoutMs) {
+                controller.stop(workspace, launcher);
+                complete(workspace, null, CLICommandException.timedOut(description, timeoutMs));
+            } else {
+                recurrencePeriod = output ? MIN_RECURRENCE_PERIOD : Math.min((long) (recurrencePeriod * RECURRENCE_PERIOD_BACKOFF), MAX_RECURRENCE_PERIOD);
+                schedule();
+            }
+        } catch (IOException e) {
+            // typically the agent disconnected meanwhile, the task keeps running
+            LOGGER.log(Level.FINE, "Failed to check " + description + " on " + node, e);
+            recurrencePeriod = MAX_RECURRENCE_PERIOD;
+            schedule();
+        } catch (InterruptedException e) {
+            // the pool is shutting down, the task keeps running and is checked again on resume
+            LOGGER.log(Level.FINE, "Interrupted while checking " + description + " on " + node, e);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (markDone()) {
+                getContext().onFailure(e);
+            }
         }
+    }
 
-        TaskListener listener = getContext().get(TaskListener.class);
-        EnvVars env = getContext().get(EnvVars.class);
-        sdk = sdk.forNode(node, listener);
-        sdk = sdk.forEnvironment(env);
+    private void complete(FilePath workspace, @CheckForNull Integer exitCode, @CheckForNull Throwable failure) {
+        if (!markDone()) {
+            return;
+        }
 
-        sdk.buildEnvVars(env);
+        CLIMetrics.get().record(tool, subcommand, System.currentTimeMillis() - startTime, exitCode);
+        try {
+            controller.cleanup(workspace);
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.FINE, "Failed to clean up " + description + " on " + node, e);
+        }
 
-        // configure home location
-        FilePath homeLocation = homeLocationStrategy.locate(workspace);
-        HomeLocator.buildEnvVars(homeLocation, env);
+        if (failure == null) {
+            getContext().onSuccess(null);
+        } else {
+            getContext().onFailure(failure);
+        }
+    }
 
-        return doRun(sdk, listener, env);
+    @CheckForNull
+    private FilePath getWorkspace() {
+        Jenkins jenkins = Jenkins.get();
+        Node n = node.isEmpty() ? jenkins : jenkins.getNode(node);
+        return n == null ? null : n.createPath(remote);
     }
 
-    protected abstract Void doRun(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception;
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        Controller launched;
+        synchronized (this) {
+            if (!markDone()) {
+                // already completed
+                return;
+            }
+            launched = controller;
+        }
+        Future<?> future = task;
+        if (future != null) {
+            future.cancel(false);
+        }
+
+        // when still launching, the launch stops the command once started
+        FilePath workspace = launched != null ? getWorkspace() : null;
+        if (workspace != null) {
+            launched.stop(workspace, workspace.createLauncher(getContext().get(TaskListener.class)));
+            // killed
+            CLIMetrics.get().record(tool, subcommand, System.currentTimeMillis() - startTime, -1);
+        }
+        getContext().onFailure(cause);
+    }
+
+    @Override
+    public void onResume() {
+        if (controller == null) {
+            // the controller stopped before the command has been launched
+            if (markDone()) {
+                getContext().onFailure(new AbortException(Messages.AbstractCLIStepExecution_notLaunched()));
+            }
+            return;
+        }
+        recurrencePeriod = MIN_RECURRENCE_PERIOD;
+        schedule();
+    }
+
+    @Override
+    public String getStatus() {
+        if (controller == null) {
+            return "launching the command";
+        }
+        return "waiting for " + description + " on " + (node.isEmpty() ? "the controller" : node);
+    }
 }
@@ -27,19 +27,18 @@ public class EmulatorStep extends AbstractCLIStep {
         private static final long serialVersionUID = 1L;
 
         protected EmulatorStepExecution(StepContext context) {
-            super(emulatorTool, homeLocationStrategy, context);
+            super(emulatorTool, homeLocationStrategy, quiet, context);
         }
 
         @Override
-        protected Void doRun(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
+        protected CLICommand<Void> getCommand(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
             FilePath emulator = sdk.getToolLocator().getEmulator(getContext().get(Launcher.class));
 
             String[] argumentsExp = env.expand(arguments.replaceAll("[\t\r\n]+", " ")).split("\\s+");
-            CLICommand<Void> cli = EmulatorCLIBuilder.with(emulator) //
+            return EmulatorCLIBuilder.with(emulator) //
                     .proxy(Jenkins.get().proxy) //
                     .arguments(argumentsExp) //
                     .withEnv(env);
-            return quiet ? cli.execute() : cli.execute(listener);
         }
 
     }
@@ -22,26 +22,32 @@ import jenkins.plugin.android.emulator.sdk.cli.CLICommand;
 import jenkins.plugin.android.emulator.sdk.cli.SDKManagerCLIBuilder;
 import jenkins.plugin.android.emulator.sdk.home.HomeLocator;
 import jenkins.plugin.android.emulator.tools.AndroidSDKInstallation;
+import jenkins.plugin.android.emulator.tools.SDKLicenses;
 
 public class SDKManagerStep extends AbstractCLIStep {
     private class SDKManagerStepExecution extends AbstractCLIStepExecution {
         private static final long serialVersionUID = 1L;
 
         protected SDKManagerStepExecution(StepContext context) {
-            super(emulatorTool, homeLocationStrategy, context);
+            super(emulatorTool, homeLocationStrategy, quiet, context);
         }
 
         @Override
-        protected Void doRun(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
+        protected CLICommand<Void> getCommand(AndroidSDKInstallation sdk, TaskListener listener, EnvVars env) throws Exception {
             FilePath sdkManager = sdk.getToolLocator().getSDKManager(getContext().get(Launcher.class));
 
+            // sdkmanager runs without input, so licences must be accepted in advance
+            String sdkRoot = env.get(Constants.ENV_VAR_ANDROID_SDK_ROOT);
+            if (sdkRoot != null) {
+                SDKLicenses.install(new FilePath(sdkManager.getChannel(), sdkRoot));
+            }
+
             String[] argumentsExp = env.expand(arguments.replaceAll("[\t\r\n]+", " ")).split("\\s+");
-            CLICommand<Void> cli = SDKManagerCLIBuilder.with(sdkManager) //
+            return SDKManagerCLIBuilder.with(sdkManager) //
                     .proxy(Jenkins.get().proxy) //
-                    .sdkRoot(env.get(Constants.ENV_VAR_ANDROID_SDK_ROOT)) //
+                    .sdkRoot(sdkRoot) //
                     .arguments(argumentsExp) //
                     .withEnv(env);
-            return quiet ? cli.execute() : cli.execute(listener);
         }
 
     }
@@ -25,15 +25,16 @@ package jenkins.plugin.android.emulator.tools;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
@@ -41,6 +42,7 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.ProxyConfiguration;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.plugins.android_emulator.Constants;
@@ -51,6 +53,7 @@ import hudson.util.ListBoxModel.Option;
 import jenkins.model.Jenkins;
 import jenkins.plugin.android.emulator.AndroidSDKConstants;
 import jenkins.plugin.android.emulator.Messages;
+import jenkins.plugin.android.emulator.sdk.cli.InstalledPackagesIndex;
 import jenkins.plugin.android.emulator.sdk.cli.SDKManagerCLIBuilder;
 import jenkins.plugin.android.emulator.sdk.cli.SDKPackages;
 import net.sf.json.JSONObject;
@@ -86,7 +89,7 @@ public class AndroidSDKInstaller extends DownloadFromUrlInstaller {
                 // leave default
                 break;
             }
-            url = url.replace("{os}", osName);
+            url = SDKArchiveCache.toMirror(new URL(url.replace("{os}", osName))).toString();
 
             return this;
         }
@@ -140,6 +143,10 @@ public class AndroidSDKInstaller extends DownloadFromUrlInstaller {
     @Override
     public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws IOException, InterruptedException {
         FilePath expected = super.performInstallation(tool, node, log);
+        // tools may have been added or replaced by this installation
+        if (expected.getChannel() != null) {
+            ToolLocator.invalidate(expected.getChannel(), expected.getRemote());
+        }
 
         writeConfigurations(expected);
         installBasePackages(expected, log);
@@ -174,45 +181,34 @@ public class AndroidSDKInstaller extends DownloadFromUrlInstaller {
         String remoteSDKRoot = sdkRoot.getRemote();
         String androidHome = getSDKHome(sdkRoot).getRemote();
 
-        // TODO cache available packages for a configurable amount of hours
-        SDKPackages packages = SDKManagerCLIBuilder.with(sdkmanager) //
-                .proxy(Jenkins.get().proxy) //
-                .sdkRoot(remoteSDKRoot) //
-                .channel(channel) //
-                .list() //
-                .withEnv(Constants.ENV_VAR_ANDROID_SDK_HOME, androidHome) //
-                .execute();
-
-        // remove components already installed
-        List<String> defaultPackages = DEFAULT_PACKAGES.stream() //
-                .filter(defaultPackage -> packages.getInstalled().stream().noneMatch(i -> {
-                    if (defaultPackage.endsWith("*")) {
-                        String defPkg = StringUtils.removeEnd(defaultPackage, "*");
-                        return i.getId().startsWith(defPkg);
-                    }
-                    return defaultPackage.equals(i.getId());
-                })) //
-                .toList();
+        // remove components already installed, reading them directly from the SDK is
+        // much faster than running sdkmanager that also goes to the network
+        List<String> defaultPackages = InstalledPackagesIndex.getMissing(InstalledPackagesIndex.read(sdkRoot), DEFAULT_PACKAGES);
 
         if (!defaultPackages.isEmpty()) {
+            // the repository catalogue is cached on the controller, it is listed
+            // on this node only when missing or expired
+            ProxyConfiguration proxy = Jenkins.get().proxy;
+            FilePath sdkmanagerExe = sdkmanager;
+            SDKPackages packages = SDKPackagesCache.get().getAvailable(channel, proxy, () -> SDKManagerCLIBuilder.with(sdkmanagerExe) //
+                    .proxy(proxy) //
+                    .sdkRoot(remoteSDKRoot) //
+                    .channel(channel) //
+                    .list() //
+                    .withEnv(Constants.ENV_VAR_ANDROID_SDK_HOME, androidHome) //
+                    .execute());
+
             // get component with the available latest version
             List<String> components = new ArrayList<>();
-            defaultPackages.forEach(defaultPackage -> components.add(packages.getAvailable().stream() //
-                    // filter by component, the wildcards allow partial matching
-                    .filter(p -> {
-                        if (defaultPackage.endsWith("*")) {
-                            String defPkg = StringUtils.removeEnd(defaultPackage, "*");
-                            return p.getId().startsWith(defPkg);
-                        }
-                        return defaultPackage.equals(p.getId());
-                    })
-                    // remove release candidate versions for stable channel
-                    .filter(p -> channel != Channel.STABLE || p.getVersion().getQualifier() == null) //
-                    .sorted(Collections.reverseOrder()) // in case of wildcards we takes latest version
-                    .findFirst()
-                    .get()
+            // in case of wildcards we takes latest version, release candidates are
+            // excluded for stable channel
+            defaultPackages.forEach(defaultPackage -> components.add(Optional //
+                    .ofNullable(packages.getAvailable().getLatest(defaultPackage, channel == Channel.STABLE)) //
+                    .get() //
                     .getId()));
 
+            // accept licences in advance, sdkmanager runs without input
+            SDKLicenses.install(sdkRoot);
             SDKManagerCLIBuilder.with(sdkmanager) //
                     .proxy(Jenkins.get().proxy) //
                     .sdkRoot(remoteSDKRoot) //
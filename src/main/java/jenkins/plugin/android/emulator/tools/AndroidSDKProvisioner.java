@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.LabelFinder;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import hudson.plugins.android_emulator.Constants;
+import hudson.plugins.android_emulator.SdkInstallLock;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.LogTaskListener;
+import jenkins.model.Jenkins;
+import jenkins.plugin.android.emulator.AndroidSDKConstants;
+import jenkins.plugin.android.emulator.Messages;
+import jenkins.plugin.android.emulator.sdk.cli.InstalledPackagesIndex;
+import jenkins.plugin.android.emulator.sdk.cli.SDKManagerCLIBuilder;
+
+/**
+ * Provisions the Android SDK installations that have an
+ * {@link AndroidSDKProvisioning} property on the matching agents.
+ * <p>
+ * Agents are provisioned when they come online, and again when found idle
+ * without being provisioned with the current configuration, for example after
+ * the packages to install changed. The
+ * work is done on a controller thread, no executor of the agent is used.
+ *
+ * @author Nikolas Falco
+ */
+@Extension
+public class AndroidSDKProvisioner extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(AndroidSDKProvisioner.class.getName());
+
+    /** Ready labels by node name, each with what was provisioned to get it. */
+    private static final Map<String, Map<String, String>> ready = new ConcurrentHashMap<>();
+
+    /** Installations being provisioned, as node name and installation name. */
+    private static final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) throws IOException, InterruptedException {
+        provision(c);
+    }
+
+    @Override
+    public void onOffline(@NonNull Computer c, @CheckForNull OfflineCause cause) {
+        Map<String, String> labels = ready.remove(c.getName());
+        if (labels != null) {
+            resetLabels(labels.keySet());
+        }
+    }
+
+    /**
+     * Starts in background the provisioning of every installation that applies
+     * to the given computer and is not ready yet.
+     *
+     * @param computer the computer to provision
+     */
+    public static void provision(@NonNull Computer computer) {
+        Node node = computer.getNode();
+        if (node == null || computer.isOffline()) {
+            return;
+        }
+
+        for (AndroidSDKInstallation installation : getInstallations()) {
+            AndroidSDKProvisioning provisioning = installation.getProperties().get(AndroidSDKProvisioning.class);
+            if (provisioning == null || !provisioning.appliesTo(node) || isReady(node, installation, provisioning)) {
+                continue;
+            }
+
+            String key = node.getNodeName() + '|' + installation.getName();
+            if (!running.add(key)) {
+                continue;
+            }
+            Computer.threadPoolForRemoting.submit(() -> {
+                TaskListener listener = new LogTaskListener(LOGGER, Level.INFO);
+                try {
+                    listener.getLogger().println(Messages.AndroidSDKProvisioner_started(installation.getName(), node.getDisplayName()));
+                    provision(node, installation, provisioning, listener);
+                    markReady(node, provisioning.getReadyLabel(), getProvisioned(installation, provisioning));
+                    listener.getLogger().println(Messages.AndroidSDKProvisioner_completed(installation.getName(), node.getDisplayName()));
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, Messages.AndroidSDKProvisioner_failed(installation.getName(), node.getDisplayName()), e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.remove(key);
+                }
+            });
+        }
+    }
+
+    private static void provision(Node node, AndroidSDKInstallation installation, AndroidSDKProvisioning provisioning, TaskListener listener) throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException(Messages.nodeNotAvailable());
+        }
+
+        // runs the tool installers, that also install the base packages
+        AndroidSDKInstallation sdk = installation.forNode(node, listener);
+
+        FilePath sdkRoot = new FilePath(channel, sdk.getHome());
+        List<String> missing = InstalledPackagesIndex.getMissing(InstalledPackagesIndex.read(sdkRoot), provisioning.getPackageList());
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Launcher launcher = node.createLauncher(listener);
+        FilePath sdkManager = sdk.getToolLocator().getSDKManager(launcher);
+        if (sdkManager == null) {
+            throw new IOException(Messages.noExecutableFound("sdkmanager"));
+        }
+
+        EnvVars env = new EnvVars();
+        sdk.buildEnvVars(env);
+        env.put(Constants.ENV_VAR_ANDROID_SDK_HOME, sdkRoot.child(AndroidSDKConstants.ANDROID_CACHE).getRemote());
+
+        // coordinate with the builds installing packages into the same SDK
+        try (SdkInstallLock lock = SdkInstallLock.acquire(listener.getLogger(), channel, node.getNodeName(), sdk.getHome(), missing)) {
+            // a build may have installed them while waiting for the lock
+            missing = InstalledPackagesIndex.getMissing(InstalledPackagesIndex.read(sdkRoot), missing);
+            if (missing.isEmpty()) {
+                return;
+            }
+
+            // accept licences in advance, sdkmanager runs without input
+            SDKLicenses.install(sdkRoot);
+            SDKManagerCLIBuilder.with(sdkManager) //
+                    .proxy(Jenkins.get().proxy) //
+                    .sdkRoot(sdk.getHome()) //
+                    .install(missing) //
+                    .withEnv(env) //
+                    .execute(listener);
+            lock.markInstalled();
+        }
+    }
+
+    /**
+     * Tells if the node got the ready label of the given provisioning with its
+     * current configuration. A label given for another configuration is taken
+     * away, so that no build relies on it until the node is provisioned again.
+     */
+    private static boolean isReady(Node node, AndroidSDKInstallation installation, AndroidSDKProvisioning provisioning) {
+        Map<String, String> labels = ready.get(node.getNodeName());
+        String label = provisioning.getReadyLabel();
+        String provisioned = labels != null ? labels.get(label) : null;
+        if (provisioned == null) {
+            return false;
+        }
+        if (provisioned.equals(getProvisioned(installation, provisioning))) {
+            return true;
+        }
+        if (labels.remove(label, provisioned)) {
+            resetLabels(Collections.singleton(label));
+        }
+        return false;
+    }
+
+    private static void markReady(Node node, String label, String provisioned) {
+        ready.computeIfAbsent(node.getNodeName(), k -> new ConcurrentHashMap<>()).put(label, provisioned);
+        resetLabels(Collections.singleton(label));
+    }
+
+    /**
+     * Describes what the given provisioning installs, to detect when its
+     * configuration changes.
+     */
+    private static String getProvisioned(AndroidSDKInstallation installation, AndroidSDKProvisioning provisioning) {
+        return installation.getName() + '|' + installation.getHome() + '|' + String.join(",", new TreeSet<>(provisioning.getPackageList()));
+    }
+
+    private static void resetLabels(Collection<String> labels) {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        for (String label : labels) {
+            jenkins.getLabelAtom(label).reset();
+        }
+        // let the queue take the new labels into account
+        jenkins.getQueue().scheduleMaintenance();
+    }
+
+    private static List<AndroidSDKInstallation> getInstallations() {
+        AndroidSDKInstallation.DescriptorImpl descriptor = Jenkins.get().getDescriptorByType(AndroidSDKInstallation.DescriptorImpl.class);
+        if (descriptor == null) {
+            return Collections.emptyList();
+        }
+        return List.of(descriptor.getInstallations());
+    }
+
+    /**
+     * Gives the ready label to the provisioned nodes.
+     */
+    @Extension
+    public static class ReadyLabelFinder extends LabelFinder {
+        @NonNull
+        @Override
+        public Collection<LabelAtom> findLabels(@NonNull Node node) {
+            Map<String, String> labels = ready.get(node.getNodeName());
+            if (labels == null || labels.isEmpty()) {
+                return Collections.emptySet();
+            }
+            return labels.keySet().stream().map(LabelAtom::get).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Provisions the idle agents that are not ready yet, for example because
+     * the installations have been configured after they came online.
+     */
+    @Extension
+    public static class IdleAgentsProvisioning extends AsyncPeriodicWork {
+
+        public IdleAgentsProvisioning() {
+            super("Android SDK provisioning");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(30);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            for (Computer computer : Jenkins.get().getComputers()) {
+                if (computer.isIdle()) {
+                    provision(computer);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.labels.LabelExpression;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolPropertyDescriptor;
+import hudson.util.FormValidation;
+import jenkins.plugin.android.emulator.Messages;
+
+/**
+ * Installs an Android SDK, and the packages needed by the builds, on the agents
+ * as soon as they come online, so that builds do not spend their executor time
+ * to do it.
+ * <p>
+ * Once done the agent gets the {@link #getReadyLabel() ready label}, that jobs
+ * can use to run only on provisioned agents.
+ *
+ * @author Nikolas Falco
+ * @see AndroidSDKProvisioner
+ */
+public class AndroidSDKProvisioning extends ToolProperty<AndroidSDKInstallation> {
+
+    public static final String DEFAULT_READY_LABEL = "android-sdk-ready";
+
+    private final String label;
+    private final String packages;
+    private String readyLabel = DEFAULT_READY_LABEL;
+
+    @DataBoundConstructor
+    public AndroidSDKProvisioning(String label, String packages) {
+        this.label = Util.fixEmptyAndTrim(label);
+        this.packages = Util.fixEmptyAndTrim(packages);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getPackages() {
+        return packages;
+    }
+
+    public String getReadyLabel() {
+        return readyLabel;
+    }
+
+    @DataBoundSetter
+    public void setReadyLabel(String readyLabel) {
+        this.readyLabel = StringUtils.defaultIfBlank(readyLabel, DEFAULT_READY_LABEL).trim();
+    }
+
+    /**
+     * Returns the packages to install, one for each line of the configuration.
+     * The platform of each system image is added too, as the emulator needs
+     * both.
+     *
+     * @return the SDK packages to install.
+     */
+    @NonNull
+    public List<String> getPackageList() {
+        Set<String> result = new LinkedHashSet<>();
+        for (String line : StringUtils.split(StringUtils.defaultString(packages), "\r\n")) {
+            String id = StringUtils.trimToNull(line);
+            if (id == null) {
+                continue;
+            }
+            String[] parts = id.split(";");
+            if ("system-images".equals(parts[0]) && parts.length > 1) {
+                result.add("platforms;" + parts[1]);
+            }
+            result.add(id);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns if the given node must be provisioned.
+     *
+     * @param node the node to check
+     * @return {@code true} if the node matches the label expression, or if no
+     *         expression is configured.
+     */
+    public boolean appliesTo(@NonNull Node node) {
+        if (label == null) {
+            return true;
+        }
+        try {
+            return Label.parseExpression(label).matches(node);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Class<AndroidSDKInstallation> type() {
+        return AndroidSDKInstallation.class;
+    }
+
+    @Symbol("provisioning")
+    @Extension
+    public static class DescriptorImpl extends ToolPropertyDescriptor {
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return AndroidSDKInstallation.class.isAssignableFrom(toolType);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.AndroidSDKProvisioning_displayName();
+        }
+
+        public FormValidation doCheckLabel(@QueryParameter String label) {
+            return LabelExpression.validate(label);
+        }
+
+        public FormValidation doCheckPackages(@QueryParameter String packages) {
+            for (String line : StringUtils.split(StringUtils.defaultString(packages), "\r\n")) {
+                String id = line.trim();
+                if (!id.isEmpty() && !id.matches("[\\w.-]+(;[\\w.-]+)*")) {
+                    return FormValidation.error(Messages.AndroidSDKProvisioning_invalidPackage(id));
+                }
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Extracts a zip archive in the directory it is invoked on, using a thread for
+ * each group of entries.
+ * <p>
+ * Unlike {@link hudson.FilePath#unzipFrom(InputStream)} the executable bit
+ * stored in the archive is preserved, so SDK tools are runnable right after
+ * the extraction on any OS.
+ *
+ * @author Nikolas Falco
+ */
+public class ParallelUnzip extends MasterToSlaveFileCallable<Void> {
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of threads that extract entries. */
+    private static final int MAX_THREADS = 4;
+
+    private final String archive;
+
+    /**
+     * Default constructor.
+     *
+     * @param archive the path of the zip archive on the node where the callable
+     *        is invoked
+     */
+    public ParallelUnzip(@NonNull String archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+
+        List<ZipEntry> files = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(archive)) {
+            for (ZipEntry entry : Collections.list(zip.getEntries())) {
+                Path target = resolve(root, entry);
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    files.add(entry);
+                }
+            }
+        }
+
+        int threads = Math.max(1, Math.min(MAX_THREADS, Math.min(files.size(), Runtime.getRuntime().availableProcessors())));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                int offset = i;
+                futures.add(executor.submit(() -> {
+                    // ZipFile is not safe for concurrent reads, each thread uses its own
+                    try (ZipFile zip = new ZipFile(archive)) {
+                        for (int j = offset; j < files.size(); j += threads) {
+                            extract(zip, files.get(j), resolve(root, files.get(j)));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return null;
+    }
+
+    private static void extract(ZipFile zip, ZipEntry entry, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try (InputStream is = zip.getInputStream(entry)) {
+            Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // file systems without permissions, like on Windows, ignore this
+        int mode = entry.getUnixMode();
+        if ((mode & 0111) != 0) {
+            target.toFile().setExecutable(true, (mode & 0011) == 0);
+        }
+    }
+
+    private static Path resolve(Path root, ZipEntry entry) throws IOException {
+        Path target = root.resolve(entry.getName()).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("Zip entry " + entry.getName() + " is outside of " + root);
+        }
+        return target;
+    }
+}
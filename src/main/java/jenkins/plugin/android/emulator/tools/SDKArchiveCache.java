@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.plugin.android.emulator.Messages;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller side cache of the SDK archives, so that each archive is
+ * downloaded from the internet once and then streamed to the agents that need
+ * it.
+ * <p>
+ * Only the archives the plugin downloads itself go through this cache, that
+ * is the base SDK tools installed by the legacy installer. The packages
+ * installed by sdkmanager, like platforms, system images or build tools, are
+ * still downloaded by each agent, from the mirror when one is configured.
+ * <p>
+ * Archives are stored by their SHA-256 checksum in the folder set by the
+ * system property {@code jenkins.plugin.android.emulator.tools.SDKArchiveCache.directory},
+ * by default {@code caches/android-sdk} in the Jenkins home. The system property
+ * {@code jenkins.plugin.android.emulator.tools.SDKArchiveCache.mirror} can point
+ * to a local mirror of the Google repository, used in place of
+ * {@value #GOOGLE_REPOSITORY} both for these archives and by sdkmanager for
+ * the SDK packages.
+ *
+ * @author Nikolas Falco
+ */
+public final class SDKArchiveCache {
+
+    /** Base URL of the Google repository of SDK packages. */
+    public static final String GOOGLE_REPOSITORY = "https://dl.google.com/android/repository/";
+
+    /** Environment variable used by sdkmanager to override the repository base URL. */
+    private static final String ENV_SDK_BASE_URL = "SDK_TEST_BASE_URL";
+
+    private static final String INDEX_FILE = "index.properties";
+
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private SDKArchiveCache() {
+    }
+
+    /**
+     * Returns the base URL of the configured mirror of the Google repository.
+     *
+     * @return the mirror URL, ending with a slash, or {@code null} if none is
+     *         configured.
+     */
+    @CheckForNull
+    public static String getMirror() {
+        String mirror = StringUtils.trimToNull(SystemProperties.getString(SDKArchiveCache.class.getName() + ".mirror"));
+        if (mirror != null && !mirror.endsWith("/")) {
+            mirror += "/";
+        }
+        return mirror;
+    }
+
+    /**
+     * Replaces the Google repository with the configured mirror, if any.
+     *
+     * @param url the URL of an archive
+     * @return the URL of the same archive on the mirror.
+     * @throws MalformedURLException if the mirror URL is invalid
+     */
+    @NonNull
+    public static URL toMirror(@NonNull URL url) throws MalformedURLException {
+        String mirror = getMirror();
+        String location = url.toString();
+        if (mirror == null || !location.startsWith(GOOGLE_REPOSITORY)) {
+            return url;
+        }
+        return new URL(mirror + location.substring(GOOGLE_REPOSITORY.length()));
+    }
+
+    /**
+     * Makes sdkmanager download packages from the configured mirror, if any.
+     *
+     * @param env the environment of the sdkmanager process
+     */
+    public static void buildEnvVars(@NonNull EnvVars env) {
+        String mirror = getMirror();
+        if (mirror != null) {
+            env.put(ENV_SDK_BASE_URL, mirror);
+        }
+    }
+
+    /**
+     * Returns the given archive from the controller cache, downloading it if
+     * it is not cached yet. Concurrent requests for the same archive wait for
+     * a single download.
+     *
+     * @param url the URL of the archive
+     * @param sha256 the expected SHA-256 checksum, if known
+     * @param listener used to log the download
+     * @return the archive on the controller.
+     * @throws IOException if the download fails or the checksum does not match
+     * @throws InterruptedException if interrupted while downloading
+     */
+    @NonNull
+    public static FilePath get(@NonNull URL url, @CheckForNull String sha256, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        File cacheDir = getCacheDir();
+        String key = url.toString();
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            Properties index = loadIndex(cacheDir);
+            String checksum = index.getProperty(key);
+            if (checksum != null && (sha256 == null || checksum.equalsIgnoreCase(sha256))) {
+                File archive = new File(cacheDir, checksum);
+                // a pinned archive is verified again, as it is executed on the agents
+                if (archive.isFile() && (sha256 == null || sha256.equalsIgnoreCase(sha256(archive)))) {
+                    return new FilePath(archive);
+                }
+            }
+
+            checksum = download(toMirror(url), cacheDir, sha256, listener);
+            synchronized (SDKArchiveCache.class) {
+                index = loadIndex(cacheDir);
+                index.setProperty(key, checksum);
+                try (OutputStream os = Files.newOutputStream(new File(cacheDir, INDEX_FILE).toPath())) {
+                    index.store(os, "Android SDK archives by URL");
+                }
+            }
+            return new FilePath(new File(cacheDir, checksum));
+        }
+    }
+
+    private static String download(URL url, File cacheDir, String sha256, TaskListener listener) throws IOException, InterruptedException {
+        listener.getLogger().println(Messages.SDKArchiveCache_downloading(url));
+
+        File tmp = File.createTempFile("download", ".tmp", cacheDir);
+        try {
+            String checksum = new SDKDownloader(url, cacheDir, listener).download(tmp, sha256);
+            Files.move(tmp.toPath(), new File(cacheDir, checksum).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return checksum;
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            return DigestUtils.sha256Hex(is);
+        }
+    }
+
+    private static Properties loadIndex(File cacheDir) throws IOException {
+        Properties index = new Properties();
+        File file = new File(cacheDir, INDEX_FILE);
+        if (file.isFile()) {
+            try (InputStream is = Files.newInputStream(file.toPath())) {
+                index.load(is);
+            }
+        }
+        return index;
+    }
+
+    private static File getCacheDir() throws IOException {
+        String directory = StringUtils.trimToNull(SystemProperties.getString(SDKArchiveCache.class.getName() + ".directory"));
+        File cacheDir = directory != null ? new File(directory) : new File(Jenkins.get().getRootDir(), "caches/android-sdk");
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Failed to create " + cacheDir);
+        }
+        return cacheDir;
+    }
+}
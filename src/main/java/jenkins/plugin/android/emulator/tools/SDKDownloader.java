@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import jenkins.plugin.android.emulator.Messages;
+
+/**
+ * Downloads a file in parallel segments, when the server supports ranged
+ * requests, keeping the partial segments on failure so that a later download
+ * of the same URL resumes where it stopped.
+ *
+ * @author Nikolas Falco
+ */
+class SDKDownloader {
+
+    /** Maximum number of segments downloaded in parallel. */
+    private static final int MAX_SEGMENTS = 4;
+
+    /** Files smaller than this are downloaded in a single segment. */
+    private static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024;
+
+    /** Number of attempts for each segment. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int TIMEOUT_MS = 60 * 1000;
+
+    private final URL url;
+    private final File dir;
+    private final TaskListener listener;
+
+    SDKDownloader(@NonNull URL url, @NonNull File dir, @NonNull TaskListener listener) {
+        this.url = url;
+        this.dir = dir;
+        this.listener = listener;
+    }
+
+    /**
+     * Downloads the file and verifies its checksum.
+     *
+     * @param target where to write the downloaded file
+     * @param sha256 the expected SHA-256 checksum, if known
+     * @return the SHA-256 checksum of the downloaded file.
+     * @throws IOException if the download fails or the checksum does not match
+     * @throws InterruptedException if interrupted while downloading
+     */
+    @NonNull
+    String download(@NonNull File target, @CheckForNull String sha256) throws IOException, InterruptedException {
+        long length = -1;
+        boolean ranges = false;
+        URLConnection head = open();
+        if (head instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) head;
+            http.setRequestMethod("HEAD");
+            if (http.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                length = http.getContentLengthLong();
+                ranges = "bytes".equalsIgnoreCase(http.getHeaderField("Accept-Ranges"));
+            }
+            http.disconnect();
+        }
+
+        List<File> parts;
+        if (ranges && length > 0) {
+            long[][] segments = getSegments(length, MAX_SEGMENTS, MIN_SEGMENT_SIZE);
+            listener.getLogger().println(Messages.SDKDownloader_segments(url, length, segments.length));
+            parts = downloadSegments(segments, length);
+        } else {
+            File part = getPartFile(0, length);
+            try (InputStream is = open().getInputStream()) {
+                Files.copy(is, part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            parts = List.of(part);
+        }
+
+        // join the segments computing the checksum
+        String checksum;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (OutputStream os = new DigestOutputStream(Files.newOutputStream(target.toPath()), digest)) {
+                for (File part : parts) {
+                    Files.copy(part.toPath(), os);
+                }
+            }
+            checksum = Hex.encodeHexString(digest.digest()).toLowerCase(Locale.ENGLISH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        for (File part : parts) {
+            Files.deleteIfExists(part.toPath());
+        }
+
+        if (length > 0 && target.length() != length) {
+            throw new IOException(Messages.SDKDownloader_truncated(url, length, target.length()));
+        }
+        if (sha256 != null && !checksum.equalsIgnoreCase(sha256)) {
+            throw new IOException(Messages.SDKArchiveCache_checksumMismatch(url, sha256, checksum));
+        }
+        return checksum;
+    }
+
+    private List<File> downloadSegments(long[][] segments, long length) throws IOException, InterruptedException {
+        List<File> parts = new ArrayList<>(segments.length);
+        List<Future<Void>> futures = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            File part = getPartFile(i, length);
+            long start = segments[i][0];
+            long end = segments[i][1];
+            parts.add(part);
+            futures.add(Computer.threadPoolForRemoting.submit(() -> {
+                downloadSegment(part, start, end);
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return parts;
+    }
+
+    private void downloadSegment(File part, long start, long end) throws IOException, InterruptedException {
+        IOException failure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            // resume from what has been downloaded by a previous attempt or build
+            long from = start + (part.isFile() ? part.length() : 0);
+            if (from > end) {
+                return;
+            }
+
+            HttpURLConnection http = (HttpURLConnection) open();
+            http.setRequestProperty("Range", "bytes=" + from + "-" + end);
+            try {
+                if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException(Messages.SDKDownloader_rangeNotSupported(url, http.getResponseCode()));
+                }
+                try (InputStream is = http.getInputStream();
+                        OutputStream os = Files.newOutputStream(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        os.write(buffer, 0, read);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    }
+                }
+                if (start + part.length() > end) {
+                    return;
+                }
+            } catch (IOException e) {
+                failure = e;
+                listener.getLogger().println(Messages.SDKDownloader_retrying(url, attempt, e.getMessage()));
+                Thread.sleep(1000L * attempt);
+            } finally {
+                http.disconnect();
+            }
+        }
+        throw failure != null ? failure : new IOException(Messages.SDKDownloader_truncated(url, end - start + 1, part.length()));
+    }
+
+    private URLConnection open() throws IOException {
+        URLConnection connection = ProxyConfiguration.open(url);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        return connection;
+    }
+
+    /**
+     * Partial files are named after the URL and size of the file, so that an
+     * interrupted download can be resumed unless the file has changed.
+     */
+    private File getPartFile(int segment, long length) {
+        return new File(dir, "download-" + DigestUtils.sha1Hex(url.toString()) + "-" + length + ".part" + segment);
+    }
+
+    /**
+     * Splits a file in segments.
+     *
+     * @param length the file size
+     * @param maxSegments the maximum number of segments
+     * @param minSegmentSize the minimum size of a segment
+     * @return the first and last byte of each segment.
+     */
+    static long[][] getSegments(long length, int maxSegments, long minSegmentSize) {
+        int count = (int) Math.max(1, Math.min(maxSegments, length / minSegmentSize));
+        long size = length / count;
+        long[][] segments = new long[count][];
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? length - 1 : start + size - 1;
+            segments[i] = new long[] { start, end };
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+/**
+ * Manages the accepted licence files in the {@code licenses} directory of an
+ * Android SDK, so that sdkmanager installs packages without prompting for each
+ * licence.
+ * <p>
+ * The accepted licences are defined on the controller: the well known ones
+ * plus any licence file, in the same format used by the SDK, copied in the
+ * {@code android-sdk-licenses} folder of the Jenkins home. They are written to
+ * each SDK only once.
+ *
+ * @author Nikolas Falco
+ */
+public final class SDKLicenses {
+
+    /** Folder in the SDK root where sdkmanager looks for accepted licences. */
+    public static final String LICENSES_DIR = "licenses";
+
+    /** Folder in the Jenkins home with additional accepted licences. */
+    private static final String CONTROLLER_LICENSES_DIR = "android-sdk-licenses";
+
+    private static final Map<String, Set<String>> DEFAULTS = new TreeMap<>();
+    static {
+        DEFAULTS.put("android-sdk-license", hashes("8933bad161af4178b1185d1a37fbf41ea5269c55", "d56f5187479451eabf01fb78af6dfcb131a6481e", "24333f8a63b6825ea9c5514f83c2829b004d1fee"));
+        DEFAULTS.put("android-sdk-preview-license", hashes("84831b9409646a918e30573bab4c9c91346d8abd"));
+        DEFAULTS.put("android-sdk-arm-dbt-license", hashes("859f317696f67ef3d7f30a50a5560e7834b43903"));
+        DEFAULTS.put("android-googletv-license", hashes("601085b94cd77f0b54ff86406957099ebe79c4d6"));
+        DEFAULTS.put("google-gdk-license", hashes("33b6a2b64607f11b759f320ef9dff4ae5c47d97a"));
+        DEFAULTS.put("intel-android-extra-license", hashes("d975f751698a77b662f1254ddbeed3901e976f5a"));
+        DEFAULTS.put("mips-android-sysimage-license", hashes("e9acab5b5fbb560a72cfaecce8946896ff6aab9d"));
+    }
+
+    /** SDK already provisioned, per channel, with the licences at the time. */
+    private static final Map<VirtualChannel, Map<String, Map<String, Set<String>>>> provisioned = new WeakHashMap<>();
+
+    private SDKLicenses() {
+    }
+
+    private static Set<String> hashes(String... hashes) {
+        return new LinkedHashSet<>(Arrays.asList(hashes));
+    }
+
+    /**
+     * Returns the accepted licences, by licence name.
+     *
+     * @return the licence hashes accepted for each licence.
+     */
+    @NonNull
+    public static Map<String, Set<String>> getAccepted() {
+        Map<String, Set<String>> licenses = new TreeMap<>();
+        DEFAULTS.forEach((name, hashes) -> licenses.put(name, new LinkedHashSet<>(hashes)));
+
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        File[] files = jenkins == null ? null : new File(jenkins.getRootDir(), CONTROLLER_LICENSES_DIR).listFiles(File::isFile);
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    licenses.computeIfAbsent(file.getName(), k -> new LinkedHashSet<>()) //
+                            .addAll(parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)));
+                } catch (IOException e) {
+                    // skip unreadable file, sdkmanager will fail on that licence
+                }
+            }
+        }
+        return licenses;
+    }
+
+    /**
+     * Writes the accepted licences in the given SDK, unless already done.
+     *
+     * @param sdkRoot the root directory of the Android SDK
+     * @throws IOException in case of failure writing the licence files
+     * @throws InterruptedException if the remote call is interrupted
+     */
+    public static void install(@NonNull FilePath sdkRoot) throws IOException, InterruptedException {
+        Map<String, Set<String>> licenses = getAccepted();
+
+        VirtualChannel channel = sdkRoot.getChannel();
+        synchronized (provisioned) {
+            Map<String, Map<String, Set<String>>> sdks = provisioned.get(channel);
+            if (sdks != null && licenses.equals(sdks.get(sdkRoot.getRemote()))) {
+                return;
+            }
+        }
+
+        sdkRoot.child(LICENSES_DIR).act(new WriteLicenses(licenses));
+
+        synchronized (provisioned) {
+            provisioned.computeIfAbsent(channel, k -> new TreeMap<>()).put(sdkRoot.getRemote(), licenses);
+        }
+    }
+
+    static Set<String> parse(String content) {
+        Set<String> hashes = new LinkedHashSet<>();
+        for (String line : StringUtils.split(content, "\r\n")) {
+            String hash = StringUtils.trimToNull(line);
+            if (hash != null) {
+                hashes.add(hash);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Adds the missing hashes to the licence files in a directory, leaving any
+     * other hash already accepted there.
+     */
+    static final class WriteLicenses extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Set<String>> licenses;
+
+        WriteLicenses(Map<String, Set<String>> licenses) {
+            this.licenses = licenses;
+        }
+
+        @Override
+        public Void invoke(File licensesDir, VirtualChannel channel) throws IOException {
+            if (!licensesDir.isDirectory() && !licensesDir.mkdirs()) {
+                throw new IOException("Failed to create " + licensesDir);
+            }
+
+            for (Map.Entry<String, Set<String>> license : licenses.entrySet()) {
+                File file = new File(licensesDir, license.getKey());
+                Set<String> hashes = file.isFile() ? parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)) : Collections.emptySet();
+                if (hashes.containsAll(license.getValue())) {
+                    continue;
+                }
+
+                Set<String> accepted = new LinkedHashSet<>(hashes);
+                accepted.addAll(license.getValue());
+                // same format written by sdkmanager --licenses
+                Files.write(file.toPath(), ("\n" + StringUtils.join(accepted, '\n')).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }
+    }
+}
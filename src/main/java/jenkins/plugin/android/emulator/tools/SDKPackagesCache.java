@@ -0,0 +1,227 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, Nikolas Falco
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugin.android.emulator.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.SDKPackage;
+import jenkins.plugin.android.emulator.tools.AndroidSDKInstaller.Channel;
+import jenkins.util.AtmostOneThreadExecutor;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller side cache of the packages available in the remote Android SDK
+ * repository, per channel and proxy configuration.
+ * <p>
+ * Listing the repository catalogue with sdkmanager means download and parse it
+ * every time. Entries are kept for a configurable amount of hours (system
+ * property {@code jenkins.plugin.android.emulator.tools.SDKPackagesCache.ttlHours},
+ * default 24) and persisted across restarts. An expired entry is still served
+ * while it is refreshed in background.
+ *
+ * @author Nikolas Falco
+ */
+public final class SDKPackagesCache {
+
+    /**
+     * Loads the catalogue from the repository, typically running sdkmanager
+     * on the node that requests it.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        @NonNull
+        SDKPackages load() throws IOException, InterruptedException;
+    }
+
+    private static final class Entry {
+        private long timestamp;
+        private List<SDKPackage> available;
+        private List<SDKPackage> updates;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(SDKPackagesCache.class.getName());
+
+    private static final long TTL = TimeUnit.HOURS.toMillis(SystemProperties.getLong(SDKPackagesCache.class.getName() + ".ttlHours", 24L));
+
+    private static final SDKPackagesCache INSTANCE = new SDKPackagesCache();
+
+    /**
+     * Refreshes run sdkmanager on a node and may take minutes, so they are
+     * kept off the shared timer, one at a time.
+     */
+    private static final ExecutorService REFRESH_EXECUTOR = new AtmostOneThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), SDKPackagesCache.class.getSimpleName() + ".refresh"));
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Boolean> refreshing = new HashMap<>();
+    private boolean loaded;
+
+    private SDKPackagesCache() {
+    }
+
+    public static SDKPackagesCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the packages available in the remote repository, using the
+     * cached ones when present.
+     *
+     * @param channel the repository channel
+     * @param proxy the proxy used to reach the repository
+     * @param loader used to list the repository when no entry is cached and
+     *        to refresh an expired one
+     * @return the available packages and updates, the installed list is always
+     *         empty since it depends on the node.
+     * @throws IOException in case of failure listing the repository
+     * @throws InterruptedException if interrupted while listing the repository
+     */
+    @NonNull
+    public SDKPackages getAvailable(@CheckForNull Channel channel, @CheckForNull ProxyConfiguration proxy,
+                                    @NonNull Loader loader) throws IOException, InterruptedException {
+        String key = getKey(channel, proxy);
+
+        Entry entry;
+        synchronized (this) {
+            load();
+            entry = entries.get(key);
+            if (entry != null && isExpired(entry) && refreshing.put(key, Boolean.TRUE) == null) {
+                REFRESH_EXECUTOR.submit(() -> refresh(key, loader));
+            }
+        }
+        if (entry == null) {
+            entry = update(key, loader.load());
+        }
+        return toPackages(entry);
+    }
+
+    /**
+     * Drops all cached entries, for example because the repository has been
+     * changed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        save();
+    }
+
+    private void refresh(String key, Loader loader) {
+        try {
+            update(key, loader.load());
+        } catch (IOException | RuntimeException e) {
+            // the expired entry is still served, make it visible that it is stale
+            LOGGER.log(Level.WARNING, "Failed to refresh the available SDK packages for " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                refreshing.remove(key);
+            }
+        }
+    }
+
+    private synchronized Entry update(String key, SDKPackages packages) {
+        Entry entry = new Entry();
+        entry.timestamp = System.currentTimeMillis();
+        entry.available = new LinkedList<>(packages.getAvailable());
+        entry.updates = new LinkedList<>(packages.getUpdates());
+        entries.put(key, entry);
+        save();
+        return entry;
+    }
+
+    private static boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.timestamp > TTL;
+    }
+
+    private static SDKPackages toPackages(Entry entry) {
+        SDKPackages packages = new SDKPackages();
+        packages.getAvailable().addAll(entry.available);
+        packages.getUpdates().addAll(entry.updates);
+        return packages;
+    }
+
+    static String getKey(@CheckForNull Channel channel, @CheckForNull ProxyConfiguration proxy) {
+        StringBuilder key = new StringBuilder(String.valueOf(channel));
+        if (proxy != null) {
+            key.append('|').append(proxy.name).append(':').append(proxy.port);
+        }
+        return key.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        XmlFile file = getConfigFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            entries.putAll((Map<String, Entry>) file.read());
+        } catch (IOException | ClassCastException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the cache of available SDK packages", e);
+        }
+    }
+
+    private void save() {
+        XmlFile file = getConfigFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(new HashMap<>(entries));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the cache of available SDK packages", e);
+        }
+    }
+
+    @CheckForNull
+    private static XmlFile getConfigFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return null;
+        }
+        return new XmlFile(Jenkins.XSTREAM2, new File(jenkins.getRootDir(), SDKPackagesCache.class.getName() + ".xml"));
+    }
+}
@@ -25,43 +25,62 @@ package jenkins.plugin.android.emulator.tools;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
-
-import hudson.FilePath;
-
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.plugins.android_emulator.sdk.Tool;
 import hudson.remoting.VirtualChannel;
 import jenkins.security.MasterToSlaveCallable;
 
+/**
+ * Locates the executables of an Android SDK installation on a node.
+ * <p>
+ * All tools are looked up with a single remote call and the result is cached
+ * per node and installation home, so that the steps of a build that need
+ * different tools do not pay a round trip each. The cache of an installation is
+ * dropped when the tool installer installs it again.
+ *
+ * @author Nikolas Falco
+ */
 public class ToolLocator {
-    private final class LookupExecuteCallable extends MasterToSlaveCallable<String, IOException> {
+    private static final class LookupExecuteCallable extends MasterToSlaveCallable<Map<Tool, String>, IOException> {
 
         private static final long serialVersionUID = -6703610106678288597L;
 
-        private final Tool tool;
+        private final Platform platform;
+        private final String home;
 
-        public LookupExecuteCallable(Tool tool) {
-            this.tool = tool;
+        public LookupExecuteCallable(Platform platform, String home) {
+            this.platform = platform;
+            this.home = home;
         }
 
         @Override
-        public String call() throws IOException {
-            Platform currentPlatform = platform;
-            File toolHome = new File(home, tool.toolLocator.findInSdk(false));
-            if (!toolHome.exists()) {
-                toolHome = new File(home, tool.toolLocator.findInSdk(true));
+        public Map<Tool, String> call() throws IOException {
+            Map<Tool, String> tools = new EnumMap<>(Tool.class);
+            for (Tool tool : Tool.values()) {
+                File toolHome = new File(home, tool.toolLocator.findInSdk(false));
+                if (!toolHome.exists()) {
+                    toolHome = new File(home, tool.toolLocator.findInSdk(true));
+                }
+                File cmd = new File(toolHome, tool.getExecutable(platform != Platform.WINDOWS));
+                if (cmd.exists()) {
+                    tools.put(tool, cmd.getPath());
+                }
             }
-            File cmd = new File(toolHome, tool.getExecutable(currentPlatform != Platform.WINDOWS));
-            if (cmd.exists()) {
-                return cmd.getPath();
-            }
-            return null;
+            return tools;
         }
     }
 
+    /** Tools found for each installation home, per node. */
+    private static final Map<VirtualChannel, Map<String, Map<Tool, String>>> cache = new WeakHashMap<>();
+
     private final Platform platform;
     private final String home;
 
@@ -70,6 +89,33 @@ public class ToolLocator {
         this.home = home;
     }
 
+    /**
+     * Returns the home of the installation whose tools are located.
+     *
+     * @return the installation home, {@code null} if the tools are looked up
+     *         in the PATH.
+     */
+    @CheckForNull
+    public String getHome() {
+        return home;
+    }
+
+    /**
+     * Forgets the tools located in the given installation, for example because
+     * it has been installed again.
+     *
+     * @param channel the channel of the node where the installation is
+     * @param home the installation home
+     */
+    public static void invalidate(@NonNull VirtualChannel channel, @CheckForNull String home) {
+        synchronized (cache) {
+            Map<String, Map<Tool, String>> homes = cache.get(channel);
+            if (homes != null) {
+                homes.remove(home);
+            }
+        }
+    }
+
     /**
      * Gets the executable path of SDKManager on the given target system.
      *
@@ -123,12 +169,35 @@ public class ToolLocator {
     }
 
     private FilePath getToolLocation(final Launcher launcher, Tool tool) throws IOException, InterruptedException {
-        // DO NOT REMOVE this callable otherwise paths constructed by File
-        // and similar API will be based on the master node O.S.
         final VirtualChannel channel = launcher.getChannel();
         if (channel == null) {
             throw new IOException("Unable to get a channel for the launcher");
         }
-        return new FilePath(channel, channel.call(new LookupExecuteCallable(tool)));
+
+        String path = getTools(channel, false).get(tool);
+        if (path == null) {
+            // the tool could have been installed by sdkmanager meanwhile
+            path = getTools(channel, true).get(tool);
+        }
+        return path != null ? new FilePath(channel, path) : null;
+    }
+
+    private Map<Tool, String> getTools(VirtualChannel channel, boolean refresh) throws IOException, InterruptedException {
+        if (!refresh) {
+            synchronized (cache) {
+                Map<String, Map<Tool, String>> homes = cache.get(channel);
+                if (homes != null && homes.containsKey(home)) {
+                    return homes.get(home);
+                }
+            }
+        }
+
+        // DO NOT REMOVE this callable otherwise paths constructed by File
+        // and similar API will be based on the master node O.S.
+        Map<Tool, String> tools = channel.call(new LookupExecuteCallable(platform, home));
+        synchronized (cache) {
+            cache.computeIfAbsent(channel, k -> new HashMap<>()).put(home, tools);
+        }
+        return tools;
     }
 }
@@ -0,0 +1,120 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.plugins.android_emulator.AndroidEmulator.DescriptorImpl;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.tasks.BuildWrapper.Environment;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class AndroidEmulatorTest {
+
+    private final AndroidEmulator wrapper = new AndroidEmulator("test", null, null, null, null, null, null,
+            false, false, false, false, 0, 0, null, null, null, null, null);
+    private final AbstractBuild<?, ?> build = mock(AbstractBuild.class);
+    private final BuildListener listener = mock(BuildListener.class);
+
+    @Test
+    void testSharedAdbServerStoppedLast() throws Exception {
+        List<AndroidEmulatorContext> contexts = contexts(true, "emulator-5554", "emulator-5556", "emulator-5558");
+        List<Environment> environments = Arrays.asList(
+                mock(Environment.class), mock(Environment.class), mock(Environment.class));
+
+        wrapper.new DevicesEnvironment(environments, contexts, null, null).tearDown(build, listener);
+
+        for (Environment secondary : environments.subList(1, 3)) {
+            InOrder order = inOrder(secondary, environments.get(0), contexts.get(0));
+            order.verify(secondary).tearDown(build, listener);
+            order.verify(environments.get(0)).tearDown(build, listener);
+            order.verify(contexts.get(0)).runAdbCommand(any(SdkCliCommand.class), any(), anyInt(), anyBoolean());
+            order.verify(contexts.get(0)).cleanUpSharedAdbServer();
+        }
+        for (AndroidEmulatorContext secondary : contexts.subList(1, 3)) {
+            verify(secondary, never()).runAdbCommand(any(SdkCliCommand.class), any(), anyInt(), anyBoolean());
+        }
+    }
+
+    @Test
+    void testSharedAdbServerStoppedAfterFailedPrimary() throws Exception {
+        // The first emulator failed to boot, and already cleaned up after itself, but not the ADB server
+        List<AndroidEmulatorContext> contexts = contexts(true, "emulator-5554", "emulator-5556");
+        Environment secondary = mock(Environment.class);
+
+        wrapper.new DevicesEnvironment(Arrays.asList(null, secondary), contexts, null, null).tearDown(build, listener);
+
+        InOrder order = inOrder(secondary, contexts.get(0));
+        order.verify(secondary).tearDown(build, listener);
+        order.verify(contexts.get(0)).runAdbCommand(any(SdkCliCommand.class), any(), anyInt(), anyBoolean());
+        order.verify(contexts.get(0)).cleanUpSharedAdbServer();
+    }
+
+    @Test
+    void testSingleEmulatorStopsItsOwnAdbServer() throws Exception {
+        List<AndroidEmulatorContext> contexts = contexts(false, "emulator-5554");
+        Environment environment = mock(Environment.class);
+
+        wrapper.new DevicesEnvironment(Collections.singletonList(environment), contexts, null, null)
+                .tearDown(build, listener);
+
+        verify(environment).tearDown(build, listener);
+        verify(contexts.get(0), never()).runAdbCommand(any(SdkCliCommand.class), any(), anyInt(), anyBoolean());
+        verify(contexts.get(0), never()).cleanUpSharedAdbServer();
+    }
+
+    @Test
+    void testDevicesExported() {
+        List<AndroidEmulatorContext> contexts = contexts(true, "emulator-5554", "emulator-5556");
+        Environment primary = mock(Environment.class);
+        Map<String, String> env = new HashMap<String, String>();
+
+        wrapper.new DevicesEnvironment(Arrays.asList(primary, mock(Environment.class)), contexts, null, null)
+                .buildEnvVars(env);
+
+        verify(primary).buildEnvVars(env);
+        assertEquals("emulator-5554,emulator-5556", env.get(Constants.ENV_VAR_ANDROID_AVD_DEVICES));
+        assertEquals("2", env.get(Constants.ENV_VAR_ANDROID_AVD_DEVICE_COUNT));
+        assertEquals("emulator-5554", env.get(Constants.ENV_VAR_ANDROID_AVD_DEVICE + "_0"));
+        assertEquals("emulator-5556", env.get(Constants.ENV_VAR_ANDROID_AVD_DEVICE + "_1"));
+    }
+
+    @Test
+    void testDeviceCountValidation() {
+        assertFalse(DescriptorImpl.checkDeviceCount("").isFatal());
+        assertFalse(DescriptorImpl.checkDeviceCount("1").isFatal());
+        assertFalse(DescriptorImpl.checkDeviceCount(" 4 ").isFatal());
+        assertTrue(DescriptorImpl.checkDeviceCount("0").isFatal());
+        assertTrue(DescriptorImpl.checkDeviceCount("-2").isFatal());
+        assertTrue(DescriptorImpl.checkDeviceCount("two").isFatal());
+    }
+
+    private static List<AndroidEmulatorContext> contexts(boolean shared, String... serials) {
+        AndroidEmulatorContext[] contexts = new AndroidEmulatorContext[serials.length];
+        for (int i = 0; i < serials.length; i++) {
+            contexts[i] = mock(AndroidEmulatorContext.class);
+            when(contexts[i].serial()).thenReturn(serials[i]);
+            when(contexts[i].isAdbServerShared()).thenReturn(shared);
+            when(contexts[i].sharesAdbServer()).thenReturn(i > 0);
+        }
+        return Arrays.asList(contexts);
+    }
+
+}
@@ -0,0 +1,108 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class ApkInstallRecordTest {
+
+    private static final String DIGEST = "3b2f1c";
+
+    private static final String PACKAGE_INFO =
+            "    versionCode=42 minSdk=21 targetSdk=33\n"
+            + "    lastUpdateTime=2024-01-02 03:04:05\n"
+            + "    signatures=PackageSignatures{%s version:2, signatures:[9fe3c8a1], past signatures:[]}\n";
+
+    @Test
+    void testMatchesUnchangedPackage() {
+        // Object identities in the signatures line differ between dumps, the signature hashes don't
+        ApkInstallRecord record = ApkInstallRecord.parse(output("30", DIGEST + "\n" + info("1a2b3c"), info("4d5e6f")));
+        assertEquals(30, record.getApiLevel());
+        assertTrue(record.matches(DIGEST));
+        assertFalse(record.matches("other"));
+    }
+
+    @Test
+    void testDoesNotMatchReplacedPackage() {
+        String replaced = info("1a2b3c").replace("2024-01-02", "2024-02-03");
+        assertFalse(ApkInstallRecord.parse(output("30", DIGEST + "\n" + info("1a2b3c"), replaced)).matches(DIGEST));
+
+        String resigned = info("1a2b3c").replace("9fe3c8a1", "7c0ffee");
+        assertFalse(ApkInstallRecord.parse(output("30", DIGEST + "\n" + info("1a2b3c"), resigned)).matches(DIGEST));
+    }
+
+    @Test
+    void testDoesNotMatchMissingPackageOrRecord() {
+        // Uninstalled since it was recorded
+        assertFalse(ApkInstallRecord.parse(output("30", DIGEST + "\n" + info("1a2b3c"), "")).matches(DIGEST));
+
+        // Installed by something else than this plugin
+        ApkInstallRecord record = ApkInstallRecord.parse(output("30", "", info("1a2b3c")));
+        assertFalse(record.matches(DIGEST));
+
+        // Device could not be queried at all
+        record = ApkInstallRecord.parse("");
+        assertEquals(0, record.getApiLevel());
+        assertFalse(record.matches(DIGEST));
+    }
+
+    @Test
+    void testInstallOptions() {
+        assertEquals("--incremental", ApkInstallRecord.parse(output("30", "", "")).getInstallOptions(true));
+        assertEquals("--streaming", ApkInstallRecord.parse(output("30", "", "")).getInstallOptions(false));
+        assertEquals("--streaming", ApkInstallRecord.parse(output("24", "", "")).getInstallOptions(true));
+        assertNull(ApkInstallRecord.parse(output("23", "", "")).getInstallOptions(true));
+        assertNull(ApkInstallRecord.parse("JENKINS_API_LEVEL \n").getInstallOptions(false));
+    }
+
+    @Test
+    void testInstallOptionUnsupported() {
+        // adb or the device doesn't know the install mode: a classic install may still work
+        assertTrue(ApkInstallRecord.isInstallOptionUnsupported("adb: unknown option --streaming\n"));
+        assertTrue(ApkInstallRecord.isInstallOptionUnsupported(
+                "Performing Incremental Install\nadb: Incremental install is not supported on this device\n"));
+        assertTrue(ApkInstallRecord.isInstallOptionUnsupported("Error: Unknown option: --streaming\r\n"));
+
+        // The package manager rejected the APK itself: installing it another way won't help
+        assertFalse(ApkInstallRecord.isInstallOptionUnsupported(
+                "Performing Streamed Install\nadb: failed to install app.apk: Failure [INSTALL_FAILED_OLDER_SDK: "
+                        + "Requires newer sdk version #33 (current version is #30)]\n"));
+        assertFalse(ApkInstallRecord.isInstallOptionUnsupported(
+                "Failure [INSTALL_PARSE_FAILED_NO_CERTIFICATES: Scanning Failed.: No signature found]\n"));
+        assertFalse(ApkInstallRecord.isInstallOptionUnsupported("adb: device offline\n"));
+    }
+
+    @Test
+    void testShellCommands() {
+        assertEquals(Arrays.asList(
+                "echo JENKINS_API_LEVEL $(getprop ro.build.version.sdk)",
+                "echo JENKINS_INSTALL_RECORD",
+                "cat /data/local/tmp/.jenkins-apk-com.example.app 2>/dev/null",
+                "echo JENKINS_PACKAGE_INFO",
+                "dumpsys package com.example.app | grep -E 'versionCode=|lastUpdateTime=|signatures'"),
+                ApkInstallRecord.getReadShellCommands("com.example.app"));
+        assertEquals(Collections.singletonList("echo JENKINS_API_LEVEL $(getprop ro.build.version.sdk)"),
+                ApkInstallRecord.getReadShellCommands(null));
+        assertEquals(Arrays.asList(
+                "echo " + DIGEST + " > /data/local/tmp/.jenkins-apk-com.example.app",
+                "dumpsys package com.example.app | grep -E 'versionCode=|lastUpdateTime=|signatures'"
+                        + " >> /data/local/tmp/.jenkins-apk-com.example.app"),
+                ApkInstallRecord.getWriteShellCommands("com.example.app", DIGEST));
+    }
+
+    private static String info(String identity) {
+        return String.format(PACKAGE_INFO, identity);
+    }
+
+    private static String output(String apiLevel, String record, String packageInfo) {
+        return "JENKINS_API_LEVEL " + apiLevel + "\r\nJENKINS_INSTALL_RECORD\n" + record
+                + "JENKINS_PACKAGE_INFO\n" + packageInfo;
+    }
+
+}
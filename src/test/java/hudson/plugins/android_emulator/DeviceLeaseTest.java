@@ -0,0 +1,90 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Run;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class DeviceLeaseTest {
+
+    @Test
+    void testParsePackages() {
+        assertEquals(new HashSet<String>(Arrays.asList("com.example.app", "com.example.app.test")),
+                DeviceLease.parsePackages("package:com.example.app\r\npackage:com.example.app.test\n\npackage:\n"));
+        assertTrue(DeviceLease.parsePackages("").isEmpty());
+        assertTrue(DeviceLease.parsePackages(null).isEmpty());
+    }
+
+    @Test
+    void testParseListedPackages() {
+        assertEquals(set("com.example.app"),
+                DeviceLease.parseListedPackages("package:com.example.app\nJENKINS_PACKAGES_LISTED\n"));
+        assertTrue(DeviceLease.parseListedPackages("JENKINS_PACKAGES_LISTED\r\n").isEmpty());
+
+        // Listing failed, e.g. as the package manager wasn't up yet, so the state of the device is unknown
+        assertNull(DeviceLease.parseListedPackages("Error: Could not access the Package Manager\n"));
+        assertNull(DeviceLease.parseListedPackages(""));
+    }
+
+    @Test
+    void testInstalledPackages() {
+        Run<?, ?> build = mockBuild("job#1");
+        assertNull(DeviceLease.get(build, "emulator-5554"));
+
+        DeviceLease.begin(build, "emulator-5554", set("com.preinstalled", "com.example.app"));
+        DeviceLease.recordInstall(build, "emulator-5554", "com.example.app");
+        DeviceLease lease = DeviceLease.get(build, "emulator-5554");
+
+        // Installed by a build step, or not there when the lease began
+        assertEquals(set("com.example.app", "com.example.other"),
+                lease.getInstalledPackages(set("com.preinstalled", "com.example.app", "com.example.other")));
+
+        // Unknown current state: only what the build steps installed
+        assertEquals(set("com.example.app"), lease.getInstalledPackages(null));
+
+        // Once reset, the remaining packages predate the next run
+        lease.restart(set("com.preinstalled"));
+        assertTrue(lease.getInstalledPackages(set("com.preinstalled")).isEmpty());
+
+        DeviceLease.end(build, "emulator-5554");
+        assertNull(DeviceLease.get(build, "emulator-5554"));
+    }
+
+    @Test
+    void testUnknownBaseline() {
+        Run<?, ?> build = mockBuild("job#2");
+        DeviceLease.begin(build, "emulator-5556", null);
+        DeviceLease.recordInstall(build, "emulator-5556", "com.example.app");
+
+        assertEquals(set("com.example.app"),
+                DeviceLease.get(build, "emulator-5556").getInstalledPackages(set("com.preinstalled", "com.example.app")));
+        DeviceLease.end(build, "emulator-5556");
+    }
+
+    @Test
+    void testInstallWithoutLease() {
+        Run<?, ?> build = mockBuild("job#3");
+        DeviceLease.recordInstall(build, "emulator-5558", "com.example.app");
+        assertNull(DeviceLease.get(build, "emulator-5558"));
+    }
+
+    private static Run<?, ?> mockBuild(String id) {
+        Run<?, ?> build = mock(Run.class);
+        when(build.getExternalizableId()).thenReturn(id);
+        return build;
+    }
+
+    private static Set<String> set(String... packages) {
+        return new HashSet<String>(Arrays.asList(packages));
+    }
+
+}
@@ -0,0 +1,91 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.plugins.android_emulator.sdk.Tool;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommand;
+import hudson.plugins.android_emulator.sdk.cli.SdkCliCommandFactory;
+import org.junit.jupiter.api.Test;
+
+class DevicePreparationTest {
+
+    @Test
+    void testEmpty() {
+        DevicePreparation preparation = new DevicePreparation(SdkCliCommandFactory.getAdbShellCommandForAPILevel(25));
+        assertTrue(preparation.isEmpty());
+        assertTrue(preparation.putSettings(null).putSettings(" \n ").isEmpty());
+    }
+
+    @Test
+    void testCommand() {
+        DevicePreparation preparation = new DevicePreparation(SdkCliCommandFactory.getAdbShellCommandForAPILevel(22))
+                .unlock()
+                .keepScreenOn();
+
+        SdkCliCommand command = preparation.getCommand("emulator-5554");
+        assertEquals(Tool.ADB, command.getTool());
+        assertEquals("-s emulator-5554 shell \"input keyevent 82; echo JENKINS_PREPARATION_STEP 0 $?; "
+                + "input keyevent 4; echo JENKINS_PREPARATION_STEP 1 $?; "
+                + "settings put global stay_on_while_plugged_in 7; echo JENKINS_PREPARATION_STEP 2 $?\"",
+                command.getArgs());
+    }
+
+    @Test
+    void testSteps() {
+        DevicePreparation preparation = new DevicePreparation(SdkCliCommandFactory.getAdbShellCommandForAPILevel(25))
+                .disableAnimations()
+                .disableImmersiveModeConfirmation()
+                .putSettings("global auto_time 0\r\n\nsystem screen_off_timeout 1800000\n");
+
+        assertEquals(6, preparation.getSteps().size());
+        assertEquals("settings put global window_animation_scale 0", preparation.getSteps().get(0).getShellCommand());
+        assertEquals("settings put global transition_animation_scale 0", preparation.getSteps().get(1).getShellCommand());
+        assertEquals("settings put global animator_duration_scale 0", preparation.getSteps().get(2).getShellCommand());
+        assertEquals("settings put secure immersive_mode_confirmations confirmed", preparation.getSteps().get(3).getShellCommand());
+        assertEquals("settings put global auto_time 0", preparation.getSteps().get(4).getShellCommand());
+        assertEquals("settings put system screen_off_timeout 1800000", preparation.getSteps().get(5).getShellCommand());
+    }
+
+    @Test
+    void testResetSteps() {
+        DevicePreparation preparation = new DevicePreparation(SdkCliCommandFactory.getAdbShellCommandForAPILevel(25))
+                .clearPackageData("com.example.app")
+                .uninstallPackage("com.example.app.test")
+                .clearSharedStorage();
+
+        assertEquals(3, preparation.getSteps().size());
+        assertEquals("pm clear com.example.app", preparation.getSteps().get(0).getShellCommand());
+        assertEquals("pm uninstall com.example.app.test", preparation.getSteps().get(1).getShellCommand());
+        assertEquals("rm -rf /data/local/tmp/*; for f in /sdcard/*; do [ \"$f\" = /sdcard/Android ] || rm -rf \"$f\"; done",
+                preparation.getSteps().get(2).getShellCommand());
+    }
+
+    @Test
+    void testParseResults() {
+        DevicePreparation preparation = new DevicePreparation(SdkCliCommandFactory.getAdbShellCommandForAPILevel(25))
+                .unlock()
+                .clearLog();
+
+        String output = "JENKINS_PREPARATION_STEP 0 0\r\n"
+                + "Error: unknown command\n"
+                + "JENKINS_PREPARATION_STEP 1 255\n"
+                + "JENKINS_PREPARATION_STEP 7 0\n";
+        assertArrayEquals(new Integer[] { 0, 255, null }, preparation.parseResults(output));
+    }
+
+    @Test
+    void testInvalidSettings() {
+        assertNull(DevicePreparation.getInvalidSetting("global auto_time 0\nsecure show_ime_with_hard_keyboard 1"));
+        assertEquals("global auto_time", DevicePreparation.getInvalidSetting("global auto_time"));
+        assertEquals("local auto_time 0", DevicePreparation.getInvalidSetting("local auto_time 0"));
+        assertEquals("global auto_time 0; reboot", DevicePreparation.getInvalidSetting("global auto_time 0; reboot"));
+        assertEquals("global auto_time $(reboot)", DevicePreparation.getInvalidSetting("global auto_time $(reboot)"));
+
+        DevicePreparation preparation = new DevicePreparation(SdkCliCommandFactory.getAdbShellCommandForAPILevel(25));
+        assertThrows(IllegalArgumentException.class, () -> preparation.putSettings("global auto_time \"0\""));
+    }
+}
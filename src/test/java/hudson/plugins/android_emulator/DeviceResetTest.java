@@ -0,0 +1,25 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import hudson.plugins.android_emulator.DeviceReset.Isolation;
+import hudson.plugins.android_emulator.DeviceReset.Strategy;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class DeviceResetTest {
+
+    @Test
+    void testStrategies() {
+        assertEquals(Arrays.asList(Strategy.values()), DeviceReset.getStrategies(Isolation.APP_DATA));
+        assertEquals(Arrays.asList(Strategy.UNINSTALL_APPS, Strategy.CLEAR_USER_DATA, Strategy.LOAD_SNAPSHOT,
+                Strategy.COLD_RESTART), DeviceReset.getStrategies(Isolation.APPS));
+        assertEquals(Arrays.asList(Strategy.CLEAR_USER_DATA, Strategy.LOAD_SNAPSHOT, Strategy.COLD_RESTART),
+                DeviceReset.getStrategies(Isolation.USER_DATA));
+        assertEquals(Arrays.asList(Strategy.LOAD_SNAPSHOT, Strategy.COLD_RESTART),
+                DeviceReset.getStrategies(Isolation.DEVICE));
+    }
+
+}
@@ -0,0 +1,97 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EmulatorReadinessTest {
+
+    private static final PrintStream LOGGER = new PrintStream(new ByteArrayOutputStream());
+
+    @TempDir
+    File workspace;
+
+    @Test
+    void testReadyFileHandshake() throws Exception {
+        AbstractBuild<?, ?> build = mockBuild("job#1");
+        FilePath readyFile = new FilePath(workspace).child(".android-emulator-5554.ready");
+        CountDownLatch booted = new CountDownLatch(1);
+
+        EmulatorReadiness readiness = EmulatorReadiness.start(build, "emulator-5554", readyFile, listener(), () -> {
+            booted.await();
+            return Result.SUCCESS;
+        });
+        assertFalse(readyFile.exists());
+
+        booted.countDown();
+        assertEquals(Result.SUCCESS, EmulatorReadiness.await(build, LOGGER));
+        assertEquals("ready", readyFile.readToString());
+
+        assertTrue(readiness.stop());
+        assertFalse(readyFile.exists());
+    }
+
+    @Test
+    void testFailedBootIsLeftToTheBuild() throws Exception {
+        AbstractBuild<?, ?> build = mockBuild("job#2");
+        FilePath readyFile = new FilePath(workspace).child(".android-emulator-5556.ready");
+
+        EmulatorReadiness readiness = EmulatorReadiness.start(build, "emulator-5556", readyFile, listener(),
+                () -> Result.NOT_BUILT);
+        assertEquals(Result.NOT_BUILT, EmulatorReadiness.await(build, LOGGER));
+        assertEquals("failed", readyFile.readToString());
+
+        // Only the build step waiting for the emulator, on the build thread, sets the result
+        verify(build, never()).setResult(any());
+        assertFalse(readiness.stop());
+    }
+
+    @Test
+    void testBootException() throws Exception {
+        AbstractBuild<?, ?> build = mockBuild("job#3");
+        FilePath readyFile = new FilePath(workspace).child(".android-emulator-5558.ready");
+
+        EmulatorReadiness readiness = EmulatorReadiness.start(build, "emulator-5558", readyFile, listener(), () -> {
+            throw new IOException("adb went away");
+        });
+        assertEquals(Result.FAILURE, EmulatorReadiness.await(build, LOGGER));
+        assertEquals("failed", readyFile.readToString());
+        assertFalse(readiness.stop());
+    }
+
+    @Test
+    void testNoEmulatorBooting() throws Exception {
+        assertEquals(Result.SUCCESS, EmulatorReadiness.await(mockBuild("job#4"), LOGGER));
+    }
+
+    static AbstractBuild<?, ?> mockBuild(String id) {
+        AbstractBuild<?, ?> build = mock(AbstractBuild.class);
+        when(build.getExternalizableId()).thenReturn(id);
+        return build;
+    }
+
+    static BuildListener listener() {
+        BuildListener listener = mock(BuildListener.class);
+        when(listener.getLogger()).thenReturn(LOGGER);
+        return listener;
+    }
+
+}
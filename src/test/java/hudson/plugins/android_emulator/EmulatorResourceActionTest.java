@@ -0,0 +1,51 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class EmulatorResourceActionTest {
+
+    @Test
+    void testSummary() {
+        EmulatorResourceAction usage = new EmulatorResourceAction("hudson_en-US_240_WVGA_android-28", 5);
+        usage.add(50, 800, 1024 * 1024);
+        usage.add(150, 1200, 3 * 1024 * 1024);
+        usage.add(100, 1000, 2 * 1024 * 1024);
+        usage.complete();
+
+        assertEquals(3, usage.getSampleCount());
+        assertEquals(15, usage.getDurationSecs());
+        assertEquals(100, usage.getAverageCpuPercent());
+        assertEquals(150, usage.getPeakCpuPercent());
+        assertEquals(1200, usage.getPeakRssMb());
+        assertEquals(3, usage.getIoMb());
+        assertEquals("0,67 50,0 100,34", usage.getCpuChartPoints());
+    }
+
+    @Test
+    void testSamplesAreMergedWhenFull() {
+        EmulatorResourceAction usage = new EmulatorResourceAction("test", 1);
+        for (int i = 0; i < EmulatorResourceAction.MAX_SAMPLES; i++) {
+            usage.add(i % 2 == 0 ? 0 : 100, i, 0);
+        }
+        assertEquals(EmulatorResourceAction.MAX_SAMPLES, usage.getSampleCount());
+        assertEquals(1, usage.getIntervalSecs());
+
+        usage.add(50, 1000, 0);
+        assertEquals(EmulatorResourceAction.MAX_SAMPLES / 2 + 1, usage.getSampleCount());
+        assertEquals(2, usage.getIntervalSecs());
+        assertEquals(50, usage.getPeakCpuPercent());
+        assertEquals(50, usage.getAverageCpuPercent());
+        assertEquals(1000, usage.getPeakRssMb());
+    }
+
+    @Test
+    void testSamplesAfterCompletionAreIgnored() {
+        EmulatorResourceAction usage = new EmulatorResourceAction("test", 1);
+        usage.complete();
+        usage.add(50, 1000, 0);
+        assertEquals(0, usage.getSampleCount());
+        assertEquals(0, usage.getPeakCpuPercent());
+    }
+}
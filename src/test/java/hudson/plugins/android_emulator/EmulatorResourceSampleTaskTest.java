@@ -0,0 +1,36 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class EmulatorResourceSampleTaskTest {
+
+    @Test
+    void testParseStat() {
+        String stat = "4242 (qemu-system-x86) S 4200 4200 4100 0 -1 4194560 83614 0 12 0 1523 377 0 0 20 0 5 0 8001 3829997568 239180";
+        assertArrayEquals(new long[] { 4200, 1523, 377 }, EmulatorResourceSampleTask.parseStat(stat));
+
+        // The command name may contain spaces and parentheses
+        stat = "17 (emulator (main)) R 1 17 17 0 -1 4194304 10 0 0 0 5 7 0 0 20 0 1 0 100 0 0";
+        assertArrayEquals(new long[] { 1, 5, 7 }, EmulatorResourceSampleTask.parseStat(stat));
+
+        assertNull(EmulatorResourceSampleTask.parseStat(null));
+        assertNull(EmulatorResourceSampleTask.parseStat("17 (emulator) R 1"));
+    }
+
+    @Test
+    void testParseField() {
+        String status = "Name:\tqemu-system-x86\nVmPeak:\t 4000000 kB\nVmRSS:\t  239180 kB\nThreads:\t5\n";
+        assertEquals(239180, EmulatorResourceSampleTask.parseField(status, "VmRSS:"));
+        assertEquals(5, EmulatorResourceSampleTask.parseField(status, "Threads:"));
+        assertEquals(0, EmulatorResourceSampleTask.parseField(status, "VmSwap:"));
+        assertEquals(0, EmulatorResourceSampleTask.parseField(null, "VmRSS:"));
+
+        String io = "rchar: 100\nwchar: 200\nread_bytes: 4096\nwrite_bytes: 8192\n";
+        assertEquals(4096, EmulatorResourceSampleTask.parseField(io, "read_bytes:"));
+        assertEquals(8192, EmulatorResourceSampleTask.parseField(io, "write_bytes:"));
+    }
+}
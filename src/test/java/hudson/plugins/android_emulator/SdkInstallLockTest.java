@@ -0,0 +1,162 @@
+package hudson.plugins.android_emulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SdkInstallLockTest {
+
+    private static final PrintStream LOGGER = new PrintStream(new ByteArrayOutputStream());
+
+    @TempDir
+    File sdkRoot;
+
+    private ExecutorService executor;
+    private VirtualChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        channel = new LocalChannel(executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testLockFileName() {
+        assertEquals("system-images_android-24_default_x86.lock",
+                SdkInstallLock.getLockFileName("system-images;android-24;default;x86"));
+        assertEquals("platform-tools.lock", SdkInstallLock.getLockFileName("platform-tools"));
+        assertEquals("Google_Inc._Google_APIs_10.lock", SdkInstallLock.getLockFileName("Google Inc.:Google APIs:10"));
+    }
+
+    @Test
+    void testIndependentComponentsDoNotBlock() throws Exception {
+        try (SdkInstallLock lock = acquire("platforms;android-24")) {
+            Future<?> other = executor.submit(() -> {
+                acquire("platforms;android-25").close();
+                return null;
+            });
+            other.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(new File(sdkRoot, ".jenkins-install-locks/platforms_android-24.lock").exists());
+    }
+
+    @Test
+    void testSameComponentBlocksAndSharesInstall() throws Exception {
+        final Future<Boolean> waiter;
+        try (SdkInstallLock lock = acquire("platforms;android-24")) {
+            waiter = executor.submit(() -> {
+                try (SdkInstallLock other = acquire("platforms;android-24")) {
+                    return other.wasInstalledMeanwhile("platforms;android-24");
+                }
+            });
+            assertBlocked(waiter);
+            assertFalse(lock.wasInstalledMeanwhile("platforms;android-24"));
+            lock.markInstalled();
+        }
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+
+        // A later request doesn't know whether the component has been removed since
+        try (SdkInstallLock lock = acquire("platforms;android-24")) {
+            assertFalse(lock.wasInstalledMeanwhile("platforms;android-24"));
+        }
+    }
+
+    @Test
+    void testBaseSdkInstallExcludesComponentInstalls() throws Exception {
+        final Future<?> component;
+        try (SdkInstallLock lock = acquire(SdkInstallLock.BASE_SDK)) {
+            component = executor.submit(() -> {
+                acquire("platforms;android-24").close();
+                return null;
+            });
+            assertBlocked(component);
+        }
+        component.get(10, TimeUnit.SECONDS);
+
+        final Future<?> base;
+        try (SdkInstallLock lock = acquire("platforms;android-24")) {
+            base = executor.submit(() -> {
+                acquire(SdkInstallLock.BASE_SDK).close();
+                return null;
+            });
+            assertBlocked(base);
+        }
+        base.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testBaseSdkInstallCanInstallComponents() throws Exception {
+        try (SdkInstallLock lock = acquire(SdkInstallLock.BASE_SDK)) {
+            acquire("platform-tools").close();
+        }
+    }
+
+    @Test
+    void testFailedFileLockDoesNotReleaseOtherHolders() throws Exception {
+        // Locking the base SDK file fails for the second build, while releasing works
+        final AtomicBoolean failNextCall = new AtomicBoolean(true);
+        final VirtualChannel failingChannel = mock(VirtualChannel.class);
+        doAnswer(invocation -> {
+            if (failNextCall.getAndSet(false)) {
+                throw new IOException("Agent went away");
+            }
+            return channel.call(invocation.getArgument(0));
+        }).when(failingChannel).call(any());
+
+        final Future<?> base;
+        try (SdkInstallLock lock = acquire("platforms;android-24")) {
+            assertThrows(IOException.class, () -> SdkInstallLock.acquire(LOGGER, failingChannel, "agent",
+                    sdkRoot.getPath(), Collections.singletonList("platforms;android-25")));
+
+            // The first build still holds the base SDK lock file, e.g. for another controller using this agent
+            base = executor.submit(() -> {
+                SdkInstallLock.acquire(LOGGER, channel, "other-controller", sdkRoot.getPath(),
+                        Collections.singletonList(SdkInstallLock.BASE_SDK)).close();
+                return null;
+            });
+            assertBlocked(base);
+        }
+        base.get(10, TimeUnit.SECONDS);
+    }
+
+    private SdkInstallLock acquire(String component) throws Exception {
+        return SdkInstallLock.acquire(LOGGER, channel, "agent", sdkRoot.getPath(), Collections.singletonList(component));
+    }
+
+    private static void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return;
+        }
+        throw new AssertionError("Lock was acquired concurrently");
+    }
+}
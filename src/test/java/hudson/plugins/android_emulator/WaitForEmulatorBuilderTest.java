@@ -0,0 +1,57 @@
+package hudson.plugins.android_emulator;
+
+import static hudson.plugins.android_emulator.EmulatorReadinessTest.listener;
+import static hudson.plugins.android_emulator.EmulatorReadinessTest.mockBuild;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WaitForEmulatorBuilderTest {
+
+    @TempDir
+    File workspace;
+
+    @Test
+    void testWaitsForReadyEmulator() throws Exception {
+        AbstractBuild<?, ?> build = mockBuild("job#10");
+        EmulatorReadiness readiness = EmulatorReadiness.start(build, "emulator-5554",
+                new FilePath(workspace).child("ready"), listener(), () -> {
+                    Thread.sleep(200);
+                    return Result.SUCCESS;
+                });
+
+        assertTrue(new WaitForEmulatorBuilder().perform(build, null, listener()));
+        verify(build, never()).setResult(any());
+        readiness.stop();
+    }
+
+    @Test
+    void testSetsResultOfFailedBoot() throws Exception {
+        AbstractBuild<?, ?> build = mockBuild("job#11");
+        EmulatorReadiness readiness = EmulatorReadiness.start(build, "emulator-5554",
+                new FilePath(workspace).child("ready"), listener(), () -> Result.NOT_BUILT);
+
+        assertFalse(new WaitForEmulatorBuilder().perform(build, null, listener()));
+        verify(build).setResult(Result.NOT_BUILT);
+        readiness.stop();
+    }
+
+    @Test
+    void testNoEmulator() throws Exception {
+        AbstractBuild<?, ?> build = mockBuild("job#12");
+
+        assertTrue(new WaitForEmulatorBuilder().perform(build, null, listener()));
+        verify(build, never()).setResult(any());
+    }
+
+}
@@ -0,0 +1,136 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class InstrumentationResultParserTest {
+
+    private final List<TestResult> results = new ArrayList<TestResult>();
+    private final List<String> failures = new ArrayList<String>();
+    private long time;
+
+    private final InstrumentationResultParser parser = new InstrumentationResultParser(
+            new InstrumentationResultParser.Listener() {
+                @Override
+                public void testEnded(TestResult result) {
+                    results.add(result);
+                }
+
+                @Override
+                public void runFailed(String message) {
+                    failures.add(message);
+                }
+            }, () -> time);
+
+    @Test
+    void testPassingAndFailingTests() {
+        startTest("com.example.FooTest", "testOne");
+        time = 250;
+        endTest("com.example.FooTest", "testOne", 0);
+
+        startTest("com.example.FooTest", "testTwo");
+        parser.addLine("INSTRUMENTATION_STATUS: class=com.example.FooTest");
+        parser.addLine("INSTRUMENTATION_STATUS: test=testTwo");
+        parser.addLine("INSTRUMENTATION_STATUS: stack=java.lang.AssertionError: expected:<1> but was:<2>");
+        parser.addLine("\tat org.junit.Assert.fail(Assert.java:88)");
+        parser.addLine("");
+        time = 400;
+        parser.addLine("INSTRUMENTATION_STATUS_CODE: -2");
+
+        parser.addLine("INSTRUMENTATION_RESULT: stream=");
+        parser.addLine("Tests run: 2,  Failures: 1");
+        parser.addLine("INSTRUMENTATION_CODE: -1");
+        parser.done();
+
+        assertEquals(2, results.size());
+        assertEquals("com.example.FooTest#testOne", results.get(0).getId());
+        assertEquals(TestResult.Status.PASSED, results.get(0).getStatus());
+        assertEquals(250, results.get(0).getDurationMs());
+        assertNull(results.get(0).getStack());
+
+        assertEquals(TestResult.Status.FAILED, results.get(1).getStatus());
+        assertEquals(150, results.get(1).getDurationMs());
+        assertEquals("java.lang.AssertionError: expected:<1> but was:<2>\n\tat org.junit.Assert.fail(Assert.java:88)\n",
+                results.get(1).getStack());
+
+        assertEquals(2, parser.getTestCount());
+        assertTrue(parser.isComplete());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    void testSkippedTests() {
+        startTest("com.example.FooTest", "testIgnored");
+        endTest("com.example.FooTest", "testIgnored", -3);
+        startTest("com.example.FooTest", "testAssumption");
+        endTest("com.example.FooTest", "testAssumption", -4);
+
+        assertEquals(TestResult.Status.IGNORED, results.get(0).getStatus());
+        assertEquals(TestResult.Status.ASSUMPTION_FAILURE, results.get(1).getStatus());
+        assertFalse(results.get(0).getStatus().isFailure());
+        assertFalse(results.get(1).getStatus().isFailure());
+    }
+
+    @Test
+    void testCrashDuringTest() {
+        startTest("com.example.FooTest", "testCrash");
+        time = 100;
+        parser.addLine("INSTRUMENTATION_RESULT: shortMsg=Process crashed.");
+        parser.addLine("INSTRUMENTATION_CODE: 0");
+        parser.done();
+
+        assertEquals(1, results.size());
+        assertEquals("com.example.FooTest#testCrash", results.get(0).getId());
+        assertEquals(TestResult.Status.ERROR, results.get(0).getStatus());
+        assertEquals("Process crashed.", results.get(0).getStack());
+        assertEquals(100, results.get(0).getDurationMs());
+        assertFalse(parser.isComplete());
+        assertEquals(1, failures.size());
+        assertEquals("Process crashed.", failures.get(0));
+    }
+
+    @Test
+    void testTruncatedOutput() {
+        startTest("com.example.FooTest", "testOne");
+        endTest("com.example.FooTest", "testOne", 0);
+        parser.done();
+
+        assertEquals(1, results.size());
+        assertFalse(parser.isComplete());
+        assertEquals(1, failures.size());
+    }
+
+    @Test
+    void testInstrumentationFailed() {
+        parser.addLine("INSTRUMENTATION_FAILED: com.example.test/androidx.test.runner.AndroidJUnitRunner");
+        parser.addLine("INSTRUMENTATION_STATUS: Error=Unable to find instrumentation info");
+        parser.addLine("INSTRUMENTATION_STATUS_CODE: -1");
+        parser.done();
+
+        assertTrue(results.isEmpty());
+        assertFalse(parser.isComplete());
+        assertEquals(1, failures.size());
+    }
+
+    private void startTest(String className, String testName) {
+        parser.addLine("INSTRUMENTATION_STATUS: class=" + className);
+        parser.addLine("INSTRUMENTATION_STATUS: current=1");
+        parser.addLine("INSTRUMENTATION_STATUS: id=AndroidJUnitRunner");
+        parser.addLine("INSTRUMENTATION_STATUS: test=" + testName);
+        parser.addLine("INSTRUMENTATION_STATUS_CODE: 1");
+    }
+
+    private void endTest(String className, String testName, int code) {
+        parser.addLine("INSTRUMENTATION_STATUS: class=" + className);
+        parser.addLine("INSTRUMENTATION_STATUS: test=" + testName);
+        parser.addLine("INSTRUMENTATION_STATUS_CODE: " + code);
+    }
+
+}
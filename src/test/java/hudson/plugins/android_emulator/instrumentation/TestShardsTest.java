@@ -0,0 +1,72 @@
+package hudson.plugins.android_emulator.instrumentation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestShardsTest {
+
+    @Test
+    void testSplitBalancesDurations() {
+        Map<String, List<String>> tests = new LinkedHashMap<String, List<String>>();
+        tests.put("A", Arrays.asList("A#1", "A#2"));
+        tests.put("B", Arrays.asList("B#1"));
+        tests.put("C", Arrays.asList("C#1"));
+        tests.put("D", Arrays.asList("D#1"));
+
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("A#1", 300L);
+        durations.put("A#2", 300L);
+        durations.put("B#1", 500L);
+        durations.put("C#1", 100L);
+        durations.put("D#1", 50L);
+
+        List<List<String>> shards = TestShards.split(tests, durations, 2);
+        assertEquals(Arrays.asList(Arrays.asList("A", "D"), Arrays.asList("B", "C")), shards);
+    }
+
+    @Test
+    void testSplitUnknownTestsTakeAverageDuration() {
+        Map<String, List<String>> tests = new LinkedHashMap<String, List<String>>();
+        tests.put("Known", Arrays.asList("Known#1"));
+        tests.put("New", Arrays.asList("New#1", "New#2", "New#3"));
+
+        List<List<String>> shards = TestShards.split(tests, Collections.singletonMap("Known#1", 1000L), 2);
+        assertEquals(Arrays.asList(Arrays.asList("New"), Arrays.asList("Known")), shards);
+    }
+
+    @Test
+    void testSplitMoreShardsThanClasses() {
+        Map<String, List<String>> tests = Collections.singletonMap("A", Arrays.asList("A#1"));
+
+        List<List<String>> shards = TestShards.split(tests, Collections.<String, Long>emptyMap(), 3);
+        assertEquals(3, shards.size());
+        assertEquals(Arrays.asList("A"), shards.get(0));
+        assertTrue(shards.get(1).isEmpty());
+        assertTrue(shards.get(2).isEmpty());
+    }
+
+    @Test
+    void testSaveAndLoad(@TempDir File dir) throws Exception {
+        File file = new File(dir, "durations.properties");
+        assertTrue(TestShards.load(file).isEmpty());
+
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("com.example.FooTest#testOne", 1234L);
+        durations.put("com.example.FooTest#testTwo", 0L);
+        TestShards.save(file, durations);
+
+        assertEquals(durations, TestShards.load(file));
+    }
+
+}
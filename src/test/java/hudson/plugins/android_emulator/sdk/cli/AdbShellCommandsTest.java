@@ -2,6 +2,9 @@ package hudson.plugins.android_emulator.sdk.cli;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import hudson.plugins.android_emulator.constants.AndroidKeyEvent;
 import hudson.plugins.android_emulator.sdk.Tool;
 import org.junit.jupiter.api.Test;
@@ -102,6 +105,16 @@ class AdbShellCommandsTest {
                 SdkCliCommandFactory.getAdbShellCommandForAPILevel(3).getDismissKeyguardCommand(null));
     }
 
+    @Test
+    void testAdbBatchShellCommand() {
+        assertAdbShellCommand("-s dummyId shell \"wm dismiss-keyguard; input keyevent 4\"",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(25).getBatchShellCommand("dummyId",
+                        Arrays.asList("wm dismiss-keyguard", "input keyevent 4")));
+        assertAdbShellCommand("shell \"echo \\\"a b\\\"\"",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(22).getBatchShellCommand(null,
+                        Collections.singletonList("echo \"a b\"")));
+    }
+
     @Test
     void testAdbMonkeyCommand() {
         assertAdbShellCommand("-s dummyId shell monkey -v -v -s 28640 --throttle 0 --dbg-no-events --ignore-crashes 1",
@@ -112,6 +125,23 @@ class AdbShellCommandsTest {
                 SdkCliCommandFactory.getAdbShellCommandForAPILevel( 3).getMonkeyInputCommand("xid", 73, 333, "--monitor-native-crashes", 33));
     }
 
+    @Test
+    void testListThirdPartyPackagesCommand() {
+        assertAdbShellCommand("-s emulator-5554 shell pm list packages -3",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(25).getListThirdPartyPackagesCommand("emulator-5554"));
+        assertAdbShellCommand("shell pm list packages -3",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(3).getListThirdPartyPackagesCommand(null));
+    }
+
+    @Test
+    void testInstrumentCommand() {
+        assertAdbShellCommand("-s emulator-5554 shell am instrument -r -w -e class com.example.FooTest com.example.test/androidx.test.runner.AndroidJUnitRunner",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(25).getInstrumentCommand("emulator-5554",
+                        "-e class com.example.FooTest com.example.test/androidx.test.runner.AndroidJUnitRunner"));
+        assertAdbShellCommand("shell am instrument -r -w -e log true com.example.test/.Runner",
+                SdkCliCommandFactory.getAdbShellCommandForAPILevel(22).getInstrumentCommand(null, "-e log true com.example.test/.Runner"));
+    }
+
     @Test
     void testWithoutDeviceIdentifier() {
         assertAdbShellCommand("shell ps", SdkCliCommandFactory.getAdbShellCommandForAPILevel(25).getListProcessesCommand(null));
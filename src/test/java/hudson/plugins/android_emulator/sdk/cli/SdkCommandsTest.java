@@ -297,6 +297,21 @@ class SdkCommandsTest {
         assertEquals("install -r \"dummy.id\"", adbInstallPkgCmdV04.getArgs());
     }
 
+    @Test
+    void testAdbInstallPackageCommandWithOptions() {
+        final SdkCliCommand adbStreamedInstallCmd = SdkCliCommandFactory.getCommandsForSdk("25.3")
+                .getAdbInstallPackageCommand("emulator-5554", "app.apk", "--streaming");
+        final SdkCliCommand adbIncrementalInstallCmd = SdkCliCommandFactory.getCommandsForSdk("17")
+                .getAdbInstallPackageCommand(null, "app.apk", "--incremental");
+        final SdkCliCommand adbPlainInstallCmd = SdkCliCommandFactory.getCommandsForSdk("25.3")
+                .getAdbInstallPackageCommand("emulator-5554", "app.apk", "");
+
+        assertEquals(Tool.ADB, adbStreamedInstallCmd.getTool());
+        assertEquals("-s emulator-5554 install -r --streaming \"app.apk\"", adbStreamedInstallCmd.getArgs());
+        assertEquals("install -r --incremental \"app.apk\"", adbIncrementalInstallCmd.getArgs());
+        assertEquals("-s emulator-5554 install -r \"app.apk\"", adbPlainInstallCmd.getArgs());
+    }
+
     @Test
     void testAdbUninstallPackageCommand() {
         final SdkCliCommand adbUninstallPkgCmdV25_3 = SdkCliCommandFactory.getCommandsForSdk("25.3").getAdbUninstallPackageCommand("dummyId", "org.test.package");
@@ -424,6 +439,42 @@ class SdkCommandsTest {
         assertEquals("kill-server", adbKillServerCmdV04.getArgs());
     }
 
+    @Test
+    void testAdbGetStateCommand() {
+        final SdkCliCommand adbGetStateCmdV25_3 = SdkCliCommandFactory.getCommandsForSdk("25.3").getAdbGetStateCommand("emulator-5554");
+        final SdkCliCommand adbGetStateCmdV04 = SdkCliCommandFactory.getCommandsForSdk("4").getAdbGetStateCommand(null);
+
+        assertEquals(Tool.ADB, adbGetStateCmdV25_3.getTool());
+        assertEquals(Tool.ADB, adbGetStateCmdV04.getTool());
+
+        assertEquals("-s emulator-5554 get-state", adbGetStateCmdV25_3.getArgs());
+        assertEquals("get-state", adbGetStateCmdV04.getArgs());
+    }
+
+    @Test
+    void testAdbBugReportCommand() {
+        final SdkCliCommand adbBugReportCmdV25_3 = SdkCliCommandFactory.getCommandsForSdk("25.3").getAdbBugReportCommand("emulator-5554", "/tmp/bugreport.zip");
+        final SdkCliCommand adbBugReportCmdV17 = SdkCliCommandFactory.getCommandsForSdk("17").getAdbBugReportCommand("", "report.zip");
+
+        assertEquals(Tool.ADB, adbBugReportCmdV25_3.getTool());
+        assertEquals(Tool.ADB, adbBugReportCmdV17.getTool());
+
+        assertEquals("-s emulator-5554 bugreport \"/tmp/bugreport.zip\"", adbBugReportCmdV25_3.getArgs());
+        assertEquals("bugreport \"report.zip\"", adbBugReportCmdV17.getArgs());
+    }
+
+    @Test
+    void testAdbRebootCommand() {
+        final SdkCliCommand adbRebootCmdV25_3 = SdkCliCommandFactory.getCommandsForSdk("25.3").getAdbRebootCommand("emulator-5554");
+        final SdkCliCommand adbRebootCmdV17 = SdkCliCommandFactory.getCommandsForSdk("17").getAdbRebootCommand(null);
+
+        assertEquals(Tool.ADB, adbRebootCmdV25_3.getTool());
+        assertEquals(Tool.ADB, adbRebootCmdV17.getTool());
+
+        assertEquals("-s emulator-5554 reboot", adbRebootCmdV25_3.getArgs());
+        assertEquals("reboot", adbRebootCmdV17.getArgs());
+    }
+
     @Test
     void testUpdateProjectCommand() {
         final SdkCliCommand updateProjectCmdV25_3 = SdkCliCommandFactory.getCommandsForSdk("25.3").getUpdateProjectCommand("proj1");
@@ -0,0 +1,42 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import hudson.plugins.android_emulator.util.AdbCommandMetrics.Entry;
+import hudson.plugins.android_emulator.util.AdbCommandMetrics.Outcome;
+
+class AdbCommandMetricsTest {
+
+    @Test
+    void testGetCommandType() {
+        assertEquals("start-server", AdbCommandMetrics.getCommandType("start-server"));
+        assertEquals("kill-server", AdbCommandMetrics.getCommandType(" kill-server "));
+        assertEquals("shell logcat", AdbCommandMetrics.getCommandType("-s emulator-5554 shell logcat -c"));
+        assertEquals("shell getprop", AdbCommandMetrics.getCommandType("-s emulator-5554 wait-for-device shell getprop init.svc.bootanim"));
+        assertEquals("shell getprop", AdbCommandMetrics.getCommandType("wait-for-device shell getprop dev.bootcomplete"));
+        assertEquals("install", AdbCommandMetrics.getCommandType("-P 5037 -s emulator-5554 install -r app.apk"));
+        assertEquals("shell", AdbCommandMetrics.getCommandType("-e shell"));
+        assertEquals("", AdbCommandMetrics.getCommandType(null));
+    }
+
+    @Test
+    void testRecord() {
+        AdbCommandMetrics metrics = new AdbCommandMetrics();
+        assertNull(metrics.get("shell logcat"));
+
+        metrics.record("shell logcat", 100, Outcome.SUCCESS, 0);
+        metrics.record("shell logcat", 300, Outcome.FAILURE, 2);
+        metrics.record("shell logcat", 200, Outcome.TIMEOUT, 1);
+
+        Entry entry = metrics.get("shell logcat");
+        assertEquals(3, entry.getCount());
+        assertEquals(1, entry.getFailures());
+        assertEquals(1, entry.getTimeouts());
+        assertEquals(3, entry.getRetries());
+        assertEquals(600, entry.getTotalMs());
+        assertEquals(300, entry.getMaxMs());
+    }
+}
@@ -0,0 +1,112 @@
+package hudson.plugins.android_emulator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import hudson.plugins.android_emulator.sdk.AndroidSdk;
+import hudson.remoting.LocalChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+class AndroidSdkCacheTest {
+
+    @TempDir
+    File sdkRoot;
+
+    private ExecutorService executor;
+    private LocalChannel channel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        channel = new LocalChannel(executor);
+        new File(sdkRoot, "tools").mkdirs();
+        writeToolsVersion("26.1.1");
+    }
+
+    @AfterEach
+    void tearDown() {
+        AndroidSdkCache.invalidate(channel);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testCachedWithinCheckInterval() throws Exception {
+        CountingDiscovery discovery = new CountingDiscovery(sdkRoot.getAbsolutePath());
+        List<String> key = Arrays.asList("a");
+
+        AndroidSdk sdk = AndroidSdkCache.get(channel, key, discovery, 60000);
+        assertEquals("26.1.1", sdk.getSdkToolsVersion());
+        assertSame(sdk, AndroidSdkCache.get(channel, key, discovery, 60000));
+        assertEquals(1, discovery.count.get());
+
+        AndroidSdkCache.get(channel, Arrays.asList("b"), discovery, 60000);
+        assertEquals(2, discovery.count.get());
+    }
+
+    @Test
+    void testDiscoveredAgainWhenSourcePropertiesChange() throws Exception {
+        CountingDiscovery discovery = new CountingDiscovery(sdkRoot.getAbsolutePath());
+        List<String> key = Arrays.asList("a");
+
+        AndroidSdk sdk = AndroidSdkCache.get(channel, key, discovery, 0);
+        assertSame(sdk, AndroidSdkCache.get(channel, key, discovery, 0));
+        assertEquals(1, discovery.count.get());
+
+        writeToolsVersion("26.1.2");
+        File properties = new File(sdkRoot, "tools/source.properties");
+        properties.setLastModified(properties.lastModified() - 10000);
+
+        AndroidSdk updated = AndroidSdkCache.get(channel, key, discovery, 0);
+        assertNotSame(sdk, updated);
+        assertEquals("26.1.2", updated.getSdkToolsVersion());
+        assertEquals(2, discovery.count.get());
+    }
+
+    @Test
+    void testFailedDiscoveryIsNotCached() throws Exception {
+        CountingDiscovery discovery = new CountingDiscovery(null);
+        List<String> key = Arrays.asList("a");
+
+        assertNull(AndroidSdkCache.get(channel, key, discovery, 60000));
+        assertNull(AndroidSdkCache.get(channel, key, discovery, 60000));
+        assertEquals(2, discovery.count.get());
+    }
+
+    private void writeToolsVersion(String version) throws IOException {
+        Files.write(new File(sdkRoot, "tools/source.properties").toPath(),
+                ("Pkg.Revision=" + version + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class CountingDiscovery extends MasterToSlaveCallable<AndroidSdk, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String root;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private CountingDiscovery(String root) {
+            this.root = root;
+        }
+
+        public AndroidSdk call() throws IOException {
+            count.incrementAndGet();
+            return root == null ? null : new AndroidSdk(root, null);
+        }
+    }
+}
@@ -6,7 +6,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -348,6 +352,46 @@ class UtilsTest {
         assertEnvironmentNoAudioDriverSetting(Utils.getEnvironmentVarsFromEmulatorArgs(null));
     }
 
+    @Test
+    void testEmulatorCommandReply() throws Exception {
+        assertTrue(sendToConsole("avd snapshot load jenkins", "OK"));
+        assertTrue(sendToConsole("ping", "I am alive!\r\nOK"));
+        assertFalse(sendToConsole("avd snapshot load jenkins", "KO: snapshot 'jenkins' does not exist"));
+        assertFalse(sendToConsole("avd snapshot load jenkins", ""));
+        assertTrue(sendToConsole("kill", ""));
+    }
+
+    /**
+     * Sends a command to a fake emulator console, which replies with the given text.
+     *
+     * @return Whether the command is considered to have succeeded.
+     */
+    private static boolean sendToConsole(String command, String reply) throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread console = new Thread(() -> {
+                try (Socket socket = server.accept();
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                        PrintWriter out = new PrintWriter(socket.getOutputStream())) {
+                    out.print("Android Console: type 'help' for a list of commands\r\nOK\r\n");
+                    out.flush();
+                    assertEquals(command, in.readLine());
+                    if (!reply.isEmpty()) {
+                        out.print(reply + "\r\n");
+                    }
+                    out.flush();
+                    assertEquals("quit", in.readLine());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            console.start();
+            boolean result = new Utils.EmulatorCommandTask(server.getLocalPort(), command).call();
+            console.join();
+            return result;
+        }
+    }
+
     /**
      * Checks if given {@code EnvVars} contain 'QEMU_AUDIO_DRV=none' which would disable audio
      *
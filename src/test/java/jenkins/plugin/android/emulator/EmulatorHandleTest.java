@@ -0,0 +1,73 @@
+package jenkins.plugin.android.emulator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+
+class EmulatorHandleTest {
+
+    @Test
+    void test_timed_out_wait_does_not_fail_the_boot() throws Exception {
+        CountDownLatch booted = new CountDownLatch(1);
+        EmulatorHandle handle = boot(booted, null);
+
+        CompletableFuture<Void> impatient = handle.whenBooted().orTimeout(100, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> patient = handle.whenBooted();
+        assertThatThrownBy(() -> impatient.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(TimeoutException.class);
+        assertThat(patient).isNotDone();
+
+        booted.countDown();
+        patient.get(10, TimeUnit.SECONDS);
+        assertThat(handle.whenBooted()).isCompleted();
+    }
+
+    @Test
+    void test_boot_failure() throws Exception {
+        EmulatorHandle handle = boot(new CountDownLatch(0), new IOException("no space left"));
+
+        assertThatThrownBy(() -> handle.whenBooted().get(10, TimeUnit.SECONDS)) //
+                .isInstanceOf(ExecutionException.class) //
+                .hasRootCauseMessage("no space left");
+    }
+
+    @Test
+    void test_boot_lost_after_restart() {
+        EmulatorHandle handle = new EmulatorHandle("agent", "/opt/sdk/platform-tools/adb", 5037, "emulator-5554");
+
+        assertThatThrownBy(() -> handle.whenBooted().get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(AbortException.class);
+    }
+
+    private static EmulatorHandle boot(CountDownLatch booted, Exception failure) throws Exception {
+        EmulatorRunner runner = mock(EmulatorRunner.class);
+        if (failure != null) {
+            doThrow(failure).when(runner).run(any(), any(), any());
+        } else {
+            doAnswer(invocation -> {
+                booted.await();
+                return null;
+            }).when(runner).run(any(), any(), any());
+        }
+
+        EmulatorHandle handle = new EmulatorHandle("agent", "/opt/sdk/platform-tools/adb", 5037, "emulator-5554");
+        handle.boot(runner, new FilePath(new File("workspace")), TaskListener.NULL, new EnvVars());
+        return handle;
+    }
+}
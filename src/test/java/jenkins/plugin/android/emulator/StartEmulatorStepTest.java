@@ -0,0 +1,78 @@
+package jenkins.plugin.android.emulator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+
+class StartEmulatorStepTest {
+
+    @Test
+    void test_shutdown_completes_with_the_block_result() throws Exception {
+        EmulatorHandle handle = mock(EmulatorHandle.class);
+        StepContext context = context();
+
+        new StartEmulatorStep.Shutdown(handle, new EnvVars()).onSuccess(context, "result");
+
+        verify(context, timeout(10000)).onSuccess("result");
+        verify(handle).kill(any(TaskListener.class), any(EnvVars.class));
+    }
+
+    @Test
+    void test_shutdown_failure_fails_the_step() throws Exception {
+        EmulatorHandle handle = mock(EmulatorHandle.class);
+        doThrow(new InterruptedException()).when(handle).kill(any(), any());
+        StepContext context = context();
+
+        new StartEmulatorStep.Shutdown(handle, new EnvVars()).onSuccess(context, null);
+
+        verify(context, timeout(10000)).onFailure(any(InterruptedException.class));
+    }
+
+    @Test
+    void test_shutdown_keeps_the_block_failure() throws Exception {
+        EmulatorHandle handle = mock(EmulatorHandle.class);
+        doThrow(new InterruptedException()).when(handle).kill(any(), any());
+        StepContext context = context();
+        AbortException failure = new AbortException("tests failed");
+
+        new StartEmulatorStep.Shutdown(handle, new EnvVars()).onFailure(context, failure);
+
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(context, timeout(10000)).onFailure(error.capture());
+        assertThat(error.getValue()).isSameAs(failure);
+        assertThat(failure.getSuppressed()).hasOnlyElementsOfType(InterruptedException.class);
+    }
+
+    @Test
+    void test_stop_during_launch_completes_the_step_once() throws Exception {
+        StepContext context = context();
+        AbortException cause = new AbortException("aborted");
+        StartEmulatorStep.Execution execution = new StartEmulatorStep.Execution(new StartEmulatorStep(null, "10", "480", "1080x1920"), context);
+
+        execution.stop(cause);
+        // the launch in progress fails once it sees no workspace
+        execution.launch();
+
+        verify(context, times(1)).onFailure(any(Throwable.class));
+        verify(context).onFailure(cause);
+    }
+
+    private static StepContext context() throws Exception {
+        StepContext context = mock(StepContext.class);
+        when(context.get(TaskListener.class)).thenReturn(TaskListener.NULL);
+        return context;
+    }
+}
@@ -0,0 +1,63 @@
+package jenkins.plugin.android.emulator;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.junit.jupiter.api.Test;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+
+class WaitForEmulatorStepTest {
+
+    @Test
+    void test_timeout_does_not_fail_other_waits() throws Exception {
+        CountDownLatch booted = new CountDownLatch(1);
+        EmulatorRunner runner = mock(EmulatorRunner.class);
+        doAnswer(invocation -> {
+            booted.await();
+            return null;
+        }).when(runner).run(any(), any(), any());
+        EmulatorHandle handle = new EmulatorHandle("agent", "/opt/sdk/platform-tools/adb", 5037, "emulator-5554");
+        handle.boot(runner, new FilePath(new File("workspace")), TaskListener.NULL, new EnvVars());
+
+        WaitForEmulatorStep impatient = new WaitForEmulatorStep();
+        impatient.setTimeout(1);
+        StepContext impatientContext = context(handle);
+        impatient.start(impatientContext).start();
+        verify(impatientContext, timeout(10000)).onFailure(isA(AbortException.class));
+
+        StepContext patientContext = context(handle);
+        new WaitForEmulatorStep().start(patientContext).start();
+        booted.countDown();
+        verify(patientContext, timeout(10000)).onSuccess(null);
+        verify(patientContext, never()).onFailure(any());
+    }
+
+    @Test
+    void test_no_emulator() throws Exception {
+        StepContext context = context(null);
+
+        assertThatThrownBy(() -> new WaitForEmulatorStep().start(context).start()).isInstanceOf(AbortException.class);
+    }
+
+    private static StepContext context(EmulatorHandle handle) throws Exception {
+        StepContext context = mock(StepContext.class);
+        when(context.get(EmulatorHandle.class)).thenReturn(handle);
+        when(context.get(TaskListener.class)).thenReturn(TaskListener.NULL);
+        return context;
+    }
+}
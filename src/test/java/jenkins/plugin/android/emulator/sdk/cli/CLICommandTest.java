@@ -0,0 +1,69 @@
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.jenkinsci.plugins.durabletask.BourneShellScript;
+import org.jenkinsci.plugins.durabletask.WindowsBatchScript;
+import org.junit.jupiter.api.Test;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.util.ArgumentListBuilder;
+
+class CLICommandTest {
+
+    @Test
+    void test_durable_task_unix() {
+        CLICommand<Void> cli = new CLICommand<>(new FilePath(new File("/opt/sdk/platform-tools/adb")), //
+                new ArgumentListBuilder("shell", "echo 'hello world'"), new EnvVars());
+
+        BourneShellScript task = (BourneShellScript) cli.toDurableTask(true);
+        assertThat(task.getScript()) //
+                .startsWith("#!/bin/sh\n") //
+                .contains("cd '" + new File("/opt/sdk/platform-tools").getAbsolutePath() + "' || exit 1\n") //
+                .endsWith(" 'shell' 'echo '\\''hello world'\\''' < /dev/null\n");
+        assertThat(cli.getTool()).isEqualTo("adb");
+        assertThat(cli.getSubcommand()).isEqualTo("shell echo 'hello world'");
+    }
+
+    @Test
+    void test_durable_task_without_input() {
+        CLICommand<Void> cli = new CLICommand<Void>(new FilePath(new File("/opt/sdk/platform-tools/adb")), //
+                new ArgumentListBuilder("devices"), new EnvVars()).withInput("\r\n");
+
+        BourneShellScript task = (BourneShellScript) cli.toDurableTask(true);
+        assertThat(task.getScript()).endsWith(" 'devices' < /dev/null\n");
+    }
+
+    @Test
+    void test_durable_task_masked_arguments() {
+        ArgumentListBuilder arguments = new ArgumentListBuilder("--list").add("--proxy_host").addMasked("user:secret@proxy");
+        CLICommand<Void> cli = new CLICommand<>(new FilePath(new File("/opt/sdk/cmdline-tools/latest/bin/sdkmanager")), //
+                arguments, new EnvVars());
+
+        BourneShellScript task = (BourneShellScript) cli.toDurableTask(true);
+        assertThat(task.getScript()) //
+                .doesNotContain("secret") //
+                .endsWith(" '--list' '--proxy_host' \"$ANDROID_CLI_MASKED_ARG_3\" < /dev/null\n");
+        assertThat(cli.getEnv()).containsEntry("ANDROID_CLI_MASKED_ARG_3", "user:secret@proxy");
+
+        WindowsBatchScript batch = (WindowsBatchScript) cli.toDurableTask(false);
+        assertThat(batch.getScript()) //
+                .doesNotContain("secret") //
+                .contains(" \"--proxy_host\" \"%ANDROID_CLI_MASKED_ARG_3%\" < NUL\r\n");
+    }
+
+    @Test
+    void test_durable_task_windows() {
+        CLICommand<Void> cli = new CLICommand<>(new FilePath(new File("/opt/sdk/cmdline-tools/latest/bin/sdkmanager.bat")), //
+                new ArgumentListBuilder("--install", "platforms;android-30", "%PATH%"), new EnvVars());
+
+        WindowsBatchScript task = (WindowsBatchScript) cli.toDurableTask(false);
+        assertThat(task.getScript()) //
+                .startsWith("@echo off\r\n") //
+                .contains(" \"--install\" \"platforms;android-30\" \"%%PATH%%\" < NUL\r\n") //
+                .endsWith("exit /b %ERRORLEVEL%\r\n");
+    }
+}
@@ -0,0 +1,48 @@
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import jenkins.plugin.android.emulator.sdk.cli.CLIMetrics.Entry;
+
+class CLIMetricsTest {
+
+    @Test
+    void test_subcommand() {
+        assertThat(CLIMetrics.getSubcommand("sdkmanager", Arrays.asList("--sdk_root=/opt/sdk", "--channel=0", "--list"))).isEqualTo("list");
+        assertThat(CLIMetrics.getSubcommand("sdkmanager", Arrays.asList("--install", "platforms;android-29"))).isEqualTo("install");
+        assertThat(CLIMetrics.getSubcommand("sdkmanager", Arrays.asList("--verbose", "platform-tools"))).isEqualTo("install");
+        assertThat(CLIMetrics.getSubcommand("avdmanager", Arrays.asList("--silent", "list", "avd"))).isEqualTo("list avd");
+        assertThat(CLIMetrics.getSubcommand("avdmanager", Arrays.asList("create", "avd", "--name", "test"))).isEqualTo("create avd");
+        assertThat(CLIMetrics.getSubcommand("adb", Arrays.asList("-P", "5037", "start-server"))).isEqualTo("start-server");
+        assertThat(CLIMetrics.getSubcommand("adb", Arrays.asList("-s", "emulator-5554", "shell", "getprop"))).isEqualTo("shell getprop");
+        assertThat(CLIMetrics.getSubcommand("emulator", Arrays.asList("-avd", "test", "-no-window"))).isEmpty();
+        assertThat(CLIMetrics.getSubcommand("adb", Collections.emptyList())).isEmpty();
+    }
+
+    @Test
+    void test_record() {
+        CLIMetrics metrics = new CLIMetrics();
+        metrics.record("sdkmanager", "list", 500, 0);
+        metrics.record("sdkmanager", "list", 7000, 1);
+        metrics.record("sdkmanager", "list", 900000, null);
+        metrics.record("adb", "start-server", 100, 0);
+
+        assertThat(metrics.getEntries()).extracting(Entry::getTool).containsExactly("adb", "sdkmanager");
+
+        Entry entry = metrics.getEntries().get(1);
+        assertThat(entry.getSubcommand()).isEqualTo("list");
+        assertThat(entry.getCount()).isEqualTo(3);
+        assertThat(entry.getTimeouts()).isEqualTo(1);
+        assertThat(entry.getMaxMs()).isEqualTo(900000);
+        assertThat(entry.getHistogram()).containsExactly(1, 0, 1, 0, 0, 1);
+        assertThat(entry.getExitCodes()).containsEntry(0, 1).containsEntry(1, 1).hasSize(2);
+
+        metrics.clear();
+        assertThat(metrics.getEntries()).isEmpty();
+    }
+}
@@ -0,0 +1,79 @@
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.SDKPackage;
+
+class InstalledPackagesIndexTest {
+
+    @TempDir
+    File sdkRoot;
+
+    @Test
+    void test_parse_package_xml() {
+        String content = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" //
+                + "<ns2:repository xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\">" //
+                + "<license id=\"android-sdk-license\" type=\"text\">terms</license>" //
+                + "<localPackage path=\"build-tools;30.0.0-rc4\" obsolete=\"false\">" //
+                + "<revision><major>30</major><minor>0</minor><micro>0</micro><preview>4</preview></revision>" //
+                + "<display-name>Android SDK Build-Tools 30-rc4</display-name>" //
+                + "</localPackage></ns2:repository>";
+
+        SDKPackage sdkPackage = InstalledPackagesIndex.parsePackageXML(content, sdkRoot);
+        assertThat(sdkPackage).isNotNull();
+        assertThat(sdkPackage.getId()).isEqualTo("build-tools;30.0.0-rc4");
+        assertThat(sdkPackage.getVersion()).isEqualTo(new Version("30.0.0 rc4"));
+        assertThat(sdkPackage.getDescription()).isEqualTo("Android SDK Build-Tools 30-rc4");
+    }
+
+    @Test
+    void test_index_and_invalidation() throws Exception {
+        writePackage("platforms;android-30", 3, 0);
+        writePackage("system-images;android-30;google_apis;x86", 10, 0);
+        writePackage("platform-tools", 31, 0);
+
+        SDKPackages packages = InstalledPackagesIndex.of(sdkRoot);
+        assertThat(packages.getInstalled()).extracting(SDKPackage::getId) //
+                .containsExactlyInAnyOrder("platforms;android-30", "system-images;android-30;google_apis;x86", "platform-tools");
+        assertThat(InstalledPackagesIndex.isInstalled(packages, "platform-tools", new Version("30.0.5"))).isTrue();
+        assertThat(InstalledPackagesIndex.isInstalled(packages, "platform-tools", new Version("32.0.0"))).isFalse();
+        assertThat(InstalledPackagesIndex.getMissing(packages, Arrays.asList("platform-tools", "build-tools;*", "emulator"))) //
+                .containsExactly("build-tools;*", "emulator");
+
+        // a newly installed package changes the mtime of its parent directory
+        File platforms = new File(sdkRoot, "platforms");
+        writePackage("platforms;android-31", 1, 0);
+        platforms.setLastModified(platforms.lastModified() + 2000);
+
+        packages = InstalledPackagesIndex.of(sdkRoot);
+        assertThat(InstalledPackagesIndex.isInstalled(packages, "platforms;android-31", null)).isTrue();
+    }
+
+    @Test
+    void test_source_properties() throws Exception {
+        File tools = new File(sdkRoot, "tools");
+        tools.mkdirs();
+        Files.write(new File(tools, "source.properties").toPath(), //
+                "Pkg.Desc=Android SDK Tools\nPkg.Revision=26.1.1\n".getBytes(StandardCharsets.UTF_8));
+
+        SDKPackages packages = InstalledPackagesIndex.of(sdkRoot);
+        assertThat(InstalledPackagesIndex.isInstalled(packages, "tools", new Version("26.1.1"))).isTrue();
+    }
+
+    private void writePackage(String path, int major, int minor) throws Exception {
+        File dir = new File(sdkRoot, path.replace(';', File.separatorChar));
+        dir.mkdirs();
+        String content = "<ns2:repository><localPackage path=\"" + path + "\" obsolete=\"false\">" //
+                + "<revision><major>" + major + "</major><minor>" + minor + "</minor></revision>" //
+                + "<display-name>" + path + "</display-name></localPackage></ns2:repository>";
+        Files.write(new File(dir, "package.xml").toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,6 +3,11 @@ package jenkins.plugin.android.emulator.sdk.cli;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationUtils;
 
 import org.junit.jupiter.api.Test;
 
@@ -20,6 +25,24 @@ class SDKManagerCLIBuilderTest {
         }
     }
 
+    @Test
+    void test_list_parse_line_by_line() throws Exception {
+        List<String> lines;
+        try (InputStream is = this.getClass().getResourceAsStream("sdkmanager_list.out")) {
+            lines = IOUtils.readLines(is, StandardCharsets.UTF_8);
+        }
+
+        SDKManagerCLIBuilder.ListPackagesParser parser = new SDKManagerCLIBuilder.ListPackagesParser();
+        // the parser travels to the node before any line is read
+        parser = SerializationUtils.clone(parser);
+        lines.forEach(parser::parseLine);
+
+        SDKPackages packages = SerializationUtils.clone(parser.getResult());
+        assertThat(packages.getAvailable()).hasSize(236);
+        assertThat(packages.getInstalled()).hasSize(6);
+        assertThat(packages.getUpdates()).hasSize(1);
+    }
+
     @Test
     void test_sort_packages() {
         SDKPackage p1 = new SDKPackage();
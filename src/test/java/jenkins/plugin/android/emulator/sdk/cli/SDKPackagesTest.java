@@ -0,0 +1,75 @@
+package jenkins.plugin.android.emulator.sdk.cli;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.Test;
+
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.PackageIndex;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.SDKPackage;
+
+class SDKPackagesTest {
+
+    @Test
+    void test_prefix_queries() {
+        PackageIndex index = new PackageIndex();
+        index.add(newPackage("platform-tools", "31.0.0"));
+        index.add(newPackage("build-tools;30.0.2", "30.0.2"));
+        index.add(newPackage("build-tools;30.0.3", "30.0.3"));
+        index.add(newPackage("build-tools;31.0.0-rc1", "31.0.0-rc1"));
+        index.add(newPackage("build-tools-extra", "1.0.0"));
+
+        assertThat(index).hasSize(5);
+        assertThat(index.hasPackage("platform-tools")).isTrue();
+        assertThat(index.hasPackage("platforms")).isFalse();
+        assertThat(index.withPrefix("build-tools;")).extracting(SDKPackage::getId) //
+                .containsExactly("build-tools;30.0.2", "build-tools;30.0.3", "build-tools;31.0.0-rc1");
+        assertThat(index.match("build-tools;*")).hasSize(3);
+        assertThat(index.match("build-tools")).isEmpty();
+        assertThat(index.match("")).isEmpty();
+        assertThat(index.withPrefix("")).hasSize(5);
+
+        assertThat(index.getLatest("build-tools;*", false).getId()).isEqualTo("build-tools;31.0.0-rc1");
+        assertThat(index.getLatest("build-tools;*", true).getId()).isEqualTo("build-tools;30.0.3");
+        assertThat(index.getLatest("platform-tools", true).getId()).isEqualTo("platform-tools");
+        assertThat(index.getLatest("emulator", true)).isNull();
+    }
+
+    @Test
+    void test_latest_version_of_same_path() {
+        PackageIndex index = new PackageIndex();
+        index.add(newPackage("emulator", "30.4.5"));
+        index.add(newPackage("emulator", "30.5.3"));
+        index.add(newPackage("emulator", "30.0.12"));
+
+        assertThat(index.get("emulator")).hasSize(3);
+        assertThat(index.getLatest("emulator", true).getVersion()).isEqualTo(new Version("30.5.3"));
+
+        index.remove(index.getLatest("emulator", true));
+        assertThat(index).hasSize(2);
+        assertThat(index.getLatest("emulator", true).getVersion()).isEqualTo(new Version("30.4.5"));
+    }
+
+    @Test
+    void test_serialization() {
+        SDKPackages packages = new SDKPackages();
+        packages.getInstalled().add(newPackage("platforms;android-30", "3"));
+
+        SDKPackages clone = SerializationUtils.clone(packages);
+        assertThat(clone.getInstalled().hasPackage("platforms;android-30")).isTrue();
+        assertThat(clone.getAvailable()).isEmpty();
+    }
+
+    @Test
+    void test_version_interning() {
+        assertThat(Version.valueOf("30.0.3")).isSameAs(Version.valueOf("30.0.3")).isEqualTo(new Version("30.0.3"));
+        assertThat(Version.valueOf(" ")).isSameAs(Version.emptyVersion);
+    }
+
+    private SDKPackage newPackage(String id, String version) {
+        SDKPackage sdkPackage = new SDKPackage();
+        sdkPackage.setId(id);
+        sdkPackage.setVersion(Version.valueOf(version));
+        return sdkPackage;
+    }
+}
@@ -0,0 +1,42 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import hudson.util.FormValidation;
+
+class AndroidSDKProvisioningTest {
+
+    @Test
+    void test_system_images_bring_their_platform() {
+        AndroidSDKProvisioning provisioning = new AndroidSDKProvisioning(null, "system-images;android-29;default;x86_64\n\n"
+                + "  platform-tools \r\nplatforms;android-29\nsystem-images;android-30;google_apis;x86_64");
+
+        assertThat(provisioning.getPackageList()).containsExactly("platforms;android-29", //
+                "system-images;android-29;default;x86_64", //
+                "platform-tools", //
+                "platforms;android-30", //
+                "system-images;android-30;google_apis;x86_64");
+    }
+
+    @Test
+    void test_default_ready_label() {
+        AndroidSDKProvisioning provisioning = new AndroidSDKProvisioning(" ", null);
+        assertThat(provisioning.getLabel()).isNull();
+        assertThat(provisioning.getPackageList()).isEmpty();
+        assertThat(provisioning.getReadyLabel()).isEqualTo(AndroidSDKProvisioning.DEFAULT_READY_LABEL);
+
+        provisioning.setReadyLabel(" ");
+        assertThat(provisioning.getReadyLabel()).isEqualTo(AndroidSDKProvisioning.DEFAULT_READY_LABEL);
+        provisioning.setReadyLabel("emulator-ready ");
+        assertThat(provisioning.getReadyLabel()).isEqualTo("emulator-ready");
+    }
+
+    @Test
+    void test_check_packages() {
+        AndroidSDKProvisioning.DescriptorImpl descriptor = new AndroidSDKProvisioning.DescriptorImpl();
+        assertThat(descriptor.doCheckPackages("platform-tools\nsystem-images;android-29;default;x86_64").kind).isEqualTo(FormValidation.Kind.OK);
+        assertThat(descriptor.doCheckPackages("platform tools").kind).isEqualTo(FormValidation.Kind.ERROR);
+    }
+}
@@ -0,0 +1,64 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelUnzipTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void test_extract_preserves_executable_bit() throws Exception {
+        File archive = new File(folder, "tools.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            addEntry(zip, "tools/", 0755);
+            addEntry(zip, "tools/bin/sdkmanager", 0755);
+            addEntry(zip, "tools/lib/sdkmanager.jar", 0644);
+            for (int i = 0; i < 10; i++) {
+                addEntry(zip, "tools/lib/lib" + i + ".jar", 0644);
+            }
+        }
+
+        File target = new File(folder, "sdk");
+        new ParallelUnzip(archive.getAbsolutePath()).invoke(target, null);
+
+        File sdkmanager = new File(target, "tools/bin/sdkmanager");
+        assertThat(sdkmanager).hasContent("tools/bin/sdkmanager");
+        assertThat(sdkmanager.canExecute()).isTrue();
+        assertThat(new File(target, "tools/lib/sdkmanager.jar").canExecute()).isFalse();
+        assertThat(new File(target, "tools/lib/lib9.jar")).isFile();
+    }
+
+    @Test
+    void test_entries_outside_target_are_rejected() throws Exception {
+        File archive = new File(folder, "evil.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            addEntry(zip, "../evil.sh", 0755);
+        }
+
+        File target = new File(folder, "sdk");
+        assertThatThrownBy(() -> new ParallelUnzip(archive.getAbsolutePath()).invoke(target, null)) //
+                .isInstanceOf(IOException.class);
+        assertThat(new File(folder, "evil.sh")).doesNotExist();
+    }
+
+    private void addEntry(ZipOutputStream zip, String name, int mode) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setUnixMode(mode);
+        zip.putNextEntry(entry);
+        if (!name.endsWith("/")) {
+            zip.write(name.getBytes(StandardCharsets.UTF_8));
+        }
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,43 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URL;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import hudson.EnvVars;
+
+class SDKArchiveCacheTest {
+
+    private static final String MIRROR_PROPERTY = SDKArchiveCache.class.getName() + ".mirror";
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty(MIRROR_PROPERTY);
+    }
+
+    @Test
+    void test_no_mirror() throws Exception {
+        URL url = new URL("https://dl.google.com/android/repository/platform-tools-latest-linux.zip");
+        assertThat(SDKArchiveCache.toMirror(url)).isSameAs(url);
+
+        EnvVars env = new EnvVars();
+        SDKArchiveCache.buildEnvVars(env);
+        assertThat(env).isEmpty();
+    }
+
+    @Test
+    void test_mirror() throws Exception {
+        System.setProperty(MIRROR_PROPERTY, "http://mirror.example.com/android");
+
+        URL url = new URL("https://dl.google.com/android/repository/platform-tools-latest-linux.zip");
+        assertThat(SDKArchiveCache.toMirror(url)).hasToString("http://mirror.example.com/android/platform-tools-latest-linux.zip");
+        assertThat(SDKArchiveCache.toMirror(new URL("https://example.com/other.zip"))).hasToString("https://example.com/other.zip");
+
+        EnvVars env = new EnvVars();
+        SDKArchiveCache.buildEnvVars(env);
+        assertThat(env).containsEntry("SDK_TEST_BASE_URL", "http://mirror.example.com/android/");
+    }
+}
@@ -0,0 +1,25 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class SDKDownloaderTest {
+
+    @Test
+    void test_small_file_is_a_single_segment() {
+        long[][] segments = SDKDownloader.getSegments(1000, 4, 8 * 1024 * 1024);
+        assertThat(segments).hasDimensions(1, 2);
+        assertThat(segments[0]).containsExactly(0, 999);
+    }
+
+    @Test
+    void test_segments_cover_whole_file() {
+        long[][] segments = SDKDownloader.getSegments(103, 4, 10);
+        assertThat(segments).hasDimensions(4, 2);
+        assertThat(segments[0]).containsExactly(0, 24);
+        assertThat(segments[1]).containsExactly(25, 49);
+        assertThat(segments[2]).containsExactly(50, 74);
+        assertThat(segments[3]).containsExactly(75, 102);
+    }
+}
@@ -0,0 +1,50 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SDKLicensesTest {
+
+    @TempDir
+    File licensesDir;
+
+    @Test
+    void test_default_licenses() {
+        Map<String, Set<String>> licenses = SDKLicenses.getAccepted();
+        assertThat(licenses).containsKey("android-sdk-license");
+        assertThat(licenses.get("android-sdk-license")).contains("24333f8a63b6825ea9c5514f83c2829b004d1fee");
+    }
+
+    @Test
+    void test_write_keeps_existing_hashes() throws Exception {
+        File license = new File(licensesDir, "android-sdk-license");
+        Files.write(license.toPath(), "\nabcdef0123456789\n".getBytes(StandardCharsets.UTF_8));
+
+        new SDKLicenses.WriteLicenses(SDKLicenses.getAccepted()).invoke(licensesDir, null);
+
+        Set<String> hashes = SDKLicenses.parse(new String(Files.readAllBytes(license.toPath()), StandardCharsets.UTF_8));
+        assertThat(hashes).startsWith("abcdef0123456789").contains("24333f8a63b6825ea9c5514f83c2829b004d1fee");
+        assertThat(new File(licensesDir, "android-sdk-preview-license")).isFile();
+    }
+
+    @Test
+    void test_write_does_not_touch_accepted_licenses() throws Exception {
+        File license = new File(licensesDir, "google-gdk-license");
+        Files.write(license.toPath(), "\n33b6a2b64607f11b759f320ef9dff4ae5c47d97a".getBytes(StandardCharsets.UTF_8));
+        license.setLastModified(1000L);
+
+        new SDKLicenses.WriteLicenses(Collections.singletonMap("google-gdk-license", SDKLicenses.parse("33b6a2b64607f11b759f320ef9dff4ae5c47d97a"))) //
+                .invoke(licensesDir, null);
+
+        assertThat(license.lastModified()).isEqualTo(1000L);
+    }
+}
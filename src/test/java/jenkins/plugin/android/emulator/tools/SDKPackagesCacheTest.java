@@ -0,0 +1,59 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import hudson.ProxyConfiguration;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages;
+import jenkins.plugin.android.emulator.sdk.cli.SDKPackages.SDKPackage;
+import jenkins.plugin.android.emulator.sdk.cli.Version;
+import jenkins.plugin.android.emulator.tools.AndroidSDKInstaller.Channel;
+
+class SDKPackagesCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        SDKPackagesCache.get().clear();
+    }
+
+    @Test
+    void test_catalogue_is_listed_once_per_channel() throws Exception {
+        SDKPackagesCache cache = SDKPackagesCache.get();
+
+        SDKPackages packages = cache.getAvailable(Channel.STABLE, null, this::list);
+        assertThat(packages.getAvailable()).extracting(SDKPackage::getId).containsExactly("emulator");
+        assertThat(packages.getInstalled()).isEmpty();
+
+        cache.getAvailable(Channel.STABLE, null, this::list);
+        assertThat(loads.get()).isEqualTo(1);
+
+        cache.getAvailable(Channel.CANARY, null, this::list);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void test_key() {
+        assertThat(SDKPackagesCache.getKey(Channel.STABLE, null)).isEqualTo("STABLE");
+        assertThat(SDKPackagesCache.getKey(Channel.BETA, new ProxyConfiguration("proxy.example.com", 3128))) //
+                .isEqualTo("BETA|proxy.example.com:3128");
+    }
+
+    private SDKPackages list() {
+        loads.incrementAndGet();
+
+        SDKPackage emulator = new SDKPackage();
+        emulator.setId("emulator");
+        emulator.setVersion(new Version("30.0.12"));
+
+        SDKPackages packages = new SDKPackages();
+        packages.getAvailable().add(emulator);
+        packages.getInstalled().add(emulator);
+        return packages;
+    }
+}
@@ -0,0 +1,80 @@
+package jenkins.plugin.android.emulator.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.LocalChannel;
+
+class ToolLocatorTest {
+
+    @TempDir
+    File sdkRoot;
+
+    private ExecutorService executor;
+    private LocalChannel channel;
+    private Launcher launcher;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        channel = new LocalChannel(executor);
+        launcher = new Launcher.LocalLauncher(TaskListener.NULL, channel);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ToolLocator.invalidate(channel, sdkRoot.getAbsolutePath());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void test_locate_tools() throws Exception {
+        File sdkmanager = touch("cmdline-tools/bin/sdkmanager");
+        File adb = touch("platform-tools/adb");
+
+        ToolLocator locator = new ToolLocator(Platform.LINUX, sdkRoot.getAbsolutePath());
+        assertThat(locator.getSDKManager(launcher).getRemote()).isEqualTo(sdkmanager.getPath());
+        assertThat(locator.getADB(launcher).getRemote()).isEqualTo(adb.getPath());
+        assertThat(locator.getEmulator(launcher)).isNull();
+    }
+
+    @Test
+    void test_tool_installed_later_is_found() throws Exception {
+        ToolLocator locator = new ToolLocator(Platform.LINUX, sdkRoot.getAbsolutePath());
+        assertThat(locator.getEmulator(launcher)).isNull();
+
+        File emulator = touch("emulator/emulator");
+        assertThat(locator.getEmulator(launcher).getRemote()).isEqualTo(emulator.getPath());
+    }
+
+    @Test
+    void test_cached_until_invalidated() throws Exception {
+        File adb = touch("platform-tools/adb");
+        String home = sdkRoot.getAbsolutePath();
+        assertThat(new ToolLocator(Platform.LINUX, home).getADB(launcher)).isNotNull();
+
+        // a located tool is not checked again
+        adb.delete();
+        assertThat(new ToolLocator(Platform.LINUX, home).getADB(launcher)).isNotNull();
+
+        ToolLocator.invalidate(channel, home);
+        assertThat(new ToolLocator(Platform.LINUX, home).getADB(launcher)).isNull();
+    }
+
+    private File touch(String path) throws Exception {
+        File file = new File(sdkRoot, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        return file;
+    }
+}